@@ -1,68 +1,181 @@
-import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
-import org.apache.commons.compress.archivers.sevenz.SevenZOutputFile;
 import org.jetbrains.annotations.NotNull;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
-import javax.crypto.spec.SecretKeySpec;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 
 /**
  * Esta clase se encarga de realizar copias de seguridad, comprimir y cifrar archivos.
+ * La compresión y el cifrado se hacen en una sola pasada con {@link BackupPipelineWriter}: no se escribe
+ * ningún archivo intermedio y la memoria usada está acotada por buffers de tamaño fijo.
+ * Cada respaldo es un archivo completo e independiente; para conservar muchos respaldos casi iguales es mejor
+ * {@link DedupBackupStore}, que guarda una sola vez los fragmentos repetidos.
  */
 public class BackupCompressEncrypt {
 
+    public static final String DEFAULT_SOURCE = "backup.txt";
+    public static final String DEFAULT_TARGET = "backup_encrypted.dbmb";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int TEXT_FLUSH_THRESHOLD = 32 * 1024;
+    private final BackupStats stats;
+
     /**
      * Esta clase se encarga de realizar copias de seguridad, comprimir y cifrar archivo
+     * con la contraseña de {@link BackupFormat#passwordFromEnvironment()}
      *
      * @throws Exception Arroja una exepcion si el comprimido o el cifrado no se realizan
      */
     public BackupCompressEncrypt() throws Exception {
-        String backupPath = "backup.7z";
-        String encryptedBackupPath = "backup_encrypted.7z";
-        String password = "";
+        this(Paths.get(DEFAULT_SOURCE), Paths.get(DEFAULT_TARGET), BackupFormat.passwordFromEnvironment());
+    }
 
-        // Compress backup file
-        SevenZOutputFile sevenZOutput = new SevenZOutputFile(new File(backupPath));
-        File entryFile = new File("backup.txt");
-        SevenZArchiveEntry entry = sevenZOutput.createArchiveEntry(entryFile, entryFile.getName());
-        sevenZOutput.putArchiveEntry(entry);
-        FileInputStream in = new FileInputStream(entryFile);
-        byte[] buffer = new byte[8192];
-        int len;
-        while ((len = in.read(buffer)) > 0) {
-            sevenZOutput.write(buffer, 0, len);
-        }
-        sevenZOutput.closeArchiveEntry();
-        sevenZOutput.close();
+    /**
+     * Comprime y cifra un archivo en un respaldo.
+     *
+     * @param source   el archivo a respaldar
+     * @param target   el archivo de respaldo a crear
+     * @param password la contraseña del respaldo
+     * @throws IOException              si ocurre un error de lectura o escritura
+     * @throws GeneralSecurityException si no se puede derivar la clave
+     */
+    public BackupCompressEncrypt(Path source, Path target, char[] password) throws IOException, GeneralSecurityException {
+        this.stats = compressEncrypt(source, target, password);
+    }
+
+    /**
+     * Comprime y cifra un archivo en un respaldo leyendo con un buffer directo de tamaño fijo.
+     *
+     * @param source   el archivo a respaldar
+     * @param target   el archivo de respaldo a crear
+     * @param password la contraseña del respaldo
+     * @return las estadísticas del respaldo, incluido el rendimiento en MB/s
+     * @throws IOException              si ocurre un error de lectura o escritura
+     * @throws GeneralSecurityException si no se puede derivar la clave
+     */
+    @NotNull
+    public static BackupStats compressEncrypt(@NotNull Path source, @NotNull Path target, @NotNull char[] password) throws IOException, GeneralSecurityException {
+        return compressEncrypt(source, target, password, BackupFormat.DEFAULT_CODEC);
+    }
 
-        // Encrypt compressed backup file
-        MessageDigest sha = MessageDigest.getInstance("SHA-1");
-        byte[] key = sha.digest(password.getBytes(StandardCharsets.UTF_8));
-        key = copyOf(key, 16);
-        SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-        Cipher cipher = Cipher.getInstance("AES");
-        cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec);
-        try (FileInputStream fis = new FileInputStream(backupPath);
-             FileOutputStream fos = new FileOutputStream(encryptedBackupPath);
-             CipherOutputStream cos = new CipherOutputStream(fos, cipher)) {
-            byte[] data = new byte[1024];
-            int read;
-            while ((read = fis.read(data)) != -1) {
-                cos.write(data, 0, read);
+    /**
+     * Comprime y cifra un archivo en un respaldo con el códec indicado.
+     * {@link BackupFormat#CODEC_BLOCK_DEFLATE} comprime bloques independientes en paralelo y aprovecha todos
+     * los núcleos; {@link BackupFormat#CODEC_DEFLATE} usa un único flujo Deflate en el hilo que llama.
+     *
+     * @param source   el archivo a respaldar
+     * @param target   el archivo de respaldo a crear
+     * @param password la contraseña del respaldo
+     * @param codec    el códec de compresión
+     * @return las estadísticas del respaldo, incluido el rendimiento en MB/s
+     * @throws IOException              si ocurre un error de lectura o escritura
+     * @throws GeneralSecurityException si no se puede derivar la clave
+     */
+    @NotNull
+    public static BackupStats compressEncrypt(@NotNull Path source, @NotNull Path target, @NotNull char[] password, byte codec) throws IOException, GeneralSecurityException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             BackupPipelineWriter writer = new BackupPipelineWriter(target, source.getFileName().toString(), password, codec, BackupFormat.DEFAULT_SEGMENT_SIZE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                writer.write(buffer);
+                buffer.clear();
             }
-            cos.flush();
+            return writer.finish();
         }
     }
 
+    /**
+     * Vuelca una tabla directamente en un respaldo comprimido y cifrado.
+     * Las filas se leen en streaming y se escriben en formato {@link TsvRowCodec}, precedidas de una línea
+     * con los nombres de las columnas, sin materializar la tabla en memoria ni en disco.
+     *
+     * @param conn      la conexión a la base de datos
+     * @param tableName el nombre de la tabla
+     * @param target    el archivo de respaldo a crear
+     * @param password  la contraseña del respaldo
+     * @return las estadísticas del respaldo, incluido el rendimiento en MB/s
+     * @throws SQLException             si ocurre un error al leer la tabla
+     * @throws IOException              si ocurre un error al escribir el respaldo
+     * @throws GeneralSecurityException si no se puede derivar la clave
+     */
     @NotNull
-    private static byte[] copyOf(byte[] original, int newLength) {
-        byte[] copy = new byte[newLength];
-        System.arraycopy(original, 0, copy, 0, Math.min(original.length, newLength));
-        return copy;
+    public static BackupStats backupTable(@NotNull Connection conn, @NotNull String tableName, @NotNull Path target, @NotNull char[] password) throws SQLException, IOException, GeneralSecurityException {
+        if (SchemaCache.lookup(conn, tableName) == null) {
+            throw new SQLException("La tabla " + tableName + " no existe");
+        }
+        try (PreparedStatement pstmt = DataBaseManipulation.prepareStreamingStatement(conn, "SELECT * FROM " + tableName);
+             ResultSet rs = pstmt.executeQuery();
+             BackupPipelineWriter writer = new BackupPipelineWriter(target, tableName, password)) {
+            TextEncoder text = new TextEncoder(writer);
+            StringBuilder pending = new StringBuilder(TEXT_FLUSH_THRESHOLD * 2);
+            boolean[] binary = TsvRowCodec.binaryColumns(rs.getMetaData());
+            TsvRowCodec.appendHeader(pending, rs.getMetaData());
+            while (rs.next()) {
+                TsvRowCodec.appendRow(pending, rs, binary);
+                if (pending.length() >= TEXT_FLUSH_THRESHOLD) {
+                    text.write(pending);
+                    pending.setLength(0);
+                }
+            }
+            text.write(pending);
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Devuelve las estadísticas del respaldo realizado por el constructor.
+     *
+     * @return las estadísticas del respaldo
+     */
+    public BackupStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Codifica texto en UTF-8 sobre un buffer directo reutilizable y lo envía al escritor del respaldo.
+     */
+    private static final class TextEncoder {
+        private final BackupPipelineWriter writer;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        private TextEncoder(BackupPipelineWriter writer) {
+            this.writer = writer;
+        }
+
+        private void write(@NotNull CharSequence text) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(text);
+            encoder.reset();
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, bytes, true);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                drain();
+            } while (result.isOverflow());
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        }
+
+        private void drain() throws IOException {
+            bytes.flip();
+            writer.write(bytes);
+            bytes.clear();
+        }
     }
-}
\ No newline at end of file
+}
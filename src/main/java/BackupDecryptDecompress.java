@@ -1,65 +1,357 @@
-import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
-import org.apache.commons.compress.archivers.sevenz.SevenZFile;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.spec.SecretKeySpec;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.security.MessageDigest;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.InvalidParameterException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
 
 /**
- * Esta clase se encarga de realizar descompresion de archivo 7zip y cifrar archivos.
+ * Esta clase se encarga de descifrar y descomprimir respaldos creados por {@link BackupCompressEncrypt}.
+ * El descifrado y la descompresión se hacen en una sola pasada con {@link BackupPipelineReader} y los datos
+ * van directamente al archivo de destino o a la base de datos: no se escribe ningún archivo intermedio en claro
+ * y la memoria usada es constante sea cual sea el tamaño del respaldo.
  */
-
 public class BackupDecryptDecompress {
+
+    public static final String DEFAULT_SOURCE = BackupCompressEncrypt.DEFAULT_TARGET;
+    private static final Logger logger = LoggerFactory.getLogger(BackupDecryptDecompress.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private final BackupStats stats;
+
+    /**
+     * Esta clase se encarga de descifrar y descomprimir el respaldo por defecto en el directorio actual
+     * con la contraseña de {@link BackupFormat#passwordFromEnvironment()}
+     *
+     * @throws Exception Arroja una exepcion si el descifrado o la descompresión no se realizan
+     */
     public BackupDecryptDecompress() throws Exception {
-        String encryptedBackupPath = "backup_encrypted.7z";
-        String decryptedBackupPath = "backup_decrypted.7z";
-        String password = "password";
-
-        // Decrypt compressed backup file
-        MessageDigest sha = MessageDigest.getInstance("SHA-1");
-        byte[] key = sha.digest(password.getBytes("UTF-8"));
-        key = copyOf(key, 16);
-        SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-        Cipher cipher = Cipher.getInstance("AES");
-        cipher.init(Cipher.DECRYPT_MODE, secretKeySpec);
-        try (FileInputStream fis = new FileInputStream(encryptedBackupPath);
-             CipherInputStream cis = new CipherInputStream(fis, cipher);
-             FileOutputStream fos = new FileOutputStream(decryptedBackupPath)) {
-            byte[] data = new byte[1024];
-            int read;
-            while ((read = cis.read(data)) != -1) {
-                fos.write(data, 0, read);
-            }
-            fos.flush();
-        }
-
-        // Decompress decrypted backup file
-        SevenZFile sevenZFile = new SevenZFile(new File(decryptedBackupPath));
-        SevenZArchiveEntry entry;
-        while ((entry = sevenZFile.getNextEntry()) != null) {
-            if (entry.isDirectory()) {
-                continue;
-            }
-            File curfile = new File(entry.getName());
-            File parent = curfile.getParentFile();
-            if (parent != null) {
-                parent.mkdirs();
-            }
-            FileOutputStream out = new FileOutputStream(curfile);
-            byte[] content = new byte[(int) entry.getSize()];
-            sevenZFile.read(content, 0, content.length);
-            out.write(content);
-            out.close();
+        this(Paths.get(DEFAULT_SOURCE), Paths.get(""), BackupFormat.passwordFromEnvironment());
+    }
+
+    /**
+     * Descifra y descomprime un respaldo en un directorio, con el nombre guardado en su cabecera.
+     *
+     * @param source    el archivo de respaldo
+     * @param directory el directorio de destino
+     * @param password  la contraseña del respaldo
+     * @throws IOException              si el respaldo está dañado o no se puede escribir el destino
+     * @throws GeneralSecurityException si no se puede derivar la clave
+     */
+    public BackupDecryptDecompress(Path source, Path directory, char[] password) throws IOException, GeneralSecurityException {
+        this.stats = restoreToDirectory(source, directory, password);
+    }
+
+    /**
+     * Restaura un respaldo en un directorio, con el nombre de archivo guardado en su cabecera.
+     *
+     * @param source    el archivo de respaldo
+     * @param directory el directorio de destino
+     * @param password  la contraseña del respaldo
+     * @return las estadísticas de la restauración
+     * @throws IOException              si el respaldo está dañado o no se puede escribir el destino
+     * @throws GeneralSecurityException si no se puede derivar la clave
+     */
+    @NotNull
+    public static BackupStats restoreToDirectory(@NotNull Path source, @NotNull Path directory, @NotNull char[] password) throws IOException, GeneralSecurityException {
+        try (BackupPipelineReader reader = new BackupPipelineReader(source, password)) {
+            return restore(reader, resolveEntry(directory, reader.getFormat().getEntryName()));
         }
     }
 
-    private static byte[] copyOf(byte[] original, int newLength) {
-        byte[] copy = new byte[newLength];
-        System.arraycopy(original, 0, copy, 0, Math.min(original.length, newLength));
-        return copy;
+    /**
+     * Restaura un respaldo en un archivo concreto.
+     *
+     * @param source   el archivo de respaldo
+     * @param target   el archivo de destino
+     * @param password la contraseña del respaldo
+     * @return las estadísticas de la restauración
+     * @throws IOException              si el respaldo está dañado o no se puede escribir el destino
+     * @throws GeneralSecurityException si no se puede derivar la clave
+     */
+    @NotNull
+    public static BackupStats restoreToFile(@NotNull Path source, @NotNull Path target, @NotNull char[] password) throws IOException, GeneralSecurityException {
+        try (BackupPipelineReader reader = new BackupPipelineReader(source, password)) {
+            return restore(reader, target);
+        }
+    }
+
+    /**
+     * Resuelve el nombre de la entrada dentro del directorio, sin permitir que salga de él.
+     */
+    @NotNull
+    private static Path resolveEntry(@NotNull Path directory, @NotNull String entryName) throws IOException {
+        Path base = directory.toAbsolutePath().normalize();
+        Path target = base.resolve(entryName).normalize();
+        if (entryName.isEmpty() || !target.startsWith(base) || target.equals(base)) {
+            throw new IOException("Nombre de entrada no válido en el respaldo: " + entryName);
+        }
+        return target;
+    }
+
+    /**
+     * Copia los datos descifrados a un archivo temporal junto al destino y lo mueve a su nombre final
+     * solo si todo el respaldo se ha autenticado, de modo que un respaldo dañado no deja un archivo incompleto.
+     */
+    @NotNull
+    private static BackupStats restore(@NotNull BackupPipelineReader reader, @NotNull Path target) throws IOException {
+        long start = System.nanoTime();
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        boolean restored = false;
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            while (reader.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+            out.force(false);
+            restored = true;
+        } finally {
+            if (!restored) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        BackupStats stats = new BackupStats(reader.getBytesRead(), Files.size(target), System.nanoTime() - start);
+        logger.info("Respaldo restaurado en {}: {} bytes, {} MB/s", target, stats.getBytesWritten(),
+                String.format("%.2f", stats.getMegabytesPerSecond()));
+        return stats;
+    }
+
+    /**
+     * Restaura el respaldo de una tabla creado con {@link BackupCompressEncrypt#backupTable} directamente en
+     * la base de datos. Las líneas se descifran, descomprimen y decodifican en streaming y se insertan con una
+     * única sentencia preparada en lotes de {@code batchSize} filas, dentro de una sola transacción; si algo
+     * falla, incluida la autenticación de un segmento, no se confirma ninguna fila.
+     *
+     * @param conn      la conexión a la base de datos
+     * @param source    el archivo de respaldo
+     * @param tableName la tabla de destino, o null para usar el nombre guardado en el respaldo
+     * @param password  la contraseña del respaldo
+     * @param batchSize el número máximo de filas enviadas en cada lote
+     * @return el número de filas insertadas
+     * @throws SQLException              si la tabla no existe o falla una inserción
+     * @throws IOException               si el respaldo está dañado o la contraseña es incorrecta
+     * @throws GeneralSecurityException  si no se puede derivar la clave
+     * @throws InvalidParameterException si las columnas del respaldo no existen en la tabla
+     */
+    public static long restoreTable(@NotNull Connection conn, @NotNull Path source, String tableName, @NotNull char[] password, int batchSize) throws SQLException, IOException, GeneralSecurityException {
+        if (batchSize <= 0) {
+            throw new InvalidParameterException("El tamaño de lote debe ser mayor que cero");
+        }
+        try (BackupPipelineReader reader = new BackupPipelineReader(source, password)) {
+            String table = tableName != null ? tableName : reader.getFormat().getEntryName();
+            SchemaCache.TableSchema schema = SchemaCache.lookup(conn, table);
+            if (schema == null) {
+                throw new SQLException("La tabla " + table + " no existe");
+            }
+            TableLoader loader = new TableLoader(conn, schema, table, batchSize);
+            boolean autoCommit = conn.getAutoCommit();
+            try {
+                conn.setAutoCommit(false);
+                new LineDecoder(reader).forEachLine(loader);
+                loader.finish();
+                conn.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                logger.error("Error al restaurar la tabla {}: {}", table, e.getMessage());
+                try {
+                    conn.rollback();
+                } catch (SQLException ex) {
+                    logger.error("Error al deshacer la restauración: {}", ex.getMessage());
+                }
+                throw e;
+            } finally {
+                loader.close();
+                try {
+                    conn.setAutoCommit(autoCommit);
+                } catch (SQLException e) {
+                    logger.error("Error al reactivar el modo de confirmación automática: {}", e.getMessage());
+                }
+            }
+            logger.info("{} fila(s) restaurada(s) en la tabla {}", loader.getRows(), table);
+            return loader.getRows();
+        }
+    }
+
+    /**
+     * Devuelve las estadísticas de la restauración realizada por el constructor.
+     *
+     * @return las estadísticas de la restauración
+     */
+    public BackupStats getStats() {
+        return stats;
+    }
+
+    private interface LineConsumer {
+        void accept(@NotNull CharSequence line) throws SQLException;
+    }
+
+    /**
+     * Decodifica UTF-8 desde el lector del respaldo con buffers reutilizables y entrega el texto línea a línea.
+     */
+    private static final class LineDecoder {
+        private final BackupPipelineReader reader;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final CharBuffer chars = CharBuffer.allocate(READ_BUFFER_SIZE);
+        private final StringBuilder line = new StringBuilder();
+
+        private LineDecoder(BackupPipelineReader reader) {
+            this.reader = reader;
+        }
+
+        private void forEachLine(@NotNull LineConsumer consumer) throws IOException, SQLException {
+            boolean endOfInput = false;
+            CoderResult result;
+            do {
+                if (!endOfInput) {
+                    endOfInput = reader.read(bytes) < 0;
+                }
+                bytes.flip();
+                result = decoder.decode(bytes, chars, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                bytes.compact();
+                drain(consumer);
+            } while (!endOfInput || result.isOverflow());
+            while (decoder.flush(chars).isOverflow()) {
+                drain(consumer);
+            }
+            drain(consumer);
+            if (line.length() > 0) {
+                consumer.accept(line);
+            }
+        }
+
+        private void drain(@NotNull LineConsumer consumer) throws SQLException {
+            chars.flip();
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n') {
+                    consumer.accept(line);
+                    line.setLength(0);
+                } else {
+                    line.append(c);
+                }
+            }
+            chars.clear();
+        }
+    }
+
+    /**
+     * Inserta las líneas de un volcado TSV: la primera da las columnas y el resto las filas.
+     */
+    private static final class TableLoader implements LineConsumer {
+        private final Connection conn;
+        private final SchemaCache.TableSchema schema;
+        private final String tableName;
+        private final int batchSize;
+        private List<String> columns;
+        private int[] sqlTypes;
+        private PreparedStatement pstmt;
+        private int pending;
+        private long rows;
+
+        private TableLoader(Connection conn, SchemaCache.TableSchema schema, String tableName, int batchSize) {
+            this.conn = conn;
+            this.schema = schema;
+            this.tableName = tableName;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void accept(@NotNull CharSequence line) throws SQLException {
+            if (columns == null) {
+                prepare(TsvRowCodec.parseLine(line));
+                return;
+            }
+            List<Object> values = TsvRowCodec.parseRow(line);
+            if (values.size() != columns.size()) {
+                throw new SQLException("La fila " + (rows + pending + 1) + " del respaldo tiene " + values.size()
+                        + " valores y se esperaban " + columns.size());
+            }
+            for (int i = 0; i < values.size(); i++) {
+                TsvRowCodec.bindValue(pstmt, i + 1, values.get(i), sqlTypes[i]);
+            }
+            pstmt.addBatch();
+            if (++pending == batchSize) {
+                flush();
+            }
+        }
+
+        private void prepare(@NotNull List<String> header) throws SQLException {
+            sqlTypes = new int[header.size()];
+            for (int i = 0; i < header.size(); i++) {
+                String column = header.get(i);
+                if (column == null || !schema.hasColumn(column)) {
+                    throw new InvalidParameterException("La columna " + column + " del respaldo no existe en la tabla " + tableName);
+                }
+                Integer type = schema.getColumnType(column);
+                sqlTypes[i] = type == null ? Types.NULL : type;
+            }
+            columns = header;
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName).append(" (")
+                    .append(String.join(", ", columns)).append(") VALUES (");
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            pstmt = conn.prepareStatement(sql.append(')').toString());
+        }
+
+        private void flush() throws SQLException {
+            for (int count : pstmt.executeBatch()) {
+                rows += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+            }
+            pending = 0;
+        }
+
+        private void finish() throws SQLException {
+            if (columns == null) {
+                throw new SQLException("El respaldo de la tabla " + tableName + " no contiene la línea de columnas");
+            }
+            if (pending > 0) {
+                flush();
+            }
+        }
+
+        private long getRows() {
+            return rows;
+        }
+
+        private void close() {
+            if (pstmt != null) {
+                try {
+                    pstmt.close();
+                } catch (SQLException e) {
+                    logger.error("Error al cerrar la sentencia de restauración: {}", e.getMessage());
+                }
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,241 @@
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+
+/**
+ * Formato de los archivos de respaldo cifrados.
+ * Un respaldo empieza con una cabecera en claro (firma, versión, códec de compresión, tamaño de segmento,
+ * sal, prefijo de nonce y nombre de la entrada) seguida de segmentos cifrados con AES-GCM. Cada segmento
+ * cifra como mucho {@code segmentSize} bytes de datos comprimidos con un nonce formado por el prefijo,
+ * el número de segmento y una marca de último segmento, y autentica la cabecera como datos adicionales.
+ * Así el respaldo se puede cifrar y descifrar en streaming con memoria acotada, y se detecta tanto
+ * la manipulación de un segmento como su reordenación o el truncado del archivo.
+ * Los datos se comprimen como un único flujo Deflate ({@link #CODEC_DEFLATE}) o en bloques independientes
+ * comprimidos en paralelo ({@link #CODEC_BLOCK_DEFLATE}, ver {@link ParallelBlockCompressor}).
+ */
+public final class BackupFormat {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+    public static final byte CODEC_DEFLATE = 0;
+    public static final byte CODEC_BLOCK_DEFLATE = 1;
+    public static final byte DEFAULT_CODEC = CODEC_BLOCK_DEFLATE;
+    public static final String PASSWORD_ENVIRONMENT_VARIABLE = "DBM_BACKUP_PASSWORD";
+    static final int TAG_LENGTH = 16;
+    private static final byte[] MAGIC = {'D', 'B', 'M', 'B'};
+    private static final byte VERSION = 1;
+    private static final int SALT_LENGTH = 16;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    private static final int KEY_DERIVATION_ITERATIONS = 65536;
+    private static final int KEY_LENGTH_BITS = 256;
+    private static final int MAX_SEGMENT_SIZE = 64 << 20;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final byte codec;
+    private final int segmentSize;
+    private final byte[] salt;
+    private final byte[] noncePrefix;
+    private final String entryName;
+    private final byte[] encoded;
+
+    private BackupFormat(byte codec, int segmentSize, byte[] salt, byte[] noncePrefix, String entryName) {
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.salt = salt;
+        this.noncePrefix = noncePrefix;
+        this.entryName = entryName;
+        this.encoded = encode();
+    }
+
+    /**
+     * Crea la cabecera de un respaldo nuevo con sal y prefijo de nonce aleatorios.
+     *
+     * @param codec       el códec de compresión de los datos
+     * @param segmentSize el tamaño máximo en bytes de los datos de cada segmento
+     * @param entryName   el nombre del archivo o tabla respaldado
+     * @return la cabecera
+     */
+    @NotNull
+    public static BackupFormat create(byte codec, int segmentSize, @NotNull String entryName) {
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Tamaño de segmento no válido: " + segmentSize);
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        RANDOM.nextBytes(salt);
+        RANDOM.nextBytes(noncePrefix);
+        return new BackupFormat(codec, segmentSize, salt, noncePrefix, entryName);
+    }
+
+    /**
+     * Lee la cabecera al principio de un canal, dejándolo posicionado en el primer segmento.
+     *
+     * @param channel el canal del respaldo
+     * @return la cabecera leída
+     * @throws IOException si la cabecera está incompleta o no corresponde a este formato
+     */
+    @NotNull
+    public static BackupFormat read(@NotNull ReadableByteChannel channel) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(MAGIC.length + 2 + 4 + SALT_LENGTH + NONCE_PREFIX_LENGTH + 2);
+        readFully(channel, fixed);
+        fixed.flip();
+        for (byte b : MAGIC) {
+            if (fixed.get() != b) {
+                throw new IOException("El archivo no es un respaldo de DataBaseManipulation");
+            }
+        }
+        byte version = fixed.get();
+        if (version != VERSION) {
+            throw new IOException("Versión de respaldo no soportada: " + version);
+        }
+        byte codec = fixed.get();
+        int segmentSize = fixed.getInt();
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IOException("Tamaño de segmento no válido en la cabecera: " + segmentSize);
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        fixed.get(salt);
+        fixed.get(noncePrefix);
+        ByteBuffer name = ByteBuffer.allocate(fixed.getShort() & 0xFFFF);
+        readFully(channel, name);
+        return new BackupFormat(codec, segmentSize, salt, noncePrefix, new String(name.array(), StandardCharsets.UTF_8));
+    }
+
+    private static void readFully(@NotNull ReadableByteChannel channel, @NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Cabecera de respaldo incompleta");
+            }
+        }
+    }
+
+    @NotNull
+    private byte[] encode() {
+        byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF) {
+            throw new IllegalArgumentException("Nombre de entrada demasiado largo");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length + 2 + 4 + SALT_LENGTH + NONCE_PREFIX_LENGTH + 2 + name.length);
+        buffer.put(MAGIC).put(VERSION).put(codec).putInt(segmentSize).put(salt).put(noncePrefix)
+                .putShort((short) name.length).put(name);
+        return buffer.array();
+    }
+
+    /**
+     * Deriva la clave AES del respaldo a partir de la contraseña y la sal de la cabecera.
+     *
+     * @param password la contraseña del respaldo
+     * @return la clave AES-256
+     * @throws GeneralSecurityException si PBKDF2 no está disponible
+     */
+    @NotNull
+    public SecretKeySpec deriveKey(@NotNull char[] password) throws GeneralSecurityException {
+        return deriveKey(password, salt);
+    }
+
+    /**
+     * Lee la contraseña de los respaldos de la variable de entorno {@link #PASSWORD_ENVIRONMENT_VARIABLE}.
+     * No hay contraseña por defecto: un respaldo cifrado con una contraseña conocida no protege nada.
+     *
+     * @return la contraseña
+     * @throws IllegalStateException si la variable no está definida o está vacía
+     */
+    @NotNull
+    public static char[] passwordFromEnvironment() {
+        String password = System.getenv(PASSWORD_ENVIRONMENT_VARIABLE);
+        if (password == null || password.isEmpty()) {
+            throw new IllegalStateException("No se ha indicado la contraseña de los respaldos en la variable de entorno " + PASSWORD_ENVIRONMENT_VARIABLE);
+        }
+        return password.toCharArray();
+    }
+
+    /**
+     * Deriva una clave AES-256 con PBKDF2-HMAC-SHA256.
+     *
+     * @param password la contraseña
+     * @param salt     la sal
+     * @return la clave AES-256
+     * @throws NoSuchAlgorithmException si PBKDF2 no está disponible
+     * @throws InvalidKeySpecException  si la contraseña o la sal no son válidas
+     * @throws IllegalArgumentException si la contraseña está vacía
+     */
+    @NotNull
+    public static SecretKeySpec deriveKey(@NotNull char[] password, @NotNull byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        if (password.length == 0) {
+            throw new IllegalArgumentException("La contraseña del respaldo no puede estar vacía");
+        }
+        PBEKeySpec spec = new PBEKeySpec(password, salt, KEY_DERIVATION_ITERATIONS, KEY_LENGTH_BITS);
+        try {
+            byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return new SecretKeySpec(key, "AES");
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Devuelve una instancia nueva de AES-GCM; las instancias de Cipher no se comparten entre hilos.
+     *
+     * @return el cifrador
+     */
+    @NotNull
+    public static Cipher newCipher() {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException("AES/GCM no está disponible: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Devuelve los parámetros GCM de un segmento: prefijo de 7 bytes, número de segmento y marca de último.
+     *
+     * @param index el número de segmento, empezando en 0
+     * @param last  si es el último segmento del respaldo
+     * @return los parámetros GCM del segmento
+     */
+    @NotNull
+    public GCMParameterSpec segmentParameters(long index, boolean last) {
+        if (index < 0 || index > 0xFFFFFFFFL) {
+            throw new IllegalStateException("Demasiados segmentos en el respaldo");
+        }
+        ByteBuffer nonce = ByteBuffer.allocate(12);
+        nonce.put(noncePrefix).putInt((int) index).put((byte) (last ? 1 : 0));
+        return new GCMParameterSpec(TAG_LENGTH * 8, nonce.array());
+    }
+
+    public byte getCodec() {
+        return codec;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public String getEntryName() {
+        return entryName;
+    }
+
+    /**
+     * Devuelve la cabecera codificada, que se escribe al principio del respaldo y autentica cada segmento.
+     *
+     * @return una copia de los bytes de la cabecera
+     */
+    @NotNull
+    public byte[] toBytes() {
+        return encoded.clone();
+    }
+}
@@ -0,0 +1,498 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Manifiesto de un respaldo lógico: el esquema respaldado, si la copia es consistente, la posición del binlog
+ * y, por cada tabla, su archivo de DDL, sus columnas y sus fragmentos con el número de filas y el CRC32 de
+ * los datos sin comprimir, y el tamaño y el SHA-256 de cada archivo en disco. Se guarda como un archivo {@code .properties} dentro del directorio del respaldo.
+ * <p>
+ * En un respaldo incremental los fragmentos que no cambiaron desde el respaldo anterior no se vuelven a
+ * exportar: su entrada apunta al directorio del respaldo que contiene el archivo, de modo que el manifiesto
+ * del último incremento describe por sí solo el estado completo.
+ */
+public class BackupManifest {
+
+    public static final String FILE_NAME = "manifest.properties";
+    private static final int FORMAT_VERSION = 1;
+
+    private final String schema;
+    private final List<TableEntry> tables = new ArrayList<>();
+    private Instant created = Instant.now();
+    private boolean consistent;
+    private String binlogFile;
+    private long binlogPosition = -1;
+    private String base;
+
+    public BackupManifest(@NotNull String schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Lee el manifiesto de un directorio de respaldo.
+     *
+     * @param directory el directorio del respaldo
+     * @return el manifiesto
+     * @throws IOException si el manifiesto no existe o no es válido
+     */
+    @NotNull
+    public static BackupManifest load(@NotNull Path directory) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(directory.resolve(FILE_NAME), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        try {
+            int version = Integer.parseInt(required(properties, "version"));
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Versión de manifiesto no soportada: " + version);
+            }
+            BackupManifest manifest = new BackupManifest(required(properties, "schema"));
+            manifest.created = Instant.parse(required(properties, "created"));
+            manifest.consistent = Boolean.parseBoolean(properties.getProperty("consistent"));
+            manifest.binlogFile = properties.getProperty("binlog.file");
+            manifest.binlogPosition = Long.parseLong(properties.getProperty("binlog.position", "-1"));
+            manifest.base = properties.getProperty("base");
+            int tableCount = Integer.parseInt(required(properties, "tables"));
+            for (int t = 0; t < tableCount; t++) {
+                String prefix = "table." + t + ".";
+                TableEntry table = manifest.addTable(required(properties, prefix + "name"), required(properties, prefix + "ddl"),
+                        Arrays.asList(required(properties, prefix + "columns").split(",", -1)));
+                table.keyColumn = properties.getProperty(prefix + "key");
+                table.ddlSha256 = properties.getProperty(prefix + "ddlSha256");
+                int chunkCount = Integer.parseInt(required(properties, prefix + "chunks"));
+                for (int c = 0; c < chunkCount; c++) {
+                    String chunkPrefix = prefix + "chunk." + c + ".";
+                    ChunkEntry chunk = table.addChunk(required(properties, chunkPrefix + "file"),
+                            properties.getProperty(chunkPrefix + "lower"), properties.getProperty(chunkPrefix + "upper"));
+                    chunk.rows = Long.parseLong(required(properties, chunkPrefix + "rows"));
+                    chunk.bytes = Long.parseLong(required(properties, chunkPrefix + "bytes"));
+                    chunk.crc32 = Long.parseLong(required(properties, chunkPrefix + "crc32"), 16);
+                    chunk.checksum = properties.getProperty(chunkPrefix + "checksum");
+                    chunk.source = properties.getProperty(chunkPrefix + "source");
+                    chunk.sha256 = properties.getProperty(chunkPrefix + "sha256");
+                    chunk.fileSize = Long.parseLong(properties.getProperty(chunkPrefix + "fileSize", "-1"));
+                }
+            }
+            return manifest;
+        } catch (RuntimeException e) {
+            throw new IOException("Manifiesto de respaldo no válido en " + directory + ": " + e.getMessage(), e);
+        }
+    }
+
+    @NotNull
+    private static String required(@NotNull Properties properties, @NotNull String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("falta la clave " + key);
+        }
+        return value;
+    }
+
+    /**
+     * Guarda el manifiesto en el directorio del respaldo. Se escribe en un archivo temporal y se mueve a su
+     * nombre final, de modo que un respaldo solo tiene manifiesto si terminó por completo.
+     *
+     * @param directory el directorio del respaldo
+     * @throws IOException si no se puede escribir el manifiesto
+     */
+    public void store(@NotNull Path directory) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("version", String.valueOf(FORMAT_VERSION));
+        properties.setProperty("schema", schema);
+        properties.setProperty("created", created.toString());
+        properties.setProperty("consistent", String.valueOf(consistent));
+        if (binlogFile != null) {
+            properties.setProperty("binlog.file", binlogFile);
+            properties.setProperty("binlog.position", String.valueOf(binlogPosition));
+        }
+        if (base != null) {
+            properties.setProperty("base", base);
+        }
+        properties.setProperty("tables", String.valueOf(tables.size()));
+        for (int t = 0; t < tables.size(); t++) {
+            TableEntry table = tables.get(t);
+            String prefix = "table." + t + ".";
+            properties.setProperty(prefix + "name", table.name);
+            properties.setProperty(prefix + "ddl", table.ddlFile);
+            properties.setProperty(prefix + "columns", String.join(",", table.columns));
+            if (table.keyColumn != null) {
+                properties.setProperty(prefix + "key", table.keyColumn);
+            }
+            if (table.ddlSha256 != null) {
+                properties.setProperty(prefix + "ddlSha256", table.ddlSha256);
+            }
+            properties.setProperty(prefix + "chunks", String.valueOf(table.chunks.size()));
+            for (int c = 0; c < table.chunks.size(); c++) {
+                ChunkEntry chunk = table.chunks.get(c);
+                String chunkPrefix = prefix + "chunk." + c + ".";
+                properties.setProperty(chunkPrefix + "file", chunk.file);
+                if (chunk.lowerBound != null) {
+                    properties.setProperty(chunkPrefix + "lower", chunk.lowerBound);
+                }
+                if (chunk.upperBound != null) {
+                    properties.setProperty(chunkPrefix + "upper", chunk.upperBound);
+                }
+                properties.setProperty(chunkPrefix + "rows", String.valueOf(chunk.rows));
+                properties.setProperty(chunkPrefix + "bytes", String.valueOf(chunk.bytes));
+                properties.setProperty(chunkPrefix + "crc32", Long.toHexString(chunk.crc32));
+                if (chunk.checksum != null) {
+                    properties.setProperty(chunkPrefix + "checksum", chunk.checksum);
+                }
+                if (chunk.source != null) {
+                    properties.setProperty(chunkPrefix + "source", chunk.source);
+                }
+                if (chunk.sha256 != null) {
+                    properties.setProperty(chunkPrefix + "sha256", chunk.sha256);
+                    properties.setProperty(chunkPrefix + "fileSize", String.valueOf(chunk.fileSize));
+                }
+            }
+        }
+
+        Path temporary = directory.resolve(FILE_NAME + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            properties.store(writer, "Respaldo lógico del esquema " + schema);
+        }
+        Files.move(temporary, directory.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Añade una tabla al manifiesto.
+     *
+     * @param name    el nombre de la tabla
+     * @param ddlFile el archivo con su sentencia CREATE TABLE, relativo al directorio del respaldo
+     * @param columns las columnas en el orden en que aparecen en los fragmentos
+     * @return la entrada de la tabla
+     */
+    @NotNull
+    public TableEntry addTable(@NotNull String name, @NotNull String ddlFile, @NotNull List<String> columns) {
+        TableEntry table = new TableEntry(name, ddlFile, columns);
+        tables.add(table);
+        return table;
+    }
+
+    @Nullable
+    public TableEntry getTable(@NotNull String name) {
+        for (TableEntry table : tables) {
+            if (table.name.equalsIgnoreCase(name)) {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public List<TableEntry> getTables() {
+        return Collections.unmodifiableList(tables);
+    }
+
+    public Instant getCreated() {
+        return created;
+    }
+
+    public boolean isConsistent() {
+        return consistent;
+    }
+
+    public void setConsistent(boolean consistent) {
+        this.consistent = consistent;
+    }
+
+    public String getBinlogFile() {
+        return binlogFile;
+    }
+
+    public long getBinlogPosition() {
+        return binlogPosition;
+    }
+
+    public void setBinlogPosition(String binlogFile, long binlogPosition) {
+        this.binlogFile = binlogFile;
+        this.binlogPosition = binlogPosition;
+    }
+
+    /**
+     * Devuelve el respaldo anterior sobre el que se hizo este incremento.
+     *
+     * @return la ruta del respaldo anterior relativa a este, o null si es un respaldo completo
+     */
+    @Nullable
+    public String getBase() {
+        return base;
+    }
+
+    public void setBase(String base) {
+        this.base = base;
+    }
+
+    public boolean isIncremental() {
+        return base != null;
+    }
+
+    /**
+     * Devuelve el total de filas respaldadas en todas las tablas.
+     *
+     * @return el número de filas
+     */
+    public long getRows() {
+        long rows = 0;
+        for (TableEntry table : tables) {
+            rows += table.getRows();
+        }
+        return rows;
+    }
+
+    /**
+     * Una tabla del respaldo con sus fragmentos en orden de clave primaria.
+     */
+    public static class TableEntry {
+        private final String name;
+        private final String ddlFile;
+        private final List<String> columns;
+        private final List<ChunkEntry> chunks = new ArrayList<>();
+        private String keyColumn;
+        private String ddlSha256;
+
+        private TableEntry(String name, String ddlFile, List<String> columns) {
+            this.name = name;
+            this.ddlFile = ddlFile;
+            this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+        }
+
+        /**
+         * Añade un fragmento a la tabla.
+         *
+         * @param file       el archivo del fragmento, relativo al directorio del respaldo
+         * @param lowerBound el límite inferior incluido de la clave primaria, o null si no tiene
+         * @param upperBound el límite superior excluido de la clave primaria, o null si no tiene
+         * @return la entrada del fragmento
+         */
+        @NotNull
+        public ChunkEntry addChunk(@NotNull String file, @Nullable String lowerBound, @Nullable String upperBound) {
+            ChunkEntry chunk = new ChunkEntry(file, lowerBound, upperBound);
+            chunks.add(chunk);
+            return chunk;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDdlFile() {
+            return ddlFile;
+        }
+
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        /**
+         * Devuelve la columna de clave primaria entera por la que se dividen los fragmentos.
+         *
+         * @return el nombre de la columna, o null si la tabla se vuelca en un único fragmento
+         */
+        @Nullable
+        public String getKeyColumn() {
+            return keyColumn;
+        }
+
+        public void setKeyColumn(String keyColumn) {
+            this.keyColumn = keyColumn;
+        }
+
+        /**
+         * Devuelve el SHA-256 del archivo de DDL.
+         *
+         * @return el SHA-256 en hexadecimal, o null si el respaldo no lo registró
+         */
+        @Nullable
+        public String getDdlSha256() {
+            return ddlSha256;
+        }
+
+        public void setDdlSha256(String ddlSha256) {
+            this.ddlSha256 = ddlSha256;
+        }
+
+        public List<ChunkEntry> getChunks() {
+            return Collections.unmodifiableList(chunks);
+        }
+
+        public long getRows() {
+            long rows = 0;
+            for (ChunkEntry chunk : chunks) {
+                rows += chunk.rows;
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Un fragmento de una tabla: un rango de clave primaria volcado en un archivo TSV comprimido con gzip.
+     */
+    public static class ChunkEntry {
+        private String file;
+        private final String lowerBound;
+        private final String upperBound;
+        private long rows;
+        private long bytes;
+        private long crc32;
+        private String checksum;
+        private String source;
+        private String sha256;
+        private long fileSize = -1;
+
+        private ChunkEntry(String file, String lowerBound, String upperBound) {
+            this.file = file;
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * Devuelve la ruta del archivo del fragmento, que puede estar en un respaldo anterior.
+         *
+         * @param directory el directorio del respaldo al que pertenece este manifiesto
+         * @return la ruta del archivo
+         */
+        @NotNull
+        public Path resolve(@NotNull Path directory) {
+            Path base = source == null ? directory : directory.resolve(source);
+            return base.resolve(file).normalize();
+        }
+
+        /**
+         * Devuelve el directorio del respaldo anterior que contiene el archivo.
+         *
+         * @return la ruta relativa a este respaldo, o null si el archivo está en este respaldo
+         */
+        @Nullable
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * Devuelve la suma de comprobación calculada por el servidor sobre las filas del rango.
+         *
+         * @return la suma de comprobación, o null si no se calculó
+         */
+        @Nullable
+        public String getChecksum() {
+            return checksum;
+        }
+
+        public void setChecksum(String checksum) {
+            this.checksum = checksum;
+        }
+
+        /**
+         * Marca el fragmento como sin cambios: reutiliza el archivo de un respaldo anterior.
+         *
+         * @param previous la entrada del fragmento en el respaldo anterior
+         * @param source   el directorio que contiene el archivo, relativo a este respaldo
+         */
+        public void reuse(@NotNull ChunkEntry previous, @NotNull String source) {
+            this.file = previous.file;
+            this.source = source;
+            this.rows = previous.rows;
+            this.bytes = previous.bytes;
+            this.crc32 = previous.crc32;
+            this.checksum = previous.checksum;
+            this.sha256 = previous.sha256;
+            this.fileSize = previous.fileSize;
+        }
+
+        @Nullable
+        public String getLowerBound() {
+            return lowerBound;
+        }
+
+        @Nullable
+        public String getUpperBound() {
+            return upperBound;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * Devuelve el tamaño de los datos del fragmento sin comprimir.
+         *
+         * @return el número de bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Devuelve el CRC32 de los datos del fragmento sin comprimir.
+         *
+         * @return el CRC32
+         */
+        public long getCrc32() {
+            return crc32;
+        }
+
+        /**
+         * Registra el resultado del volcado del fragmento.
+         *
+         * @param rows  las filas escritas
+         * @param bytes los bytes escritos sin comprimir
+         * @param crc32 el CRC32 de los bytes escritos sin comprimir
+         */
+        public void complete(long rows, long bytes, long crc32) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.crc32 = crc32;
+        }
+
+        /**
+         * Devuelve el SHA-256 del archivo del fragmento tal como está en disco, comprimido.
+         *
+         * @return el SHA-256 en hexadecimal, o null si el respaldo no lo registró
+         */
+        @Nullable
+        public String getSha256() {
+            return sha256;
+        }
+
+        /**
+         * Devuelve el tamaño del archivo del fragmento en disco.
+         *
+         * @return el número de bytes, o -1 si el respaldo no lo registró
+         */
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        /**
+         * Registra el tamaño y el SHA-256 del archivo comprimido, calculados mientras se escribía.
+         *
+         * @param fileSize el tamaño del archivo
+         * @param sha256   el SHA-256 en hexadecimal
+         */
+        public void setFileDigest(long fileSize, @NotNull String sha256) {
+            this.fileSize = fileSize;
+            this.sha256 = sha256;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Lector de respaldos que descifra y descomprime en una sola pasada.
+ * Es el inverso de {@link BackupPipelineWriter}: los segmentos se descifran con un {@link SegmentDecryptingChannel}
+ * y se descomprimen con Inflate a través de buffers directos de tamaño fijo, o en paralelo con
+ * {@link ParallelBlockDecompressor} si el respaldo se escribió por bloques. La memoria usada es constante sea
+ * cual sea el tamaño del respaldo y nunca se escribe un archivo intermedio en claro.
+ */
+public class BackupPipelineReader implements ReadableByteChannel {
+
+    private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+    private final BackupFormat format;
+    private final SegmentDecryptingChannel decrypting;
+    private final ParallelBlockDecompressor blocks;
+    private final Inflater inflater = new Inflater();
+    private final ByteBuffer compressed = ByteBuffer.allocateDirect(INFLATE_BUFFER_SIZE);
+    private long bytesRead;
+    private boolean open = true;
+
+    /**
+     * Abre un respaldo y lee su cabecera.
+     *
+     * @param source   el archivo de respaldo
+     * @param password la contraseña del respaldo
+     * @throws IOException              si el archivo no se puede leer o no es un respaldo válido
+     * @throws GeneralSecurityException si no se puede derivar la clave
+     */
+    public BackupPipelineReader(@NotNull Path source, @NotNull char[] password) throws IOException, GeneralSecurityException {
+        FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+        try {
+            this.format = BackupFormat.read(channel);
+            byte codec = format.getCodec();
+            if (codec != BackupFormat.CODEC_DEFLATE && codec != BackupFormat.CODEC_BLOCK_DEFLATE) {
+                throw new IOException("Códec de compresión no soportado: " + codec);
+            }
+            this.decrypting = new SegmentDecryptingChannel(channel, format, format.deriveKey(password));
+            this.blocks = codec == BackupFormat.CODEC_BLOCK_DEFLATE ? new ParallelBlockDecompressor(decrypting) : null;
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            channel.close();
+            inflater.end();
+            throw e;
+        }
+        compressed.limit(0);
+    }
+
+    /**
+     * Descifra y descomprime datos del respaldo en el buffer.
+     *
+     * @param dst el buffer de destino
+     * @return el número de bytes leídos, o -1 al final del respaldo
+     * @throws IOException si el respaldo está dañado, truncado o la contraseña es incorrecta
+     */
+    @Override
+    public int read(@NotNull ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (blocks != null) {
+            int read = blocks.read(dst);
+            if (read > 0) {
+                bytesRead += read;
+            }
+            return read;
+        }
+        while (!inflater.finished()) {
+            if (inflater.needsInput() && !fill()) {
+                throw new IOException("Respaldo incompleto: el flujo comprimido termina antes de tiempo");
+            }
+            int inflated;
+            try {
+                inflated = inflater.inflate(dst);
+            } catch (DataFormatException e) {
+                throw new IOException("Datos comprimidos no válidos en el respaldo: " + e.getMessage(), e);
+            }
+            if (inflated > 0) {
+                bytesRead += inflated;
+                return inflated;
+            }
+            if (inflater.needsDictionary()) {
+                throw new IOException("Datos comprimidos no válidos en el respaldo");
+            }
+        }
+        if (compressed.hasRemaining() || inflater.getRemaining() > 0 || fill()) {
+            throw new IOException("Datos inesperados tras el final del flujo comprimido");
+        }
+        return -1;
+    }
+
+    private boolean fill() throws IOException {
+        compressed.clear();
+        int read = decrypting.read(compressed);
+        compressed.flip();
+        if (read < 0) {
+            return false;
+        }
+        inflater.setInput(compressed);
+        return true;
+    }
+
+    /**
+     * Devuelve la cabecera del respaldo, que incluye el nombre del archivo o tabla respaldado.
+     *
+     * @return la cabecera
+     */
+    @NotNull
+    public BackupFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Devuelve los bytes descomprimidos entregados hasta ahora.
+     *
+     * @return los bytes leídos
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            inflater.end();
+            if (blocks != null) {
+                blocks.close();
+            }
+            decrypting.close();
+        }
+    }
+}
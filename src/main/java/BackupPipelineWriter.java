@@ -0,0 +1,162 @@
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.zip.Deflater;
+
+/**
+ * Escritor de respaldos que comprime y cifra en una sola pasada.
+ * Los datos recibidos se comprimen con Deflate, en un único flujo o en bloques paralelos con
+ * {@link ParallelBlockCompressor}, y pasan directamente a un {@link SegmentEncryptingChannel},
+ * de modo que nunca se escribe en disco un archivo intermedio en claro.
+ * El respaldo se escribe en un archivo temporal junto al destino y se mueve a su nombre final al terminar,
+ * así un respaldo interrumpido no deja un artefacto incompleto.
+ */
+public class BackupPipelineWriter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackupPipelineWriter.class);
+    private static final int DEFLATE_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] NO_INPUT = new byte[0];
+    private final Path target;
+    private final Path temporary;
+    private final SegmentEncryptingChannel encrypting;
+    private final ParallelBlockCompressor blocks;
+    private final Deflater deflater;
+    private final ByteBuffer deflated;
+    private final long startNanos = System.nanoTime();
+    private long bytesRead;
+    private BackupStats stats;
+
+    public BackupPipelineWriter(Path target, String entryName, char[] password) throws IOException, GeneralSecurityException {
+        this(target, entryName, password, BackupFormat.DEFAULT_CODEC, BackupFormat.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Abre un respaldo nuevo.
+     *
+     * @param target      el archivo de respaldo a crear
+     * @param entryName   el nombre del archivo o tabla respaldado, guardado en la cabecera
+     * @param password    la contraseña de la que se deriva la clave de cifrado
+     * @param codec       el códec de compresión, {@link BackupFormat#CODEC_DEFLATE} o {@link BackupFormat#CODEC_BLOCK_DEFLATE}
+     * @param segmentSize el tamaño de los segmentos cifrados
+     * @throws IOException              si no se puede crear el archivo
+     * @throws GeneralSecurityException si no se puede derivar la clave
+     */
+    public BackupPipelineWriter(@NotNull Path target, @NotNull String entryName, @NotNull char[] password, byte codec, int segmentSize) throws IOException, GeneralSecurityException {
+        if (codec != BackupFormat.CODEC_DEFLATE && codec != BackupFormat.CODEC_BLOCK_DEFLATE) {
+            throw new IllegalArgumentException("Códec de compresión no soportado: " + codec);
+        }
+        this.target = target;
+        this.temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        BackupFormat format = BackupFormat.create(codec, segmentSize, entryName);
+        FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.wrap(format.toBytes());
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            this.encrypting = new SegmentEncryptingChannel(channel, format, format.deriveKey(password));
+            this.blocks = codec == BackupFormat.CODEC_BLOCK_DEFLATE ? new ParallelBlockCompressor(encrypting) : null;
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            channel.close();
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        this.deflater = blocks == null ? new Deflater(Deflater.DEFAULT_COMPRESSION) : null;
+        this.deflated = blocks == null ? ByteBuffer.allocateDirect(DEFLATE_BUFFER_SIZE) : null;
+    }
+
+    /**
+     * Comprime y cifra el contenido restante del buffer.
+     *
+     * @param src los datos a respaldar; se consumen por completo
+     * @throws IOException si ocurre un error al escribir el respaldo
+     */
+    public void write(@NotNull ByteBuffer src) throws IOException {
+        bytesRead += src.remaining();
+        if (blocks != null) {
+            blocks.write(src);
+            return;
+        }
+        deflater.setInput(src);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+        // El Deflater conserva la referencia al buffer; se suelta para que el llamador pueda reutilizarlo
+        deflater.setInput(NO_INPUT);
+    }
+
+    public void write(@NotNull byte[] data, int offset, int length) throws IOException {
+        write(ByteBuffer.wrap(data, offset, length));
+    }
+
+    private void deflate() throws IOException {
+        deflater.deflate(deflated);
+        if (!deflated.hasRemaining()) {
+            flushDeflated();
+        }
+    }
+
+    private void flushDeflated() throws IOException {
+        deflated.flip();
+        encrypting.write(deflated);
+        deflated.clear();
+    }
+
+    /**
+     * Termina la compresión, sella el último segmento y publica el respaldo con su nombre final.
+     *
+     * @return las estadísticas del respaldo
+     * @throws IOException si ocurre un error al escribir el respaldo
+     */
+    @NotNull
+    public BackupStats finish() throws IOException {
+        if (stats != null) {
+            return stats;
+        }
+        if (blocks != null) {
+            blocks.finish();
+        } else {
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+            flushDeflated();
+            deflater.end();
+        }
+        encrypting.close();
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        stats = new BackupStats(bytesRead, Files.size(target), System.nanoTime() - startNanos);
+        logger.info("Respaldo {} escrito: {} bytes leídos, {} bytes escritos, {} MB/s", target, bytesRead,
+                stats.getBytesWritten(), String.format("%.2f", stats.getMegabytesPerSecond()));
+        return stats;
+    }
+
+    /**
+     * Cierra el escritor. Si no se llamó a {@link #finish()}, descarta el respaldo incompleto.
+     */
+    @Override
+    public void close() throws IOException {
+        if (stats == null) {
+            if (blocks != null) {
+                blocks.close();
+            } else {
+                deflater.end();
+            }
+            try {
+                encrypting.close();
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Estadísticas de una operación de respaldo o restauración: bytes leídos, bytes escritos y duración.
+ */
+public class BackupStats {
+
+    private static final double BYTES_PER_MEGABYTE = 1024d * 1024d;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long elapsedNanos;
+
+    public BackupStats(long bytesRead, long bytesWritten, long elapsedNanos) {
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Devuelve el rendimiento medido sobre los datos sin comprimir.
+     *
+     * @return los megabytes por segundo procesados
+     */
+    public double getMegabytesPerSecond() {
+        long uncompressed = Math.max(bytesRead, bytesWritten);
+        return elapsedNanos == 0 ? 0d : uncompressed / BYTES_PER_MEGABYTE / (elapsedNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BackupStats{bytesRead=%d, bytesWritten=%d, segundos=%.3f, MB/s=%.2f}",
+                bytesRead, bytesWritten, elapsedNanos / 1e9, getMegabytesPerSecond());
+    }
+}
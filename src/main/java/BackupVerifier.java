@@ -0,0 +1,241 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Verifica en paralelo los archivos de un respaldo de {@link LogicalBackupEngine} contra su manifiesto.
+ * Cada archivo se comprueba con el tamaño y el SHA-256 que se calcularon mientras se escribía: se lee
+ * proyectado en memoria por regiones y se resume sin descomprimir ni analizar su contenido, así que la
+ * verificación está limitada por la lectura del disco. Los fragmentos de respaldos anteriores a estas sumas
+ * se verifican descomprimiéndolos y comparando su CRC32 y su tamaño con el manifiesto.
+ * <p>
+ * Los fragmentos reutilizados de un respaldo anterior se verifican en el directorio que los contiene.
+ * <p>
+ * Justo después de escribir un respaldo basta con {@link #verifyPresence}, que no lee los datos: las sumas de los
+ * fragmentos nuevos se calcularon al escribirlos y los reutilizados ya se verificaron en su respaldo.
+ */
+public class BackupVerifier {
+
+    public static final int DEFAULT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final Logger logger = LoggerFactory.getLogger(BackupVerifier.class);
+    private static final long MAP_REGION_SIZE = 64L * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final HexFormat HEX = HexFormat.of();
+    private int threads = DEFAULT_THREADS;
+
+    /**
+     * Establece el número de archivos que se verifican a la vez.
+     *
+     * @param threads el número de hilos, al menos 1
+     */
+    public void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("El número de hilos debe ser mayor que cero");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Verifica todos los archivos de un respaldo.
+     *
+     * @param directory el directorio del respaldo
+     * @return una descripción de cada archivo que falta o está dañado; vacía si todo el respaldo es correcto
+     * @throws IOException si no se puede leer el manifiesto
+     */
+    @NotNull
+    public List<String> verify(@NotNull Path directory) throws IOException {
+        long start = System.nanoTime();
+        BackupManifest manifest = BackupManifest.load(directory);
+        List<Check> checks = new ArrayList<>();
+        for (BackupManifest.TableEntry table : manifest.getTables()) {
+            checks.add(new Check(directory.resolve(table.getDdlFile()), -1, table.getDdlSha256(), null));
+            for (BackupManifest.ChunkEntry chunk : table.getChunks()) {
+                checks.add(new Check(chunk.resolve(directory), chunk.getFileSize(), chunk.getSha256(), chunk));
+            }
+        }
+        // Los archivos más grandes primero, para que ningún hilo se quede al final con uno grande
+        checks.sort(Comparator.comparingLong((Check check) -> check.expectedSize).reversed());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, checks.size())), runnable -> {
+            Thread thread = new Thread(runnable, "backup-verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<String>> results = new ArrayList<>();
+        List<String> problems = new ArrayList<>();
+        try {
+            for (Check check : checks) {
+                results.add(executor.submit(check::run));
+            }
+            for (Future<String> result : results) {
+                String problem = result.get();
+                if (problem != null) {
+                    problems.add(problem);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("La verificación del respaldo fue interrumpida", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error al verificar el respaldo " + directory + ": " + e.getCause(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        problems.sort(null);
+
+        long bytes = 0;
+        for (Check check : checks) {
+            bytes += check.bytesRead;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("Respaldo {} verificado: {} archivo(s), {} MB en {} s ({} MB/s), {} problema(s)", directory, checks.size(),
+                bytes / (1024 * 1024), String.format("%.2f", seconds), String.format("%.1f", bytes / 1048576d / Math.max(seconds, 1e-9)), problems.size());
+        for (String problem : problems) {
+            logger.error("Respaldo {}: {}", directory, problem);
+        }
+        return problems;
+    }
+
+    /**
+     * Comprueba sin leer los datos que el manifiesto se puede cargar, que existen todos sus archivos y que cada
+     * fragmento tiene el tamaño del manifiesto. Los fragmentos escritos por este respaldo deben tener además el
+     * SHA-256 y el tamaño registrados al escribirlos.
+     *
+     * @param directory el directorio del respaldo
+     * @return una descripción de cada archivo que falta o no coincide; vacía si todo el respaldo es correcto
+     * @throws IOException si no se puede leer el manifiesto
+     */
+    @NotNull
+    public List<String> verifyPresence(@NotNull Path directory) throws IOException {
+        BackupManifest manifest = BackupManifest.load(directory);
+        List<String> problems = new ArrayList<>();
+        for (BackupManifest.TableEntry table : manifest.getTables()) {
+            Path ddl = directory.resolve(table.getDdlFile());
+            if (!Files.isRegularFile(ddl)) {
+                problems.add("falta el archivo " + ddl);
+            }
+            for (BackupManifest.ChunkEntry chunk : table.getChunks()) {
+                Path file = chunk.resolve(directory);
+                if (!Files.isRegularFile(file)) {
+                    problems.add("falta el archivo " + file);
+                } else if (chunk.getSource() == null && (chunk.getSha256() == null || chunk.getFileSize() < 0)) {
+                    problems.add(file + " no tiene en el manifiesto el SHA-256 calculado al escribirlo");
+                } else if (chunk.getFileSize() >= 0 && Files.size(file) != chunk.getFileSize()) {
+                    problems.add(file + " mide " + Files.size(file) + " bytes y el manifiesto indica " + chunk.getFileSize());
+                }
+            }
+        }
+        problems.sort(null);
+        for (String problem : problems) {
+            logger.error("Respaldo {}: {}", directory, problem);
+        }
+        return problems;
+    }
+
+    @NotNull
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no está disponible: " + e.getMessage(), e);
+        }
+    }
+
+    @NotNull
+    static String toHex(@NotNull byte[] bytes) {
+        return HEX.formatHex(bytes);
+    }
+
+    /**
+     * La comprobación de un archivo: su SHA-256 si el manifiesto lo tiene y, si no, el contenido descomprimido
+     * de un fragmento o solo la existencia del archivo de DDL.
+     */
+    private static final class Check {
+        private final Path file;
+        private final long expectedSize;
+        private final String sha256;
+        private final BackupManifest.ChunkEntry chunk;
+        private long bytesRead;
+
+        private Check(Path file, long expectedSize, String sha256, BackupManifest.ChunkEntry chunk) {
+            this.file = file;
+            this.expectedSize = expectedSize;
+            this.sha256 = sha256;
+            this.chunk = chunk;
+        }
+
+        @Nullable
+        private String run() {
+            try {
+                if (sha256 != null) {
+                    return verifyDigest();
+                } else if (chunk != null) {
+                    return verifyContent();
+                }
+                return Files.isRegularFile(file) ? null : "falta el archivo " + file;
+            } catch (NoSuchFileException e) {
+                return "falta el archivo " + file;
+            } catch (IOException e) {
+                return "no se puede leer " + file + ": " + e.getMessage();
+            }
+        }
+
+        @Nullable
+        private String verifyDigest() throws IOException {
+            MessageDigest digest = newDigest();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (expectedSize >= 0 && size != expectedSize) {
+                    return file + " mide " + size + " bytes y el manifiesto indica " + expectedSize;
+                }
+                for (long position = 0; position < size; position += MAP_REGION_SIZE) {
+                    digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_REGION_SIZE, size - position)));
+                }
+                bytesRead = size;
+            }
+            String actual = toHex(digest.digest());
+            return actual.equals(sha256) ? null : file + " está dañado: su SHA-256 no coincide con el manifiesto";
+        }
+
+        @Nullable
+        private String verifyContent() throws IOException {
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            long length = 0;
+            try (InputStream in = new CheckedInputStream(new GZIPInputStream(Files.newInputStream(file), READ_BUFFER_SIZE), crc)) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    length += read;
+                }
+            }
+            bytesRead = length;
+            if (length != chunk.getBytes() || crc.getValue() != chunk.getCrc32()) {
+                return String.format("%s está dañado: %d bytes y CRC32 %08x, se esperaban %d bytes y CRC32 %08x",
+                        file, length, crc.getValue(), chunk.getBytes(), chunk.getCrc32());
+            }
+            return null;
+        }
+    }
+}
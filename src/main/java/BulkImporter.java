@@ -0,0 +1,740 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Carga masiva de archivos CSV o TSV en una tabla de MySQL.
+ * El archivo se proyecta en memoria y se divide en partes que empiezan y terminan en un límite de registro. Cada
+ * parte se analiza en su propio hilo, directamente desde la proyección, y sus valores se convierten al tipo JDBC
+ * de la columna de destino antes de insertarlos con INSERT de varias filas sobre su propia conexión, así que el
+ * archivo nunca se carga entero en memoria.
+ * <p>
+ * Los archivos TSV usan el formato de {@link TsvRowCodec}. Los CSV siguen RFC 4180: los campos pueden ir entre
+ * comillas dobles, con comillas duplicadas y saltos de línea dentro; un campo {@code \N} sin comillas es NULL, igual
+ * que un campo vacío sin comillas en una columna que no es de texto. Si el archivo tiene cabecera, sus nombres
+ * indican las columnas de la tabla que se cargan y en qué orden.
+ * <p>
+ * Las líneas con un número de campos distinto al de columnas o con un valor que no se puede convertir se
+ * rechazan sin detener la carga. Si un INSERT falla, sus filas se insertan de una en una para rechazar solo las
+ * que el servidor no acepta. La carga se interrumpe si los rechazos superan {@link #setMaxRejects}.
+ * <p>
+ * No se usa {@code LOAD DATA LOCAL INFILE}: exige {@code allowLoadLocalInfile} en el driver y
+ * {@code local_infile} en el servidor, que MySQL 8 desactiva por defecto.
+ */
+public class BulkImporter {
+
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_ROWS_PER_STATEMENT = 1000;
+    public static final int DEFAULT_MAX_REJECTS = 1000;
+    private static final Logger logger = LoggerFactory.getLogger(BulkImporter.class);
+    private static final int MAX_PLACEHOLDERS = 65535;
+    private static final long MAX_SPLIT_SIZE = 256L * 1024 * 1024;
+    private static final int SPLITS_PER_WORKER = 4;
+    private static final int SCAN_WINDOW = 1024 * 1024;
+    private int workers = DEFAULT_WORKERS;
+    private int rowsPerStatement = DEFAULT_ROWS_PER_STATEMENT;
+    private int maxRejects = DEFAULT_MAX_REJECTS;
+    private Character delimiter;
+    private boolean header = true;
+
+    /**
+     * Establece el número de conexiones que analizan e insertan en paralelo.
+     *
+     * @param workers el número de conexiones, al menos 1
+     */
+    public void setWorkers(int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("El número de conexiones debe ser mayor que cero");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Establece el número máximo de filas de cada INSERT. Se reduce si superaría el límite de parámetros.
+     *
+     * @param rowsPerStatement las filas por sentencia, al menos 1
+     */
+    public void setRowsPerStatement(int rowsPerStatement) {
+        if (rowsPerStatement <= 0) {
+            throw new IllegalArgumentException("El número de filas por sentencia debe ser mayor que cero");
+        }
+        this.rowsPerStatement = rowsPerStatement;
+    }
+
+    /**
+     * Establece el número de líneas rechazadas a partir del cual se interrumpe la carga.
+     *
+     * @param maxRejects las líneas rechazadas que se toleran
+     */
+    public void setMaxRejects(int maxRejects) {
+        if (maxRejects < 0) {
+            throw new IllegalArgumentException("El número máximo de rechazos no puede ser negativo");
+        }
+        this.maxRejects = maxRejects;
+    }
+
+    /**
+     * Establece el separador de campos. Un tabulador selecciona el formato TSV; cualquier otro carácter, el CSV.
+     *
+     * @param delimiter el separador, o null para deducirlo de la extensión del archivo ({@code .tsv} o {@code .tab}
+     *                  para tabulador, coma en otro caso)
+     */
+    public void setDelimiter(@Nullable Character delimiter) {
+        if (delimiter != null && (delimiter == '"' || delimiter == '\n' || delimiter == '\r')) {
+            throw new IllegalArgumentException("Separador no válido: " + delimiter);
+        }
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Indica si la primera línea del archivo contiene los nombres de las columnas. Sin cabecera los campos se
+     * asignan a todas las columnas de la tabla en su orden de definición. Está activada por defecto.
+     *
+     * @param header verdadero si el archivo tiene cabecera
+     */
+    public void setHeader(boolean header) {
+        this.header = header;
+    }
+
+    /**
+     * Carga un archivo en una tabla abriendo hasta {@code workers} conexiones del origen de datos.
+     *
+     * @param dataSource el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param table      el nombre de la tabla, opcionalmente con su esquema
+     * @param file       el archivo CSV o TSV, en UTF-8
+     * @return el resultado de la carga
+     * @throws SQLException si la tabla no existe, no se pueden abrir las conexiones o hay demasiados rechazos
+     * @throws IOException  si no se puede leer el archivo
+     */
+    @NotNull
+    public Result load(@NotNull DataSource dataSource, @NotNull String table, @NotNull Path file) throws SQLException, IOException {
+        long start = System.nanoTime();
+        char separator = delimiter != null ? delimiter : defaultDelimiter(file);
+        List<Connection> sessions = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            sessions.add(dataSource.getConnection());
+            Plan plan = plan(sessions.get(0), table, channel, separator);
+            List<Split> splits = split(channel, plan);
+            for (int i = 1; i < Math.min(workers, splits.size()); i++) {
+                sessions.add(dataSource.getConnection());
+            }
+            Result result = run(sessions, channel, plan, splits);
+            result.bytes = channel.size();
+            result.elapsedNanos = System.nanoTime() - start;
+            logger.info("Carga de {} en {}: {}", file, table, result);
+            return result;
+        } finally {
+            for (Connection session : sessions) {
+                try {
+                    session.close();
+                } catch (SQLException e) {
+                    logger.error("Error al cerrar una conexión de la carga: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static char defaultDelimiter(@NotNull Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".tsv") || name.endsWith(".tab") ? '\t' : ',';
+    }
+
+    /**
+     * Lee las columnas de la tabla y, si el archivo tiene cabecera, la asocia con ellas.
+     */
+    @NotNull
+    private Plan plan(@NotNull Connection conn, @NotNull String table, @NotNull FileChannel channel, char separator) throws SQLException, IOException {
+        SchemaCache.TableSchema schema = SchemaCache.lookup(conn, table);
+        if (schema == null) {
+            throw new SQLException("La tabla " + table + " no existe");
+        }
+        Plan plan = new Plan(separator);
+        List<String> columns = schema.getColumnNames();
+        if (header && channel.size() > 0) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), SCAN_WINDOW));
+            RecordReader reader = new RecordReader(window, 0, window.limit(), separator);
+            List<String> names = reader.next();
+            if (names == null || reader.position() == window.limit() && window.limit() < channel.size()) {
+                throw new SQLException("La cabecera del archivo no cabe en " + SCAN_WINDOW + " bytes");
+            }
+            for (String name : names) {
+                String column = name == null ? null : name.trim();
+                if (column == null || !schema.hasColumn(column)) {
+                    throw new SQLException("La columna " + column + " de la cabecera no existe en la tabla " + table);
+                }
+            }
+            columns = new ArrayList<>();
+            for (String name : names) {
+                for (String column : schema.getColumnNames()) {
+                    if (column.equalsIgnoreCase(name.trim())) {
+                        columns.add(column);
+                    }
+                }
+            }
+            plan.dataStart = reader.position();
+        }
+        plan.columns = columns;
+        plan.types = new int[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            plan.types[i] = conversionType(schema.getColumnType(columns.get(i)), schema.getColumnTypeName(columns.get(i)));
+        }
+        List<String> quoted = new ArrayList<>();
+        for (String column : columns) {
+            quoted.add(LogicalBackupEngine.quote(column));
+        }
+        int dot = table.indexOf('.');
+        String qualified = dot > 0 ? LogicalBackupEngine.quote(table.substring(0, dot)) + "." + LogicalBackupEngine.quote(table.substring(dot + 1))
+                : LogicalBackupEngine.quote(table);
+        plan.insertPrefix = "INSERT INTO " + qualified + " (" + String.join(", ", quoted) + ") VALUES ";
+        plan.rowsPerStatement = Math.max(1, Math.min(rowsPerStatement, MAX_PLACEHOLDERS / Math.max(1, columns.size())));
+        return plan;
+    }
+
+    /**
+     * Divide los datos del archivo en partes que empiezan en un límite de registro. En TSV basta con buscar el
+     * siguiente salto de línea, porque los saltos dentro de un valor van escapados; en CSV pueden ir entre
+     * comillas, así que se recorre el archivo una vez siguiendo las comillas para saber dónde acaba cada registro.
+     */
+    @NotNull
+    private List<Split> split(@NotNull FileChannel channel, @NotNull Plan plan) throws IOException {
+        long size = channel.size();
+        long length = size - plan.dataStart;
+        List<Split> splits = new ArrayList<>();
+        if (length <= 0) {
+            return splits;
+        }
+        long count = Math.max((long) workers * SPLITS_PER_WORKER, (length + MAX_SPLIT_SIZE - 1) / MAX_SPLIT_SIZE);
+        long target = Math.max(1, (length + count - 1) / count);
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(plan.dataStart);
+        if (plan.separator == '\t') {
+            long from = plan.dataStart + target;
+            while (from < size) {
+                long next = nextLineStart(channel, from);
+                if (next >= size) {
+                    break;
+                }
+                bounds.add(next);
+                from = next + target;
+            }
+        } else {
+            boolean quoted = false;
+            long nextBound = plan.dataStart + target;
+            for (long position = plan.dataStart; position < size; position += MAX_SPLIT_SIZE) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_SPLIT_SIZE, size - position));
+                for (int i = 0; i < region.limit(); i++) {
+                    byte b = region.get(i);
+                    if (b == '"') {
+                        quoted = !quoted;
+                    } else if (b == '\n' && !quoted && position + i + 1 >= nextBound && position + i + 1 < size) {
+                        bounds.add(position + i + 1);
+                        nextBound = position + i + 1 + target;
+                    }
+                }
+            }
+        }
+        bounds.add(size);
+        for (int i = 0; i + 1 < bounds.size(); i++) {
+            splits.add(new Split(bounds.get(i), bounds.get(i + 1)));
+        }
+        return splits;
+    }
+
+    private static long nextLineStart(@NotNull FileChannel channel, long from) throws IOException {
+        long size = channel.size();
+        for (long position = from; position < size; position += SCAN_WINDOW) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SCAN_WINDOW, size - position));
+            for (int i = 0; i < window.limit(); i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    @NotNull
+    private Result run(@NotNull List<Connection> sessions, @NotNull FileChannel channel, @NotNull Plan plan, @NotNull List<Split> splits) throws SQLException, IOException {
+        BlockingQueue<Connection> idle = new ArrayBlockingQueue<>(sessions.size(), false, sessions);
+        ExecutorService executor = Executors.newFixedThreadPool(sessions.size(), runnable -> {
+            Thread thread = new Thread(runnable, "bulk-importer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Split> completion = new ExecutorCompletionService<>(executor);
+        AtomicInteger rejects = new AtomicInteger();
+        try {
+            for (Split split : splits) {
+                completion.submit(() -> {
+                    Connection session = idle.take();
+                    try {
+                        loadSplit(session, channel, plan, split, rejects);
+                    } finally {
+                        idle.put(session);
+                    }
+                    return split;
+                });
+            }
+            for (int i = 0; i < splits.size(); i++) {
+                completion.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("La carga fue interrumpida", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new SQLException("Error al cargar una parte del archivo: " + cause, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Los números de línea de cada parte son relativos hasta que se conocen los registros de las anteriores
+        Result result = new Result();
+        long line = header ? 1 : 0;
+        for (Split split : splits) {
+            for (Rejection rejection : split.rejections) {
+                rejection.line += line;
+                result.rejections.add(rejection);
+            }
+            line += split.records;
+            result.rows += split.rows;
+        }
+        return result;
+    }
+
+    /**
+     * Analiza una parte del archivo e inserta sus filas en lotes con la conexión indicada.
+     */
+    private void loadSplit(@NotNull Connection conn, @NotNull FileChannel channel, @NotNull Plan plan, @NotNull Split split,
+                           @NotNull AtomicInteger rejects) throws SQLException, IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, split.start, split.end - split.start);
+        RecordReader reader = new RecordReader(buffer, 0, buffer.limit(), plan.separator);
+        int columns = plan.columns.size();
+        List<Object[]> batch = new ArrayList<>(plan.rowsPerStatement);
+        List<Long> batchLines = new ArrayList<>(plan.rowsPerStatement);
+        try (PreparedStatement full = conn.prepareStatement(plan.insertSql(plan.rowsPerStatement))) {
+            List<String> fields;
+            while ((fields = reader.next()) != null) {
+                long line = ++split.records;
+                if (fields.size() == 1 && fields.get(0) != null && fields.get(0).isEmpty() && columns != 1) {
+                    continue;
+                }
+                if (fields.size() != columns) {
+                    reject(split, line, "tiene " + fields.size() + " campo(s) y se esperaban " + columns, rejects);
+                    continue;
+                }
+                Object[] row = new Object[columns];
+                try {
+                    for (int c = 0; c < columns; c++) {
+                        row[c] = convert(fields.get(c), plan.types[c], reader.wasQuoted(c));
+                    }
+                } catch (IllegalArgumentException e) {
+                    reject(split, line, "valor no válido: " + e.getMessage(), rejects);
+                    continue;
+                }
+                batch.add(row);
+                batchLines.add(line);
+                if (batch.size() == plan.rowsPerStatement) {
+                    insert(conn, full, plan, split, batch, batchLines, rejects);
+                }
+            }
+            if (!batch.isEmpty()) {
+                try (PreparedStatement partial = conn.prepareStatement(plan.insertSql(batch.size()))) {
+                    insert(conn, partial, plan, split, batch, batchLines, rejects);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserta un lote con una sola sentencia. Si el servidor la rechaza, inserta las filas de una en una y
+     * rechaza solo las que fallan.
+     */
+    private void insert(@NotNull Connection conn, @NotNull PreparedStatement pstmt, @NotNull Plan plan, @NotNull Split split,
+                        @NotNull List<Object[]> batch, @NotNull List<Long> lines, @NotNull AtomicInteger rejects) throws SQLException {
+        try {
+            int index = 1;
+            for (Object[] row : batch) {
+                for (Object value : row) {
+                    pstmt.setObject(index++, value);
+                }
+            }
+            pstmt.executeUpdate();
+            split.rows += batch.size();
+        } catch (SQLException e) {
+            logger.debug("El INSERT de {} fila(s) falló ({}); se reintenta fila a fila", batch.size(), e.getMessage());
+            try (PreparedStatement single = conn.prepareStatement(plan.insertSql(1))) {
+                for (int r = 0; r < batch.size(); r++) {
+                    try {
+                        Object[] row = batch.get(r);
+                        for (int c = 0; c < row.length; c++) {
+                            single.setObject(c + 1, row[c]);
+                        }
+                        single.executeUpdate();
+                        split.rows++;
+                    } catch (SQLException rowError) {
+                        reject(split, lines.get(r), rowError.getMessage(), rejects);
+                    }
+                }
+            }
+        }
+        batch.clear();
+        lines.clear();
+    }
+
+    private void reject(@NotNull Split split, long line, @NotNull String reason, @NotNull AtomicInteger rejects) throws SQLException {
+        split.rejections.add(new Rejection(line, reason));
+        if (rejects.incrementAndGet() > maxRejects) {
+            throw new SQLException("La carga se interrumpió: más de " + maxRejects + " línea(s) rechazada(s)");
+        }
+    }
+
+    /**
+     * Devuelve el tipo al que se convierten los campos de una columna. Connector/J informa de {@code YEAR} como
+     * {@link Types#DATE}, pero sus valores son años como {@code 2024}, así que se tratan como enteros.
+     */
+    private static int conversionType(int sqlType, @Nullable String typeName) {
+        if (typeName != null && typeName.toUpperCase(Locale.ROOT).startsWith("YEAR")) {
+            return Types.INTEGER;
+        }
+        return sqlType;
+    }
+
+    /**
+     * Convierte el texto de un campo al tipo de su columna. Los enteros que no caben en un {@code long}, como los
+     * de {@code BIGINT UNSIGNED}, se envían como {@link BigDecimal}. En las columnas que el driver informa como
+     * {@code BIT}, que incluyen {@code TINYINT(1)}, los enteros distintos de 0 y 1 se envían tal cual para que
+     * los convierta el servidor.
+     *
+     * @throws IllegalArgumentException si el texto no es un valor válido del tipo
+     */
+    @Nullable
+    private static Object convert(@Nullable String text, int sqlType, boolean quoted) {
+        if (text == null) {
+            return null;
+        }
+        if (text.isEmpty() && !quoted && !isText(sqlType)) {
+            return null;
+        }
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                BigInteger integer = new BigInteger(text.trim());
+                return integer.bitLength() < Long.SIZE ? (Object) integer.longValue() : new BigDecimal(integer);
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return new BigDecimal(text.trim());
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return Double.valueOf(text.trim());
+            case Types.BIT:
+            case Types.BOOLEAN:
+                String flag = text.trim();
+                if (flag.equals("1") || flag.equalsIgnoreCase("true")) {
+                    return Boolean.TRUE;
+                } else if (flag.equals("0") || flag.equalsIgnoreCase("false")) {
+                    return Boolean.FALSE;
+                } else if (flag.matches("[+-]?\\d{1,18}")) {
+                    return Long.valueOf(flag);
+                }
+                throw new IllegalArgumentException("'" + text + "' no es un valor lógico");
+            case Types.DATE:
+                return Date.valueOf(text.trim());
+            case Types.TIME:
+                return Time.valueOf(text.trim());
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return Timestamp.valueOf(text.trim());
+            default:
+                return text;
+        }
+    }
+
+    private static boolean isText(int sqlType) {
+        return sqlType == Types.CHAR || sqlType == Types.VARCHAR || sqlType == Types.LONGVARCHAR
+                || sqlType == Types.NCHAR || sqlType == Types.NVARCHAR || sqlType == Types.LONGNVARCHAR || sqlType == Types.CLOB;
+    }
+
+    /**
+     * El resultado de una carga.
+     */
+    public static final class Result {
+        private final List<Rejection> rejections = new ArrayList<>();
+        private long rows;
+        private long bytes;
+        private long elapsedNanos;
+
+        /**
+         * Devuelve el número de filas insertadas.
+         *
+         * @return las filas insertadas
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * Devuelve las líneas rechazadas, en orden de línea.
+         *
+         * @return los rechazos
+         */
+        public List<Rejection> getRejections() {
+            return Collections.unmodifiableList(rejections);
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0d : rows / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d fila(s), %d rechazada(s), %d MB en %.1f s (%.0f filas/s, %.1f MB/s)", rows, rejections.size(),
+                    bytes / (1024 * 1024), elapsedNanos / 1e9, getRowsPerSecond(), bytes / 1048576d / Math.max(elapsedNanos / 1e9, 1e-9));
+        }
+    }
+
+    /**
+     * Una línea del archivo que no se cargó.
+     */
+    public static final class Rejection {
+        private long line;
+        private final String reason;
+
+        private Rejection(long line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+
+        /**
+         * Devuelve el número de la línea en el archivo, empezando en 1 y contando la cabecera. Un registro CSV con
+         * saltos de línea entre comillas cuenta como una sola línea.
+         *
+         * @return el número de línea
+         */
+        public long getLine() {
+            return line;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "línea " + line + ": " + reason;
+        }
+    }
+
+    /**
+     * Las columnas que se cargan, su tipo y la sentencia de inserción.
+     */
+    private static final class Plan {
+        private final char separator;
+        private long dataStart;
+        private List<String> columns;
+        private int[] types;
+        private String insertPrefix;
+        private int rowsPerStatement;
+
+        private Plan(char separator) {
+            this.separator = separator;
+        }
+
+        @NotNull
+        private String insertSql(int rows) {
+            StringBuilder placeholders = new StringBuilder("(");
+            for (int i = 0; i < columns.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ",?");
+            }
+            placeholders.append(')');
+            StringBuilder sql = new StringBuilder(insertPrefix.length() + rows * (placeholders.length() + 1));
+            sql.append(insertPrefix);
+            for (int r = 0; r < rows; r++) {
+                if (r > 0) {
+                    sql.append(',');
+                }
+                sql.append(placeholders);
+            }
+            return sql.toString();
+        }
+    }
+
+    /**
+     * Una parte del archivo, sus registros, las filas insertadas y las líneas rechazadas con número relativo.
+     */
+    private static final class Split {
+        private final long start;
+        private final long end;
+        private final List<Rejection> rejections = new ArrayList<>();
+        private long records;
+        private long rows;
+
+        private Split(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Lee registros de una región proyectada en memoria. Los bytes de cada campo se copian a un búfer y se
+     * decodifican como UTF-8 una sola vez, al terminar el campo.
+     */
+    private static final class RecordReader {
+        private final MappedByteBuffer buffer;
+        private final int end;
+        private final char separator;
+        private final boolean csv;
+        private final List<Boolean> quotedFields = new ArrayList<>();
+        private byte[] field = new byte[256];
+        private int length;
+        private int position;
+
+        private RecordReader(MappedByteBuffer buffer, int start, int end, char separator) {
+            this.buffer = buffer;
+            this.position = start;
+            this.end = end;
+            this.separator = separator;
+            this.csv = separator != '\t';
+        }
+
+        private int position() {
+            return position;
+        }
+
+        private boolean wasQuoted(int index) {
+            return quotedFields.get(index);
+        }
+
+        /**
+         * Lee el registro siguiente.
+         *
+         * @return los valores del registro, o null al final de la región
+         */
+        @Nullable
+        private List<String> next() {
+            if (position >= end) {
+                return null;
+            }
+            List<String> values = new ArrayList<>();
+            quotedFields.clear();
+            if (!csv) {
+                int lineEnd = position;
+                while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int contentEnd = lineEnd > position && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                ensure(contentEnd - position);
+                buffer.get(position, field, 0, contentEnd - position);
+                String line = new String(field, 0, contentEnd - position, StandardCharsets.UTF_8);
+                position = Math.min(end, lineEnd + 1);
+                values = TsvRowCodec.parseLine(line);
+                for (int i = 0; i < values.size(); i++) {
+                    quotedFields.add(Boolean.FALSE);
+                }
+                return values;
+            }
+
+            boolean quoted = false;
+            boolean wasQuoted = false;
+            length = 0;
+            while (position < end) {
+                byte b = buffer.get(position++);
+                if (quoted) {
+                    if (b == '"') {
+                        if (position < end && buffer.get(position) == '"') {
+                            append(b);
+                            position++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        append(b);
+                    }
+                } else if (b == '"') {
+                    quoted = true;
+                    wasQuoted = true;
+                } else if (b == separator) {
+                    addField(values, wasQuoted);
+                    wasQuoted = false;
+                } else if (b == '\n') {
+                    break;
+                } else if (b != '\r' || position < end && buffer.get(position) != '\n') {
+                    append(b);
+                }
+            }
+            addField(values, wasQuoted);
+            return values;
+        }
+
+        private void addField(@NotNull List<String> values, boolean wasQuoted) {
+            if (!wasQuoted && length == 2 && field[0] == '\\' && field[1] == 'N') {
+                values.add(null);
+            } else {
+                values.add(new String(field, 0, length, StandardCharsets.UTF_8));
+            }
+            quotedFields.add(wasQuoted);
+            length = 0;
+        }
+
+        private void append(byte b) {
+            if (length == field.length) {
+                ensure(length + 1);
+            }
+            field[length++] = b;
+        }
+
+        private void ensure(int capacity) {
+            if (capacity > field.length) {
+                byte[] larger = new byte[Math.max(capacity, field.length * 2)];
+                System.arraycopy(field, 0, larger, 0, length);
+                field = larger;
+            }
+        }
+    }
+}
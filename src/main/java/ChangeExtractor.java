@@ -0,0 +1,572 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Extrae de forma incremental las filas nuevas o modificadas de varias tablas y las entrega a los consumidores
+ * registrados, en lugar de que cada consumidor recorra las tablas completas.
+ * <p>
+ * Cada tabla se sigue por una marca de agua: una columna que solo crece, como un id {@code AUTO_INCREMENT} o una
+ * columna {@code updated_at}. Cuando la marca de agua no es única se indica además la clave primaria, que desempata
+ * las filas con la misma marca. Las filas se leen por páginas acotadas con paginación por clave
+ * ({@code WHERE marca > ? ORDER BY marca LIMIT ?}), así que cada consulta usa el índice de la marca y nunca vuelve
+ * a leer filas ya extraídas.
+ * <p>
+ * Con {@link #start()} un hilo lee las páginas y las deja en una cola acotada, y otro las entrega; si los
+ * consumidores son más lentos, la cola se llena y la lectura se detiene hasta que haya sitio. Después de entregar
+ * cada página a todos los consumidores se guarda la posición en el archivo de punto de control, con una escritura
+ * atómica, y al crear de nuevo el extractor se continúa desde ahí. Tras una caída solo puede repetirse la página
+ * que se estaba entregando; cada {@link Change} lleva su posición para que un consumidor que la guarde junto con
+ * sus propios datos pueda descartar las filas ya aplicadas.
+ * <p>
+ * Las filas con la marca de agua en NULL no se extraen. Con una columna de fecha, una transacción que confirme
+ * después de otra más reciente puede quedar por detrás de la marca; conviene que la columna la asigne el servidor.
+ */
+public class ChangeExtractor implements AutoCloseable {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 1000;
+    private static final Logger logger = LoggerFactory.getLogger(ChangeExtractor.class);
+    private final DataSource dataSource;
+    private final Path checkpointFile;
+    private final Properties checkpoint = new Properties();
+    private final Map<String, TableCursor> tables = new LinkedHashMap<>();
+    private final List<Consumer<Change>> consumers = new CopyOnWriteArrayList<>();
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private long pollIntervalMillis = DEFAULT_POLL_INTERVAL_MILLIS;
+    private volatile boolean running;
+    private volatile Throwable failure;
+    private Thread reader;
+    private Thread dispatcher;
+
+    /**
+     * Crea un extractor que guarda su posición en un archivo local.
+     *
+     * @param dataSource     el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param checkpointFile el archivo de punto de control; si existe, se continúa desde su posición
+     * @throws IOException si el archivo existe y no se puede leer
+     */
+    public ChangeExtractor(@NotNull DataSource dataSource, @NotNull Path checkpointFile) throws IOException {
+        this.dataSource = dataSource;
+        this.checkpointFile = checkpointFile;
+        if (Files.exists(checkpointFile)) {
+            try (Reader reader = Files.newBufferedReader(checkpointFile, StandardCharsets.UTF_8)) {
+                checkpoint.load(reader);
+            }
+        }
+    }
+
+    /**
+     * Establece el número máximo de filas que se leen por consulta.
+     *
+     * @param pageSize las filas por página, al menos 1
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("El tamaño de página debe ser mayor que cero");
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Establece el número de páginas leídas que pueden esperar a ser entregadas antes de que se detenga la lectura.
+     *
+     * @param queueCapacity las páginas, al menos 1
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("La capacidad de la cola debe ser mayor que cero");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Establece cuánto se espera entre consultas cuando todas las tablas están al día.
+     *
+     * @param pollIntervalMillis los milisegundos de espera, al menos 1
+     */
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        if (pollIntervalMillis <= 0) {
+            throw new IllegalArgumentException("El intervalo de consulta debe ser mayor que cero");
+        }
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    /**
+     * Registra una tabla cuya marca de agua es única, como un id {@code AUTO_INCREMENT}.
+     *
+     * @param table           el nombre de la tabla, opcionalmente con su esquema
+     * @param watermarkColumn la columna que solo crece
+     * @throws SQLException si la tabla o la columna no existen
+     */
+    public void addTable(@NotNull String table, @NotNull String watermarkColumn) throws SQLException {
+        addTable(table, watermarkColumn, null);
+    }
+
+    /**
+     * Registra una tabla. Si la marca de agua puede repetirse, como una columna {@code updated_at}, se debe indicar
+     * una columna única que desempate las filas con la misma marca.
+     *
+     * @param table           el nombre de la tabla, opcionalmente con su esquema
+     * @param watermarkColumn la columna que solo crece
+     * @param keyColumn       la columna única que desempata, o null si la marca de agua ya es única
+     * @throws SQLException si la tabla o alguna de las columnas no existen
+     */
+    public synchronized void addTable(@NotNull String table, @NotNull String watermarkColumn, @Nullable String keyColumn) throws SQLException {
+        if (running) {
+            throw new IllegalStateException("No se pueden añadir tablas mientras el extractor está en marcha");
+        }
+        TableCursor cursor;
+        try (Connection conn = dataSource.getConnection()) {
+            SchemaCache.TableSchema schema = SchemaCache.lookup(conn, table);
+            if (schema == null) {
+                throw new SQLException("La tabla " + table + " no existe");
+            }
+            Integer watermarkType = schema.getColumnType(watermarkColumn);
+            if (watermarkType == null) {
+                throw new SQLException("La columna " + watermarkColumn + " no existe en la tabla " + table);
+            }
+            Integer keyType = keyColumn == null ? null : schema.getColumnType(keyColumn);
+            if (keyColumn != null && keyType == null) {
+                throw new SQLException("La columna " + keyColumn + " no existe en la tabla " + table);
+            }
+            cursor = new TableCursor(table, watermarkColumn, watermarkType, keyColumn, keyType);
+        }
+        cursor.restore(checkpoint);
+        tables.put(table, cursor);
+    }
+
+    /**
+     * Registra un consumidor. Los consumidores reciben las filas en orden de marca de agua, de una en una y desde un
+     * único hilo; si uno lanza una excepción, la página no se confirma y el extractor se detiene.
+     *
+     * @param consumer el consumidor de cambios
+     */
+    public void addConsumer(@NotNull Consumer<Change> consumer) {
+        consumers.add(consumer);
+    }
+
+    /**
+     * Extrae y entrega en el hilo del llamador todas las filas nuevas de cada tabla, página a página, y guarda la
+     * posición después de cada página.
+     *
+     * @return el número de filas entregadas
+     * @throws SQLException si ocurre un error al leer una tabla
+     * @throws IOException  si no se puede guardar el punto de control
+     */
+    public synchronized int poll() throws SQLException, IOException {
+        if (running) {
+            throw new IllegalStateException("El extractor ya está en marcha en segundo plano");
+        }
+        int delivered = 0;
+        try (Connection conn = dataSource.getConnection()) {
+            for (TableCursor cursor : tables.values()) {
+                cursor.rewind();
+                Page page;
+                do {
+                    page = cursor.fetch(conn, pageSize);
+                    if (!page.changes.isEmpty()) {
+                        deliver(page);
+                        cursor.advance(page);
+                        delivered += page.changes.size();
+                    }
+                } while (page.changes.size() == pageSize);
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Inicia la extracción continua en segundo plano.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        for (TableCursor cursor : tables.values()) {
+            cursor.rewind();
+        }
+        failure = null;
+        running = true;
+        BlockingQueue<Page> queue = new ArrayBlockingQueue<>(queueCapacity);
+        reader = new Thread(() -> read(queue), "change-extractor-reader");
+        dispatcher = new Thread(() -> dispatch(queue), "change-extractor-dispatcher");
+        reader.setDaemon(true);
+        dispatcher.setDaemon(true);
+        reader.start();
+        dispatcher.start();
+        logger.info("Extracción de cambios iniciada para {} tabla(s)", tables.size());
+    }
+
+    /**
+     * Devuelve el error que detuvo la extracción en segundo plano.
+     *
+     * @return el error, o null si la extracción no se detuvo por un error
+     */
+    @Nullable
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Detiene la extracción en segundo plano. La página que se está entregando se termina de entregar y se
+     * confirma; las que esperan en la cola se descartan y se volverán a leer la próxima vez.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (reader == null) {
+            return;
+        }
+        reader.interrupt();
+        try {
+            reader.join();
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reader = null;
+        dispatcher = null;
+        logger.info("Extracción de cambios detenida");
+    }
+
+    /**
+     * Lee una página de cada tabla por turno y la deja en la cola, que bloquea cuando está llena. Cuando ninguna
+     * tabla tiene una página completa espera el intervalo de consulta. Los errores de lectura se reintentan en la
+     * siguiente vuelta.
+     */
+    private void read(@NotNull BlockingQueue<Page> queue) {
+        while (running) {
+            boolean behind = false;
+            try (Connection conn = dataSource.getConnection()) {
+                for (TableCursor cursor : tables.values()) {
+                    Page page = cursor.fetch(conn, pageSize);
+                    if (!page.changes.isEmpty()) {
+                        queue.put(page);
+                        cursor.advance(page);
+                    }
+                    behind |= page.changes.size() == pageSize;
+                }
+            } catch (SQLException e) {
+                logger.error("Error al leer cambios; se reintentará: {}", e.getMessage());
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (!behind) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(pollIntervalMillis);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void dispatch(@NotNull BlockingQueue<Page> queue) {
+        while (running) {
+            try {
+                Page page = queue.poll(pollIntervalMillis, TimeUnit.MILLISECONDS);
+                if (page != null) {
+                    deliver(page);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException e) {
+                logger.error("La extracción de cambios se detuvo: {}", e.toString());
+                failure = e;
+                running = false;
+                reader.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Entrega una página a todos los consumidores y, solo después, confirma su posición en el punto de control.
+     */
+    private void deliver(@NotNull Page page) throws IOException {
+        for (Change change : page.changes) {
+            for (Consumer<Change> consumer : consumers) {
+                consumer.accept(change);
+            }
+        }
+        synchronized (checkpoint) {
+            page.cursor.commit(page, checkpoint);
+            storeCheckpoint();
+        }
+        logger.debug("Tabla {}: {} cambio(s) entregado(s) hasta {}", page.cursor.table, page.changes.size(), page.position);
+    }
+
+    private void storeCheckpoint() throws IOException {
+        Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            checkpoint.store(writer, "Posición de la extracción de cambios");
+        }
+        Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @NotNull
+    static Object toValue(@NotNull String text, int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return new BigDecimal(text);
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return Timestamp.valueOf(text);
+            case Types.DATE:
+                return Date.valueOf(text);
+            default:
+                return text;
+        }
+    }
+
+    @Nullable
+    static Object readValue(@NotNull ResultSet rs, @NotNull String column, int sqlType) throws SQLException {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return rs.getBigDecimal(column);
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return rs.getTimestamp(column);
+            case Types.DATE:
+                return rs.getDate(column);
+            default:
+                return rs.getString(column);
+        }
+    }
+
+    @Nullable
+    static String toText(@Nullable Object value) {
+        if (value == null) {
+            return null;
+        }
+        return value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value.toString();
+    }
+
+    /**
+     * Una fila nueva o modificada de una tabla.
+     */
+    public static final class Change {
+        private final String table;
+        private final Map<String, Object> row;
+        private final String position;
+
+        private Change(String table, Map<String, Object> row, String position) {
+            this.table = table;
+            this.row = Collections.unmodifiableMap(row);
+            this.position = position;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * Devuelve los valores de la fila.
+         *
+         * @return los valores por nombre de columna, en el orden de la consulta
+         */
+        public Map<String, Object> getRow() {
+            return row;
+        }
+
+        /**
+         * Devuelve la posición de la fila: su marca de agua y, si la tabla la tiene, su columna de desempate.
+         * Las posiciones de una tabla crecen en el orden de entrega.
+         *
+         * @return la posición como texto
+         */
+        public String getPosition() {
+            return position;
+        }
+
+        @Override
+        public String toString() {
+            return table + "@" + position;
+        }
+    }
+
+    /**
+     * Una página de cambios de una tabla y la posición de su última fila.
+     */
+    private static final class Page {
+        private final TableCursor cursor;
+        private final List<Change> changes;
+        private final Object watermark;
+        private final Object key;
+        private final String position;
+
+        private Page(TableCursor cursor, List<Change> changes, Object watermark, Object key, String position) {
+            this.cursor = cursor;
+            this.changes = changes;
+            this.watermark = watermark;
+            this.key = key;
+            this.position = position;
+        }
+    }
+
+    /**
+     * La posición de una tabla: la confirmada, que se guarda en el punto de control, y la leída, que puede ir por
+     * delante mientras hay páginas en la cola.
+     */
+    private static final class TableCursor {
+        private final String table;
+        private final String watermarkColumn;
+        private final int watermarkType;
+        private final String keyColumn;
+        private final int keyType;
+        private final String firstSql;
+        private final String nextSql;
+        private Object committedWatermark;
+        private Object committedKey;
+        private Object watermark;
+        private Object key;
+
+        private TableCursor(String table, String watermarkColumn, int watermarkType, String keyColumn, Integer keyType) {
+            this.table = table;
+            this.watermarkColumn = watermarkColumn;
+            this.watermarkType = watermarkType;
+            this.keyColumn = keyColumn;
+            this.keyType = keyType == null ? Types.OTHER : keyType;
+            String from = quoteQualified(table);
+            String mark = LogicalBackupEngine.quote(watermarkColumn);
+            String order;
+            if (keyColumn == null) {
+                order = " ORDER BY " + mark + " LIMIT ?";
+                nextSql = "SELECT * FROM " + from + " WHERE " + mark + " > ?" + order;
+            } else {
+                String tiebreak = LogicalBackupEngine.quote(keyColumn);
+                order = " ORDER BY " + mark + ", " + tiebreak + " LIMIT ?";
+                nextSql = "SELECT * FROM " + from + " WHERE " + mark + " > ? OR (" + mark + " = ? AND " + tiebreak + " > ?)" + order;
+            }
+            firstSql = "SELECT * FROM " + from + " WHERE " + mark + " IS NOT NULL" + order;
+        }
+
+        @NotNull
+        private static String quoteQualified(@NotNull String table) {
+            int dot = table.indexOf('.');
+            return dot > 0 ? LogicalBackupEngine.quote(table.substring(0, dot)) + "." + LogicalBackupEngine.quote(table.substring(dot + 1))
+                    : LogicalBackupEngine.quote(table);
+        }
+
+        private void restore(@NotNull Properties checkpoint) {
+            String savedWatermark = checkpoint.getProperty(table + ".watermark");
+            String savedKey = checkpoint.getProperty(table + ".key");
+            if (savedWatermark != null && (keyColumn == null || savedKey != null)) {
+                committedWatermark = toValue(savedWatermark, watermarkType);
+                committedKey = savedKey == null ? null : toValue(savedKey, keyType);
+                logger.info("Tabla {}: se continúa desde {}", table, position(savedWatermark, savedKey));
+            }
+            rewind();
+        }
+
+        private void rewind() {
+            watermark = committedWatermark;
+            key = committedKey;
+        }
+
+        private void advance(@NotNull Page page) {
+            watermark = page.watermark;
+            key = page.key;
+        }
+
+        private void commit(@NotNull Page page, @NotNull Properties checkpoint) {
+            committedWatermark = page.watermark;
+            committedKey = page.key;
+            checkpoint.setProperty(table + ".watermark", toText(page.watermark));
+            if (page.key != null) {
+                checkpoint.setProperty(table + ".key", toText(page.key));
+            }
+        }
+
+        /**
+         * Lee la página siguiente a la posición leída, sin avanzarla.
+         */
+        @NotNull
+        private Page fetch(@NotNull Connection conn, int pageSize) throws SQLException {
+            Object fromWatermark = watermark;
+            Object fromKey = key;
+            List<Change> changes = new ArrayList<>();
+            Object lastWatermark = fromWatermark;
+            Object lastKey = fromKey;
+            String lastPosition = null;
+            try (PreparedStatement pstmt = conn.prepareStatement(fromWatermark == null ? firstSql : nextSql)) {
+                int index = 1;
+                if (fromWatermark != null) {
+                    pstmt.setObject(index++, fromWatermark);
+                    if (keyColumn != null) {
+                        pstmt.setObject(index++, fromWatermark);
+                        pstmt.setObject(index++, fromKey);
+                    }
+                }
+                pstmt.setInt(index, pageSize);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    int columns = meta.getColumnCount();
+                    while (rs.next()) {
+                        Map<String, Object> row = new LinkedHashMap<>();
+                        for (int i = 1; i <= columns; i++) {
+                            row.put(meta.getColumnLabel(i), rs.getObject(i));
+                        }
+                        lastWatermark = readValue(rs, watermarkColumn, watermarkType);
+                        lastKey = keyColumn == null ? null : readValue(rs, keyColumn, keyType);
+                        lastPosition = position(toText(lastWatermark), toText(lastKey));
+                        changes.add(new Change(table, row, lastPosition));
+                    }
+                }
+            }
+            return new Page(this, changes, lastWatermark, lastKey, lastPosition);
+        }
+
+        @NotNull
+        private String position(@Nullable String watermarkText, @Nullable String keyText) {
+            return keyColumn == null ? watermarkText : watermarkText + "/" + keyText;
+        }
+    }
+}
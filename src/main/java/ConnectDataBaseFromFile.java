@@ -7,11 +7,12 @@ import javax.crypto.spec.SecretKeySpec;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
 
@@ -21,38 +22,78 @@ public class ConnectDataBaseFromFile {
     private static final String ENCRYPTION_ALGORITHM = "AES";
     private static final String ENCRYPTED_PROPERTIES_FILE_NAME = "bade.properties";
     private static final String SECRET_KEY = "secretKey.key";
-    private static final Cipher cipher;
-
-    static {
+    /**
+     * Cipher instances are not thread-safe, so each thread decrypts with its own.
+     */
+    private static final ThreadLocal<Cipher> cipher = ThreadLocal.withInitial(() -> {
         try {
-            cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
+            return Cipher.getInstance(ENCRYPTION_ALGORITHM);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
             logger.error("Error al inicializar el cifrado", e);
             throw new RuntimeException("Error al inicializar el cifrado: " + e.getMessage(), e);
         }
-    }
+    });
+    private static volatile CachedProperties cachedProperties;
 
     /**
      * Connects to a database using encrypted information from a properties file.
+     * The connection is borrowed from the shared {@link ConnectionPool} for the decrypted URL and user;
+     * closing it returns it to the pool.
      *
      * @return a connection to the database
      * @throws InvalidKeyException if the secret key is invalid
      */
     public static Connection connectToDataBaseFromFile() throws InvalidKeyException, SQLException, IOException {
-        byte[] keyData = Files.readAllBytes(Paths.get(SECRET_KEY));
-        SecretKey SECRET_KEY = new SecretKeySpec(keyData, ENCRYPTION_ALGORITHM);
-        Properties properties = readEncryptedPropertiesFile(SECRET_KEY);
+        Properties properties = loadProperties();
         String url = properties.getProperty("url");
         String username = properties.getProperty("user");
         String password = properties.getProperty("password");
         String databaseName = properties.getProperty("databaseName");
 
-        String urlFull = url + databaseName;
-        Connection conn = DriverManager.getConnection(urlFull, username, password);
+        String urlFull = UrlConnectionMySQL.withBatchRewrite(url + databaseName);
+        Connection conn = ConnectionPool.shared(urlFull, username, password).getConnection();
         logger.info("Conexión exitosa a la base de datos usando información cifrada desde el archivo");
         return conn;
     }
 
+    /**
+     * Returns the decrypted connection properties, reading and decrypting the files only when the key file
+     * or the properties file changed since the last call. Changes are detected by modification time and size.
+     *
+     * @return the decrypted properties
+     * @throws InvalidKeyException if the secret key is invalid
+     * @throws IOException         if the key or properties file cannot be read
+     */
+    @NotNull
+    private static Properties loadProperties() throws InvalidKeyException, IOException {
+        FileStamp keyStamp = FileStamp.of(Paths.get(SECRET_KEY));
+        FileStamp propertiesStamp = FileStamp.of(Paths.get(ENCRYPTED_PROPERTIES_FILE_NAME));
+        CachedProperties current = cachedProperties;
+        if (current != null && current.matches(keyStamp, propertiesStamp)) {
+            return current.properties;
+        }
+
+        synchronized (ConnectDataBaseFromFile.class) {
+            current = cachedProperties;
+            if (current != null && current.matches(keyStamp, propertiesStamp)) {
+                return current.properties;
+            }
+            byte[] keyData = Files.readAllBytes(Paths.get(SECRET_KEY));
+            SecretKey secretKey = new SecretKeySpec(keyData, ENCRYPTION_ALGORITHM);
+            Properties properties = readEncryptedPropertiesFile(secretKey);
+            cachedProperties = new CachedProperties(keyStamp, propertiesStamp, properties);
+            logger.info("Propiedades de conexión descifradas y guardadas en caché");
+            return properties;
+        }
+    }
+
+    /**
+     * Discards the cached connection properties so the next connection reads the files again.
+     */
+    public static void invalidateCache() {
+        cachedProperties = null;
+    }
+
     /**
      * Reads and decrypts an encrypted properties file.
      *
@@ -72,10 +113,11 @@ public class ConnectDataBaseFromFile {
         }
 
         // Descifrar el contenido del archivo
-        cipher.init(Cipher.DECRYPT_MODE, secretKey);
+        Cipher decryptCipher = cipher.get();
+        decryptCipher.init(Cipher.DECRYPT_MODE, secretKey);
         byte[] decryptedContent;
         try {
-            decryptedContent = cipher.doFinal(encryptedContent);
+            decryptedContent = decryptCipher.doFinal(encryptedContent);
         } catch (IllegalBlockSizeException | BadPaddingException e) {
             logger.error("Error al descifrar el archivo de propiedades", e);
             throw new RuntimeException("Error al descifrar el archivo de propiedades: " + e.getMessage(), e);
@@ -91,4 +133,46 @@ public class ConnectDataBaseFromFile {
         }
         return properties;
     }
-}
\ No newline at end of file
+
+    /**
+     * Modification time and size of a file, used to detect changes without reading it.
+     */
+    private static final class FileStamp {
+        private final long lastModified;
+        private final long size;
+
+        private FileStamp(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @NotNull
+        private static FileStamp of(Path path) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new FileStamp(attributes.lastModifiedTime().toMillis(), attributes.size());
+        }
+
+        private boolean sameAs(@NotNull FileStamp other) {
+            return lastModified == other.lastModified && size == other.size;
+        }
+    }
+
+    /**
+     * Decrypted properties together with the stamps of the files they were read from.
+     */
+    private static final class CachedProperties {
+        private final FileStamp keyStamp;
+        private final FileStamp propertiesStamp;
+        private final Properties properties;
+
+        private CachedProperties(FileStamp keyStamp, FileStamp propertiesStamp, Properties properties) {
+            this.keyStamp = keyStamp;
+            this.propertiesStamp = propertiesStamp;
+            this.properties = properties;
+        }
+
+        private boolean matches(FileStamp key, FileStamp props) {
+            return keyStamp.sameAs(key) && propertiesStamp.sameAs(props);
+        }
+    }
+}
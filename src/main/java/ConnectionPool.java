@@ -0,0 +1,542 @@
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool de conexiones JDBC que implementa {@link DataSource}.
+ * Las conexiones libres se guardan en una pila sin bloqueos y el número de conexiones prestadas se limita con
+ * un semáforo, por lo que pedir y devolver una conexión libre no toma ningún candado. Al devolverse, cada
+ * conexión cierra las sentencias abiertas a través del préstamo y recupera su estado inicial (autocommit,
+ * aislamiento, solo lectura y catálogo). Una tarea periódica
+ * cierra las conexiones libres que superan el tiempo de inactividad, mantiene el tamaño mínimo y avisa de las
+ * conexiones prestadas durante más tiempo que el umbral de fugas.
+ */
+public class ConnectionPool implements DataSource, AutoCloseable {
+
+    public static final int DEFAULT_MIN_SIZE = 2;
+    public static final int DEFAULT_MAX_SIZE = 10;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_LEAK_THRESHOLD_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long HOUSEKEEPING_PERIOD_SECONDS = 30;
+    private static final int STATEMENT_PURGE_THRESHOLD = 64;
+    private static final Set<String> STATEMENT_FACTORIES = Set.of("createStatement", "prepareStatement", "prepareCall");
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+    private static final Map<String, ConnectionPool> SHARED_POOLS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService HOUSEKEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "connection-pool-housekeeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final Semaphore permits;
+    private final ScheduledFuture<?> housekeeping;
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private volatile long leakThresholdMillis = DEFAULT_LEAK_THRESHOLD_MILLIS;
+    private volatile long borrowTimeoutMillis = DEFAULT_BORROW_TIMEOUT_MILLIS;
+    private volatile boolean closed;
+    private PrintWriter logWriter;
+
+    public ConnectionPool(String url, String user, String password) {
+        this(url, user, password, DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Crea un pool de conexiones.
+     *
+     * @param url      la URL JDBC de la base de datos
+     * @param user     el usuario de la base de datos
+     * @param password la contraseña del usuario
+     * @param minSize  el número de conexiones que se mantienen abiertas aunque estén libres
+     * @param maxSize  el número máximo de conexiones abiertas a la vez
+     */
+    public ConnectionPool(@NotNull String url, String user, String password, int minSize, int maxSize) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Tamaños del pool no válidos: mínimo " + minSize + ", máximo " + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeping = HOUSEKEEPER.scheduleWithFixedDelay(this::houseKeep, 0, HOUSEKEEPING_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Crea un pool de conexiones MySQL a partir de la configuración de conexión de la librería.
+     */
+    public ConnectionPool(@NotNull IpAddressConfig ipAddress, @NotNull PortConnect port, @NotNull UserConnect user, @NotNull PasswordConnect password, @NotNull DataBaseNameConnect databaseName) {
+        this(buildUrl(ipAddress, port, databaseName), user.getUserConnect(), password.getPasswordConnect());
+    }
+
+    /**
+     * Devuelve el pool compartido para una URL y un usuario, creándolo la primera vez.
+     * Los pools compartidos se indexan solo por URL y usuario, para no guardar contraseñas en claves estáticas.
+     * Si la contraseña no coincide con la del pool existente, primero se abre una conexión con ella: si falla,
+     * se rechaza la llamada y el pool existente sigue en uso; si funciona, por ejemplo porque la contraseña se
+     * cambió, el pool se sustituye por uno nuevo que empieza con esa conexión.
+     *
+     * @param url      la URL JDBC de la base de datos
+     * @param user     el usuario de la base de datos
+     * @param password la contraseña del usuario
+     * @return el pool compartido
+     * @throws SQLException si la contraseña no coincide con la del pool compartido y no permite conectarse
+     */
+    @NotNull
+    public static ConnectionPool shared(@NotNull String url, String user, String password) throws SQLException {
+        String key = url + "|" + user;
+        ConnectionPool pool = SHARED_POOLS.get(key);
+        if (pool != null && !pool.closed && pool.hasPassword(password)) {
+            return pool;
+        }
+        synchronized (SHARED_POOLS) {
+            pool = SHARED_POOLS.get(key);
+            if (pool == null || pool.closed) {
+                pool = new ConnectionPool(url, user, password);
+                SHARED_POOLS.put(key, pool);
+                return pool;
+            }
+            if (pool.hasPassword(password)) {
+                return pool;
+            }
+            Connection probe;
+            try {
+                probe = DriverManager.getConnection(url, user, password);
+            } catch (SQLException e) {
+                throw new SQLException("La contraseña no coincide con la del pool compartido de " + url
+                        + " y no permite conectarse; el pool existente se mantiene", e.getSQLState(), e);
+            }
+            ConnectionPool replacement = new ConnectionPool(url, user, password);
+            replacement.adopt(probe);
+            SHARED_POOLS.put(key, replacement);
+            logger.info("La contraseña del pool compartido de {} cambió; se sustituye el pool", url);
+            pool.close();
+            return replacement;
+        }
+    }
+
+    /**
+     * Añade al pool como libre una conexión física ya abierta con sus credenciales.
+     */
+    private void adopt(@NotNull Connection physical) throws SQLException {
+        PooledConnection pooled;
+        try {
+            pooled = new PooledConnection(physical);
+        } catch (SQLException e) {
+            physical.close();
+            throw e;
+        }
+        total.incrementAndGet();
+        pooled.lastUsed = System.currentTimeMillis();
+        idle.offerFirst(pooled);
+    }
+
+    private boolean hasPassword(String candidate) {
+        if (password == null || candidate == null) {
+            return password == null && candidate == null;
+        }
+        return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), candidate.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @NotNull
+    private static String buildUrl(@NotNull IpAddressConfig ipAddress, @NotNull PortConnect port, @NotNull DataBaseNameConnect databaseName) {
+        return "jdbc:mysql://" + ipAddress.getIpAddressConfig() + ":" + port.getPortConnect() + "/"
+                + databaseName.getDataBaseNameConnect() + "?" + UrlConnectionMySQL.BATCH_REWRITE_PROPERTY;
+    }
+
+    /**
+     * Presta una conexión del pool. Cerrar la conexión la devuelve al pool.
+     *
+     * @return una conexión válida
+     * @throws SQLException si el pool está cerrado, no hay conexiones libres dentro del tiempo de espera
+     *                      o no se puede abrir una nueva
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("El pool de conexiones está cerrado");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Tiempo de espera agotado: las " + maxSize + " conexiones del pool están en uso");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrumpido mientras se esperaba una conexión", e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isAlive(pooled)) {
+                    return lease(pooled);
+                }
+                destroy(pooled);
+            }
+            return lease(open());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("El pool solo presta conexiones del usuario con el que se creó");
+    }
+
+    private boolean isAlive(@NotNull PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < VALIDATION_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    @NotNull
+    private PooledConnection open() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        total.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    @NotNull
+    private Connection lease(@NotNull PooledConnection pooled) {
+        pooled.borrowedAt = System.currentTimeMillis();
+        pooled.leaseSite = leakThresholdMillis > 0 ? new Exception("Conexión prestada aquí") : null;
+        pooled.leakReported = false;
+        borrowed.add(pooled);
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class}, new Lease(pooled));
+    }
+
+    /**
+     * Devuelve una conexión al pool restaurando su estado inicial, o la cierra si no se puede restaurar.
+     */
+    private void giveBack(@NotNull PooledConnection pooled) {
+        borrowed.remove(pooled);
+        try {
+            if (closed) {
+                destroy(pooled);
+                return;
+            }
+            try {
+                pooled.closeStatements();
+                pooled.reset();
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            } catch (SQLException e) {
+                logger.warn("No se pudo restaurar el estado de una conexión devuelta, se descarta: {}", e.getMessage());
+                destroy(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(@NotNull PooledConnection pooled) {
+        total.decrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            logger.warn("Error al cerrar una conexión del pool: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Cierra las conexiones inactivas de más, rellena hasta el tamaño mínimo y avisa de posibles fugas.
+     */
+    private void houseKeep() {
+        if (closed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : idle) {
+            if (total.get() <= minSize) {
+                break;
+            }
+            if (now - pooled.lastUsed > idleTimeoutMillis && idle.remove(pooled)) {
+                destroy(pooled);
+            }
+        }
+        while (total.get() < minSize && !closed) {
+            try {
+                PooledConnection pooled = open();
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerLast(pooled);
+            } catch (SQLException e) {
+                logger.warn("No se pudo abrir una conexión para mantener el tamaño mínimo del pool: {}", e.getMessage());
+                break;
+            }
+        }
+        long threshold = leakThresholdMillis;
+        if (threshold > 0) {
+            for (PooledConnection pooled : borrowed) {
+                if (!pooled.leakReported && now - pooled.borrowedAt > threshold) {
+                    pooled.leakReported = true;
+                    logger.warn("Posible fuga: conexión prestada hace {} ms sin devolverse", now - pooled.borrowedAt, pooled.leaseSite);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cierra el pool y sus conexiones libres; las prestadas se cierran al devolverse.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeping.cancel(false);
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    public int getTotalConnections() {
+        return total.get();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Establece el tiempo tras el que una conexión prestada se considera una posible fuga.
+     *
+     * @param leakThresholdMillis el umbral en milisegundos, o 0 para desactivar la detección de fugas
+     */
+    public void setLeakThresholdMillis(long leakThresholdMillis) {
+        this.leakThresholdMillis = leakThresholdMillis;
+    }
+
+    public void setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("El pool no usa java.util.logging");
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("El pool no implementa " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * Conexión física del pool junto con su estado inicial y los datos del préstamo actual.
+     */
+    private static final class PooledConnection {
+        private final Connection physical;
+        private final boolean autoCommit;
+        private final int isolation;
+        private final boolean readOnly;
+        private final String catalog;
+        private final List<Statement> statements = new ArrayList<>();
+        private volatile long lastUsed;
+        private volatile long borrowedAt;
+        private volatile Exception leaseSite;
+        private volatile boolean leakReported;
+
+        private PooledConnection(@NotNull Connection physical) throws SQLException {
+            this.physical = physical;
+            this.autoCommit = physical.getAutoCommit();
+            this.isolation = physical.getTransactionIsolation();
+            this.readOnly = physical.isReadOnly();
+            this.catalog = physical.getCatalog();
+        }
+
+        /**
+         * Registra una sentencia abierta a través del préstamo actual. Las ya cerradas se descartan cada cierto
+         * número de sentencias para que un préstamo largo no las acumule.
+         */
+        private synchronized void track(@NotNull Statement statement) throws SQLException {
+            if (statements.size() >= STATEMENT_PURGE_THRESHOLD) {
+                Iterator<Statement> iterator = statements.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().isClosed()) {
+                        iterator.remove();
+                    }
+                }
+            }
+            statements.add(statement);
+        }
+
+        /**
+         * Cierra las sentencias, y con ellas sus ResultSet, que el préstamo dejó abiertas.
+         */
+        private synchronized void closeStatements() throws SQLException {
+            SQLException failure = null;
+            for (Statement statement : statements) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            statements.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void reset() throws SQLException {
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+            }
+            if (physical.getAutoCommit() != autoCommit) {
+                physical.setAutoCommit(autoCommit);
+            }
+            if (physical.getTransactionIsolation() != isolation) {
+                physical.setTransactionIsolation(isolation);
+            }
+            if (physical.isReadOnly() != readOnly) {
+                physical.setReadOnly(readOnly);
+            }
+            if (catalog != null && !catalog.equals(physical.getCatalog())) {
+                physical.setCatalog(catalog);
+            }
+            physical.clearWarnings();
+        }
+    }
+
+    /**
+     * Préstamo de una conexión. Cerrarlo devuelve la conexión al pool y cierra las sentencias creadas a través
+     * de él; después de cerrarlo no se puede usar.
+     * {@code unwrap(Connection.class)} devuelve la conexión física, lo que permite a cachés como
+     * {@link PreparedStatementCache} reconocer la misma conexión en préstamos distintos; sus sentencias se
+     * preparan sobre la conexión física y siguen abiertas entre préstamos.
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private volatile boolean returned;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, @NotNull Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        giveBack(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                case "unwrap":
+                    if (args[0] == Connection.class) {
+                        return pooled.physical;
+                    }
+                    break;
+                case "isWrapperFor":
+                    if (args[0] == Connection.class) {
+                        return true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("La conexión ya se devolvió al pool");
+            }
+            Object result;
+            try {
+                result = method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement && STATEMENT_FACTORIES.contains(method.getName())) {
+                pooled.track((Statement) result);
+            }
+            return result;
+        }
+    }
+}
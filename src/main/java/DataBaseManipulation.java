@@ -3,15 +3,58 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.security.InvalidParameterException;
 import java.sql.*;
 import java.util.*;
+import java.util.stream.Stream;
 
 public class DataBaseManipulation {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int STREAM_FETCH_SIZE = 1000;
+    public static final int DEFAULT_MAX_ALLOWED_PACKET = 4 * 1024 * 1024;
+    private static final int MAX_PLACEHOLDERS = 65535;
+    private static final String UPSERT_ROW_ALIAS = "new";
     private final Logger logger = LoggerFactory.getLogger(ConnectDataBaseFromFile.class);
+    private final PreparedStatementCache statementCache;
+
+    public DataBaseManipulation() {
+        this(PreparedStatementCache.DEFAULT_MAX_STATEMENTS_PER_CONNECTION);
+    }
+
+    /**
+     * Crea un manipulador cuyas escrituras de una fila reutilizan sentencias preparadas por conexión.
+     *
+     * @param maxStatementsPerConnection el número máximo de sentencias en caché por conexión
+     */
+    public DataBaseManipulation(int maxStatementsPerConnection) {
+        this.statementCache = new PreparedStatementCache(maxStatementsPerConnection);
+    }
+
+    /**
+     * Devuelve la caché de sentencias usada por insertRow, updateRow y deleteFromTable,
+     * con sus contadores de aciertos, fallos y desalojos.
+     *
+     * @return la caché de sentencias preparadas
+     */
+    public PreparedStatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Cierra las sentencias en caché de una conexión. Debe llamarse antes de cerrar la conexión.
+     *
+     * @param conn la conexión a la base de datos
+     */
+    public void closeStatements(Connection conn) {
+        statementCache.closeConnection(conn);
+    }
 
     /**
      * Crea una tabla en una base de datos.
@@ -28,7 +71,7 @@ public class DataBaseManipulation {
         validateTableName(tableName);
         validateColumns(columns);
 
-        if (!tableExists(conn, tableName)) {
+        if (tableExists(conn, tableName)) {
             throw new SQLException("La tabla " + tableName + " ya existe");
         }
 
@@ -36,6 +79,7 @@ public class DataBaseManipulation {
 
         try (Statement stmt = conn.createStatement()) {
             stmt.executeUpdate(sql);
+            SchemaCache.invalidate(conn, tableName);
         } catch (SQLException e) {
             logger.error("Error al crear la tabla {}: {}", tableName, e.getMessage());
             throw new SQLException("Error al crear la tabla " + tableName, e);
@@ -49,9 +93,103 @@ public class DataBaseManipulation {
     }
 
     private boolean tableExists(@NotNull Connection conn, String tableName) throws SQLException {
-        DatabaseMetaData dbm = conn.getMetaData();
-        ResultSet tables = dbm.getTables(null, null, tableName, null);
-        return !tables.next();
+        return SchemaCache.lookup(conn, tableName) != null;
+    }
+
+    /**
+     * Devuelve los metadatos en caché de una tabla que debe existir.
+     *
+     * @param conn      la conexión a la base de datos
+     * @param tableName el nombre de la tabla
+     * @return los metadatos de la tabla
+     * @throws SQLException si la tabla no existe o no se pueden leer los metadatos
+     */
+    @NotNull
+    private SchemaCache.TableSchema requireTable(@NotNull Connection conn, String tableName) throws SQLException {
+        SchemaCache.TableSchema schema = SchemaCache.lookup(conn, tableName);
+        if (schema == null) {
+            throw new SQLException("La tabla " + tableName + " no existe");
+        }
+        return schema;
+    }
+
+    /**
+     * Comprueba con los metadatos en caché que todas las columnas existen en la tabla.
+     *
+     * @param schema  los metadatos de la tabla
+     * @param columns las columnas a comprobar
+     * @throws InvalidParameterException si alguna columna no existe
+     */
+    private void validateColumnsExist(@NotNull SchemaCache.TableSchema schema, @NotNull Collection<String> columns) throws InvalidParameterException {
+        for (String column : columns) {
+            if (!schema.hasColumn(column)) {
+                throw new InvalidParameterException("La columna " + column + " no existe en la tabla " + schema.getName());
+            }
+        }
+    }
+
+    /**
+     * Asigna un parámetro usando el método específico del tipo JDBC de la columna cuando el valor lo permite,
+     * y {@code setObject} en el resto de casos.
+     *
+     * @param pstmt   la sentencia preparada
+     * @param index   la posición del parámetro
+     * @param value   el valor a asignar
+     * @param sqlType el tipo JDBC de la columna, o {@code null} si no se conoce
+     * @throws SQLException si ocurre un error al asignar el parámetro
+     */
+    private void bindValue(@NotNull PreparedStatement pstmt, int index, Object value, Integer sqlType) throws SQLException {
+        if (value == null) {
+            pstmt.setNull(index, sqlType == null ? Types.NULL : sqlType);
+            return;
+        }
+        if (sqlType != null) {
+            boolean integral = value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+            switch (sqlType) {
+                case Types.BIGINT:
+                    if (integral) {
+                        pstmt.setLong(index, ((Number) value).longValue());
+                        return;
+                    }
+                    break;
+                case Types.INTEGER:
+                case Types.SMALLINT:
+                case Types.TINYINT:
+                    if (integral && !(value instanceof Long)) {
+                        pstmt.setInt(index, ((Number) value).intValue());
+                        return;
+                    }
+                    break;
+                case Types.DOUBLE:
+                case Types.FLOAT:
+                    if (value instanceof Double || value instanceof Float) {
+                        pstmt.setDouble(index, ((Number) value).doubleValue());
+                        return;
+                    }
+                    break;
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    if (value instanceof BigDecimal) {
+                        pstmt.setBigDecimal(index, (BigDecimal) value);
+                        return;
+                    }
+                    break;
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.NCHAR:
+                case Types.NVARCHAR:
+                case Types.LONGNVARCHAR:
+                    if (value instanceof String) {
+                        pstmt.setString(index, (String) value);
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        pstmt.setObject(index, value);
     }
 
     private void validateColumns(@NotNull Map<String, String> columns) {
@@ -118,24 +256,181 @@ public class DataBaseManipulation {
         validateValues(values);
         validateWhereClause(whereClause);
 
-        if (!tableExists(conn, tableName)) {
-            throw new SQLException("La tabla " + tableName + " no existe");
-        }
+        SchemaCache.TableSchema schema = requireTable(conn, tableName);
+        validateColumnsExist(schema, values.keySet());
 
         String sql = buildUpdateRowSql(tableName, values, whereClause);
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try {
+            PreparedStatement pstmt = statementCache.prepare(conn, sql);
             int i = 1;
-            for (Object value : values.values()) {
-                pstmt.setObject(i++, value);
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                bindValue(pstmt, i++, entry.getValue(), schema.getColumnType(entry.getKey()));
             }
             pstmt.executeUpdate();
         } catch (SQLException e) {
+            statementCache.invalidate(conn, sql);
             logger.error("Error al actualizar una fila en la tabla {}: {}", tableName, e.getMessage());
             throw e;
         }
     }
 
+    /**
+     * Actualiza varias filas identificadas por sus columnas clave usando el tamaño de lote por defecto.
+     *
+     * @param conn       la conexión a la base de datos
+     * @param tableName  el nombre de la tabla
+     * @param rowsList   una lista de mapas con los valores de las columnas clave y de las columnas a actualizar
+     * @param keyColumns las columnas que identifican cada fila, normalmente la clave primaria
+     * @return el número de filas afectadas por cada lote enviado, en orden de ejecución
+     * @throws SQLException              si ocurre un error al actualizar las filas; la transacción se deshace
+     * @throws InvalidParameterException si alguno de los parámetros de entrada no es válido
+     */
+    public int[] updateRows(Connection conn, String tableName, List<Map<String, Object>> rowsList, String[] keyColumns) throws SQLException, InvalidParameterException {
+        return updateRows(conn, tableName, rowsList, keyColumns, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Actualiza varias filas identificadas por sus columnas clave.
+     * Las filas se agrupan por su conjunto de columnas; cada grupo reutiliza una única sentencia
+     * {@code UPDATE ... SET ... WHERE clave = ?} y se envía al servidor en lotes de {@code batchSize} filas, todos
+     * dentro de la misma transacción. Si la conexión se abrió con {@code rewriteBatchedStatements=true}, el driver
+     * de MySQL envía cada lote en un solo viaje.
+     *
+     * @param conn       la conexión a la base de datos
+     * @param tableName  el nombre de la tabla
+     * @param rowsList   una lista de mapas con los valores de las columnas clave y de las columnas a actualizar
+     * @param keyColumns las columnas que identifican cada fila, normalmente la clave primaria
+     * @param batchSize  el número máximo de filas enviadas en cada lote
+     * @return el número de filas afectadas por cada lote enviado, en orden de ejecución
+     * @throws SQLException              si ocurre un error al actualizar las filas; la transacción se deshace
+     * @throws InvalidParameterException si alguno de los parámetros de entrada no es válido
+     */
+    public int[] updateRows(Connection conn, String tableName, List<Map<String, Object>> rowsList, String[] keyColumns, int batchSize) throws SQLException, InvalidParameterException {
+        validateConnection(conn);
+        validateTableName(tableName);
+        validateRowsList(rowsList);
+        validateColumns(keyColumns);
+        validateBatchSize(batchSize);
+
+        SchemaCache.TableSchema schema = requireTable(conn, tableName);
+        List<String> keys = Arrays.asList(keyColumns);
+        validateColumnsExist(schema, keys);
+        Map<List<String>, List<Map<String, Object>>> groups = groupRowsByColumnSet(rowsList);
+        for (Map.Entry<List<String>, List<Map<String, Object>>> group : groups.entrySet()) {
+            validateColumnsExist(schema, group.getKey());
+            if (!group.getKey().containsAll(keys) || group.getKey().size() == keys.size()) {
+                throw new InvalidParameterException("Cada fila debe incluir las columnas clave " + keys + " y al menos una columna a actualizar");
+            }
+            for (Map<String, Object> row : group.getValue()) {
+                for (String key : keys) {
+                    if (row.get(key) == null) {
+                        throw new InvalidParameterException("La columna clave " + key + " no puede ser nula");
+                    }
+                }
+            }
+        }
+
+        if (!isBatchRewriteEnabled(conn)) {
+            logger.info("La conexión no tiene activado {}; los lotes se enviarán fila a fila", UrlConnectionMySQL.BATCH_REWRITE_PROPERTY);
+        }
+
+        List<Integer> chunkCounts = new ArrayList<>();
+        boolean autoCommit = conn.getAutoCommit();
+
+        try {
+            conn.setAutoCommit(false);
+
+            for (Map.Entry<List<String>, List<Map<String, Object>>> group : groups.entrySet()) {
+                updateGroupInTable(conn, schema, tableName, group.getKey(), keys, group.getValue(), batchSize, chunkCounts);
+            }
+
+            conn.commit();
+            logger.info("{} fila(s) actualizada(s) en la tabla {} en {} lote(s)", chunkCounts.stream().mapToInt(Integer::intValue).sum(), tableName, chunkCounts.size());
+        } catch (SQLException e) {
+            logger.error("Error al actualizar datos en la tabla {}: {}", tableName, e.getMessage());
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                logger.error("Error al deshacer las actualizaciones: {}", ex.getMessage());
+            }
+            throw new SQLException("Error al actualizar filas en la tabla " + tableName, e);
+        } finally {
+            try {
+                conn.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                logger.error("Error al reactivar el modo de confirmación automática: {}", e.getMessage());
+            }
+        }
+
+        return chunkCounts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Actualiza un grupo de filas con las mismas columnas usando una única sentencia preparada.
+     *
+     * @param conn        la conexión a la base de datos
+     * @param schema      los metadatos de la tabla, usados para asignar cada valor según su tipo
+     * @param tableName   el nombre de la tabla
+     * @param columns     las columnas compartidas por todas las filas del grupo, incluidas las claves
+     * @param keys        las columnas que identifican cada fila
+     * @param rows        las filas del grupo
+     * @param batchSize   el número máximo de filas enviadas en cada lote
+     * @param chunkCounts la lista donde se acumulan las filas afectadas por cada lote
+     * @throws SQLException si ocurre un error al actualizar las filas
+     */
+    private void updateGroupInTable(@NotNull Connection conn, SchemaCache.TableSchema schema, String tableName, @NotNull List<String> columns,
+                                    @NotNull List<String> keys, @NotNull List<Map<String, Object>> rows, int batchSize, List<Integer> chunkCounts) throws SQLException {
+        List<String> assigned = new ArrayList<>(columns);
+        assigned.removeAll(keys);
+        String sql = buildUpdateRowsSql(tableName, assigned, keys);
+
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int pending = 0;
+            for (Map<String, Object> row : rows) {
+                int i = 1;
+                for (String column : assigned) {
+                    bindValue(pstmt, i++, row.get(column), schema.getColumnType(column));
+                }
+                for (String key : keys) {
+                    bindValue(pstmt, i++, row.get(key), schema.getColumnType(key));
+                }
+                pstmt.addBatch();
+                if (++pending == batchSize) {
+                    chunkCounts.add(executeChunk(pstmt));
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                chunkCounts.add(executeChunk(pstmt));
+            }
+        } catch (SQLException e) {
+            logger.error("Error al ejecutar el lote: {}", e.getMessage());
+            throw new SQLException("Error al actualizar un lote de filas en la tabla " + tableName, e);
+        }
+    }
+
+    /**
+     * Construye una consulta SQL UPDATE que asigna varias columnas a la fila identificada por sus claves.
+     *
+     * @param tableName el nombre de la tabla
+     * @param columns   las columnas a actualizar
+     * @param keys      las columnas que identifican la fila
+     * @return una cadena que representa la consulta SQL UPDATE construida
+     */
+    @NotNull
+    private String buildUpdateRowsSql(String tableName, @NotNull List<String> columns, @NotNull List<String> keys) {
+        StringBuilder sql = new StringBuilder();
+        sql.append("UPDATE ")
+                .append(tableName)
+                .append(" SET ")
+                .append(String.join(" = ?, ", columns))
+                .append(" = ? WHERE ")
+                .append(String.join(" = ? AND ", keys))
+                .append(" = ?");
+        return sql.toString();
+    }
+
     private void validateConnection(Connection conn) {
         if (conn != null) {
             try {
@@ -186,7 +481,7 @@ public class DataBaseManipulation {
         validateWhereClause(whereClause);
 
         try {
-            if (tableExists(conn, tableName)) {
+            if (!tableExists(conn, tableName)) {
                 logger.error("La tabla {} no existe", tableName);
                 return;
             }
@@ -200,10 +495,11 @@ public class DataBaseManipulation {
     private void deleteDataFromTable(@NotNull Connection conn, String tableName, String whereClause) {
         String sql = buildDeleteSql(tableName, whereClause);
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            int rowsAffected = pstmt.executeUpdate();
+        try {
+            int rowsAffected = statementCache.prepare(conn, sql).executeUpdate();
             logger.info("{} fila(s) eliminada(s) de la tabla {}", rowsAffected, tableName);
         } catch (SQLException e) {
+            statementCache.invalidate(conn, sql);
             logger.error("Error al eliminar datos de la tabla {}: {}", tableName, e.getMessage());
         }
     }
@@ -218,37 +514,63 @@ public class DataBaseManipulation {
                 .toString();
     }
 
+    /**
+     * Inserta varias filas en una tabla en una base de datos usando el tamaño de lote por defecto.
+     *
+     * @param conn      la conexión a la base de datos
+     * @param tableName el nombre de la tabla
+     * @param rowsList  una lista de mapas que representan las filas a insertar
+     * @return el número de filas afectadas por cada lote enviado, en orden de ejecución
+     * @throws InvalidParameterException si alguno de los parámetros de entrada no es válido
+     */
+
+    public int[] insertIntoTable(Connection conn, String tableName, List<Map<String, Object>> rowsList) throws InvalidParameterException, SQLException {
+        return insertIntoTable(conn, tableName, rowsList, DEFAULT_BATCH_SIZE);
+    }
+
     /**
      * Inserta varias filas en una tabla en una base de datos.
+     * Las filas se agrupan por su conjunto de columnas; cada grupo reutiliza una única sentencia preparada
+     * y se envía al servidor en lotes de {@code batchSize} filas dentro de la misma transacción.
+     * Si la conexión se abrió con {@code rewriteBatchedStatements=true}, el driver de MySQL reescribe
+     * cada lote como un único INSERT de varias filas.
      *
      * @param conn      la conexión a la base de datos
      * @param tableName el nombre de la tabla
      * @param rowsList  una lista de mapas que representan las filas a insertar
+     * @param batchSize el número máximo de filas enviadas en cada lote
+     * @return el número de filas afectadas por cada lote enviado, en orden de ejecución
      * @throws InvalidParameterException si alguno de los parámetros de entrada no es válido
      */
 
-    public void insertIntoTable(Connection conn, String tableName, List<Map<String, Object>> rowsList) throws InvalidParameterException, SQLException {
+    public int[] insertIntoTable(Connection conn, String tableName, List<Map<String, Object>> rowsList, int batchSize) throws InvalidParameterException, SQLException {
         validateConnection(conn);
         validateTableName(tableName);
         validateRowsList(rowsList);
+        validateBatchSize(batchSize);
 
-        if (!tableExists(conn, tableName)) {
-            throw new SQLException("La tabla " + tableName + " no existe");
+        SchemaCache.TableSchema schema = requireTable(conn, tableName);
+
+        if (!isBatchRewriteEnabled(conn)) {
+            logger.info("La conexión no tiene activado {}; los lotes se enviarán fila a fila", UrlConnectionMySQL.BATCH_REWRITE_PROPERTY);
+        }
+
+        Map<List<String>, List<Map<String, Object>>> groups = groupRowsByColumns(rowsList);
+        for (List<String> columns : groups.keySet()) {
+            validateColumnsExist(schema, columns);
         }
+        List<Integer> chunkCounts = new ArrayList<>();
+        boolean autoCommit = conn.getAutoCommit();
 
         try {
             conn.setAutoCommit(false);
 
-            for (Map<String, Object> row : rowsList) {
-                if (isRowValid(row)) {
-                    insertRowIntoTable(conn, tableName, row);
-                }
+            for (Map.Entry<List<String>, List<Map<String, Object>>> group : groups.entrySet()) {
+                insertGroupIntoTable(conn, schema, tableName, group.getKey(), group.getValue(), batchSize, chunkCounts);
             }
 
-            int[] rowsAffected = conn.createStatement().executeBatch();
-            logger.info("{} fila(s) insertada(s) en la tabla {}", Arrays.stream(rowsAffected).sum(), tableName);
-
             conn.commit();
+            logger.info("{} fila(s) insertada(s) en la tabla {} en {} lote(s)", chunkCounts.stream().mapToInt(Integer::intValue).sum(), tableName, chunkCounts.size());
         } catch (SQLException e) {
             logger.error("Error al insertar datos en la tabla {}: {}", tableName, e.getMessage());
             try {
@@ -259,36 +581,109 @@ public class DataBaseManipulation {
             throw new SQLException("Error al insertar filas en la tabla " + tableName, e);
         } finally {
             try {
-                conn.setAutoCommit(true);
+                conn.setAutoCommit(autoCommit);
             } catch (SQLException e) {
                 logger.error("Error al reactivar el modo de confirmación automática: {}", e.getMessage());
             }
         }
+
+        return chunkCounts.stream().mapToInt(Integer::intValue).toArray();
     }
 
     /**
-     * Inserta una fila en una tabla en una base de datos.
+     * Agrupa las filas válidas por su conjunto de columnas, en el orden en que aparece cada conjunto.
+     * Las columnas de cada grupo se ordenan alfabéticamente para que dos filas con las mismas columnas
+     * compartan grupo aunque sus mapas las recorran en distinto orden.
      *
-     * @param conn      la conexión a la base de datos
-     * @param tableName el nombre de la tabla
-     * @param row       un mapa que representa la fila a insertar
-     * @throws SQLException si ocurre un error al insertar la fila
+     * @param rowsList la lista de filas a agrupar
+     * @return un mapa de la lista de columnas de cada grupo a sus filas
+     */
+    @NotNull
+    private Map<List<String>, List<Map<String, Object>>> groupRowsByColumns(@NotNull List<Map<String, Object>> rowsList) {
+        Map<List<String>, List<Map<String, Object>>> groups = new LinkedHashMap<>();
+        for (Map<String, Object> row : rowsList) {
+            if (isRowValid(row)) {
+                List<String> columns = new ArrayList<>(row.keySet());
+                Collections.sort(columns);
+                groups.computeIfAbsent(columns, k -> new ArrayList<>()).add(row);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Inserta un grupo de filas con las mismas columnas usando una única sentencia preparada.
+     *
+     * @param conn        la conexión a la base de datos
+     * @param schema      los metadatos de la tabla, usados para asignar cada valor según su tipo
+     * @param tableName   el nombre de la tabla
+     * @param columns     las columnas compartidas por todas las filas del grupo
+     * @param rows        las filas del grupo
+     * @param batchSize   el número máximo de filas enviadas en cada lote
+     * @param chunkCounts la lista donde se acumulan las filas afectadas por cada lote
+     * @throws SQLException si ocurre un error al insertar las filas
      */
-    private void insertRowIntoTable(Connection conn, String tableName, Map<String, Object> row) throws SQLException {
-        // Construir la consulta SQL
-        String sql = buildInsertSql(tableName, row);
+    private void insertGroupIntoTable(@NotNull Connection conn, SchemaCache.TableSchema schema, String tableName, List<String> columns, @NotNull List<Map<String, Object>> rows, int batchSize, List<Integer> chunkCounts) throws SQLException {
+        String sql = buildInsertSql(tableName, columns);
 
-        // Preparar y ejecutar la consulta
         try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            int i = 1;
-            for (Object value : row.values()) {
-                pstmt.setObject(i, value);
-                i++;
+            int pending = 0;
+            for (Map<String, Object> row : rows) {
+                int i = 1;
+                for (String column : columns) {
+                    bindValue(pstmt, i++, row.get(column), schema.getColumnType(column));
+                }
+                pstmt.addBatch();
+                if (++pending == batchSize) {
+                    chunkCounts.add(executeChunk(pstmt));
+                    pending = 0;
+                }
             }
-            pstmt.addBatch();
+            if (pending > 0) {
+                chunkCounts.add(executeChunk(pstmt));
+            }
+        } catch (SQLException e) {
+            logger.error("Error al ejecutar el lote: {}", e.getMessage());
+            throw new SQLException("Error al insertar un lote de filas en la tabla " + tableName, e);
+        }
+    }
+
+    /**
+     * Ejecuta el lote acumulado en la sentencia y devuelve el total de filas afectadas.
+     * Las entradas {@link Statement#SUCCESS_NO_INFO}, que el driver devuelve al reescribir el lote,
+     * se cuentan como una fila.
+     *
+     * @param pstmt la sentencia con el lote acumulado
+     * @return el número de filas afectadas por el lote
+     * @throws SQLException si ocurre un error al ejecutar el lote
+     */
+    private int executeChunk(@NotNull PreparedStatement pstmt) throws SQLException {
+        int total = 0;
+        for (int count : pstmt.executeBatch()) {
+            total += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+        }
+        return total;
+    }
+
+    /**
+     * Comprueba si la conexión se abrió con la reescritura de lotes de MySQL activada.
+     *
+     * @param conn la conexión a la base de datos
+     * @return verdadero si la URL de la conexión activa {@code rewriteBatchedStatements}
+     */
+    private boolean isBatchRewriteEnabled(@NotNull Connection conn) {
+        try {
+            String url = conn.getMetaData().getURL();
+            return url != null && url.contains(UrlConnectionMySQL.BATCH_REWRITE_PROPERTY);
         } catch (SQLException e) {
-            logger.error("Error al preparar la consulta: {}", e.getMessage());
-            throw new SQLException("Error al insertar una fila en la tabla " + tableName, e);
+            logger.warn("No se pudo leer la URL de la conexión: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void validateBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new InvalidParameterException("El tamaño de lote debe ser mayor que cero");
         }
     }
 
@@ -374,13 +769,13 @@ public class DataBaseManipulation {
      * Construye una consulta SQL INSERT a partir de los parámetros proporcionados.
      *
      * @param tableName el nombre de la tabla
-     * @param row       un mapa que representa la fila a insertar
+     * @param columns   las columnas de la fila a insertar
      * @return una cadena que representa la consulta SQL INSERT construida
      */
     @NotNull
-    private String buildInsertSql(String tableName, @NotNull Map<String, Object> row) {
+    private String buildInsertSql(String tableName, @NotNull List<String> columns) {
         StringBuilder placeholders = new StringBuilder();
-        for (int i = 0; i < row.size(); i++) {
+        for (int i = 0; i < columns.size(); i++) {
             placeholders.append("?,");
         }
         placeholders.setLength(placeholders.length() - 1); // remove the last comma
@@ -389,7 +784,7 @@ public class DataBaseManipulation {
         sql.append("INSERT INTO ")
                 .append(tableName)
                 .append(" (")
-                .append(String.join(", ", row.keySet()))
+                .append(String.join(", ", columns))
                 .append(") VALUES (")
                 .append(placeholders)
                 .append(")");
@@ -397,89 +792,489 @@ public class DataBaseManipulation {
     }
 
     /**
-     * Este método selecciona datos de una tabla en una base de datos.
-     * Primero, valida los parámetros de entrada y verifica si la tabla existe.
-     * Si la tabla existe, selecciona los datos y los devuelve como una lista de mapas.
+     * Inserta o actualiza varias filas con sentencias {@code INSERT ... ON DUPLICATE KEY UPDATE} de varias filas,
+     * sin leer antes las filas existentes. Las filas se agrupan por su conjunto de columnas y cada grupo se envía en
+     * sentencias tan grandes como permite {@code max_allowed_packet} del servidor, todas en la misma transacción.
+     * Las columnas clave deben formar la clave primaria o un índice único de la tabla; el resto de columnas de cada
+     * fila se sobrescriben cuando la clave ya existe. Los valores nuevos se referencian con un alias de fila
+     * ({@code VALUES ... AS new}), que requiere MySQL 8.0.19 o posterior, en lugar de la función {@code VALUES()},
+     * obsoleta desde MySQL 8.0.20.
      *
-     * @param conn        la conexión a la base de datos
-     * @param tableName   el nombre de la tabla
-     * @param columns     las columnas a seleccionar
-     * @param whereClause la cláusula WHERE para filtrar los resultados
-     * @return una lista de mapas que representan los resultados de la consulta
-     * @throws SQLException              si ocurre un error al acceder a la base de datos
+     * @param conn       la conexión a la base de datos
+     * @param tableName  el nombre de la tabla
+     * @param rowsList   una lista de mapas que representan las filas; cada una debe incluir las columnas clave
+     * @param keyColumns las columnas de la clave primaria o del índice único que identifica cada fila
+     * @return las filas enviadas, insertadas y actualizadas
+     * @throws SQLException              si ocurre un error al escribir las filas; la transacción se deshace
      * @throws InvalidParameterException si alguno de los parámetros de entrada no es válido
      */
-
-    public List<Map<String, Object>> selectFromTable(Connection conn, String tableName, String[] columns, String whereClause) throws SQLException, InvalidParameterException {
+    public UpsertResult upsertRows(Connection conn, String tableName, List<Map<String, Object>> rowsList, String[] keyColumns) throws SQLException, InvalidParameterException {
         validateConnection(conn);
         validateTableName(tableName);
-        validateColumns(columns);
-        validateWhereClause(whereClause);
+        validateRowsList(rowsList);
+        validateColumns(keyColumns);
 
-        if (!tableExists(conn, tableName)) {
-            throw new SQLException("La tabla " + tableName + " no existe");
+        SchemaCache.TableSchema schema = requireTable(conn, tableName);
+        List<String> keys = Arrays.asList(keyColumns);
+        validateColumnsExist(schema, keys);
+        if (!isUniqueKey(conn, schema, tableName, keys)) {
+            throw new InvalidParameterException("Las columnas " + keys + " no son la clave primaria ni un índice único de la tabla " + tableName);
+        }
+        Map<List<String>, List<Map<String, Object>>> groups = groupRowsByColumnSet(rowsList);
+        for (List<String> columns : groups.keySet()) {
+            validateColumnsExist(schema, columns);
+            for (String key : keys) {
+                if (!columns.contains(key)) {
+                    throw new InvalidParameterException("Todas las filas deben incluir la columna clave " + key);
+                }
+            }
         }
 
-        return selectDataFromTable(conn, tableName, columns, whereClause);
+        int budget = readMaxAllowedPacket(conn);
+        budget -= budget / 10;
+        long[] totals = new long[3];
+        boolean autoCommit = conn.getAutoCommit();
+
+        try {
+            conn.setAutoCommit(false);
+
+            for (Map.Entry<List<String>, List<Map<String, Object>>> group : groups.entrySet()) {
+                upsertGroup(conn, schema, tableName, group.getKey(), keys, group.getValue(), budget, totals);
+            }
+
+            conn.commit();
+        } catch (SQLException e) {
+            logger.error("Error al insertar o actualizar datos en la tabla {}: {}", tableName, e.getMessage());
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                logger.error("Error al deshacer las escrituras: {}", ex.getMessage());
+            }
+            throw new SQLException("Error al insertar o actualizar filas en la tabla " + tableName, e);
+        } finally {
+            try {
+                conn.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                logger.error("Error al reactivar el modo de confirmación automática: {}", e.getMessage());
+            }
+        }
+
+        UpsertResult result = new UpsertResult(totals[0], totals[1], (int) totals[2]);
+        logger.info("Tabla {}: {}", tableName, result);
+        return result;
     }
 
     /**
-     * Valida el nombre de la tabla.
+     * Agrupa las filas por su conjunto de columnas, ordenadas alfabéticamente, en el orden en que aparece cada
+     * conjunto. A diferencia de {@link #groupRowsByColumns}, no omite filas: una fila nula o vacía es un error.
      *
-     * @param tableName el nombre de la tabla a validar
-     * @throws InvalidParameterException si el nombre de la tabla no es válido
+     * @param rowsList la lista de filas a agrupar
+     * @return un mapa de la lista de columnas de cada grupo a sus filas
+     * @throws InvalidParameterException si alguna fila es nula o vacía o tiene un nombre de columna no válido
      */
-    private void validateTableName(String tableName) throws InvalidParameterException {
-        if (isValidName(tableName)) {
-            logger.info("El nombre de la tabla " + tableName + "es valida");
-        } else {
-            throw new InvalidParameterException("El nombre de la tabla no es válido");
+    @NotNull
+    private Map<List<String>, List<Map<String, Object>>> groupRowsByColumnSet(@NotNull List<Map<String, Object>> rowsList) throws InvalidParameterException {
+        Map<List<String>, List<Map<String, Object>>> groups = new LinkedHashMap<>();
+        for (Map<String, Object> row : rowsList) {
+            if (row == null || row.isEmpty()) {
+                throw new InvalidParameterException("Las filas no pueden ser nulas o vacías");
+            }
+            List<String> columns = new ArrayList<>(row.keySet());
+            Collections.sort(columns);
+            groups.computeIfAbsent(columns, k -> {
+                validateColumns(k.toArray(new String[0]));
+                return new ArrayList<>();
+            }).add(row);
         }
+        return groups;
     }
 
     /**
-     * Valida las columnas a seleccionar.
-     *
-     * @param columns las columnas a validar
-     * @throws InvalidParameterException si las columnas no son válidas
+     * Comprueba si las columnas forman la clave primaria o un índice único de la tabla, que es lo que
+     * {@code ON DUPLICATE KEY UPDATE} usa para encontrar la fila existente.
      */
-    private void validateColumns(String[] columns) throws InvalidParameterException {
-        if (columns == null || columns.length == 0) {
-            throw new InvalidParameterException("Debe proporcionar al menos una columna para seleccionar");
+    private boolean isUniqueKey(@NotNull Connection conn, @NotNull SchemaCache.TableSchema schema, String tableName, @NotNull List<String> keys) throws SQLException {
+        Set<String> wanted = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        wanted.addAll(keys);
+        Set<String> primary = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        primary.addAll(schema.getPrimaryKeys(conn));
+        if (primary.equals(wanted)) {
+            return true;
         }
-        for (String column : columns) {
-            if (isValidName(column)) {
-                throw new InvalidParameterException("El nombre de la columna no es válido");
+        int dot = tableName.indexOf('.');
+        String catalog = dot > 0 ? tableName.substring(0, dot) : conn.getCatalog();
+        Map<String, Set<String>> indexes = new HashMap<>();
+        try (ResultSet rs = conn.getMetaData().getIndexInfo(catalog, null, schema.getName(), true, false)) {
+            while (rs.next()) {
+                String index = rs.getString("INDEX_NAME");
+                String column = rs.getString("COLUMN_NAME");
+                if (index != null && column != null) {
+                    indexes.computeIfAbsent(index, k -> new TreeSet<>(String.CASE_INSENSITIVE_ORDER)).add(column);
+                }
             }
         }
+        return indexes.containsValue(wanted);
     }
 
     /**
-     * Valida la cláusula WHERE.
+     * Lee {@code max_allowed_packet} del servidor, o devuelve {@link #DEFAULT_MAX_ALLOWED_PACKET} si no se puede leer.
      *
-     * @param whereClause la cláusula WHERE a validar
-     * @throws InvalidParameterException si la cláusula WHERE no es válida
+     * @param conn la conexión a la base de datos
+     * @return el tamaño máximo en bytes de una sentencia
      */
-    private void validateWhereClause(String whereClause) throws InvalidParameterException {
-        if (whereClause == null || whereClause.isEmpty()) {
-            throw new InvalidParameterException("La cláusula WHERE no puede estar vacía");
+    private int readMaxAllowedPacket(@NotNull Connection conn) {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT @@max_allowed_packet")) {
+            if (rs.next() && rs.getLong(1) > 0) {
+                return (int) Math.min(Integer.MAX_VALUE, rs.getLong(1));
+            }
+        } catch (SQLException e) {
+            logger.warn("No se pudo leer max_allowed_packet; se usarán {} bytes: {}", DEFAULT_MAX_ALLOWED_PACKET, e.getMessage());
         }
+        return DEFAULT_MAX_ALLOWED_PACKET;
     }
 
     /**
-     * Selecciona datos de una tabla en una base de datos.
+     * Escribe un grupo de filas con las mismas columnas. Las filas se acumulan mientras el tamaño estimado de la
+     * sentencia, con los valores ya escritos como literales, quepa en el presupuesto y no se supere el número
+     * máximo de parámetros; entonces se envía la sentencia y se empieza otra.
      *
-     * @param conn        la conexión a la base de datos
-     * @param tableName   el nombre de la tabla
-     * @param columns     las columnas a seleccionar
-     * @param whereClause la cláusula WHERE para filtrar los resultados
-     * @return una lista de mapas que representan los resultados de la consulta
-     * @throws SQLException si ocurre un error al acceder a la base de datos
+     * @param totals acumula las filas enviadas, las filas afectadas y las sentencias ejecutadas
      */
-    @NotNull
-    private List<Map<String, Object>> selectDataFromTable(Connection conn, String tableName, String[] columns, String whereClause) throws SQLException {
-        String sql = buildSelectSql(tableName, columns, whereClause);
-
+    private void upsertGroup(@NotNull Connection conn, SchemaCache.TableSchema schema, String tableName, @NotNull List<String> columns,
+                             @NotNull List<String> keys, @NotNull List<Map<String, Object>> rows, int budget, long[] totals) throws SQLException {
+        String prefix = "INSERT INTO " + tableName + " (" + String.join(", ", columns) + ") VALUES ";
+        String placeholders = "(" + String.join(",", Collections.nCopies(columns.size(), "?")) + ")";
+        List<String> assignments = new ArrayList<>();
+        for (String column : columns) {
+            if (!keys.contains(column)) {
+                assignments.add(column + " = " + UPSERT_ROW_ALIAS + "." + column);
+            }
+        }
+        if (assignments.isEmpty()) {
+            // Solo hay columnas clave: la asignación no cambia nada y evita el error por clave duplicada; las filas
+            // existentes se cuentan como insertadas (ver UpsertResult)
+            assignments.add(keys.get(0) + " = " + keys.get(0));
+        }
+        String update = " AS " + UPSERT_ROW_ALIAS + " ON DUPLICATE KEY UPDATE " + String.join(", ", assignments);
+        int maxRows = Math.max(1, MAX_PLACEHOLDERS / columns.size());
+
+        int start = 0;
+        long size = prefix.length() + update.length();
+        for (int i = 0; i < rows.size(); i++) {
+            long rowSize = 3;
+            for (String column : columns) {
+                rowSize += estimateLiteralBytes(rows.get(i).get(column)) + 1;
+            }
+            if (i > start && (size + rowSize > budget || i - start == maxRows)) {
+                executeUpsert(conn, schema, prefix, placeholders, update, columns, rows.subList(start, i), totals);
+                start = i;
+                size = prefix.length() + update.length();
+            }
+            size += rowSize;
+        }
+        executeUpsert(conn, schema, prefix, placeholders, update, columns, rows.subList(start, rows.size()), totals);
+    }
+
+    private void executeUpsert(@NotNull Connection conn, SchemaCache.TableSchema schema, String prefix, String placeholders, String update,
+                               @NotNull List<String> columns, @NotNull List<Map<String, Object>> rows, long[] totals) throws SQLException {
+        StringBuilder sql = new StringBuilder(prefix.length() + rows.size() * (placeholders.length() + 1) + update.length());
+        sql.append(prefix);
+        for (int r = 0; r < rows.size(); r++) {
+            if (r > 0) {
+                sql.append(',');
+            }
+            sql.append(placeholders);
+        }
+        sql.append(update);
+
+        try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            int i = 1;
+            for (Map<String, Object> row : rows) {
+                for (String column : columns) {
+                    bindValue(pstmt, i++, row.get(column), schema.getColumnType(column));
+                }
+            }
+            totals[1] += pstmt.executeUpdate();
+            totals[0] += rows.size();
+            totals[2]++;
+        }
+    }
+
+    /**
+     * Estima los bytes que ocupa un valor escrito como literal en la sentencia, que es como lo envía el driver
+     * cuando prepara las sentencias en el cliente: las cadenas en UTF-8 con sus caracteres escapados y los
+     * binarios en su forma escapada más larga.
+     *
+     * @param value el valor
+     * @return los bytes estimados
+     */
+    private static long estimateLiteralBytes(Object value) {
+        if (value == null) {
+            return 4;
+        }
+        if (value instanceof byte[]) {
+            return 2L * ((byte[]) value).length + 10;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString().length();
+        }
+        String text = value.toString();
+        long bytes = 2;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += c == '\'' || c == '\\' || c == '"' || c == 0 || c == '\n' || c == '\r' || c == 26 ? 2 : 1;
+            } else {
+                bytes += c < 0x800 ? 2 : 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Carga un archivo CSV o TSV en una tabla con {@link BulkImporter}: el archivo se proyecta en memoria, se divide
+     * por líneas y cada parte se analiza e inserta en paralelo sobre su propia conexión, con los valores convertidos
+     * al tipo de cada columna. Las líneas rechazadas se informan sin detener la carga.
+     *
+     * @param dataSource    el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param nombreTabla   el nombre de la tabla
+     * @param rutaDeArchivo el archivo en UTF-8, con una cabecera con los nombres de las columnas
+     * @param conexiones    el número de conexiones que cargan en paralelo
+     * @return el número de filas insertadas
+     * @throws SQLException si ocurre un error al cargar el archivo o hay demasiadas líneas rechazadas
+     */
+    public long importarArchivo(@NotNull DataSource dataSource, String nombreTabla, String rutaDeArchivo, int conexiones) throws SQLException {
+        if (nombreTabla == null || nombreTabla.isEmpty()) {
+            throw new InvalidParameterException("El nombre de la tabla no puede ser nulo o vacío");
+        }
+        BulkImporter importer = new BulkImporter();
+        importer.setWorkers(conexiones);
+        long filas = 0;
+        try {
+            BulkImporter.Result resultado = importer.load(dataSource, nombreTabla, Paths.get(rutaDeArchivo));
+            for (BulkImporter.Rejection rechazo : resultado.getRejections()) {
+                System.err.println(rutaDeArchivo + ", " + rechazo);
+            }
+            System.out.println("Archivo " + rutaDeArchivo + " cargado en " + nombreTabla + ": " + resultado);
+            filas = resultado.getRows();
+        } catch (SQLException e) {
+            manejarExcepcion(e, "Ocurrió un error al cargar el archivo " + rutaDeArchivo);
+        } catch (IOException e) {
+            manejarExcepcion(new SQLException("Error al leer el archivo " + rutaDeArchivo, e), "Ocurrió un error al cargar el archivo " + rutaDeArchivo);
+        }
+        return filas;
+    }
+
+    /**
+     * Este método selecciona datos de una tabla en una base de datos.
+     * Primero, valida los parámetros de entrada y verifica si la tabla existe.
+     * Si la tabla existe, selecciona los datos y los devuelve como una lista de mapas.
+     *
+     * @param conn        la conexión a la base de datos
+     * @param tableName   el nombre de la tabla
+     * @param columns     las columnas a seleccionar
+     * @param whereClause la cláusula WHERE para filtrar los resultados
+     * @return una lista de mapas que representan los resultados de la consulta
+     * @throws SQLException              si ocurre un error al acceder a la base de datos
+     * @throws InvalidParameterException si alguno de los parámetros de entrada no es válido
+     */
+
+    public List<Map<String, Object>> selectFromTable(Connection conn, String tableName, String[] columns, String whereClause) throws SQLException, InvalidParameterException {
+        validateConnection(conn);
+        validateTableName(tableName);
+        validateColumns(columns);
+        validateWhereClause(whereClause);
+        validateColumnsExist(requireTable(conn, tableName), Arrays.asList(columns));
+
+        return selectDataFromTable(conn, tableName, columns, whereClause);
+    }
+
+    /**
+     * Selecciona datos de una tabla y los devuelve como un Stream que lee las filas bajo demanda.
+     * La consulta usa un ResultSet de solo avance y solo lectura; en MySQL las filas se reciben en modo
+     * streaming, por lo que la memoria usada es constante sea cual sea el número de filas.
+     * Mientras el Stream esté abierto la conexión no puede ejecutar otras consultas, así que debe cerrarse
+     * (por ejemplo con try-with-resources) en cuanto se termine de consumir.
+     *
+     * @param conn        la conexión a la base de datos
+     * @param tableName   el nombre de la tabla
+     * @param columns     las columnas a seleccionar
+     * @param whereClause la cláusula WHERE para filtrar los resultados
+     * @return un Stream de mapas que representan las filas de la consulta
+     * @throws SQLException              si ocurre un error al acceder a la base de datos
+     * @throws InvalidParameterException si alguno de los parámetros de entrada no es válido
+     */
+
+    public Stream<Map<String, Object>> streamFromTable(Connection conn, String tableName, String[] columns, String whereClause) throws SQLException, InvalidParameterException {
+        validateConnection(conn);
+        validateTableName(tableName);
+        validateColumns(columns);
+        validateWhereClause(whereClause);
+        validateColumnsExist(requireTable(conn, tableName), Arrays.asList(columns));
+
+        String sql = buildSelectSql(tableName, columns, whereClause);
+        PreparedStatement pstmt = prepareStreamingStatement(conn, sql);
+        try {
+            return new ResultSetRowIterator(pstmt, pstmt.executeQuery()).stream();
+        } catch (SQLException e) {
+            logger.error("Error al seleccionar datos de la tabla {}: {}", tableName, e.getMessage());
+            pstmt.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Selecciona datos de una tabla leyéndola en paralelo por rangos de su clave primaria entera, cada uno con su
+     * propia conexión, y devuelve todas las filas en un único Stream. Si la tabla no tiene una clave primaria entera
+     * de una sola columna se lee con una sola consulta. El Stream debe cerrarse para liberar las conexiones.
+     *
+     * @param dataSource  el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param tableName   el nombre de la tabla
+     * @param columns     las columnas a seleccionar
+     * @param whereClause la cláusula WHERE para filtrar los resultados
+     * @param conexiones  el número de conexiones que leen en paralelo
+     * @param ordenado    verdadero para devolver las filas ordenadas por la clave primaria
+     * @return un Stream de mapas que representan las filas de la consulta
+     * @throws SQLException              si ocurre un error al acceder a la base de datos
+     * @throws InvalidParameterException si alguno de los parámetros de entrada no es válido
+     */
+    public Stream<Map<String, Object>> streamFromTableParallel(@NotNull DataSource dataSource, String tableName, String[] columns, String whereClause,
+                                                               int conexiones, boolean ordenado) throws SQLException, InvalidParameterException {
+        validateTableName(tableName);
+        validateColumns(columns);
+        validateWhereClause(whereClause);
+        try (Connection conn = dataSource.getConnection()) {
+            validateColumnsExist(requireTable(conn, tableName), Arrays.asList(columns));
+        }
+
+        ParallelTableScanner scanner = new ParallelTableScanner();
+        scanner.setWorkers(conexiones);
+        scanner.setOrdered(ordenado);
+        try {
+            return scanner.scan(dataSource, tableName, Arrays.asList(columns), whereClause);
+        } catch (SQLException e) {
+            logger.error("Error al seleccionar datos de la tabla {}: {}", tableName, e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Crea un paginador por clave sobre una tabla. A diferencia de paginar con {@code LIMIT ... OFFSET}, cada
+     * página se busca por los valores de la clave de orden de la última fila de la anterior, así que las páginas
+     * finales no son más lentas que las primeras. Mientras se procesa una página, la siguiente se lee en segundo
+     * plano. El paginador debe cerrarse al terminar.
+     *
+     * @param dataSource  el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param tableName   el nombre de la tabla
+     * @param columns     las columnas a seleccionar
+     * @param whereClause la cláusula WHERE para filtrar los resultados
+     * @param sortKey     las columnas NOT NULL por las que se ordenan las páginas; vacía para usar la clave primaria
+     * @param pageSize    el número de filas por página
+     * @return el paginador; sus páginas devuelven el token con el que se pide la siguiente
+     * @throws SQLException              si ocurre un error al acceder a la base de datos
+     * @throws InvalidParameterException si alguno de los parámetros de entrada no es válido
+     */
+    public KeysetPaginator paginateFromTable(@NotNull DataSource dataSource, String tableName, String[] columns, String whereClause,
+                                             String[] sortKey, int pageSize) throws SQLException, InvalidParameterException {
+        validateTableName(tableName);
+        validateColumns(columns);
+        validateWhereClause(whereClause);
+        if (pageSize <= 0) {
+            throw new InvalidParameterException("El tamaño de página debe ser mayor que cero");
+        }
+        List<String> orden = sortKey == null ? Collections.emptyList() : Arrays.asList(sortKey);
+        try (Connection conn = dataSource.getConnection()) {
+            SchemaCache.TableSchema schema = requireTable(conn, tableName);
+            validateColumnsExist(schema, Arrays.asList(columns));
+            validateColumnsExist(schema, orden);
+        }
+
+        KeysetPaginator paginator = new KeysetPaginator(dataSource, tableName, Arrays.asList(columns), whereClause, orden);
+        paginator.setPageSize(pageSize);
+        return paginator;
+    }
+
+    /**
+     * Prepara una sentencia de solo avance y solo lectura que recibe las filas por partes.
+     * Con MySQL se usa un tamaño de obtención de {@link Integer#MIN_VALUE}, que activa el streaming fila a fila
+     * del driver; con otros drivers se pide un cursor con {@link #STREAM_FETCH_SIZE} filas por viaje.
+     *
+     * @param conn la conexión a la base de datos
+     * @param sql  la consulta SELECT a preparar
+     * @return la sentencia preparada
+     * @throws SQLException si ocurre un error al preparar la sentencia
+     */
+    @NotNull
+    static PreparedStatement prepareStreamingStatement(@NotNull Connection conn, String sql) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            String product = conn.getMetaData().getDatabaseProductName();
+            pstmt.setFetchSize(product != null && product.toLowerCase().contains("mysql") ? Integer.MIN_VALUE : STREAM_FETCH_SIZE);
+        } catch (SQLException e) {
+            pstmt.close();
+            throw e;
+        }
+        return pstmt;
+    }
+
+    /**
+     * Valida el nombre de la tabla.
+     *
+     * @param tableName el nombre de la tabla a validar
+     * @throws InvalidParameterException si el nombre de la tabla no es válido
+     */
+    private void validateTableName(String tableName) throws InvalidParameterException {
+        if (isValidName(tableName)) {
+            logger.info("El nombre de la tabla " + tableName + "es valida");
+        } else {
+            throw new InvalidParameterException("El nombre de la tabla no es válido");
+        }
+    }
+
+    /**
+     * Valida las columnas a seleccionar.
+     *
+     * @param columns las columnas a validar
+     * @throws InvalidParameterException si las columnas no son válidas
+     */
+    private void validateColumns(String[] columns) throws InvalidParameterException {
+        if (columns == null || columns.length == 0) {
+            throw new InvalidParameterException("Debe proporcionar al menos una columna para seleccionar");
+        }
+        for (String column : columns) {
+            if (!isValidName(column)) {
+                throw new InvalidParameterException("El nombre de la columna no es válido");
+            }
+        }
+    }
+
+    /**
+     * Valida la cláusula WHERE.
+     *
+     * @param whereClause la cláusula WHERE a validar
+     * @throws InvalidParameterException si la cláusula WHERE no es válida
+     */
+    private void validateWhereClause(String whereClause) throws InvalidParameterException {
+        if (whereClause == null || whereClause.isEmpty()) {
+            throw new InvalidParameterException("La cláusula WHERE no puede estar vacía");
+        }
+    }
+
+    /**
+     * Selecciona datos de una tabla en una base de datos.
+     *
+     * @param conn        la conexión a la base de datos
+     * @param tableName   el nombre de la tabla
+     * @param columns     las columnas a seleccionar
+     * @param whereClause la cláusula WHERE para filtrar los resultados
+     * @return una lista de mapas que representan los resultados de la consulta
+     * @throws SQLException si ocurre un error al acceder a la base de datos
+     */
+    @NotNull
+    private List<Map<String, Object>> selectDataFromTable(Connection conn, String tableName, String[] columns, String whereClause) throws SQLException {
+        String sql = buildSelectSql(tableName, columns, whereClause);
+
         try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             ResultSet rs = pstmt.executeQuery();
             return resultSetToList(rs);
@@ -511,6 +1306,8 @@ public class DataBaseManipulation {
 
     /**
      * Convierte un ResultSet en una lista de mapas.
+     * Las filas se almacenan por columnas en un {@link ResultTable} y cada mapa es una vista de solo lectura
+     * sobre él, en lugar de un HashMap por fila.
      *
      * @param rs el ResultSet a convertir
      * @return una lista de mapas que representan los resultados del ResultSet
@@ -518,45 +1315,73 @@ public class DataBaseManipulation {
      */
     @NotNull
     private List<Map<String, Object>> resultSetToList(@NotNull ResultSet rs) throws SQLException {
-        List<Map<String, Object>> results = new ArrayList<>();
-        ResultSetMetaData md = rs.getMetaData();
-        int columns = md.getColumnCount();
-        while (rs.next()) {
-            Map<String, Object> row = new HashMap<>(columns);
-            for (int i = 1; i <= columns; ++i) {
-                row.put(md.getColumnName(i), rs.getObject(i));
-            }
-            results.add(row);
-        }
-        return results;
+        return ResultTable.from(rs).asList();
     }
 
     public List<Map<String, Object>> generateReport(Connection conn, String tableName, String whereClause) {
+        try {
+            return generateReportTable(conn, tableName, whereClause).asList();
+        } catch (SQLException e) {
+            logger.error("Error al generar el informe: {}", e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Genera un informe con todas las columnas de una tabla almacenado por columnas.
+     *
+     * @param conn        la conexión a la base de datos
+     * @param tableName   el nombre de la tabla
+     * @param whereClause la cláusula WHERE para filtrar los resultados
+     * @return una tabla por columnas con las filas del informe
+     * @throws SQLException si ocurre un error al generar el informe
+     */
+    @NotNull
+    public ResultTable generateReportTable(Connection conn, String tableName, String whereClause) throws SQLException {
         validateConnection(conn);
         validateTableName(tableName);
         validateWhereClause(whereClause);
 
         String sql = buildSelectSql(tableName, whereClause);
 
-        List<Map<String, Object>> reportData = new ArrayList<>();
         try (Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
-            ResultSetMetaData rsmd = rs.getMetaData();
-            int columnCount = rsmd.getColumnCount();
-            while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = rsmd.getColumnName(i);
-                    Object value = rs.getObject(i);
-                    row.put(columnName, value);
-                }
-                reportData.add(row);
-            }
-        } catch (SQLException e) {
-            logger.error("Error al generar el informe: {}", e.getMessage());
+            return ResultTable.from(rs);
         }
+    }
+
+    /**
+     * Exporta un informe con todas las columnas de una tabla a un archivo CSV o JSON Lines, escribiendo las filas a
+     * medida que llegan del servidor. A diferencia de {@link #generateReport}, el informe nunca se carga entero en
+     * memoria.
+     *
+     * @param conn          la conexión a la base de datos
+     * @param tableName     el nombre de la tabla
+     * @param whereClause   la cláusula WHERE para filtrar los resultados
+     * @param rutaDeArchivo el archivo a crear
+     * @param formato       el formato del archivo
+     * @param comprimir     verdadero para comprimir el archivo con gzip mientras se escribe
+     * @return el número de filas exportadas
+     * @throws SQLException si ocurre un error al leer las filas o al escribir el archivo
+     */
+    public long exportReport(Connection conn, String tableName, String whereClause, String rutaDeArchivo,
+                             @NotNull ReportExporter.Format formato, boolean comprimir) throws SQLException {
+        validateConnection(conn);
+        validateTableName(tableName);
+        validateWhereClause(whereClause);
 
-        return reportData;
+        ReportExporter exporter = new ReportExporter(formato);
+        exporter.setCompressed(comprimir);
+        long filas = 0;
+        try (PreparedStatement pstmt = prepareStreamingStatement(conn, buildSelectSql(tableName, whereClause));
+             ResultSet rs = pstmt.executeQuery()) {
+            filas = exporter.export(rs, Paths.get(rutaDeArchivo));
+        } catch (SQLException e) {
+            manejarExcepcion(e, "Ocurrió un error al exportar el informe");
+        } catch (IOException e) {
+            manejarExcepcion(new SQLException("Error al escribir el informe en " + rutaDeArchivo, e), "Ocurrió un error al exportar el informe");
+        }
+        return filas;
     }
 
     @NotNull
@@ -590,6 +1415,7 @@ public class DataBaseManipulation {
 
         try (Statement stmt = conn.createStatement()) {
             stmt.executeUpdate(sql);
+            SchemaCache.invalidate(conn, tableName);
         } catch (SQLException e) {
             logger.error("Error al eliminar la tabla {}: {}", tableName, e.getMessage());
             throw e;
@@ -622,19 +1448,20 @@ public class DataBaseManipulation {
         validateTableName(tableName);
         validateValues(values);
 
-        if (!tableExists(conn, tableName)) {
-            throw new SQLException("La tabla " + tableName + " no existe");
-        }
+        SchemaCache.TableSchema schema = requireTable(conn, tableName);
+        validateColumnsExist(schema, values.keySet());
 
         String sql = buildInsertRowSql(tableName, values);
 
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try {
+            PreparedStatement pstmt = statementCache.prepare(conn, sql);
             int i = 1;
-            for (Object value : values.values()) {
-                pstmt.setObject(i++, value);
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                bindValue(pstmt, i++, entry.getValue(), schema.getColumnType(entry.getKey()));
             }
             pstmt.executeUpdate();
         } catch (SQLException e) {
+            statementCache.invalidate(conn, sql);
             logger.error("Error al insertar una fila en la tabla {}: {}", tableName, e.getMessage());
             throw e;
         }
@@ -724,35 +1551,97 @@ public class DataBaseManipulation {
         return "SELECT COUNT(*) FROM " + tableName;
     }
 
+    /**
+     * Restaura en MySQL un respaldo creado con {@link #respaldarBaseDeDatos} usando esta conexión.
+     * Las tablas se cargan sin índices secundarios ni comprobaciones de claves foráneas, que se añaden al final;
+     * cada fragmento se verifica con el manifiesto antes de confirmarse.
+     *
+     * @param conn           la conexión a la base de datos
+     * @param rutaDeRespaldo el directorio del respaldo
+     * @param nombreBD       el esquema de destino, o null para usar el del respaldo
+     * @param reemplazar     verdadero para eliminar las tablas que ya existan antes de restaurarlas
+     * @return verdadero si la restauración terminó y el número de filas de cada tabla coincide con el manifiesto
+     * @throws SQLException si ocurre un error al restaurar la base de datos
+     */
     public boolean restaurarBaseDeDatos(@NotNull Connection conn, String rutaDeRespaldo, String nombreBD, boolean reemplazar) throws SQLException {
+        validateConnection(conn);
+        LogicalRestoreEngine engine = new LogicalRestoreEngine();
+        engine.setReplace(reemplazar);
         boolean exito = false;
-        String sql = construirSqlRestaurarBaseDeDatos(nombreBD, reemplazar);
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, rutaDeRespaldo);
-            pstmt.executeUpdate();
+        try {
+            engine.restore(conn, Paths.get(rutaDeRespaldo), nombreBD);
             exito = true;
         } catch (SQLException e) {
             manejarExcepcion(e, "Ocurrió un error al restaurar la base de datos");
+        } catch (IOException e) {
+            manejarExcepcion(new SQLException("Error al leer el respaldo de " + rutaDeRespaldo, e), "Ocurrió un error al restaurar la base de datos");
         }
 
         if (exito) {
-            exito = verificarRestauracion(conn);
+            exito = verificarRestauracion(conn, rutaDeRespaldo, nombreBD);
         }
         return exito;
     }
 
-    @NotNull
-    private String construirSqlRestaurarBaseDeDatos(String nombreBD, boolean reemplazar) {
-        StringBuilder sql = new StringBuilder();
-        sql.append("RESTORE DATABASE ");
-        if (nombreBD != null) {
-            sql.append(nombreBD).append(" ");
+    /**
+     * Restaura en MySQL un respaldo creado con {@link #respaldarBaseDeDatos}, cargando sus fragmentos en paralelo
+     * sobre varias conexiones del origen de datos.
+     *
+     * @param dataSource     el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param rutaDeRespaldo el directorio del respaldo
+     * @param nombreBD       el esquema de destino, o null para usar el del respaldo
+     * @param reemplazar     verdadero para eliminar las tablas que ya existan antes de restaurarlas
+     * @param conexiones     el número de conexiones que cargan en paralelo
+     * @return verdadero si la restauración terminó y el número de filas de cada tabla coincide con el manifiesto
+     * @throws SQLException si ocurre un error al restaurar la base de datos
+     */
+    public boolean restaurarBaseDeDatos(@NotNull DataSource dataSource, String rutaDeRespaldo, String nombreBD, boolean reemplazar, int conexiones) throws SQLException {
+        LogicalRestoreEngine engine = new LogicalRestoreEngine();
+        engine.setReplace(reemplazar);
+        engine.setWorkers(conexiones);
+        boolean exito = false;
+        try {
+            engine.restore(dataSource, Paths.get(rutaDeRespaldo), nombreBD);
+            exito = true;
+        } catch (SQLException e) {
+            manejarExcepcion(e, "Ocurrió un error al restaurar la base de datos");
+        } catch (IOException e) {
+            manejarExcepcion(new SQLException("Error al leer el respaldo de " + rutaDeRespaldo, e), "Ocurrió un error al restaurar la base de datos");
         }
-        sql.append("FROM DISK = ?");
-        if (reemplazar) {
-            sql.append(" WITH REPLACE");
+
+        if (exito) {
+            try (Connection conn = dataSource.getConnection()) {
+                exito = verificarRestauracion(conn, rutaDeRespaldo, nombreBD);
+            }
         }
-        return sql.toString();
+        return exito;
+    }
+
+    /**
+     * Restaura una sola tabla desde un archivo de {@link IndexedBackupArchive}, leyendo únicamente sus bloques.
+     *
+     * @param conn           la conexión a la base de datos
+     * @param rutaDeArchivo  el archivo con índice
+     * @param contrasena     la contraseña del archivo
+     * @param nombreTabla    la tabla a restaurar
+     * @param nombreBD       el esquema de destino, o null para usar el del respaldo
+     * @param reemplazar     verdadero para eliminar la tabla antes si ya existe
+     * @return verdadero si la tabla se restauró con todas sus filas
+     * @throws SQLException si ocurre un error al restaurar la tabla
+     */
+    public boolean restaurarTablaDeArchivo(@NotNull Connection conn, String rutaDeArchivo, char[] contrasena, String nombreTabla, String nombreBD, boolean reemplazar) throws SQLException {
+        validateConnection(conn);
+        boolean exito = false;
+        try (IndexedBackupArchive archivo = IndexedBackupArchive.open(Paths.get(rutaDeArchivo), contrasena)) {
+            long filas = archivo.restoreTable(conn, nombreTabla, nombreBD, reemplazar);
+            System.out.println("Tabla " + nombreTabla + " restaurada desde " + rutaDeArchivo + ": " + filas + " filas");
+            exito = true;
+        } catch (SQLException e) {
+            manejarExcepcion(e, "Ocurrió un error al restaurar la tabla");
+        } catch (IOException | GeneralSecurityException e) {
+            manejarExcepcion(new SQLException("Error al leer el archivo de respaldo " + rutaDeArchivo, e), "Ocurrió un error al restaurar la tabla");
+        }
+        return exito;
     }
 
     private void manejarExcepcion(@NotNull SQLException e, String mensaje) throws SQLException {
@@ -769,30 +1658,52 @@ public class DataBaseManipulation {
         throw e;
     }
 
-    private boolean verificarRestauracion(Connection conn) throws SQLException {
+    private boolean verificarRestauracion(Connection conn, String rutaDeRespaldo, String nombreBD) throws SQLException {
         boolean exito = false;
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM someTable")) {
-            if (rs.next()) {
-                int count = rs.getInt(1);
-                System.out.println("La base de datos restaurada contiene " + count + " filas en someTable");
+        try {
+            BackupManifest manifiesto = BackupManifest.load(Paths.get(rutaDeRespaldo));
+            List<String> diferencias = LogicalRestoreEngine.verifyRowCounts(conn, manifiesto, nombreBD);
+            if (diferencias.isEmpty()) {
+                System.out.println("La base de datos restaurada contiene " + manifiesto.getRows() + " filas en "
+                        + manifiesto.getTables().size() + " tablas, como indica el respaldo");
                 exito = true;
+            } else {
+                System.err.println("La base de datos restaurada no coincide con el respaldo: " + diferencias);
             }
         } catch (SQLException e) {
             manejarExcepcion(e, "Ocurrió un error al verificar la base de datos restaurada");
+        } catch (IOException e) {
+            manejarExcepcion(new SQLException("Error al leer el manifiesto de " + rutaDeRespaldo, e), "Ocurrió un error al verificar la base de datos restaurada");
         }
         return exito;
     }
 
+    /**
+     * Respalda un esquema de MySQL con {@link LogicalBackupEngine} usando esta conexión, dentro de una sola
+     * transacción con instantánea consistente. Para volcar las tablas en paralelo use la variante que recibe
+     * un {@link DataSource}.
+     * Se calcula la suma de comprobación de cada fragmento para que el respaldo pueda servir de base a
+     * {@link #respaldarBaseDeDatosIncremental}.
+     *
+     * @param conn           la conexión a la base de datos
+     * @param rutaDeRespaldo el directorio donde se escribe el respaldo
+     * @param nombreBD       el esquema a respaldar, o null para usar el catálogo de la conexión
+     * @return verdadero si el respaldo se creó y su manifiesto lo describe por completo
+     * @throws SQLException si ocurre un error al respaldar la base de datos
+     */
     public boolean respaldarBaseDeDatos(@NotNull Connection conn, String rutaDeRespaldo, String nombreBD) throws SQLException {
+        validateConnection(conn);
+        String esquema = nombreBD != null ? nombreBD : conn.getCatalog();
+        LogicalBackupEngine engine = new LogicalBackupEngine();
+        engine.setChecksums(true);
         boolean exito = false;
-        String sql = construirSqlRespaldarBaseDeDatos(nombreBD);
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, rutaDeRespaldo);
-            pstmt.executeUpdate();
+        try {
+            engine.backup(conn, esquema, Paths.get(rutaDeRespaldo));
             exito = true;
         } catch (SQLException e) {
             manejarExcepcion(e, "Ocurrió un error al respaldar la base de datos");
+        } catch (IOException e) {
+            manejarExcepcion(new SQLException("Error al escribir el respaldo en " + rutaDeRespaldo, e), "Ocurrió un error al respaldar la base de datos");
         }
 
         if (exito) {
@@ -801,55 +1712,243 @@ public class DataBaseManipulation {
         return exito;
     }
 
-    @NotNull
-    private String construirSqlRespaldarBaseDeDatos(String nombreBD) {
-        StringBuilder sql = new StringBuilder();
-        sql.append("BACKUP DATABASE ");
-        if (nombreBD != null) {
-            sql.append(nombreBD).append(" ");
+    /**
+     * Respalda un esquema de MySQL volcando sus tablas en paralelo sobre varias conexiones del origen de datos,
+     * todas sobre la misma instantánea consistente.
+     * Se calcula la suma de comprobación de cada fragmento para que el respaldo pueda servir de base a
+     * {@link #respaldarBaseDeDatosIncremental}.
+     *
+     * @param dataSource     el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param rutaDeRespaldo el directorio donde se escribe el respaldo
+     * @param nombreBD       el esquema a respaldar
+     * @param conexiones     el número de conexiones que vuelcan en paralelo
+     * @return verdadero si el respaldo se creó y su manifiesto lo describe por completo
+     * @throws SQLException si ocurre un error al respaldar la base de datos
+     */
+    public boolean respaldarBaseDeDatos(@NotNull DataSource dataSource, String rutaDeRespaldo, String nombreBD, int conexiones) throws SQLException {
+        if (nombreBD == null || nombreBD.isEmpty()) {
+            throw new InvalidParameterException("El nombre de la base de datos no puede ser nulo o vacío");
         }
-        sql.append("TO DISK = ?");
-        return sql.toString();
+        LogicalBackupEngine engine = new LogicalBackupEngine();
+        engine.setWorkers(conexiones);
+        engine.setChecksums(true);
+        boolean exito = false;
+        try {
+            engine.backup(dataSource, nombreBD, Paths.get(rutaDeRespaldo));
+            exito = true;
+        } catch (SQLException e) {
+            manejarExcepcion(e, "Ocurrió un error al respaldar la base de datos");
+        } catch (IOException e) {
+            manejarExcepcion(new SQLException("Error al escribir el respaldo en " + rutaDeRespaldo, e), "Ocurrió un error al respaldar la base de datos");
+        }
+
+        if (exito) {
+            exito = verificarRespaldo(rutaDeRespaldo);
+        }
+        return exito;
     }
 
-    private boolean verificarRespaldo(String rutaDeRespaldo) {
+    /**
+     * Crea un respaldo incremental de un esquema de MySQL sobre un respaldo anterior, completo o incremental,
+     * usando esta conexión. Solo se vuelcan los fragmentos cuya suma de comprobación cambió; el resto se toma del
+     * respaldo anterior, así que el nuevo directorio se restaura con {@link #restaurarBaseDeDatos} como un
+     * respaldo completo mientras se conserven los respaldos de la cadena.
+     * Los respaldos creados con {@link #respaldarBaseDeDatos} incluyen las sumas; si el anterior no las tiene, todos
+     * sus fragmentos se vuelcan de nuevo.
+     *
+     * @param conn                   la conexión a la base de datos
+     * @param rutaDeRespaldo         el directorio donde se escribe el incremento
+     * @param nombreBD               el esquema a respaldar, o null para usar el catálogo de la conexión
+     * @param rutaDeRespaldoAnterior el directorio del respaldo anterior
+     * @return verdadero si el respaldo se creó y su manifiesto lo describe por completo
+     * @throws SQLException si ocurre un error al respaldar la base de datos
+     */
+    public boolean respaldarBaseDeDatosIncremental(@NotNull Connection conn, String rutaDeRespaldo, String nombreBD, String rutaDeRespaldoAnterior) throws SQLException {
+        validateConnection(conn);
+        String esquema = nombreBD != null ? nombreBD : conn.getCatalog();
+        LogicalBackupEngine engine = new LogicalBackupEngine();
+        engine.setPreviousBackup(Paths.get(rutaDeRespaldoAnterior));
         boolean exito = false;
-        File archivoDeRespaldo = new File(rutaDeRespaldo);
-        if (archivoDeRespaldo.exists() && archivoDeRespaldo.length() > 0) {
-            System.out.println("Archivo de respaldo creado con éxito: " + rutaDeRespaldo);
+        try {
+            engine.backup(conn, esquema, Paths.get(rutaDeRespaldo));
             exito = true;
-        } else {
-            System.err.println("El archivo de respaldo no se creó o está vacío: " + rutaDeRespaldo);
+        } catch (SQLException e) {
+            manejarExcepcion(e, "Ocurrió un error al respaldar la base de datos");
+        } catch (IOException e) {
+            manejarExcepcion(new SQLException("Error al escribir el respaldo en " + rutaDeRespaldo, e), "Ocurrió un error al respaldar la base de datos");
+        }
+
+        if (exito) {
+            exito = verificarRespaldo(rutaDeRespaldo);
+        }
+        return exito;
+    }
+
+    /**
+     * Crea un respaldo incremental de un esquema de MySQL sobre un respaldo anterior, volcando en paralelo sobre
+     * varias conexiones del origen de datos los fragmentos que cambiaron.
+     *
+     * @param dataSource             el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param rutaDeRespaldo         el directorio donde se escribe el incremento
+     * @param nombreBD               el esquema a respaldar
+     * @param rutaDeRespaldoAnterior el directorio del respaldo anterior
+     * @param conexiones             el número de conexiones que vuelcan en paralelo
+     * @return verdadero si el respaldo se creó y su manifiesto lo describe por completo
+     * @throws SQLException si ocurre un error al respaldar la base de datos
+     */
+    public boolean respaldarBaseDeDatosIncremental(@NotNull DataSource dataSource, String rutaDeRespaldo, String nombreBD, String rutaDeRespaldoAnterior, int conexiones) throws SQLException {
+        if (nombreBD == null || nombreBD.isEmpty()) {
+            throw new InvalidParameterException("El nombre de la base de datos no puede ser nulo o vacío");
+        }
+        LogicalBackupEngine engine = new LogicalBackupEngine();
+        engine.setWorkers(conexiones);
+        engine.setPreviousBackup(Paths.get(rutaDeRespaldoAnterior));
+        boolean exito = false;
+        try {
+            engine.backup(dataSource, nombreBD, Paths.get(rutaDeRespaldo));
+            exito = true;
+        } catch (SQLException e) {
+            manejarExcepcion(e, "Ocurrió un error al respaldar la base de datos");
+        } catch (IOException e) {
+            manejarExcepcion(new SQLException("Error al escribir el respaldo en " + rutaDeRespaldo, e), "Ocurrió un error al respaldar la base de datos");
+        }
+
+        if (exito) {
+            exito = verificarRespaldo(rutaDeRespaldo);
         }
         return exito;
     }
 
-    public List<String> verificarIntegridadDeBaseDeDatos(Connection conn, String nombreBD, String opcionDeReparacion, boolean usarTablock) throws SQLException {
+    /**
+     * Compara una tabla entre dos bases de datos MySQL por rangos de clave con sumas de comprobación calculadas en
+     * cada servidor, y obtiene el conjunto mínimo de inserciones, actualizaciones y borrados que deja el destino
+     * igual que el origen. Ambas conexiones usan su catálogo actual.
+     *
+     * @param origen      la conexión a la base de datos de referencia
+     * @param destino     la conexión a la base de datos que se sincroniza
+     * @param nombreTabla el nombre de la tabla, que debe tener clave primaria
+     * @param aplicar     verdadero para aplicar los cambios en el destino en una sola transacción
+     * @return una descripción de cada cambio; vacía si las tablas son iguales
+     * @throws SQLException si ocurre un error al comparar las tablas o al aplicar los cambios
+     */
+    public List<String> sincronizarTabla(@NotNull Connection origen, @NotNull Connection destino, String nombreTabla, boolean aplicar) throws SQLException {
+        validateConnection(origen);
+        validateConnection(destino);
+        if (nombreTabla == null || nombreTabla.isEmpty()) {
+            throw new InvalidParameterException("El nombre de la tabla no puede ser nulo o vacío");
+        }
+        List<String> cambios = new ArrayList<>();
+        TableSync sync = new TableSync();
+        sync.setApply(aplicar);
+        try {
+            TableSync.Result resultado = sync.compare(origen, destino, origen.getCatalog(), destino.getCatalog(), nombreTabla, null);
+            for (TableSync.Change cambio : resultado.getChanges()) {
+                cambios.add(cambio.toString());
+            }
+            System.out.println(resultado);
+        } catch (SQLException e) {
+            manejarExcepcion(e, "Ocurrió un error al sincronizar la tabla " + nombreTabla);
+        }
+        return cambios;
+    }
+
+    /**
+     * Comprueba un respaldo recién creado sin volver a leer sus archivos: el manifiesto, la existencia y el tamaño
+     * de cada archivo. La verificación completa de las sumas SHA-256 la hace {@link #verificarArchivosDeRespaldo}.
+     */
+    private boolean verificarRespaldo(String rutaDeRespaldo) {
+        try {
+            List<String> problemas = new BackupVerifier().verifyPresence(Paths.get(rutaDeRespaldo));
+            if (!problemas.isEmpty()) {
+                System.err.println("El respaldo " + rutaDeRespaldo + " tiene " + problemas.size() + " archivo(s) dañado(s) o ausente(s): " + problemas);
+                return false;
+            }
+            BackupManifest manifiesto = BackupManifest.load(Paths.get(rutaDeRespaldo));
+            System.out.println("Respaldo creado con éxito: " + rutaDeRespaldo + " (" + manifiesto.getTables().size()
+                    + " tablas, " + manifiesto.getRows() + " filas)");
+            return true;
+        } catch (IOException e) {
+            System.err.println("El respaldo no se creó o su manifiesto no es válido: " + rutaDeRespaldo);
+            return false;
+        }
+    }
+
+    /**
+     * Verifica en paralelo todos los archivos de un respaldo creado con {@link #respaldarBaseDeDatos} contra las
+     * sumas SHA-256 de su manifiesto, sin descomprimirlos.
+     *
+     * @param rutaDeRespaldo el directorio del respaldo
+     * @return una descripción de cada archivo dañado o ausente; vacía si el respaldo es correcto
+     * @throws SQLException si no se puede leer el manifiesto del respaldo
+     */
+    public List<String> verificarArchivosDeRespaldo(String rutaDeRespaldo) throws SQLException {
+        List<String> problemas = new ArrayList<>();
+        try {
+            problemas = new BackupVerifier().verify(Paths.get(rutaDeRespaldo));
+        } catch (IOException e) {
+            manejarExcepcion(new SQLException("Error al leer el manifiesto de " + rutaDeRespaldo, e), "Ocurrió un error al verificar el respaldo");
+        }
+        return problemas;
+    }
+
+    /**
+     * Verifica la integridad de todas las tablas de un esquema de MySQL con {@code CHECK TABLE}, una tabla a la vez
+     * sobre esta conexión. No calcula {@code CHECKSUM TABLE}, que lee otra vez cada tabla; para obtener las sumas
+     * se usa directamente {@link IntegrityChecker#setChecksums}.
+     *
+     * @param conn                 la conexión a la base de datos
+     * @param nombreBD             el esquema a verificar, o null para usar el catálogo de la conexión
+     * @param opcionDeVerificacion la opción de {@code CHECK TABLE}, por ejemplo {@code QUICK} o {@code EXTENDED}, o null
+     * @return una descripción de cada tabla dañada o que no se pudo verificar; vacía si todo el esquema es correcto
+     * @throws SQLException si ocurre un error al leer la lista de tablas
+     */
+    public List<String> verificarIntegridadDeBaseDeDatos(@NotNull Connection conn, String nombreBD, String opcionDeVerificacion) throws SQLException {
+        validateConnection(conn);
+        String esquema = nombreBD != null ? nombreBD : conn.getCatalog();
+        IntegrityChecker checker = new IntegrityChecker();
+        checker.setCheckOption(opcionDeVerificacion);
+        return verificarIntegridad(() -> checker.check(conn, esquema, null));
+    }
+
+    /**
+     * Verifica la integridad de todas las tablas de un esquema de MySQL repartiéndolas entre varias conexiones del
+     * origen de datos, sin superar un límite de lectura.
+     *
+     * @param dataSource           el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param nombreBD             el esquema a verificar
+     * @param opcionDeVerificacion la opción de {@code CHECK TABLE}, por ejemplo {@code QUICK} o {@code EXTENDED}, o null
+     * @param conexiones           el número de conexiones que verifican en paralelo
+     * @param bytesPorSegundo      el volumen máximo de tablas que se empieza a verificar por segundo, o 0 para no limitar
+     * @return una descripción de cada tabla dañada o que no se pudo verificar; vacía si todo el esquema es correcto
+     * @throws SQLException si ocurre un error al abrir las conexiones o leer la lista de tablas
+     */
+    public List<String> verificarIntegridadDeBaseDeDatos(@NotNull DataSource dataSource, String nombreBD, String opcionDeVerificacion,
+                                                         int conexiones, long bytesPorSegundo) throws SQLException {
+        if (nombreBD == null || nombreBD.isEmpty()) {
+            throw new InvalidParameterException("El nombre de la base de datos no puede ser nulo o vacío");
+        }
+        IntegrityChecker checker = new IntegrityChecker();
+        checker.setCheckOption(opcionDeVerificacion);
+        checker.setWorkers(conexiones);
+        checker.setMaxBytesPerSecond(bytesPorSegundo);
+        return verificarIntegridad(() -> checker.check(dataSource, nombreBD, null));
+    }
+
+    private List<String> verificarIntegridad(@NotNull VerificacionDeIntegridad verificacion) throws SQLException {
         List<String> resultados = new ArrayList<>();
-        String sql = construirSqlVerificarIntegridadDeBaseDeDatos(opcionDeReparacion, usarTablock);
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, nombreBD);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                String mensaje = rs.getString("MessageText");
-                resultados.add(mensaje);
+        try {
+            IntegrityChecker.Report informe = verificacion.ejecutar();
+            for (IntegrityChecker.TableResult resultado : informe.getProblems()) {
+                resultados.add(resultado.toString());
             }
+            System.out.println(informe);
         } catch (SQLException e) {
             manejarExcepcion(e, "Ocurrió un error al verificar la integridad de la base de datos");
         }
         return resultados;
     }
 
-    @NotNull
-    private String construirSqlVerificarIntegridadDeBaseDeDatos(String opcionDeReparacion, boolean usarTablock) {
-        StringBuilder sql = new StringBuilder();
-        sql.append("DBCC CHECKDB(?) WITH NO_INFOMSGS, ALL_ERRORMSGS");
-        if (opcionDeReparacion != null) {
-            sql.append(", REPAIR_").append(opcionDeReparacion);
-        }
-        if (usarTablock) {
-            sql.append(", TABLOCK");
-        }
-        return sql.toString();
+    private interface VerificacionDeIntegridad {
+        IntegrityChecker.Report ejecutar() throws SQLException;
     }
 }
\ No newline at end of file
@@ -0,0 +1,859 @@
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Almacén local de respaldos con deduplicación por contenido.
+ * Los datos de cada respaldo se cortan en fragmentos de tamaño variable con un hash rodante (Gear): los cortes
+ * dependen del contenido, así que un cambio en un punto del archivo solo altera los fragmentos de alrededor
+ * aunque desplace todo lo que viene detrás. Cada fragmento se identifica por el HMAC-SHA256 de su contenido y se
+ * guarda comprimido y cifrado con AES-GCM una única vez, aunque aparezca en muchos respaldos. Cada respaldo es un
+ * índice cifrado con la lista de sus fragmentos, de modo que un respaldo casi igual al anterior solo escribe los
+ * fragmentos nuevos.
+ * <p>
+ * Las claves se derivan de la contraseña con PBKDF2, como en {@link BackupFormat}; los identificadores usan una
+ * clave propia para que los nombres de los archivos no revelen el contenido. Los fragmentos se sellan y se leen
+ * en un {@link ForkJoinPool} con una ventana acotada. Al restaurar se comprueba el HMAC de cada fragmento, y
+ * {@link #collectGarbage()} elimina los fragmentos que ya no usa ningún respaldo.
+ * <p>
+ * Estructura del directorio: {@code store.properties} con la sal y los parámetros de corte,
+ * {@code chunks/xx/<id>} con los fragmentos y {@code backups/<nombre>} con los índices. Cada operación toma un
+ * bloqueo exclusivo sobre el archivo {@code lock}, para que la recolección no borre los fragmentos de un
+ * respaldo en curso en otro proceso; antes toma un bloqueo por directorio dentro de la JVM, porque el sistema
+ * operativo no admite dos bloqueos del mismo archivo en un proceso.
+ * <p>
+ * Un fragmento que ya existe solo se reutiliza después de leerlo y comprobar su HMAC, una vez por instancia;
+ * si está dañado se vuelve a escribir.
+ */
+public class DedupBackupStore {
+
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 256 * 1024;
+    public static final int DEFAULT_AVERAGE_CHUNK_BITS = 20;
+    public static final int DEFAULT_MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(DedupBackupStore.class);
+    private static final String CONFIG_FILE = "store.properties";
+    private static final String CHUNKS_DIRECTORY = "chunks";
+    private static final String BACKUPS_DIRECTORY = "backups";
+    private static final String LOCK_FILE = "lock";
+    private static final String FORMAT_VERSION = "1";
+    private static final int INDEX_MAGIC = 0x44424D53;
+    private static final int SALT_LENGTH = 16;
+    private static final int NONCE_LENGTH = 12;
+    private static final int ID_LENGTH = 32;
+    private static final byte METHOD_STORED = 0;
+    private static final byte METHOD_DEFLATE = 1;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int TEXT_FLUSH_THRESHOLD = 32 * 1024;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final HexFormat HEX = HexFormat.of();
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ConcurrentMap<Path, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final Path chunks;
+    private final Path backups;
+    private final Path lockKey;
+    private final Set<String> verifiedChunks = ConcurrentHashMap.newKeySet();
+    private final SecretKeySpec encryptionKey;
+    private final SecretKeySpec idKey;
+    private final long[] gear = new long[256];
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final long cutMask;
+    private final ForkJoinPool pool;
+    private final int window;
+
+    public DedupBackupStore(@NotNull Path root, @NotNull char[] password) throws IOException, GeneralSecurityException {
+        this(root, password, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Abre un almacén existente o crea uno nuevo con los parámetros de corte por defecto.
+     *
+     * @param root     el directorio del almacén
+     * @param password la contraseña del almacén
+     * @param pool     el pool donde se comprimen, cifran y verifican los fragmentos
+     * @throws IOException              si el almacén no se puede leer o crear, o la contraseña es incorrecta
+     * @throws GeneralSecurityException si no se pueden derivar las claves
+     */
+    public DedupBackupStore(@NotNull Path root, @NotNull char[] password, @NotNull ForkJoinPool pool) throws IOException, GeneralSecurityException {
+        this.root = root;
+        this.chunks = root.resolve(CHUNKS_DIRECTORY);
+        this.backups = root.resolve(BACKUPS_DIRECTORY);
+        this.pool = pool;
+        this.window = Math.max(2, pool.getParallelism() * 2);
+        Files.createDirectories(chunks);
+        Files.createDirectories(backups);
+        this.lockKey = root.toRealPath();
+
+        Path configFile = root.resolve(CONFIG_FILE);
+        Properties config = new Properties();
+        boolean created = !Files.exists(configFile);
+        if (created) {
+            byte[] salt = new byte[SALT_LENGTH];
+            RANDOM.nextBytes(salt);
+            config.setProperty("version", FORMAT_VERSION);
+            config.setProperty("salt", Base64.getEncoder().encodeToString(salt));
+            config.setProperty("chunk.min", String.valueOf(DEFAULT_MIN_CHUNK_SIZE));
+            config.setProperty("chunk.averageBits", String.valueOf(DEFAULT_AVERAGE_CHUNK_BITS));
+            config.setProperty("chunk.max", String.valueOf(DEFAULT_MAX_CHUNK_SIZE));
+        } else {
+            try (InputStream in = Files.newInputStream(configFile)) {
+                config.load(in);
+            }
+            if (!FORMAT_VERSION.equals(config.getProperty("version"))) {
+                throw new IOException("Versión del almacén de respaldos no soportada: " + config.getProperty("version"));
+            }
+        }
+
+        byte[] master = BackupFormat.deriveKey(password, Base64.getDecoder().decode(config.getProperty("salt"))).getEncoded();
+        try {
+            byte[] check = hmac(master, "password-check");
+            if (created) {
+                config.setProperty("check", Base64.getEncoder().encodeToString(check));
+            } else if (!MessageDigest.isEqual(check, Base64.getDecoder().decode(config.getProperty("check", "")))) {
+                throw new IOException("La contraseña del almacén de respaldos " + root + " es incorrecta");
+            }
+            this.encryptionKey = new SecretKeySpec(hmac(master, "chunk-encryption"), "AES");
+            this.idKey = new SecretKeySpec(hmac(master, "chunk-id"), "HmacSHA256");
+            // Tabla Gear derivada de la clave con SplitMix64: los cortes tampoco revelan el contenido
+            long seed = ByteBuffer.wrap(hmac(master, "chunk-boundaries")).getLong();
+            for (int i = 0; i < gear.length; i++) {
+                seed += 0x9E3779B97F4A7C15L;
+                long z = seed;
+                z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+                z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+                gear[i] = z ^ (z >>> 31);
+            }
+        } finally {
+            Arrays.fill(master, (byte) 0);
+        }
+
+        this.minChunkSize = Integer.parseInt(config.getProperty("chunk.min"));
+        this.maxChunkSize = Integer.parseInt(config.getProperty("chunk.max"));
+        int averageBits = Integer.parseInt(config.getProperty("chunk.averageBits"));
+        if (minChunkSize <= 0 || maxChunkSize < minChunkSize || averageBits <= 0 || averageBits >= 32) {
+            throw new IOException("Parámetros de corte no válidos en " + configFile);
+        }
+        this.cutMask = -1L << (64 - averageBits);
+
+        if (created) {
+            Path temporary = configFile.resolveSibling(CONFIG_FILE + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                config.store(out, "Almacén de respaldos deduplicado");
+            }
+            Files.move(temporary, configFile, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    @NotNull
+    private static byte[] hmac(@NotNull byte[] key, @NotNull String label) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(label.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Guarda un archivo como un nuevo respaldo del almacén.
+     *
+     * @param source el archivo a respaldar
+     * @param name   el nombre del respaldo: letras, dígitos, punto, guion y guion bajo
+     * @return las estadísticas del respaldo; los bytes escritos son solo los de los fragmentos nuevos
+     * @throws IOException si ocurre un error de lectura o escritura, o ya existe un respaldo con ese nombre
+     */
+    @NotNull
+    public synchronized BackupStats backupFile(@NotNull Path source, @NotNull String name) throws IOException {
+        StoreLock lock = lock();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             ChunkingOutputStream out = new ChunkingOutputStream(name)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            while (in.read(buffer) >= 0) {
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            return out.finish();
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Vuelca una tabla como un nuevo respaldo del almacén, en el formato de {@link TsvRowCodec} precedido de
+     * una línea con los nombres de las columnas, igual que {@link BackupCompressEncrypt#backupTable}.
+     *
+     * @param conn      la conexión a la base de datos
+     * @param tableName el nombre de la tabla
+     * @param name      el nombre del respaldo
+     * @return las estadísticas del respaldo; los bytes escritos son solo los de los fragmentos nuevos
+     * @throws SQLException si ocurre un error al leer la tabla
+     * @throws IOException  si ocurre un error al escribir, o ya existe un respaldo con ese nombre
+     */
+    @NotNull
+    public synchronized BackupStats backupTable(@NotNull Connection conn, @NotNull String tableName, @NotNull String name) throws SQLException, IOException {
+        if (SchemaCache.lookup(conn, tableName) == null) {
+            throw new SQLException("La tabla " + tableName + " no existe");
+        }
+        StoreLock lock = lock();
+        try (PreparedStatement pstmt = DataBaseManipulation.prepareStreamingStatement(conn, "SELECT * FROM " + tableName);
+             ResultSet rs = pstmt.executeQuery();
+             ChunkingOutputStream out = new ChunkingOutputStream(name)) {
+            StringBuilder pending = new StringBuilder(TEXT_FLUSH_THRESHOLD * 2);
+            boolean[] binary = TsvRowCodec.binaryColumns(rs.getMetaData());
+            TsvRowCodec.appendHeader(pending, rs.getMetaData());
+            while (rs.next()) {
+                TsvRowCodec.appendRow(pending, rs, binary);
+                if (pending.length() >= TEXT_FLUSH_THRESHOLD) {
+                    out.write(pending.toString().getBytes(StandardCharsets.UTF_8));
+                    pending.setLength(0);
+                }
+            }
+            out.write(pending.toString().getBytes(StandardCharsets.UTF_8));
+            return out.finish();
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Restaura un respaldo del almacén en un archivo. Se escribe en un archivo temporal que solo reemplaza al
+     * destino cuando todos los fragmentos se han leído y verificado.
+     *
+     * @param name   el nombre del respaldo
+     * @param target el archivo a crear o reemplazar
+     * @return las estadísticas de la restauración
+     * @throws IOException si el respaldo no existe, está dañado o no se puede escribir el destino
+     */
+    @NotNull
+    public synchronized BackupStats restore(@NotNull String name, @NotNull Path target) throws IOException {
+        long start = System.nanoTime();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        long chunksRead = 0;
+        StoreLock lock = lock();
+        try {
+            Index index = readIndex(name);
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+                int next = 0;
+                while (next < index.ids.size() || !pending.isEmpty()) {
+                    while (next < index.ids.size() && pending.size() < window) {
+                        byte[] id = index.ids.get(next);
+                        int length = index.lengths.get(next);
+                        pending.addLast(CompletableFuture.supplyAsync(() -> loadChunk(id, length), pool));
+                        next++;
+                    }
+                    ByteBuffer data = ByteBuffer.wrap(ParallelBlockCompressor.await(pending.removeFirst()));
+                    while (data.hasRemaining()) {
+                        out.write(data);
+                    }
+                    chunksRead++;
+                }
+                if (out.size() != index.size) {
+                    throw new IOException("El respaldo " + name + " restaura " + out.size() + " bytes y se esperaban " + index.size);
+                }
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            BackupStats stats = new BackupStats(index.size, index.size, System.nanoTime() - start);
+            logger.info("Respaldo {} restaurado en {}: {} fragmento(s), {}", name, target, chunksRead, stats);
+            return stats;
+        } finally {
+            try {
+                Files.deleteIfExists(temporary);
+            } finally {
+                lock.close();
+            }
+        }
+    }
+
+    /**
+     * Devuelve los nombres de los respaldos del almacén en orden alfabético.
+     *
+     * @return los nombres de los respaldos
+     * @throws IOException si no se puede leer el directorio del almacén
+     */
+    @NotNull
+    public List<String> listBackups() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(backups)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(".tmp")) {
+                    names.add(name);
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Devuelve la fecha de creación de un respaldo.
+     *
+     * @param name el nombre del respaldo
+     * @return la fecha de creación
+     * @throws IOException si el respaldo no existe o su índice está dañado
+     */
+    @NotNull
+    public Instant getCreated(@NotNull String name) throws IOException {
+        return readIndex(name).created;
+    }
+
+    /**
+     * Elimina el índice de un respaldo. Sus fragmentos se borran en la siguiente {@link #collectGarbage()}.
+     *
+     * @param name el nombre del respaldo
+     * @return verdadero si el respaldo existía
+     * @throws IOException si no se puede borrar el índice
+     */
+    public synchronized boolean deleteBackup(@NotNull String name) throws IOException {
+        StoreLock lock = lock();
+        try {
+            return Files.deleteIfExists(indexFile(name));
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Elimina los respaldos creados antes de una fecha y después recoge los fragmentos que dejan de usarse.
+     *
+     * @param olderThan la fecha límite; se conservan los respaldos creados en ella o después
+     * @return los nombres de los respaldos eliminados
+     * @throws IOException si no se puede leer o modificar el almacén
+     */
+    @NotNull
+    public synchronized List<String> expireBackups(@NotNull Instant olderThan) throws IOException {
+        List<String> expired = new ArrayList<>();
+        StoreLock lock = lock();
+        try {
+            for (String name : listBackups()) {
+                if (readIndex(name).created.isBefore(olderThan)) {
+                    Files.delete(indexFile(name));
+                    expired.add(name);
+                }
+            }
+        } finally {
+            lock.close();
+        }
+        if (!expired.isEmpty()) {
+            logger.info("Respaldos caducados eliminados de {}: {}", root, expired);
+            collectGarbage();
+        }
+        return expired;
+    }
+
+    /**
+     * Borra los fragmentos que no usa ningún respaldo del almacén y los archivos temporales que haya dejado
+     * una operación interrumpida. Si algún índice no se puede leer no se borra nada.
+     *
+     * @return los bytes liberados
+     * @throws IOException si no se puede leer algún índice o borrar algún fragmento
+     */
+    public synchronized long collectGarbage() throws IOException {
+        StoreLock lock = lock();
+        try {
+            Set<String> live = new HashSet<>();
+            for (String name : listBackups()) {
+                for (byte[] id : readIndex(name).ids) {
+                    live.add(HEX.formatHex(id));
+                }
+            }
+            long freed = 0;
+            int deleted = 0;
+            try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(chunks)) {
+                for (Path prefix : prefixes) {
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(prefix)) {
+                        for (Path file : stream) {
+                            if (!live.contains(file.getFileName().toString())) {
+                                freed += Files.size(file);
+                                Files.delete(file);
+                                verifiedChunks.remove(file.getFileName().toString());
+                                deleted++;
+                            }
+                        }
+                    }
+                }
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(backups, "*.tmp")) {
+                for (Path file : stream) {
+                    Files.delete(file);
+                }
+            }
+            logger.info("Recolección del almacén {}: {} fragmento(s) en uso, {} borrado(s), {} bytes liberados", root, live.size(), deleted, freed);
+            return freed;
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Comprime, cifra y guarda un fragmento si el almacén no lo tiene ya o el que tiene está dañado.
+     *
+     * @return la referencia al fragmento, con los bytes escritos o 0 si ya existía
+     */
+    @NotNull
+    private ChunkRef sealChunk(@NotNull byte[] data, int length) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(idKey);
+            mac.update(data, 0, length);
+            byte[] id = mac.doFinal();
+            Path file = chunkFile(id);
+            if (Files.exists(file) && isIntact(id, length)) {
+                return new ChunkRef(id, length, 0);
+            }
+
+            byte[] packed = new byte[length];
+            Deflater deflater = DEFLATERS.get();
+            deflater.reset();
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            int packedLength = deflater.deflate(packed);
+            byte method = METHOD_DEFLATE;
+            if (!deflater.finished() || packedLength >= length) {
+                packed = data;
+                packedLength = length;
+                method = METHOD_STORED;
+            }
+
+            byte[] nonce = new byte[NONCE_LENGTH];
+            RANDOM.nextBytes(nonce);
+            Cipher cipher = BackupFormat.newCipher();
+            cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new GCMParameterSpec(BackupFormat.TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(id);
+            cipher.updateAAD(new byte[]{method});
+            byte[] sealed = new byte[1 + NONCE_LENGTH + cipher.getOutputSize(packedLength)];
+            sealed[0] = method;
+            System.arraycopy(nonce, 0, sealed, 1, NONCE_LENGTH);
+            int sealedLength = 1 + NONCE_LENGTH + cipher.doFinal(packed, 0, packedLength, sealed, 1 + NONCE_LENGTH);
+
+            Files.createDirectories(file.getParent());
+            Path temporary = file.resolveSibling(file.getFileName() + "." + Long.toHexString(RANDOM.nextLong()) + ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temporary)) {
+                    out.write(sealed, 0, sealedLength);
+                }
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            verifiedChunks.add(HEX.formatHex(id));
+            return new ChunkRef(id, length, sealedLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (GeneralSecurityException e) {
+            throw new UncheckedIOException(new IOException("No se pudo cifrar un fragmento: " + e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Comprueba que un fragmento existente se puede leer y corresponde a su identificador. El resultado se
+     * recuerda, así que cada fragmento se lee como mucho una vez por instancia.
+     */
+    private boolean isIntact(@NotNull byte[] id, int length) {
+        String hex = HEX.formatHex(id);
+        if (verifiedChunks.contains(hex)) {
+            return true;
+        }
+        try {
+            loadChunk(id, length);
+        } catch (UncheckedIOException e) {
+            logger.warn("El fragmento {} del almacén {} está dañado y se vuelve a escribir: {}", hex, root, e.getCause().getMessage());
+            return false;
+        }
+        verifiedChunks.add(hex);
+        return true;
+    }
+
+    /**
+     * Lee, descifra y descomprime un fragmento y comprueba que su contenido corresponde a su identificador.
+     */
+    @NotNull
+    private byte[] loadChunk(@NotNull byte[] id, int length) {
+        String hex = HEX.formatHex(id);
+        try {
+            byte[] sealed;
+            try {
+                sealed = Files.readAllBytes(chunkFile(id));
+            } catch (NoSuchFileException e) {
+                throw new IOException("Falta el fragmento " + hex + " en el almacén", e);
+            }
+            if (sealed.length < 1 + NONCE_LENGTH + BackupFormat.TAG_LENGTH) {
+                throw new IOException("El fragmento " + hex + " está truncado");
+            }
+            byte method = sealed[0];
+            Cipher cipher = BackupFormat.newCipher();
+            cipher.init(Cipher.DECRYPT_MODE, encryptionKey, new GCMParameterSpec(BackupFormat.TAG_LENGTH * 8, sealed, 1, NONCE_LENGTH));
+            cipher.updateAAD(id);
+            cipher.updateAAD(new byte[]{method});
+            byte[] packed = cipher.doFinal(sealed, 1 + NONCE_LENGTH, sealed.length - 1 - NONCE_LENGTH);
+
+            byte[] data;
+            if (method == METHOD_STORED) {
+                data = packed;
+            } else if (method == METHOD_DEFLATE) {
+                data = new byte[length];
+                Inflater inflater = INFLATERS.get();
+                inflater.reset();
+                inflater.setInput(packed);
+                int inflated = 0;
+                while (inflated < length && !inflater.finished() && !inflater.needsInput()) {
+                    inflated += inflater.inflate(data, inflated, length - inflated);
+                }
+                if (inflated != length || !inflater.finished()) {
+                    throw new IOException("El fragmento " + hex + " no tiene la longitud esperada");
+                }
+            } else {
+                throw new IOException("Método de compresión desconocido en el fragmento " + hex);
+            }
+            if (data.length != length) {
+                throw new IOException("El fragmento " + hex + " no tiene la longitud esperada");
+            }
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(idKey);
+            if (!MessageDigest.isEqual(mac.doFinal(data), id)) {
+                throw new IOException("El contenido del fragmento " + hex + " no corresponde a su identificador");
+            }
+            return data;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Datos comprimidos no válidos en el fragmento " + hex, e));
+        } catch (GeneralSecurityException e) {
+            throw new UncheckedIOException(new IOException("El fragmento " + hex + " está dañado o la contraseña es incorrecta", e));
+        }
+    }
+
+    @NotNull
+    private Path chunkFile(@NotNull byte[] id) {
+        String hex = HEX.formatHex(id);
+        return chunks.resolve(hex.substring(0, 2)).resolve(hex);
+    }
+
+    @NotNull
+    private Path indexFile(@NotNull String name) {
+        if (!name.matches("[A-Za-z0-9_-][A-Za-z0-9._-]*") || name.endsWith(".tmp")) {
+            throw new IllegalArgumentException("Nombre de respaldo no válido: " + name);
+        }
+        return backups.resolve(name);
+    }
+
+    /**
+     * Cifra y guarda el índice de un respaldo: fecha de creación, tamaño total y, por cada fragmento, su
+     * identificador y su longitud. El nombre del respaldo forma parte de los datos autenticados, así que un
+     * índice renombrado no se puede leer.
+     */
+    private void writeIndex(@NotNull String name, @NotNull Index index) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + index.ids.size() * (ID_LENGTH + Integer.BYTES));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeLong(index.created.toEpochMilli());
+            out.writeLong(index.size);
+            out.writeInt(index.ids.size());
+            for (int i = 0; i < index.ids.size(); i++) {
+                out.write(index.ids.get(i));
+                out.writeInt(index.lengths.get(i));
+            }
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        byte[] sealed;
+        try {
+            Cipher cipher = BackupFormat.newCipher();
+            cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new GCMParameterSpec(BackupFormat.TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(("backup:" + name).getBytes(StandardCharsets.UTF_8));
+            sealed = cipher.doFinal(bytes.toByteArray());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("No se pudo cifrar el índice del respaldo " + name + ": " + e.getMessage(), e);
+        }
+        Path file = indexFile(name);
+        Path temporary = file.resolveSibling(name + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                out.write(nonce);
+                out.write(sealed);
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    @NotNull
+    private Index readIndex(@NotNull String name) throws IOException {
+        byte[] sealed;
+        try {
+            sealed = Files.readAllBytes(indexFile(name));
+        } catch (NoSuchFileException e) {
+            throw new IOException("No existe el respaldo " + name + " en el almacén " + root, e);
+        }
+        byte[] plain;
+        try {
+            if (sealed.length < NONCE_LENGTH + BackupFormat.TAG_LENGTH) {
+                throw new IOException("El índice del respaldo " + name + " está truncado");
+            }
+            Cipher cipher = BackupFormat.newCipher();
+            cipher.init(Cipher.DECRYPT_MODE, encryptionKey, new GCMParameterSpec(BackupFormat.TAG_LENGTH * 8, sealed, 0, NONCE_LENGTH));
+            cipher.updateAAD(("backup:" + name).getBytes(StandardCharsets.UTF_8));
+            plain = cipher.doFinal(sealed, NONCE_LENGTH, sealed.length - NONCE_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("El índice del respaldo " + name + " está dañado", e);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("El índice del respaldo " + name + " no es válido");
+            }
+            Index index = new Index(Instant.ofEpochMilli(in.readLong()));
+            index.size = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] id = new byte[ID_LENGTH];
+                in.readFully(id);
+                index.ids.add(id);
+                index.lengths.add(in.readInt());
+            }
+            return index;
+        }
+    }
+
+    @NotNull
+    private StoreLock lock() throws IOException {
+        ReentrantLock jvmLock = JVM_LOCKS.computeIfAbsent(lockKey, key -> new ReentrantLock());
+        jvmLock.lock();
+        try {
+            FileChannel channel = FileChannel.open(root.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                return new StoreLock(jvmLock, channel, channel.lock());
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            jvmLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Bloqueo exclusivo del almacén entre hilos de la JVM y entre procesos.
+     */
+    private static final class StoreLock implements AutoCloseable {
+        private final ReentrantLock jvmLock;
+        private final FileChannel channel;
+        private final FileLock lock;
+
+        private StoreLock(ReentrantLock jvmLock, FileChannel channel, FileLock lock) {
+            this.jvmLock = jvmLock;
+            this.channel = channel;
+            this.lock = lock;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                lock.release();
+            } finally {
+                try {
+                    channel.close();
+                } finally {
+                    jvmLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * El índice de un respaldo: los identificadores y longitudes de sus fragmentos en orden.
+     */
+    private static final class Index {
+        private final Instant created;
+        private final List<byte[]> ids = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private long size;
+
+        private Index(Instant created) {
+            this.created = created;
+        }
+    }
+
+    /**
+     * Un fragmento sellado y los bytes que se escribieron para guardarlo.
+     */
+    private static final class ChunkRef {
+        private final byte[] id;
+        private final int length;
+        private final long written;
+
+        private ChunkRef(byte[] id, int length, long written) {
+            this.id = id;
+            this.length = length;
+            this.written = written;
+        }
+    }
+
+    /**
+     * Corta los datos escritos en fragmentos definidos por el contenido y los sella en paralelo, conservando
+     * su orden en el índice. Un fragmento termina cuando los bits altos del hash Gear son cero, nunca antes del
+     * tamaño mínimo y siempre al llegar al máximo. Los buffers de los fragmentos ya sellados se reutilizan, así
+     * que un respaldo usa como mucho {@code window + 1} buffers de {@code maxChunkSize} bytes.
+     */
+    private final class ChunkingOutputStream extends OutputStream {
+        private final String name;
+        private final Index index = new Index(Instant.now());
+        private final ArrayDeque<CompletableFuture<ChunkRef>> pending = new ArrayDeque<>();
+        private final ArrayDeque<byte[]> sealing = new ArrayDeque<>();
+        private final ArrayDeque<byte[]> spare = new ArrayDeque<>();
+        private final long start = System.nanoTime();
+        private byte[] buffer = new byte[maxChunkSize];
+        private int length;
+        private long hash;
+        private long written;
+        private int newChunks;
+        private boolean finished;
+
+        private ChunkingOutputStream(String name) throws IOException {
+            this.name = name;
+            if (Files.exists(indexFile(name))) {
+                throw new FileAlreadyExistsException("Ya existe el respaldo " + name + " en el almacén " + root);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NotNull byte[] data, int offset, int count) throws IOException {
+            while (count > 0) {
+                int end = length + Math.min(count, maxChunkSize - length);
+                System.arraycopy(data, offset, buffer, length, end - length);
+                int cut = -1;
+                for (int i = length; i < end; i++) {
+                    hash = (hash << 1) + gear[buffer[i] & 0xFF];
+                    if (i + 1 >= minChunkSize && (hash & cutMask) == 0) {
+                        cut = i + 1;
+                        break;
+                    }
+                }
+                int consumed = (cut < 0 ? end : cut) - length;
+                offset += consumed;
+                count -= consumed;
+                length += consumed;
+                index.size += consumed;
+                if (cut >= 0 || length == maxChunkSize) {
+                    emit();
+                }
+            }
+        }
+
+        private void emit() throws IOException {
+            while (pending.size() >= window) {
+                collectNext();
+            }
+            byte[] data = buffer;
+            int dataLength = length;
+            pending.addLast(CompletableFuture.supplyAsync(() -> sealChunk(data, dataLength), pool));
+            sealing.addLast(data);
+            buffer = spare.isEmpty() ? new byte[maxChunkSize] : spare.removeFirst();
+            length = 0;
+            hash = 0;
+        }
+
+        /**
+         * Espera al fragmento más antiguo en vuelo, lo añade al índice y recupera su buffer.
+         */
+        private void collectNext() throws IOException {
+            ChunkRef chunk = ParallelBlockCompressor.await(pending.removeFirst());
+            spare.addLast(sealing.removeFirst());
+            index.ids.add(chunk.id);
+            index.lengths.add(chunk.length);
+            if (chunk.written > 0) {
+                written += chunk.written;
+                newChunks++;
+            }
+        }
+
+        @NotNull
+        private BackupStats finish() throws IOException {
+            if (length > 0) {
+                emit();
+            }
+            while (!pending.isEmpty()) {
+                collectNext();
+            }
+            writeIndex(name, index);
+            finished = true;
+            BackupStats stats = new BackupStats(index.size, written, System.nanoTime() - start);
+            logger.info("Respaldo {} guardado en {}: {} fragmento(s), {} nuevo(s), {}", name, root, index.ids.size(), newChunks, stats);
+            return stats;
+        }
+
+        /**
+         * Espera a los fragmentos en vuelo. Si el respaldo no terminó, los fragmentos ya escritos quedan sin
+         * índice y los borra la siguiente recolección.
+         */
+        @Override
+        public void close() {
+            for (CompletableFuture<ChunkRef> future : pending) {
+                future.cancel(false);
+            }
+            pending.clear();
+            sealing.clear();
+            spare.clear();
+            if (!finished) {
+                logger.warn("El respaldo {} no se completó; sus fragmentos nuevos se borrarán en la siguiente recolección", name);
+            }
+        }
+    }
+}
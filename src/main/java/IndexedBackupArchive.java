@@ -0,0 +1,826 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Archivo de respaldo con acceso aleatorio. Empaqueta un respaldo de {@link LogicalBackupEngine} en un único
+ * archivo donde las filas de cada tabla se guardan en bloques de unos {@value #BLOCK_CHARS} caracteres,
+ * cortados en límites de fila, y cada bloque se comprime con Deflate y se cifra con AES-GCM por separado.
+ * Al final del archivo hay un índice cifrado con la DDL y las columnas de cada tabla y, por bloque, su posición,
+ * su número de filas y el menor y el mayor valor de la clave primaria.
+ * <p>
+ * Para restaurar una tabla o un rango de claves solo se leen, proyectados en memoria desde el {@link FileChannel},
+ * los bloques de esa tabla que se solapan con el rango; el resto del archivo no se toca. Cada bloque se autentica
+ * junto con la cabecera del archivo y su número de bloque, así que un bloque movido o de otro archivo se rechaza.
+ * <p>
+ * Formato: cabecera {@code DBMA}, versión y sal de PBKDF2; los bloques, cada uno con su nonce; el índice cifrado;
+ * y un pie de 16 bytes con la posición y la longitud del índice y la marca {@code DBMA}.
+ */
+public class IndexedBackupArchive implements AutoCloseable {
+
+    public static final int BLOCK_CHARS = 1024 * 1024;
+    public static final int DEFAULT_ROWS_PER_STATEMENT = LogicalRestoreEngine.DEFAULT_ROWS_PER_STATEMENT;
+    private static final Logger logger = LoggerFactory.getLogger(IndexedBackupArchive.class);
+    private static final byte[] MAGIC = {'D', 'B', 'M', 'A'};
+    private static final byte VERSION = 1;
+    private static final int SALT_LENGTH = 16;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + SALT_LENGTH;
+    private static final int TRAILER_LENGTH = Long.BYTES + Integer.BYTES + MAGIC.length;
+    private static final int NONCE_LENGTH = 12;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final Path file;
+    private final FileChannel channel;
+    private final byte[] header;
+    private final SecretKeySpec key;
+    private final String schema;
+    private final Instant created;
+    private final Map<String, TableIndex> tables;
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int rowsPerStatement = DEFAULT_ROWS_PER_STATEMENT;
+
+    private IndexedBackupArchive(Path file, FileChannel channel, byte[] header, SecretKeySpec key, String schema,
+                                 Instant created, Map<String, TableIndex> tables) {
+        this.file = file;
+        this.channel = channel;
+        this.header = header;
+        this.key = key;
+        this.schema = schema;
+        this.created = created;
+        this.tables = tables;
+    }
+
+    /**
+     * Empaqueta un respaldo lógico, completo o incremental, en un archivo con índice. Cada fragmento se comprueba
+     * con las filas y el CRC32 del manifiesto antes de escribir el índice; el archivo se escribe en un temporal
+     * que solo reemplaza al destino al terminar.
+     *
+     * @param backupDirectory el directorio del respaldo de {@link LogicalBackupEngine}
+     * @param archive         el archivo a crear
+     * @param password        la contraseña del archivo
+     * @return las estadísticas: bytes de datos leídos y bytes escritos en el archivo
+     * @throws IOException              si el respaldo no se puede leer o no coincide con su manifiesto
+     * @throws GeneralSecurityException si no se puede derivar la clave
+     */
+    @NotNull
+    public static BackupStats pack(@NotNull Path backupDirectory, @NotNull Path archive, @NotNull char[] password) throws IOException, GeneralSecurityException {
+        long start = System.nanoTime();
+        BackupManifest manifest = BackupManifest.load(backupDirectory);
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        byte[] header = ByteBuffer.allocate(HEADER_LENGTH).put(MAGIC).put(VERSION).put(salt).array();
+        SecretKeySpec key = BackupFormat.deriveKey(password, salt);
+        Path temporary = archive.resolveSibling(archive.getFileName() + ".tmp");
+        long bytesRead = 0;
+        BackupStats stats;
+        int tables;
+        long blocks;
+        try {
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writeFully(out, ByteBuffer.wrap(header));
+                BlockWriter writer = new BlockWriter(out, header, key);
+                List<TableIndex> packed = new ArrayList<>();
+                for (BackupManifest.TableEntry entry : manifest.getTables()) {
+                    String ddl = new String(Files.readAllBytes(backupDirectory.resolve(entry.getDdlFile())), StandardCharsets.UTF_8);
+                    TableIndex table = new TableIndex(entry.getName(), ddl, entry.getColumns(), entry.getKeyColumn());
+                    int keyIndex = table.keyColumn == null ? -1 : table.columns.indexOf(table.keyColumn);
+                    for (BackupManifest.ChunkEntry chunk : entry.getChunks()) {
+                        bytesRead += packChunk(backupDirectory, entry, chunk, table, keyIndex, writer);
+                    }
+                    packed.add(table);
+                }
+                writer.finish();
+
+                ByteArrayOutputStream index = new ByteArrayOutputStream();
+                try (DataOutputStream data = new DataOutputStream(index)) {
+                    data.writeUTF(manifest.getSchema());
+                    data.writeLong(manifest.getCreated().toEpochMilli());
+                    data.writeInt(packed.size());
+                    for (TableIndex table : packed) {
+                        table.write(data);
+                    }
+                }
+                long indexOffset = out.position();
+                byte[] sealedIndex = seal(key, header, -1, index.toByteArray(), index.size());
+                writeFully(out, ByteBuffer.wrap(sealedIndex));
+                writeFully(out, ByteBuffer.allocate(TRAILER_LENGTH).putLong(indexOffset).putInt(sealedIndex.length).put(MAGIC).flip());
+                out.force(true);
+                stats = new BackupStats(bytesRead, out.size(), System.nanoTime() - start);
+                tables = packed.size();
+                blocks = writer.blocks;
+            }
+            Files.move(temporary, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        logger.info("Respaldo {} empaquetado en {}: {} tabla(s), {} bloque(s), {}", backupDirectory, archive, tables, blocks, stats);
+        return stats;
+    }
+
+    /**
+     * Lee un fragmento del respaldo, lo corta en bloques en límites de fila y los envía a sellar.
+     *
+     * @return los bytes de datos leídos del fragmento
+     */
+    private static long packChunk(@NotNull Path directory, @NotNull BackupManifest.TableEntry entry, @NotNull BackupManifest.ChunkEntry chunk,
+                                  @NotNull TableIndex table, int keyIndex, @NotNull BlockWriter writer) throws IOException {
+        CRC32 crc = new CRC32();
+        long rows = 0;
+        try (CheckedInputStream in = new CheckedInputStream(new GZIPInputStream(Files.newInputStream(chunk.resolve(directory)), READ_BUFFER_SIZE), crc);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), READ_BUFFER_SIZE)) {
+            String header = reader.readLine();
+            if (header == null || !TsvRowCodec.parseLine(header).equals(entry.getColumns())) {
+                throw new IOException("Las columnas del fragmento " + chunk.getFile() + " no coinciden con el manifiesto");
+            }
+            BlockEntry block = new BlockEntry();
+            StringBuilder text = new StringBuilder(BLOCK_CHARS + 4096);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                text.append(line).append('\n');
+                block.rows++;
+                rows++;
+                if (keyIndex >= 0) {
+                    String value = TsvRowCodec.parseLine(line).get(keyIndex);
+                    if (value != null) {
+                        block.include(new BigDecimal(value));
+                    }
+                }
+                if (text.length() >= BLOCK_CHARS) {
+                    writer.submit(table, block, text);
+                    block = new BlockEntry();
+                    text = new StringBuilder(BLOCK_CHARS + 4096);
+                }
+            }
+            if (block.rows > 0) {
+                writer.submit(table, block, text);
+            }
+        }
+        if (rows != chunk.getRows() || crc.getValue() != chunk.getCrc32()) {
+            throw new IOException(String.format("El fragmento %s no coincide con el manifiesto: %d fila(s) y CRC32 %08x, se esperaban %d fila(s) y CRC32 %08x",
+                    chunk.getFile(), rows, crc.getValue(), chunk.getRows(), chunk.getCrc32()));
+        }
+        return chunk.getBytes();
+    }
+
+    /**
+     * Abre un archivo con índice y lee su índice. Los bloques no se leen hasta que se restauran.
+     *
+     * @param archive  el archivo
+     * @param password la contraseña del archivo
+     * @return el archivo abierto; debe cerrarse
+     * @throws IOException              si el archivo no es válido, está dañado o la contraseña es incorrecta
+     * @throws GeneralSecurityException si no se puede derivar la clave
+     */
+    @NotNull
+    public static IndexedBackupArchive open(@NotNull Path archive, @NotNull char[] password) throws IOException, GeneralSecurityException {
+        FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_LENGTH + TRAILER_LENGTH) {
+                throw new IOException("El archivo " + archive + " no es un respaldo con índice");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            readFully(channel, header, 0);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+            readFully(channel, trailer, size - TRAILER_LENGTH);
+            header.flip();
+            trailer.flip();
+            long indexOffset = trailer.getLong();
+            int indexLength = trailer.getInt();
+            if (!Arrays.equals(Arrays.copyOf(header.array(), MAGIC.length), MAGIC)
+                    || !Arrays.equals(Arrays.copyOfRange(trailer.array(), Long.BYTES + Integer.BYTES, TRAILER_LENGTH), MAGIC)) {
+                throw new IOException("El archivo " + archive + " no es un respaldo con índice o está truncado");
+            }
+            if (header.get(MAGIC.length) != VERSION) {
+                throw new IOException("Versión de respaldo con índice no soportada: " + header.get(MAGIC.length));
+            }
+            if (indexOffset < HEADER_LENGTH || indexLength <= 0 || indexOffset + indexLength != size - TRAILER_LENGTH) {
+                throw new IOException("El pie del respaldo " + archive + " no es válido");
+            }
+            byte[] salt = Arrays.copyOfRange(header.array(), MAGIC.length + 1, HEADER_LENGTH);
+            SecretKeySpec key = BackupFormat.deriveKey(password, salt);
+            byte[] index;
+            try {
+                index = open(key, header.array(), -1, channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexLength));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("No se pudo descifrar el índice de " + archive + ": la contraseña es incorrecta o el archivo está dañado", e);
+            }
+
+            try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(index))) {
+                String schema = data.readUTF();
+                Instant created = Instant.ofEpochMilli(data.readLong());
+                int count = data.readInt();
+                Map<String, TableIndex> tables = new LinkedHashMap<>();
+                for (int t = 0; t < count; t++) {
+                    TableIndex table = TableIndex.read(data);
+                    for (BlockEntry block : table.blocks) {
+                        if (block.offset < HEADER_LENGTH || block.offset + block.length > indexOffset) {
+                            throw new IOException("El índice de " + archive + " apunta fuera de los datos");
+                        }
+                    }
+                    tables.put(table.name, table);
+                }
+                return new IndexedBackupArchive(archive, channel, header.array(), key, schema, created, tables);
+            }
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Establece el número máximo de filas de cada INSERT al restaurar.
+     *
+     * @param rowsPerStatement las filas por sentencia, al menos 1
+     */
+    public void setRowsPerStatement(int rowsPerStatement) {
+        if (rowsPerStatement <= 0) {
+            throw new IllegalArgumentException("El número de filas por sentencia debe ser mayor que cero");
+        }
+        this.rowsPerStatement = rowsPerStatement;
+    }
+
+    @NotNull
+    public String getSchema() {
+        return schema;
+    }
+
+    @NotNull
+    public Instant getCreated() {
+        return created;
+    }
+
+    /**
+     * Devuelve los nombres de las tablas del archivo en el orden del respaldo.
+     *
+     * @return los nombres de las tablas
+     */
+    @NotNull
+    public List<String> getTables() {
+        return Collections.unmodifiableList(new ArrayList<>(tables.keySet()));
+    }
+
+    /**
+     * Devuelve el número de filas de una tabla del archivo.
+     *
+     * @param tableName el nombre de la tabla
+     * @return el número de filas
+     */
+    public long getRows(@NotNull String tableName) {
+        return table(tableName).rows();
+    }
+
+    /**
+     * Restaura una tabla del archivo leyendo solo sus bloques. La tabla se crea sin índices secundarios, se
+     * carga en una sola transacción con la sesión preparada como en {@link LogicalRestoreEngine} y al final se
+     * añaden sus índices y sus claves foráneas y se comprueba su número de filas. Si algo falla después de crear
+     * la tabla, la tabla se elimina para no dejarla a medias. Si una clave foránea no se puede añadir porque
+     * falta la tabla referenciada, la tabla queda restaurada sin ella y se registra un aviso.
+     *
+     * @param conn      la conexión a la base de datos
+     * @param tableName el nombre de la tabla
+     * @param schema    el esquema de destino, o null para usar el del respaldo
+     * @param replace   verdadero para eliminar la tabla antes si ya existe
+     * @return el número de filas restauradas
+     * @throws SQLException si falla la creación, la carga o la comprobación de la tabla
+     * @throws IOException  si algún bloque está dañado
+     */
+    public long restoreTable(@NotNull Connection conn, @NotNull String tableName, @Nullable String schema, boolean replace) throws SQLException, IOException {
+        long start = System.nanoTime();
+        TableIndex table = table(tableName);
+        String target = schema != null ? schema : this.schema;
+        String qualifiedName = LogicalBackupEngine.quote(target) + "." + LogicalBackupEngine.quote(table.name);
+        TableDdl ddl = TableDdl.parse(table.ddl, table.name);
+        LogicalRestoreEngine.SessionState state = new LogicalRestoreEngine.SessionState(conn);
+        boolean created = false;
+        long rows = 0;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE DATABASE IF NOT EXISTS " + LogicalBackupEngine.quote(target));
+            state.prepareForLoad(target);
+            if (replace) {
+                stmt.execute("DROP TABLE IF EXISTS " + qualifiedName);
+            }
+            stmt.execute(ddl.getCreateSql());
+            created = true;
+            SchemaCache.invalidate(conn, target + "." + table.name);
+            try (LogicalRestoreEngine.MultiRowInserter inserter = new LogicalRestoreEngine.MultiRowInserter(conn, qualifiedName, table.columns, ddl.binaryColumns(table.columns), rowsPerStatement)) {
+                BlockReader reader = new BlockReader(table, null, null);
+                String[] lines;
+                while ((lines = reader.next()) != null) {
+                    for (String line : lines) {
+                        inserter.add(reader.parse(line));
+                        rows++;
+                    }
+                    inserter.flush();
+                }
+            }
+            if (rows != table.rows()) {
+                throw new SQLException("La tabla " + table.name + " tiene " + rows + " fila(s) en el archivo y el índice indica " + table.rows());
+            }
+            conn.commit();
+            // Los índices y las claves foráneas se añaden con las comprobaciones activadas para validar los datos cargados
+            state.restoreChecks();
+            if (ddl.getIndexAlter() != null) {
+                stmt.execute(ddl.getIndexAlter());
+            }
+            if (ddl.getForeignKeyAlter() != null) {
+                try {
+                    stmt.execute(ddl.getForeignKeyAlter());
+                } catch (SQLException e) {
+                    logger.warn("La tabla {} se restauró sin sus claves foráneas: {}", table.name, e.getMessage());
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + qualifiedName)) {
+                long count = rs.next() ? rs.getLong(1) : -1;
+                if (count != rows) {
+                    throw new SQLException("La tabla " + table.name + " tiene " + count + " fila(s) tras la restauración y se cargaron " + rows);
+                }
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            if (created) {
+                dropPartialTable(conn, qualifiedName, e);
+            }
+            throw e;
+        } finally {
+            state.restore();
+        }
+        logger.info("Tabla {} restaurada desde {} en {}: {} fila(s) de {} bloque(s) en {} s", table.name, file, target, rows,
+                table.blocks.size(), String.format("%.1f", (System.nanoTime() - start) / 1e9));
+        return rows;
+    }
+
+    /**
+     * Restaura un rango de la clave primaria de una tabla que ya existe. En una sola transacción se borran las
+     * filas del rango y se insertan las del archivo, leyendo solo los bloques que se solapan con el rango.
+     * Durante el cambio se desactivan las claves foráneas en la sesión, para que el borrado no elimine en cascada
+     * las filas hijas ni falle por RESTRICT; al terminar se restaura el valor anterior. Las filas hijas que
+     * apunten a filas que no estén en el archivo no se comprueban.
+     *
+     * @param conn      la conexión a la base de datos
+     * @param tableName el nombre de la tabla
+     * @param schema    el esquema de destino, o null para usar el del respaldo
+     * @param lower     el límite inferior incluido, o null si no tiene
+     * @param upper     el límite superior excluido, o null si no tiene
+     * @return el número de filas restauradas
+     * @throws SQLException             si falla el borrado o la carga
+     * @throws IOException              si algún bloque está dañado
+     * @throws IllegalArgumentException si la tabla no tiene una clave primaria entera
+     */
+    public long restoreRange(@NotNull Connection conn, @NotNull String tableName, @Nullable String schema,
+                             @Nullable BigDecimal lower, @Nullable BigDecimal upper) throws SQLException, IOException {
+        TableIndex table = table(tableName);
+        if (table.keyColumn == null) {
+            throw new IllegalArgumentException("La tabla " + tableName + " no tiene una clave primaria entera para restaurar por rangos");
+        }
+        String target = schema != null ? schema : this.schema;
+        String qualifiedName = LogicalBackupEngine.quote(target) + "." + LogicalBackupEngine.quote(table.name);
+        String keyColumn = LogicalBackupEngine.quote(table.keyColumn);
+        TableDdl ddl = TableDdl.parse(table.ddl, table.name);
+        StringBuilder delete = new StringBuilder("DELETE FROM ").append(qualifiedName);
+        if (lower != null) {
+            delete.append(" WHERE ").append(keyColumn).append(" >= ?");
+        }
+        if (upper != null) {
+            delete.append(lower != null ? " AND " : " WHERE ").append(keyColumn).append(" < ?");
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        String foreignKeyChecks = null;
+        long rows = 0;
+        int blocks = 0;
+        try {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT @@SESSION.foreign_key_checks")) {
+                foreignKeyChecks = rs.next() ? rs.getString(1) : "1";
+                stmt.execute("SET SESSION foreign_key_checks = 0");
+            }
+            int deleted;
+            try (PreparedStatement pstmt = conn.prepareStatement(delete.toString())) {
+                int index = 1;
+                if (lower != null) {
+                    pstmt.setBigDecimal(index++, lower);
+                }
+                if (upper != null) {
+                    pstmt.setBigDecimal(index, upper);
+                }
+                deleted = pstmt.executeUpdate();
+            }
+            try (LogicalRestoreEngine.MultiRowInserter inserter = new LogicalRestoreEngine.MultiRowInserter(conn, qualifiedName, table.columns, ddl.binaryColumns(table.columns), rowsPerStatement)) {
+                BlockReader reader = new BlockReader(table, lower, upper);
+                int keyIndex = table.columns.indexOf(table.keyColumn);
+                String[] lines;
+                while ((lines = reader.next()) != null) {
+                    blocks++;
+                    for (String line : lines) {
+                        List<Object> values = reader.parse(line);
+                        BigDecimal value = new BigDecimal((String) values.get(keyIndex));
+                        if ((lower == null || value.compareTo(lower) >= 0) && (upper == null || value.compareTo(upper) < 0)) {
+                            inserter.add(values);
+                            rows++;
+                        }
+                    }
+                }
+                inserter.flush();
+            }
+            conn.commit();
+            logger.info("Rango [{}, {}) de la tabla {} restaurado desde {}: {} fila(s) borrada(s), {} insertada(s) de {} bloque(s)",
+                    lower, upper, table.name, file, deleted, rows, blocks);
+        } catch (SQLException | IOException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            try {
+                if (foreignKeyChecks != null) {
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute("SET SESSION foreign_key_checks = " + Integer.parseInt(foreignKeyChecks));
+                    }
+                }
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Elimina una tabla que no se terminó de restaurar. Los índices y las claves foráneas se añaden con DDL, que
+     * confirma la transacción, así que deshacerla no basta para retirar las filas ya cargadas.
+     */
+    private static void dropPartialTable(@NotNull Connection conn, @NotNull String qualifiedName, @NotNull Exception cause) {
+        try (Statement stmt = conn.createStatement()) {
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+            }
+            stmt.execute("DROP TABLE IF EXISTS " + qualifiedName);
+        } catch (SQLException e) {
+            cause.addSuppressed(e);
+            logger.error("No se pudo eliminar la tabla {} tras una restauración fallida: {}", qualifiedName, e.getMessage());
+        }
+    }
+
+    @NotNull
+    private TableIndex table(@NotNull String tableName) {
+        TableIndex table = tables.get(tableName);
+        if (table == null) {
+            throw new IllegalArgumentException("La tabla " + tableName + " no está en el respaldo " + file);
+        }
+        return table;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Comprime y cifra un bloque. El nonce va delante del texto cifrado y los datos autenticados incluyen la
+     * cabecera del archivo y el número de bloque, o -1 para el índice.
+     */
+    @NotNull
+    private static byte[] seal(@NotNull SecretKeySpec key, @NotNull byte[] header, long number, @NotNull byte[] data, int length) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        byte[] packed = new byte[length + length / 8 + 64];
+        int packedLength = 0;
+        while (!deflater.finished()) {
+            if (packedLength == packed.length) {
+                packed = Arrays.copyOf(packed, packed.length * 2);
+            }
+            packedLength += deflater.deflate(packed, packedLength, packed.length - packedLength);
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        try {
+            Cipher cipher = BackupFormat.newCipher();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(BackupFormat.TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(header);
+            cipher.updateAAD(ByteBuffer.allocate(Long.BYTES).putLong(number).array());
+            byte[] sealed = new byte[NONCE_LENGTH + cipher.getOutputSize(packedLength)];
+            System.arraycopy(nonce, 0, sealed, 0, NONCE_LENGTH);
+            cipher.doFinal(packed, 0, packedLength, sealed, NONCE_LENGTH);
+            return sealed;
+        } catch (GeneralSecurityException e) {
+            throw new UncheckedIOException(new IOException("No se pudo cifrar el bloque " + number + ": " + e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Descifra y descomprime un bloque proyectado en memoria.
+     */
+    @NotNull
+    private static byte[] open(@NotNull SecretKeySpec key, @NotNull byte[] header, long number, @NotNull MappedByteBuffer sealed) throws GeneralSecurityException, IOException {
+        if (sealed.remaining() < NONCE_LENGTH + BackupFormat.TAG_LENGTH) {
+            throw new IOException("El bloque " + number + " está truncado");
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        sealed.get(nonce);
+        Cipher cipher = BackupFormat.newCipher();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(BackupFormat.TAG_LENGTH * 8, nonce));
+        cipher.updateAAD(header);
+        cipher.updateAAD(ByteBuffer.allocate(Long.BYTES).putLong(number).array());
+        ByteBuffer packed = ByteBuffer.allocate(cipher.getOutputSize(sealed.remaining()));
+        cipher.doFinal(sealed, packed);
+        packed.flip();
+
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(packed);
+        byte[] data = new byte[Math.max(64, packed.remaining() * 4)];
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("El bloque " + number + " está incompleto");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Datos comprimidos no válidos en el bloque " + number, e);
+        }
+        return Arrays.copyOf(data, length);
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Respaldo con índice truncado");
+            }
+        }
+    }
+
+    /**
+     * Sella los bloques en paralelo con una ventana acotada y los escribe en orden, anotando en el índice de
+     * cada bloque su posición y su longitud.
+     */
+    private static final class BlockWriter {
+        private final FileChannel out;
+        private final byte[] header;
+        private final SecretKeySpec key;
+        private final ForkJoinPool pool = ForkJoinPool.commonPool();
+        private final int window = Math.max(2, ForkJoinPool.commonPool().getParallelism() * 2);
+        private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        private final ArrayDeque<BlockEntry> entries = new ArrayDeque<>();
+        private long blocks;
+
+        private BlockWriter(FileChannel out, byte[] header, SecretKeySpec key) {
+            this.out = out;
+            this.header = header;
+            this.key = key;
+        }
+
+        private void submit(@NotNull TableIndex table, @NotNull BlockEntry block, @NotNull CharSequence text) throws IOException {
+            while (pending.size() >= window) {
+                writeNext();
+            }
+            byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+            long number = blocks++;
+            block.number = number;
+            table.blocks.add(block);
+            entries.addLast(block);
+            pending.addLast(CompletableFuture.supplyAsync(() -> seal(key, header, number, data, data.length), pool));
+        }
+
+        private void writeNext() throws IOException {
+            byte[] sealed = ParallelBlockCompressor.await(pending.removeFirst());
+            BlockEntry block = entries.removeFirst();
+            block.offset = out.position();
+            block.length = sealed.length;
+            writeFully(out, ByteBuffer.wrap(sealed));
+        }
+
+        private void finish() throws IOException {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+        }
+    }
+
+    /**
+     * Lee en orden los bloques de una tabla que se solapan con un rango, descifrándolos por adelantado en
+     * paralelo con una ventana acotada.
+     */
+    private final class BlockReader {
+        private final List<BlockEntry> blocks = new ArrayList<>();
+        private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        private final ArrayDeque<BlockEntry> entries = new ArrayDeque<>();
+        private final int window = Math.max(2, pool.getParallelism() * 2);
+        private final int columns;
+        private int next;
+
+        private BlockReader(@NotNull TableIndex table, @Nullable BigDecimal lower, @Nullable BigDecimal upper) {
+            for (BlockEntry block : table.blocks) {
+                if (block.overlaps(lower, upper)) {
+                    blocks.add(block);
+                }
+            }
+            this.columns = table.columns.size();
+        }
+
+        /**
+         * Devuelve las filas del siguiente bloque, o null si no quedan.
+         */
+        @Nullable
+        private String[] next() throws IOException {
+            while (next < blocks.size() && pending.size() < window) {
+                BlockEntry block = blocks.get(next++);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, block.offset, block.length);
+                entries.addLast(block);
+                pending.addLast(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return open(key, header, block.number, mapped);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (GeneralSecurityException e) {
+                        throw new UncheckedIOException(new IOException("El bloque " + block.number + " de " + file + " está dañado", e));
+                    }
+                }, pool));
+            }
+            if (pending.isEmpty()) {
+                return null;
+            }
+            byte[] data = ParallelBlockCompressor.await(pending.removeFirst());
+            BlockEntry block = entries.removeFirst();
+            String text = new String(data, StandardCharsets.UTF_8);
+            String[] lines = text.isEmpty() ? new String[0] : text.substring(0, text.length() - 1).split("\n", -1);
+            if (lines.length != block.rows) {
+                throw new IOException("El bloque " + block.number + " tiene " + lines.length + " fila(s) y el índice indica " + block.rows);
+            }
+            return lines;
+        }
+
+        @NotNull
+        private List<Object> parse(@NotNull String line) throws IOException {
+            List<Object> values = TsvRowCodec.parseRow(line);
+            if (values.size() != columns) {
+                throw new IOException("Una fila del respaldo tiene " + values.size() + " valores y se esperaban " + columns);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Entrada del índice para una tabla: su DDL, sus columnas, su clave y sus bloques en orden.
+     */
+    private static final class TableIndex {
+        private final String name;
+        private final String ddl;
+        private final List<String> columns;
+        private final String keyColumn;
+        private final List<BlockEntry> blocks = new ArrayList<>();
+
+        private TableIndex(String name, String ddl, List<String> columns, String keyColumn) {
+            this.name = name;
+            this.ddl = ddl;
+            this.columns = columns;
+            this.keyColumn = keyColumn;
+        }
+
+        private long rows() {
+            long rows = 0;
+            for (BlockEntry block : blocks) {
+                rows += block.rows;
+            }
+            return rows;
+        }
+
+        private void write(@NotNull DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+            byte[] ddlBytes = ddl.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(ddlBytes.length);
+            out.write(ddlBytes);
+            out.writeInt(columns.size());
+            for (String column : columns) {
+                out.writeUTF(column);
+            }
+            out.writeUTF(keyColumn == null ? "" : keyColumn);
+            out.writeInt(blocks.size());
+            for (BlockEntry block : blocks) {
+                out.writeLong(block.number);
+                out.writeLong(block.offset);
+                out.writeInt(block.length);
+                out.writeInt(block.rows);
+                out.writeUTF(block.minKey == null ? "" : block.minKey.toPlainString());
+                out.writeUTF(block.maxKey == null ? "" : block.maxKey.toPlainString());
+            }
+        }
+
+        @NotNull
+        private static TableIndex read(@NotNull DataInputStream in) throws IOException {
+            String name = in.readUTF();
+            byte[] ddl = new byte[in.readInt()];
+            in.readFully(ddl);
+            int columnCount = in.readInt();
+            List<String> columns = new ArrayList<>();
+            for (int c = 0; c < columnCount; c++) {
+                columns.add(in.readUTF());
+            }
+            String keyColumn = in.readUTF();
+            TableIndex table = new TableIndex(name, new String(ddl, StandardCharsets.UTF_8), Collections.unmodifiableList(columns),
+                    keyColumn.isEmpty() ? null : keyColumn);
+            int blockCount = in.readInt();
+            for (int b = 0; b < blockCount; b++) {
+                BlockEntry block = new BlockEntry();
+                block.number = in.readLong();
+                block.offset = in.readLong();
+                block.length = in.readInt();
+                block.rows = in.readInt();
+                String min = in.readUTF();
+                String max = in.readUTF();
+                block.minKey = min.isEmpty() ? null : new BigDecimal(min);
+                block.maxKey = max.isEmpty() ? null : new BigDecimal(max);
+                table.blocks.add(block);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Entrada del índice para un bloque: su número, su posición, sus filas y el rango de claves que contiene.
+     */
+    private static final class BlockEntry {
+        private long number;
+        private long offset;
+        private int length;
+        private int rows;
+        private BigDecimal minKey;
+        private BigDecimal maxKey;
+
+        private void include(@NotNull BigDecimal key) {
+            if (minKey == null || key.compareTo(minKey) < 0) {
+                minKey = key;
+            }
+            if (maxKey == null || key.compareTo(maxKey) > 0) {
+                maxKey = key;
+            }
+        }
+
+        private boolean overlaps(@Nullable BigDecimal lower, @Nullable BigDecimal upper) {
+            if (minKey == null) {
+                return true;
+            }
+            return (lower == null || maxKey.compareTo(lower) >= 0) && (upper == null || minKey.compareTo(upper) < 0);
+        }
+    }
+}
@@ -0,0 +1,463 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Verificador de integridad para MySQL.
+ * Descubre las tablas base de un esquema en {@code information_schema} y ejecuta sobre cada una
+ * {@code CHECK TABLE} y, opcionalmente, {@code CHECKSUM TABLE}. Las tablas se reparten entre varias conexiones,
+ * de la más grande a la más pequeña, y cada conexión verifica una tabla a la vez. Los resultados se entregan al
+ * llamador en el orden en que terminan, sin esperar a que acabe todo el esquema, y al final se devuelve un
+ * {@link Report} con el resumen.
+ * <p>
+ * {@code CHECK TABLE} y {@code CHECKSUM TABLE} leen la tabla completa. Para no saturar el disco de un servidor en
+ * producción se puede limitar el ritmo con {@link #setMaxBytesPerSecond}: cada lectura de una tabla empieza solo
+ * cuando el volumen acumulado, según {@code DATA_LENGTH + INDEX_LENGTH} por lectura, cabe en el presupuesto.
+ */
+public class IntegrityChecker {
+
+    public static final int DEFAULT_WORKERS = 4;
+    private static final Logger logger = LoggerFactory.getLogger(IntegrityChecker.class);
+    private static final Set<String> CHECK_OPTIONS = Set.of("QUICK", "FAST", "MEDIUM", "EXTENDED", "CHANGED", "FOR UPGRADE");
+    private int workers = DEFAULT_WORKERS;
+    private String checkOption;
+    private boolean checksums;
+    private long maxBytesPerSecond;
+
+    /**
+     * Establece el número de conexiones que verifican tablas en paralelo.
+     *
+     * @param workers el número de conexiones, al menos 1
+     */
+    public void setWorkers(int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("El número de conexiones debe ser mayor que cero");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Establece la opción de {@code CHECK TABLE}: {@code QUICK}, {@code FAST}, {@code MEDIUM}, {@code EXTENDED},
+     * {@code CHANGED} o {@code FOR UPGRADE}.
+     *
+     * @param checkOption la opción, o null para usar la del servidor ({@code MEDIUM})
+     */
+    public void setCheckOption(@Nullable String checkOption) {
+        if (checkOption != null) {
+            checkOption = checkOption.trim().toUpperCase(Locale.ROOT);
+            if (!CHECK_OPTIONS.contains(checkOption)) {
+                throw new IllegalArgumentException("Opción de CHECK TABLE no válida: " + checkOption);
+            }
+        }
+        this.checkOption = checkOption;
+    }
+
+    /**
+     * Indica si, además de {@code CHECK TABLE}, se calcula {@code CHECKSUM TABLE} de cada tabla. La suma permite
+     * comparar la tabla con una réplica, pero cuesta otra lectura completa. Está desactivada por defecto.
+     *
+     * @param checksums verdadero para calcular las sumas
+     */
+    public void setChecksums(boolean checksums) {
+        this.checksums = checksums;
+    }
+
+    /**
+     * Limita el volumen de tablas que se empiezan a verificar por segundo, sumando todas las conexiones.
+     *
+     * @param maxBytesPerSecond los bytes por segundo, o 0 para no limitar
+     */
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        if (maxBytesPerSecond < 0) {
+            throw new IllegalArgumentException("El límite de bytes por segundo no puede ser negativo");
+        }
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    /**
+     * Verifica un esquema abriendo hasta {@code workers} conexiones del origen de datos.
+     *
+     * @param dataSource el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param schema     el esquema a verificar
+     * @param listener   recibe el resultado de cada tabla en cuanto termina, en el hilo del llamador; puede ser null
+     * @return el resumen de la verificación
+     * @throws SQLException si no se pueden abrir las conexiones o leer la lista de tablas
+     */
+    @NotNull
+    public Report check(@NotNull DataSource dataSource, @NotNull String schema, @Nullable Consumer<TableResult> listener) throws SQLException {
+        List<Connection> sessions = new ArrayList<>();
+        try {
+            sessions.add(dataSource.getConnection());
+            List<TableInfo> tables = listTables(sessions.get(0), schema);
+            for (int i = 1; i < Math.min(workers, tables.size()); i++) {
+                sessions.add(dataSource.getConnection());
+            }
+            return run(sessions, schema, tables, listener);
+        } finally {
+            for (Connection session : sessions) {
+                try {
+                    session.close();
+                } catch (SQLException e) {
+                    logger.error("Error al cerrar una conexión de la verificación: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Verifica un esquema tabla por tabla con una única conexión.
+     *
+     * @param conn     la conexión a la base de datos
+     * @param schema   el esquema a verificar
+     * @param listener recibe el resultado de cada tabla en cuanto termina; puede ser null
+     * @return el resumen de la verificación
+     * @throws SQLException si no se puede leer la lista de tablas
+     */
+    @NotNull
+    public Report check(@NotNull Connection conn, @NotNull String schema, @Nullable Consumer<TableResult> listener) throws SQLException {
+        return run(Collections.singletonList(conn), schema, listTables(conn, schema), listener);
+    }
+
+    @NotNull
+    private Report run(@NotNull List<Connection> sessions, @NotNull String schema, @NotNull List<TableInfo> tables,
+                       @Nullable Consumer<TableResult> listener) throws SQLException {
+        long start = System.nanoTime();
+        Throttle throttle = maxBytesPerSecond > 0 ? new Throttle(maxBytesPerSecond) : null;
+        BlockingQueue<Connection> idle = new ArrayBlockingQueue<>(sessions.size(), false, sessions);
+        ExecutorService executor = Executors.newFixedThreadPool(sessions.size(), runnable -> {
+            Thread thread = new Thread(runnable, "integrity-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<TableResult> completion = new ExecutorCompletionService<>(executor);
+        List<TableResult> results = new ArrayList<>();
+        try {
+            for (TableInfo table : tables) {
+                completion.submit(() -> {
+                    Connection session = idle.take();
+                    try {
+                        return checkTable(session, schema, table, throttle);
+                    } finally {
+                        idle.put(session);
+                    }
+                });
+            }
+            for (int i = 0; i < tables.size(); i++) {
+                TableResult result = completion.take().get();
+                results.add(result);
+                if (result.getStatus() == Status.OK) {
+                    logger.debug("Tabla {}.{} correcta en {} ms", schema, result.getTable(), result.getElapsedMillis());
+                } else {
+                    logger.warn("Tabla {}.{}: {} {}", schema, result.getTable(), result.getStatus(), result.getMessages());
+                }
+                if (listener != null) {
+                    listener.accept(result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("La verificación de integridad fue interrumpida", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("Error al verificar una tabla: " + cause, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Report report = new Report(schema, results, System.nanoTime() - start);
+        logger.info("{}", report);
+        return report;
+    }
+
+    @NotNull
+    private static List<TableInfo> listTables(@NotNull Connection conn, @NotNull String schema) throws SQLException {
+        List<TableInfo> tables = new ArrayList<>();
+        String sql = "SELECT TABLE_NAME, COALESCE(DATA_LENGTH, 0) + COALESCE(INDEX_LENGTH, 0) FROM information_schema.TABLES "
+                + "WHERE TABLE_SCHEMA = ? AND TABLE_TYPE = 'BASE TABLE'";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, schema);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    tables.add(new TableInfo(rs.getString(1), rs.getLong(2)));
+                }
+            }
+        }
+        // Las tablas más grandes primero, para que ninguna conexión se quede al final con una grande
+        tables.sort(Comparator.comparingLong((TableInfo table) -> table.bytes).reversed());
+        return tables;
+    }
+
+    /**
+     * Verifica una tabla. Los errores de SQL de la tabla, por ejemplo si se eliminó después de listarla, se
+     * informan en su resultado para que no detengan la verificación del resto del esquema.
+     */
+    @NotNull
+    private TableResult checkTable(@NotNull Connection conn, @NotNull String schema, @NotNull TableInfo table,
+                                   @Nullable Throttle throttle) throws InterruptedException {
+        long start = System.nanoTime();
+        String qualified = LogicalBackupEngine.quote(schema) + "." + LogicalBackupEngine.quote(table.name);
+        Status status = Status.OK;
+        List<String> messages = new ArrayList<>();
+        Long checksum = null;
+        try (Statement stmt = conn.createStatement()) {
+            if (throttle != null) {
+                throttle.acquire(table.bytes);
+            }
+            try (ResultSet rs = stmt.executeQuery("CHECK TABLE " + qualified + (checkOption != null ? " " + checkOption : ""))) {
+                while (rs.next()) {
+                    String type = rs.getString("Msg_type");
+                    String text = rs.getString("Msg_text");
+                    if ("status".equalsIgnoreCase(type)) {
+                        if (!"OK".equalsIgnoreCase(text) && !"Table is already up to date".equalsIgnoreCase(text)) {
+                            status = Status.CORRUPT;
+                            messages.add(text);
+                        }
+                    } else if ("error".equalsIgnoreCase(type)) {
+                        status = Status.CORRUPT;
+                        messages.add(text);
+                    } else if (text != null && text.contains("doesn't support check")) {
+                        status = Status.UNSUPPORTED;
+                        messages.add(text);
+                    } else if ("warning".equalsIgnoreCase(type)) {
+                        messages.add(text);
+                    }
+                }
+            }
+            if (checksums && status != Status.CORRUPT) {
+                if (throttle != null) {
+                    throttle.acquire(table.bytes);
+                }
+                try (ResultSet rs = stmt.executeQuery("CHECKSUM TABLE " + qualified)) {
+                    if (rs.next()) {
+                        long value = rs.getLong(2);
+                        checksum = rs.wasNull() ? null : value;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            status = Status.ERROR;
+            messages.add(e.getMessage());
+        }
+        return new TableResult(table.name, table.bytes, status, messages, checksum, System.nanoTime() - start);
+    }
+
+    /**
+     * El estado de una tabla después de verificarla.
+     */
+    public enum Status {
+        /** {@code CHECK TABLE} no encontró problemas. */
+        OK,
+        /** {@code CHECK TABLE} informó de errores o de una tabla dañada. */
+        CORRUPT,
+        /** El motor de almacenamiento de la tabla no admite {@code CHECK TABLE}. */
+        UNSUPPORTED,
+        /** No se pudo verificar la tabla por un error de SQL. */
+        ERROR
+    }
+
+    /**
+     * El resultado de la verificación de una tabla.
+     */
+    public static final class TableResult {
+        private final String table;
+        private final long bytes;
+        private final Status status;
+        private final List<String> messages;
+        private final Long checksum;
+        private final long elapsedNanos;
+
+        private TableResult(String table, long bytes, Status status, List<String> messages, Long checksum, long elapsedNanos) {
+            this.table = table;
+            this.bytes = bytes;
+            this.status = status;
+            this.messages = Collections.unmodifiableList(messages);
+            this.checksum = checksum;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * Devuelve el tamaño de la tabla y sus índices según las estadísticas del servidor.
+         *
+         * @return los bytes estimados
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Devuelve los errores y advertencias de {@code CHECK TABLE}, o el error de SQL de la tabla.
+         *
+         * @return los mensajes; vacía si la tabla es correcta
+         */
+        public List<String> getMessages() {
+            return messages;
+        }
+
+        /**
+         * Devuelve el resultado de {@code CHECKSUM TABLE}.
+         *
+         * @return la suma, o null si no se calculó
+         */
+        @Nullable
+        public Long getChecksum() {
+            return checksum;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return table + ": " + status + (messages.isEmpty() ? "" : " " + messages);
+        }
+    }
+
+    /**
+     * El resumen de la verificación de un esquema.
+     */
+    public static final class Report {
+        private final String schema;
+        private final List<TableResult> results;
+        private final long elapsedNanos;
+
+        private Report(String schema, List<TableResult> results, long elapsedNanos) {
+            this.schema = schema;
+            this.results = Collections.unmodifiableList(results);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public String getSchema() {
+            return schema;
+        }
+
+        /**
+         * Devuelve el resultado de cada tabla, en el orden en que terminó su verificación.
+         *
+         * @return los resultados
+         */
+        public List<TableResult> getResults() {
+            return results;
+        }
+
+        /**
+         * Devuelve los resultados de las tablas que no están en estado {@link Status#OK}.
+         *
+         * @return los resultados con problemas
+         */
+        @NotNull
+        public List<TableResult> getProblems() {
+            List<TableResult> problems = new ArrayList<>();
+            for (TableResult result : results) {
+                if (result.getStatus() != Status.OK) {
+                    problems.add(result);
+                }
+            }
+            return problems;
+        }
+
+        public int count(@NotNull Status status) {
+            int count = 0;
+            for (TableResult result : results) {
+                if (result.getStatus() == status) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Indica si todas las tablas del esquema se verificaron sin problemas.
+         *
+         * @return verdadero si todas las tablas están en estado {@link Status#OK}
+         */
+        public boolean isHealthy() {
+            return count(Status.OK) == results.size();
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            long bytes = 0;
+            for (TableResult result : results) {
+                bytes += result.getBytes();
+            }
+            return String.format("Integridad del esquema %s: %d tabla(s), %d correcta(s), %d dañada(s), %d sin soporte, %d con error, %d MB en %.1f s",
+                    schema, results.size(), count(Status.OK), count(Status.CORRUPT), count(Status.UNSUPPORTED), count(Status.ERROR),
+                    bytes / (1024 * 1024), elapsedNanos / 1e9);
+        }
+    }
+
+    private static final class TableInfo {
+        private final String name;
+        private final long bytes;
+
+        private TableInfo(String name, long bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Reparte el volumen de las lecturas en el tiempo: cada lectura reserva su tamaño a continuación de la anterior
+     * y espera hasta que le toca, así que el ritmo medio no supera el límite aunque haya varias conexiones.
+     */
+    private static final class Throttle {
+        private final double nanosPerByte;
+        private long next = System.nanoTime();
+
+        private Throttle(long bytesPerSecond) {
+            this.nanosPerByte = 1e9 / bytesPerSecond;
+        }
+
+        private void acquire(long bytes) throws InterruptedException {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(next, now);
+                next = start + (long) (bytes * nanosPerByte);
+                wait = start - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+}
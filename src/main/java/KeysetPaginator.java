@@ -0,0 +1,440 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Recorre una tabla por páginas con paginación por clave: cada página empieza justo después de la última fila de
+ * la anterior ({@code WHERE a > ? OR (a = ? AND b > ?) ORDER BY a, b LIMIT ?}) en lugar de saltar filas con
+ * {@code OFFSET}. La condición equivale a {@code (a, b) > (?, ?)}, pero desarrollada el optimizador la resuelve con
+ * un rango del índice de la clave de orden y va directamente al inicio de la página, así que una página cuesta lo
+ * mismo al principio de la tabla que al final.
+ * <p>
+ * Cada página devuelve un token de continuación con los valores de la clave de su última fila y una huella de la
+ * consulta; el token es texto y se puede guardar o enviar a un cliente para pedir la página siguiente más tarde,
+ * incluso con otra instancia. A la clave de orden se le añaden las columnas de la clave primaria que no incluya,
+ * para que el orden sea total y ninguna fila se repita ni se pierda entre páginas. Las columnas de la clave de orden
+ * no deben admitir NULL.
+ * <p>
+ * Con la lectura anticipada activada, al devolver una página se empieza a leer la siguiente en un hilo en segundo
+ * plano, de modo que mientras el llamador procesa la página N la N+1 ya se está leyendo. Cada lectura usa una
+ * conexión del origen de datos solo durante la consulta.
+ */
+public class KeysetPaginator implements AutoCloseable {
+
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final Logger logger = LoggerFactory.getLogger(KeysetPaginator.class);
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private final DataSource dataSource;
+    private final String table;
+    private final List<String> columns;
+    private final String whereClause;
+    private final List<String> requestedSortKey;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private boolean descending;
+    private boolean readAhead = true;
+    private Query query;
+    private ExecutorService executor;
+    private String prefetchedToken;
+    private Future<Page> prefetched;
+
+    /**
+     * Crea un paginador sobre una tabla.
+     *
+     * @param dataSource  el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param table       el nombre de la tabla, opcionalmente con la forma {@code esquema.tabla}
+     * @param columns     las columnas a devolver
+     * @param whereClause una condición que deben cumplir las filas, o {@code null} para recorrer todas
+     * @param sortKey     las columnas por las que se ordenan las páginas; vacía para usar la clave primaria
+     */
+    public KeysetPaginator(@NotNull DataSource dataSource, @NotNull String table, @NotNull List<String> columns,
+                           @Nullable String whereClause, @NotNull List<String> sortKey) {
+        this.dataSource = dataSource;
+        this.table = table;
+        this.columns = new ArrayList<>(columns);
+        this.whereClause = whereClause == null || whereClause.trim().isEmpty() ? null : whereClause;
+        this.requestedSortKey = new ArrayList<>(sortKey);
+    }
+
+    /**
+     * Establece el número de filas por página.
+     *
+     * @param pageSize las filas por página, al menos 1
+     */
+    public synchronized void setPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("El tamaño de página debe ser mayor que cero");
+        }
+        this.pageSize = pageSize;
+        this.query = null;
+    }
+
+    /**
+     * Indica si las páginas se recorren en orden descendente de la clave de orden.
+     *
+     * @param descending verdadero para recorrer de mayor a menor
+     */
+    public synchronized void setDescending(boolean descending) {
+        this.descending = descending;
+        this.query = null;
+    }
+
+    /**
+     * Indica si la página siguiente se empieza a leer en segundo plano en cuanto se devuelve una página.
+     *
+     * @param readAhead verdadero para leer por adelantado
+     */
+    public synchronized void setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Devuelve la primera página.
+     *
+     * @return la primera página, vacía si no hay filas
+     * @throws SQLException si ocurre un error al leer la tabla
+     */
+    @NotNull
+    public Page firstPage() throws SQLException {
+        return fetch(null);
+    }
+
+    /**
+     * Devuelve la página que sigue a un token de continuación. Si la página ya se leyó por adelantado se devuelve
+     * sin consultar la base de datos.
+     *
+     * @param continuationToken el token de la página anterior, o {@code null} para la primera página
+     * @return la página siguiente
+     * @throws SQLException             si ocurre un error al leer la tabla
+     * @throws IllegalArgumentException si el token no es válido o pertenece a otra consulta
+     */
+    @NotNull
+    public synchronized Page fetch(@Nullable String continuationToken) throws SQLException {
+        if (query == null) {
+            query = prepare();
+            cancelReadAhead();
+        }
+        Query current = query;
+        Object[] after = continuationToken == null ? null : current.decode(continuationToken);
+        Page page;
+        if (prefetched != null && continuationToken != null && continuationToken.equals(prefetchedToken)) {
+            page = await(prefetched);
+            prefetched = null;
+            prefetchedToken = null;
+        } else {
+            cancelReadAhead();
+            page = read(current, after);
+        }
+        if (readAhead && page.continuationToken != null) {
+            Object[] next = current.decode(page.continuationToken);
+            prefetchedToken = page.continuationToken;
+            prefetched = executor().submit(() -> read(current, next));
+        }
+        return page;
+    }
+
+    /**
+     * Descarta la lectura anticipada pendiente y detiene el hilo en segundo plano.
+     */
+    @Override
+    public synchronized void close() {
+        cancelReadAhead();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @NotNull
+    private ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "keyset-read-ahead");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    private void cancelReadAhead() {
+        if (prefetched != null) {
+            prefetched.cancel(false);
+            prefetched = null;
+            prefetchedToken = null;
+        }
+    }
+
+    @NotNull
+    private Page await(@NotNull Future<Page> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("La lectura de la página de la tabla " + table + " fue interrumpida", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("Error al leer la página de la tabla " + table + ": " + cause, cause);
+        }
+    }
+
+    /**
+     * Lee los metadatos de la tabla, completa la clave de orden con la clave primaria y construye las consultas.
+     */
+    @NotNull
+    private Query prepare() throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            SchemaCache.TableSchema schema = SchemaCache.lookup(conn, table);
+            if (schema == null) {
+                throw new SQLException("La tabla " + table + " no existe");
+            }
+            for (String column : columns) {
+                if (!schema.hasColumn(column)) {
+                    throw new SQLException("La columna " + column + " no existe en la tabla " + table);
+                }
+            }
+            List<String> sortKey = new ArrayList<>();
+            for (String column : requestedSortKey) {
+                if (!schema.hasColumn(column)) {
+                    throw new SQLException("La columna de orden " + column + " no existe en la tabla " + table);
+                }
+                if (indexOfIgnoreCase(sortKey, column) < 0) {
+                    sortKey.add(column);
+                }
+            }
+            List<String> keys = schema.getPrimaryKeys(conn);
+            for (String key : keys) {
+                if (indexOfIgnoreCase(sortKey, key) < 0) {
+                    sortKey.add(key);
+                }
+            }
+            if (sortKey.isEmpty()) {
+                throw new SQLException("La tabla " + table + " no tiene clave primaria; se debe indicar una clave de orden única");
+            }
+            if (keys.isEmpty()) {
+                logger.warn("La tabla {} no tiene clave primaria; la clave de orden {} debe ser única", table, sortKey);
+            }
+            int[] sortTypes = new int[sortKey.size()];
+            for (int i = 0; i < sortTypes.length; i++) {
+                sortTypes[i] = schema.getColumnType(sortKey.get(i));
+            }
+            return new Query(schema.getName(), sortKey, sortTypes);
+        }
+    }
+
+    @NotNull
+    private Page read(@NotNull Query query, @Nullable Object[] after) throws SQLException {
+        long start = System.nanoTime();
+        List<Map<String, Object>> rows = new ArrayList<>(query.pageSize);
+        Object[] last = null;
+        boolean more = false;
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(after == null ? query.firstSql : query.nextSql)) {
+            int index = 1;
+            if (after != null) {
+                for (int i = 0; i < after.length; i++) {
+                    for (int j = 0; j < i; j++) {
+                        pstmt.setObject(index++, after[j]);
+                    }
+                    pstmt.setObject(index++, after[i]);
+                }
+            }
+            pstmt.setInt(index, query.pageSize + 1);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                while (rs.next()) {
+                    if (rows.size() == query.pageSize) {
+                        more = true;
+                        break;
+                    }
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    for (int i = 1; i <= query.returnedColumns; i++) {
+                        row.put(meta.getColumnLabel(i), rs.getObject(i));
+                    }
+                    rows.add(row);
+                    last = query.readKey(rs);
+                }
+            }
+        }
+        String token = more ? query.encode(last) : null;
+        logger.debug("Página de {} leída: {} fila(s) en {} ms", table, rows.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return new Page(rows, token);
+    }
+
+    private static int indexOfIgnoreCase(@NotNull List<String> list, @NotNull String value) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).equalsIgnoreCase(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Las consultas de una configuración del paginador y la huella que liga los tokens a ellas.
+     */
+    private final class Query {
+        private final List<String> sortKey;
+        private final int[] sortTypes;
+        private final int pageSize = KeysetPaginator.this.pageSize;
+        private final int returnedColumns = columns.size();
+        private final String firstSql;
+        private final String nextSql;
+        private final String fingerprint;
+
+        private Query(@NotNull String tableName, @NotNull List<String> sortKey, @NotNull int[] sortTypes) {
+            this.sortKey = sortKey;
+            this.sortTypes = sortTypes;
+            int dot = table.indexOf('.');
+            String from = (dot > 0 ? LogicalBackupEngine.quote(table.substring(0, dot)) + "." : "") + LogicalBackupEngine.quote(tableName);
+            List<String> selected = new ArrayList<>();
+            for (String column : columns) {
+                selected.add(LogicalBackupEngine.quote(column));
+            }
+            List<String> order = new ArrayList<>();
+            List<String> quotedKey = new ArrayList<>();
+            for (String column : sortKey) {
+                String quoted = LogicalBackupEngine.quote(column);
+                quotedKey.add(quoted);
+                order.add(descending ? quoted + " DESC" : quoted);
+                selected.add(quoted);
+            }
+            String select = "SELECT " + String.join(", ", selected) + " FROM " + from;
+            String orderBy = " ORDER BY " + String.join(", ", order) + " LIMIT ?";
+            String filter = whereClause == null ? "" : "(" + whereClause + ")";
+            firstSql = select + (filter.isEmpty() ? "" : " WHERE " + filter) + orderBy;
+            nextSql = select + " WHERE " + (filter.isEmpty() ? "" : filter + " AND ") + "(" + seekCondition(quotedKey) + ")" + orderBy;
+
+            CRC32 crc = new CRC32();
+            crc.update(String.join("\u0000", table, String.join(",", columns), String.valueOf(whereClause),
+                    String.join(",", sortKey), String.valueOf(descending)).getBytes(StandardCharsets.UTF_8));
+            fingerprint = Long.toHexString(crc.getValue());
+        }
+
+        /**
+         * Construye la condición que deja solo las filas posteriores a una posición, desarrollada como
+         * {@code a > ? OR (a = ? AND b > ?)} para que el optimizador la resuelva con un rango del índice.
+         */
+        @NotNull
+        private String seekCondition(@NotNull List<String> quotedKey) {
+            String comparison = descending ? " < ?" : " > ?";
+            List<String> terms = new ArrayList<>();
+            for (int i = 0; i < quotedKey.size(); i++) {
+                StringBuilder term = new StringBuilder();
+                for (int j = 0; j < i; j++) {
+                    term.append(quotedKey.get(j)).append(" = ? AND ");
+                }
+                term.append(quotedKey.get(i)).append(comparison);
+                terms.add(i == 0 ? term.toString() : "(" + term + ")");
+            }
+            return String.join(" OR ", terms);
+        }
+
+        @NotNull
+        private Object[] readKey(@NotNull ResultSet rs) throws SQLException {
+            Object[] key = new Object[sortKey.size()];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = ChangeExtractor.readValue(rs, sortKey.get(i), sortTypes[i]);
+                if (key[i] == null) {
+                    throw new SQLException("La columna de orden " + sortKey.get(i) + " de la tabla " + table
+                            + " tiene valores NULL; la paginación por clave necesita columnas NOT NULL");
+                }
+            }
+            return key;
+        }
+
+        /**
+         * Codifica un token con la huella de la consulta y el texto de cada valor de la clave, en Base64 para URL.
+         */
+        @NotNull
+        private String encode(@NotNull Object[] key) {
+            StringBuilder token = new StringBuilder(fingerprint);
+            for (Object value : key) {
+                token.append('.').append(ENCODER.encodeToString(ChangeExtractor.toText(value).getBytes(StandardCharsets.UTF_8)));
+            }
+            return token.toString();
+        }
+
+        @NotNull
+        private Object[] decode(@NotNull String token) {
+            String[] parts = token.split("\\.", -1);
+            if (parts.length != sortKey.size() + 1 || !parts[0].equals(fingerprint)) {
+                throw new IllegalArgumentException("El token de continuación no corresponde a esta consulta de la tabla " + table);
+            }
+            Object[] key = new Object[sortKey.size()];
+            try {
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = ChangeExtractor.toValue(new String(DECODER.decode(parts[i + 1]), StandardCharsets.UTF_8), sortTypes[i]);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("El token de continuación no es válido: " + e.getMessage(), e);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Una página de filas con el token para pedir la siguiente.
+     */
+    public static final class Page {
+        private final List<Map<String, Object>> rows;
+        private final String continuationToken;
+
+        private Page(List<Map<String, Object>> rows, String continuationToken) {
+            this.rows = Collections.unmodifiableList(rows);
+            this.continuationToken = continuationToken;
+        }
+
+        /**
+         * Devuelve las filas de la página, con las columnas pedidas en su orden.
+         *
+         * @return las filas, vacía si no hay más
+         */
+        public List<Map<String, Object>> getRows() {
+            return rows;
+        }
+
+        /**
+         * Devuelve el token con el que se pide la página siguiente.
+         *
+         * @return el token, o {@code null} si esta es la última página
+         */
+        @Nullable
+        public String getContinuationToken() {
+            return continuationToken;
+        }
+
+        public boolean hasMore() {
+            return continuationToken != null;
+        }
+
+        @Override
+        public String toString() {
+            return rows.size() + " fila(s)" + (hasMore() ? ", hay más" : ", última página");
+        }
+    }
+}
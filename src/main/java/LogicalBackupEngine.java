@@ -0,0 +1,694 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Motor de respaldo lógico para MySQL.
+ * Vuelca todas las tablas de un esquema en paralelo sobre varias conexiones. Cada tabla con una clave primaria
+ * entera se divide en rangos de clave que se vuelcan como fragmentos independientes; el resto se vuelca en un
+ * único fragmento. Todas las conexiones leen la misma instantánea: la coordinadora toma
+ * {@code FLUSH TABLES WITH READ LOCK}, cada conexión abre {@code START TRANSACTION WITH CONSISTENT SNAPSHOT}
+ * y el bloqueo se libera en cuanto todas las instantáneas están abiertas. Si el usuario no puede tomar el
+ * bloqueo global, el respaldo se hace con una sola conexión para no perder la consistencia.
+ * <p>
+ * El resultado es un directorio con la DDL de cada tabla ({@code SHOW CREATE TABLE}), un archivo TSV comprimido
+ * con gzip por fragmento, en el formato de {@link TsvRowCodec}, y un {@link BackupManifest} con las filas y el
+ * CRC32 de cada fragmento. Solo se respaldan tablas base; las vistas no se incluyen.
+ * <p>
+ * Si se piden sumas de comprobación ({@link #setChecksums}), antes de volcar cada fragmento el servidor calcula
+ * una suma de sus filas dentro de la misma instantánea. En un respaldo incremental ({@link #setPreviousBackup})
+ * las sumas se calculan siempre, los fragmentos se cortan por los mismos límites que en el respaldo anterior y
+ * solo se vuelcan aquellos cuya suma cambió o que no tenían suma; el resto se referencia en el manifiesto desde
+ * el directorio que ya los contiene. Las referencias se resuelven siempre hasta el directorio
+ * del archivo, así que el último incremento de una cadena se restaura como un respaldo completo.
+ */
+public class LogicalBackupEngine {
+
+    public static final int DEFAULT_WORKERS = 4;
+    public static final long DEFAULT_CHUNK_ROWS = 500_000;
+    private static final Logger logger = LoggerFactory.getLogger(LogicalBackupEngine.class);
+    private static final int TEXT_FLUSH_THRESHOLD = 32 * 1024;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private int workers = DEFAULT_WORKERS;
+    private long chunkRows = DEFAULT_CHUNK_ROWS;
+    private boolean checksums;
+    private Path previousBackup;
+
+    /**
+     * Establece el número de conexiones que vuelcan fragmentos en paralelo.
+     *
+     * @param workers el número de conexiones, al menos 1
+     */
+    public void setWorkers(int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("El número de conexiones debe ser mayor que cero");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Establece el número aproximado de filas de cada fragmento, calculado con las estadísticas de la tabla.
+     *
+     * @param chunkRows las filas por fragmento, al menos 1
+     */
+    public void setChunkRows(long chunkRows) {
+        if (chunkRows <= 0) {
+            throw new IllegalArgumentException("El número de filas por fragmento debe ser mayor que cero");
+        }
+        this.chunkRows = chunkRows;
+    }
+
+    /**
+     * Indica si se calcula en el servidor la suma de comprobación de cada fragmento. Cuesta una lectura más de
+     * cada fragmento, pero sin ella el siguiente respaldo incremental tiene que volcar de nuevo todo lo que
+     * dependa de este. Está desactivada por defecto en los respaldos completos; se activa en los que vayan a
+     * servir de base a un incremental y siempre se calcula en un respaldo incremental.
+     *
+     * @param checksums verdadero para calcular las sumas de comprobación
+     */
+    public void setChecksums(boolean checksums) {
+        this.checksums = checksums;
+    }
+
+    /**
+     * Convierte el siguiente respaldo en un incremento sobre un respaldo anterior del mismo esquema, completo o
+     * incremental. Solo se vuelcan los fragmentos cuya suma de comprobación cambió desde ese respaldo. Los
+     * fragmentos del respaldo anterior sin suma de comprobación, porque se hizo sin {@link #setChecksums}, no se
+     * pueden comparar y se vuelcan de nuevo; se avisa en el log.
+     *
+     * @param previousBackup el directorio del respaldo anterior, o null para hacer un respaldo completo
+     */
+    public void setPreviousBackup(@Nullable Path previousBackup) {
+        this.previousBackup = previousBackup;
+    }
+
+    /**
+     * Respalda un esquema abriendo {@code workers} conexiones del origen de datos.
+     *
+     * @param dataSource el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param schema     el esquema a respaldar
+     * @param directory  el directorio del respaldo; se crea si no existe
+     * @return el manifiesto del respaldo
+     * @throws SQLException si ocurre un error al leer la base de datos
+     * @throws IOException  si ocurre un error al escribir el respaldo
+     */
+    @NotNull
+    public BackupManifest backup(@NotNull DataSource dataSource, @NotNull String schema, @NotNull Path directory) throws SQLException, IOException {
+        List<Connection> sessions = new ArrayList<>();
+        try {
+            for (int i = 0; i < workers; i++) {
+                sessions.add(dataSource.getConnection());
+            }
+            return run(sessions, schema, directory);
+        } finally {
+            for (Connection session : sessions) {
+                try {
+                    session.close();
+                } catch (SQLException e) {
+                    logger.error("Error al cerrar una conexión del respaldo: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Respalda un esquema con una única conexión, dentro de una sola transacción con instantánea consistente.
+     *
+     * @param conn      la conexión a la base de datos
+     * @param schema    el esquema a respaldar
+     * @param directory el directorio del respaldo; se crea si no existe
+     * @return el manifiesto del respaldo
+     * @throws SQLException si ocurre un error al leer la base de datos
+     * @throws IOException  si ocurre un error al escribir el respaldo
+     */
+    @NotNull
+    public BackupManifest backup(@NotNull Connection conn, @NotNull String schema, @NotNull Path directory) throws SQLException, IOException {
+        return run(Collections.singletonList(conn), schema, directory);
+    }
+
+    @NotNull
+    private BackupManifest run(@NotNull List<Connection> sessions, @NotNull String schema, @NotNull Path directory) throws SQLException, IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        BackupManifest manifest = new BackupManifest(schema);
+        Previous previous = previousBackup == null ? null : new Previous(previousBackup, directory, schema);
+        if (previous != null) {
+            manifest.setBase(previous.relativeDirectory);
+        }
+        List<SessionState> states = new ArrayList<>();
+        for (Connection session : sessions) {
+            states.add(new SessionState(session));
+        }
+        try {
+            List<Connection> snapshots = openSnapshots(sessions, manifest);
+            List<TablePlan> plans = planTables(snapshots.get(0), schema, manifest, directory, previous);
+            dumpChunks(snapshots, plans, directory);
+            manifest.store(directory);
+        } finally {
+            for (SessionState state : states) {
+                state.restore();
+            }
+        }
+
+        int chunks = 0;
+        int reused = 0;
+        for (BackupManifest.TableEntry table : manifest.getTables()) {
+            chunks += table.getChunks().size();
+            for (BackupManifest.ChunkEntry chunk : table.getChunks()) {
+                if (chunk.getSource() != null) {
+                    reused++;
+                }
+            }
+        }
+        logger.info("Respaldo del esquema {} terminado en {}: {} tabla(s), {} fila(s), {} fragmento(s), {} sin cambios, en {} s",
+                schema, directory, manifest.getTables().size(), manifest.getRows(), chunks, reused,
+                String.format("%.1f", (System.nanoTime() - start) / 1e9));
+        return manifest;
+    }
+
+    /**
+     * Abre una instantánea consistente en cada conexión. Con varias conexiones se toma el bloqueo global de
+     * lectura mientras se abren, para que todas vean el mismo punto; si no se puede tomar, se usa solo la primera.
+     *
+     * @return las conexiones con la instantánea abierta
+     */
+    @NotNull
+    private List<Connection> openSnapshots(@NotNull List<Connection> sessions, @NotNull BackupManifest manifest) throws SQLException {
+        Connection coordinator = sessions.get(0);
+        List<Connection> snapshots = sessions;
+        boolean locked = false;
+        if (sessions.size() > 1) {
+            try (Statement stmt = coordinator.createStatement()) {
+                stmt.execute("FLUSH TABLES WITH READ LOCK");
+                locked = true;
+            } catch (SQLException e) {
+                logger.warn("No se pudo tomar FLUSH TABLES WITH READ LOCK ({}); el respaldo usará una sola conexión para ser consistente", e.getMessage());
+                snapshots = sessions.subList(0, 1);
+            }
+        }
+        try {
+            if (locked) {
+                readBinlogPosition(coordinator, manifest);
+            }
+            for (Connection session : snapshots) {
+                session.setAutoCommit(false);
+                session.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                try (Statement stmt = session.createStatement()) {
+                    stmt.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT, READ ONLY");
+                }
+            }
+        } finally {
+            if (locked) {
+                try (Statement stmt = coordinator.createStatement()) {
+                    stmt.execute("UNLOCK TABLES");
+                }
+            }
+        }
+        manifest.setConsistent(true);
+        return snapshots;
+    }
+
+    private void readBinlogPosition(@NotNull Connection conn, @NotNull BackupManifest manifest) {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SHOW MASTER STATUS")) {
+            if (rs.next()) {
+                manifest.setBinlogPosition(rs.getString(1), rs.getLong(2));
+            }
+        } catch (SQLException e) {
+            logger.debug("No se pudo leer la posición del binlog: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Lee las tablas base del esquema, escribe su DDL y divide cada una en fragmentos. Si la tabla ya estaba en
+     * el respaldo anterior con las mismas columnas, se reutilizan sus límites para poder comparar los fragmentos
+     * uno a uno; solo se añaden límites nuevos por encima del último, donde crecen las claves AUTO_INCREMENT.
+     *
+     * @return los planes de volcado, de la tabla más grande a la más pequeña
+     */
+    @NotNull
+    private List<TablePlan> planTables(@NotNull Connection conn, @NotNull String schema, @NotNull BackupManifest manifest,
+                                       @NotNull Path directory, @Nullable Previous previous) throws SQLException, IOException {
+        List<TablePlan> plans = new ArrayList<>();
+        String sql = "SELECT TABLE_NAME, TABLE_ROWS FROM information_schema.TABLES "
+                + "WHERE TABLE_SCHEMA = ? AND TABLE_TYPE = 'BASE TABLE' ORDER BY TABLE_NAME";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, schema);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    plans.add(new TablePlan(rs.getString(1), rs.getLong(2)));
+                }
+            }
+        }
+
+        for (int t = 0; t < plans.size(); t++) {
+            TablePlan plan = plans.get(t);
+            SchemaCache.TableSchema table = SchemaCache.lookup(conn, schema + "." + plan.name);
+            if (table == null) {
+                throw new SQLException("La tabla " + schema + "." + plan.name + " no existe");
+            }
+            String baseName = String.format("%04d-%s", t, plan.name.replaceAll("[^A-Za-z0-9_$-]", "_"));
+            String ddlFile = baseName + ".sql";
+            byte[] ddl = (showCreateTable(conn, schema, plan.name) + ";\n").getBytes(StandardCharsets.UTF_8);
+            Files.write(directory.resolve(ddlFile), ddl);
+
+            List<String> columns = table.getColumnNames();
+            plan.entry = manifest.addTable(plan.name, ddlFile, columns);
+            plan.entry.setDdlSha256(BackupVerifier.toHex(BackupVerifier.newDigest().digest(ddl)));
+            List<String> quoted = new ArrayList<>();
+            for (String column : columns) {
+                quoted.add(quote(column));
+            }
+            plan.fromClause = quote(schema) + "." + quote(plan.name);
+            plan.selectSql = "SELECT " + String.join(", ", quoted) + " FROM " + plan.fromClause;
+            if (checksums || previous != null) {
+                plan.checksumSql = checksumSql(quoted, plan.fromClause);
+            }
+            BackupManifest.TableEntry previousTable = previous == null ? null : previous.manifest.getTable(plan.name);
+            if (previousTable != null && previousTable.getColumns().equals(columns)) {
+                plan.previous = previous;
+                for (BackupManifest.ChunkEntry chunk : previousTable.getChunks()) {
+                    plan.previousChunks.put(rangeKey(chunk.getLowerBound(), chunk.getUpperBound()), chunk);
+                }
+            }
+
+            List<String> keys = table.getPrimaryKeys(conn);
+            List<BigDecimal> bounds = Collections.emptyList();
+            if (keys.size() == 1 && isIntegral(table.getColumnType(keys.get(0)))) {
+                plan.keyColumn = quote(keys.get(0));
+                plan.entry.setKeyColumn(keys.get(0));
+                bounds = splitKeyRange(conn, plan);
+                if (plan.previous != null) {
+                    bounds = extendBounds(previousTable, bounds);
+                }
+            }
+            for (int c = 0; c <= bounds.size(); c++) {
+                String lower = c == 0 ? null : bounds.get(c - 1).toPlainString();
+                String upper = c == bounds.size() ? null : bounds.get(c).toPlainString();
+                plan.entry.addChunk(String.format("%s.%05d.tsv.gz", baseName, c), lower, upper);
+            }
+        }
+        plans.sort(Comparator.comparingLong((TablePlan plan) -> plan.estimatedRows).reversed());
+        return plans;
+    }
+
+    @NotNull
+    private static String showCreateTable(@NotNull Connection conn, @NotNull String schema, @NotNull String table) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SHOW CREATE TABLE " + quote(schema) + "." + quote(table))) {
+            if (!rs.next()) {
+                throw new SQLException("No se pudo leer la definición de la tabla " + table);
+            }
+            return rs.getString(2);
+        }
+    }
+
+    /**
+     * Calcula los límites entre fragmentos repartiendo el rango de la clave primaria en partes iguales.
+     * Los límites se eligen solo con el mínimo, el máximo y las filas estimadas; el primer y el último
+     * fragmento quedan abiertos, así que ninguna fila queda fuera aunque la estimación no sea exacta.
+     */
+    @NotNull
+    private List<BigDecimal> splitKeyRange(@NotNull Connection conn, @NotNull TablePlan plan) throws SQLException {
+        long chunks = Math.max(1, (plan.estimatedRows + chunkRows - 1) / chunkRows);
+        if (chunks == 1) {
+            return Collections.emptyList();
+        }
+        BigDecimal min;
+        BigDecimal max;
+        String sql = "SELECT MIN(" + plan.keyColumn + "), MAX(" + plan.keyColumn + ") FROM " + plan.fromClause;
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            if (!rs.next() || rs.getBigDecimal(1) == null) {
+                return Collections.emptyList();
+            }
+            min = rs.getBigDecimal(1);
+            max = rs.getBigDecimal(2);
+        }
+        BigInteger span = max.toBigInteger().subtract(min.toBigInteger()).add(BigInteger.ONE);
+        BigDecimal step = new BigDecimal(span).divide(BigDecimal.valueOf(chunks), 0, RoundingMode.CEILING);
+        List<BigDecimal> bounds = new ArrayList<>();
+        for (long i = 1; i < chunks; i++) {
+            BigDecimal bound = min.add(step.multiply(BigDecimal.valueOf(i)));
+            if (bound.compareTo(max) > 0) {
+                break;
+            }
+            bounds.add(bound);
+        }
+        return bounds;
+    }
+
+    /**
+     * Conserva los límites del respaldo anterior y añade los nuevos que quedan por encima del último de ellos.
+     */
+    @NotNull
+    private static List<BigDecimal> extendBounds(@NotNull BackupManifest.TableEntry previousTable, @NotNull List<BigDecimal> fresh) {
+        List<BigDecimal> bounds = new ArrayList<>();
+        for (BackupManifest.ChunkEntry chunk : previousTable.getChunks()) {
+            if (chunk.getUpperBound() != null) {
+                bounds.add(new BigDecimal(chunk.getUpperBound()));
+            }
+        }
+        if (bounds.isEmpty()) {
+            return fresh;
+        }
+        BigDecimal last = bounds.get(bounds.size() - 1);
+        for (BigDecimal bound : fresh) {
+            if (bound.compareTo(last) > 0) {
+                bounds.add(bound);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Construye la consulta que calcula en el servidor el número de filas de un rango y la suma de los primeros
+     * 64 bits del MD5 de cada fila. Los indicadores ISNULL distinguen un NULL de una cadena vacía, que
+     * {@code CONCAT_WS} trataría igual, y la suma, a diferencia de un XOR, no se anula con filas duplicadas.
+     */
+    @NotNull
+    static String checksumSql(@NotNull List<String> quotedColumns, @NotNull String fromClause) {
+        return "SELECT COUNT(*), COALESCE(SUM(CAST(CONV(SUBSTRING(" + rowDigestExpression(quotedColumns) + ", 1, 16), 16, 10) AS UNSIGNED)), 0) FROM " + fromClause;
+    }
+
+    /**
+     * Construye la expresión SQL con el MD5 en hexadecimal de todas las columnas de una fila.
+     */
+    @NotNull
+    static String rowDigestExpression(@NotNull List<String> quotedColumns) {
+        List<String> nullFlags = new ArrayList<>();
+        for (String column : quotedColumns) {
+            nullFlags.add("ISNULL(" + column + ")");
+        }
+        return "MD5(CONCAT_WS('#', " + String.join(", ", quotedColumns) + ", CONCAT(" + String.join(", ", nullFlags) + ")))";
+    }
+
+    @NotNull
+    private static String rangeKey(@Nullable String lowerBound, @Nullable String upperBound) {
+        return lowerBound + ".." + upperBound;
+    }
+
+    static boolean isIntegral(Integer sqlType) {
+        return sqlType != null && (sqlType == Types.TINYINT || sqlType == Types.SMALLINT
+                || sqlType == Types.INTEGER || sqlType == Types.BIGINT);
+    }
+
+    @NotNull
+    static String quote(@NotNull String identifier) {
+        return "`" + identifier.replace("`", "``") + "`";
+    }
+
+    /**
+     * Vuelca todos los fragmentos repartiéndolos entre las conexiones; cada hilo usa una conexión a la vez.
+     */
+    private void dumpChunks(@NotNull List<Connection> sessions, @NotNull List<TablePlan> plans, @NotNull Path directory) throws SQLException, IOException {
+        BlockingQueue<Connection> idle = new ArrayBlockingQueue<>(sessions.size(), false, sessions);
+        ExecutorService executor = Executors.newFixedThreadPool(sessions.size(), runnable -> {
+            Thread thread = new Thread(runnable, "logical-backup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        int submitted = 0;
+        try {
+            for (TablePlan plan : plans) {
+                for (BackupManifest.ChunkEntry chunk : plan.entry.getChunks()) {
+                    completion.submit(() -> {
+                        Connection session = idle.take();
+                        try {
+                            dumpChunk(session, plan, chunk, directory);
+                        } finally {
+                            idle.put(session);
+                        }
+                        return null;
+                    });
+                    submitted++;
+                }
+            }
+            for (int i = 0; i < submitted; i++) {
+                Future<Void> done = completion.take();
+                done.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("El respaldo fue interrumpido", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new SQLException("Error al volcar un fragmento: " + cause, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void dumpChunk(@NotNull Connection conn, @NotNull TablePlan plan, @NotNull BackupManifest.ChunkEntry chunk, @NotNull Path directory) throws SQLException, IOException {
+        String checksum = null;
+        if (plan.checksumSql != null) {
+            checksum = chunkChecksum(conn, plan, chunk);
+            BackupManifest.ChunkEntry previous = plan.previousChunks.get(rangeKey(chunk.getLowerBound(), chunk.getUpperBound()));
+            if (previous != null && checksum.equals(previous.getChecksum())
+                    && Files.isRegularFile(previous.resolve(plan.previous.directory))) {
+                chunk.reuse(previous, plan.previous.relativeSource(previous));
+                logger.debug("Fragmento {} de la tabla {} sin cambios desde {}", previous.getFile(), plan.name, chunk.getSource());
+                return;
+            }
+        }
+
+        Path file = directory.resolve(chunk.getFile());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        long rows = 0;
+        try (PreparedStatement pstmt = DataBaseManipulation.prepareStreamingStatement(conn, plan.selectSql + rangeCondition(plan, chunk))) {
+            bindRange(pstmt, chunk);
+            try (ResultSet rs = pstmt.executeQuery();
+                 ChunkWriter out = new ChunkWriter(temporary)) {
+                boolean[] binary = TsvRowCodec.binaryColumns(rs.getMetaData());
+                StringBuilder pending = new StringBuilder(TEXT_FLUSH_THRESHOLD * 2);
+                TsvRowCodec.appendHeader(pending, rs.getMetaData());
+                while (rs.next()) {
+                    TsvRowCodec.appendRow(pending, rs, binary);
+                    rows++;
+                    if (pending.length() >= TEXT_FLUSH_THRESHOLD) {
+                        out.write(pending);
+                        pending.setLength(0);
+                    }
+                }
+                out.write(pending);
+                out.finish();
+                chunk.complete(rows, out.bytes, out.crc.getValue());
+                chunk.setChecksum(checksum);
+                chunk.setFileDigest(Files.size(temporary), BackupVerifier.toHex(out.digest.digest()));
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        logger.debug("Fragmento {} de la tabla {}: {} fila(s)", chunk.getFile(), plan.name, rows);
+    }
+
+    @NotNull
+    private static String chunkChecksum(@NotNull Connection conn, @NotNull TablePlan plan, @NotNull BackupManifest.ChunkEntry chunk) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(plan.checksumSql + rangeCondition(plan, chunk))) {
+            bindRange(pstmt, chunk);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("No se pudo calcular la suma de comprobación de la tabla " + plan.name);
+                }
+                return rs.getLong(1) + ":" + rs.getBigDecimal(2).toPlainString();
+            }
+        }
+    }
+
+    @NotNull
+    private static String rangeCondition(@NotNull TablePlan plan, @NotNull BackupManifest.ChunkEntry chunk) {
+        StringBuilder sql = new StringBuilder();
+        if (chunk.getLowerBound() != null) {
+            sql.append(" WHERE ").append(plan.keyColumn).append(" >= ?");
+        }
+        if (chunk.getUpperBound() != null) {
+            sql.append(chunk.getLowerBound() != null ? " AND " : " WHERE ").append(plan.keyColumn).append(" < ?");
+        }
+        return sql.toString();
+    }
+
+    private static void bindRange(@NotNull PreparedStatement pstmt, @NotNull BackupManifest.ChunkEntry chunk) throws SQLException {
+        int index = 1;
+        if (chunk.getLowerBound() != null) {
+            pstmt.setBigDecimal(index++, new BigDecimal(chunk.getLowerBound()));
+        }
+        if (chunk.getUpperBound() != null) {
+            pstmt.setBigDecimal(index, new BigDecimal(chunk.getUpperBound()));
+        }
+    }
+
+    /**
+     * Plan de volcado de una tabla: la consulta base, la columna de clave usada para los rangos y su entrada
+     * en el manifiesto.
+     */
+    private static final class TablePlan {
+        private final String name;
+        private final long estimatedRows;
+        private BackupManifest.TableEntry entry;
+        private String fromClause;
+        private String selectSql;
+        private String keyColumn;
+        private String checksumSql;
+        private Previous previous;
+        private final Map<String, BackupManifest.ChunkEntry> previousChunks = new HashMap<>();
+
+        private TablePlan(String name, long estimatedRows) {
+            this.name = name;
+            this.estimatedRows = estimatedRows;
+        }
+    }
+
+    /**
+     * El respaldo anterior de un incremento y su ruta relativa al directorio del nuevo respaldo.
+     */
+    private static final class Previous {
+        private final Path directory;
+        private final BackupManifest manifest;
+        private final Path target;
+        private final String relativeDirectory;
+
+        private Previous(@NotNull Path directory, @NotNull Path target, @NotNull String schema) throws IOException {
+            this.directory = directory.toAbsolutePath().normalize();
+            this.target = target.toAbsolutePath().normalize();
+            if (this.directory.equals(this.target)) {
+                throw new IllegalArgumentException("El respaldo incremental debe escribirse en otro directorio que el respaldo anterior");
+            }
+            this.manifest = BackupManifest.load(this.directory);
+            if (!manifest.getSchema().equals(schema)) {
+                logger.warn("El respaldo anterior {} es del esquema {}, no de {}", directory, manifest.getSchema(), schema);
+            }
+            long withoutChecksum = 0;
+            for (BackupManifest.TableEntry table : manifest.getTables()) {
+                for (BackupManifest.ChunkEntry chunk : table.getChunks()) {
+                    if (chunk.getChecksum() == null) {
+                        withoutChecksum++;
+                    }
+                }
+            }
+            if (withoutChecksum > 0) {
+                logger.warn("El respaldo anterior {} tiene {} fragmento(s) sin suma de comprobación, que se volcarán de nuevo; "
+                        + "los respaldos que sirvan de base deben hacerse con setChecksums(true)", directory, withoutChecksum);
+            }
+            this.relativeDirectory = relative(this.directory);
+        }
+
+        /**
+         * Devuelve el directorio que contiene el archivo de un fragmento del respaldo anterior, relativo al nuevo
+         * respaldo, para que la cadena de incrementos no tenga que recorrerse al restaurar.
+         */
+        @NotNull
+        private String relativeSource(@NotNull BackupManifest.ChunkEntry chunk) {
+            String source = chunk.getSource();
+            return relative(source == null ? directory : directory.resolve(source).normalize());
+        }
+
+        @NotNull
+        private String relative(@NotNull Path path) {
+            return target.relativize(path).toString().replace('\\', '/');
+        }
+    }
+
+    /**
+     * Escribe un fragmento comprimido con gzip, contando los bytes y el CRC32 de los datos sin comprimir y
+     * calculando a la vez el SHA-256 de los bytes comprimidos que llegan al disco, sin volver a leer el archivo.
+     */
+    private static final class ChunkWriter implements AutoCloseable {
+        private final OutputStream out;
+        private final CRC32 crc = new CRC32();
+        private final MessageDigest digest = BackupVerifier.newDigest();
+        private long bytes;
+
+        private ChunkWriter(Path file) throws IOException {
+            this.out = new GZIPOutputStream(new DigestOutputStream(Files.newOutputStream(file), digest), GZIP_BUFFER_SIZE);
+        }
+
+        private void write(@NotNull CharSequence text) throws IOException {
+            byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+            crc.update(data, 0, data.length);
+            bytes += data.length;
+            out.write(data);
+        }
+
+        private void finish() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Estado de una conexión antes del respaldo, para dejarla como estaba al terminar.
+     */
+    private static final class SessionState {
+        private final Connection conn;
+        private final boolean autoCommit;
+        private final int isolation;
+
+        private SessionState(Connection conn) throws SQLException {
+            this.conn = conn;
+            this.autoCommit = conn.getAutoCommit();
+            this.isolation = conn.getTransactionIsolation();
+        }
+
+        private void restore() {
+            try {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                }
+                conn.setAutoCommit(autoCommit);
+                conn.setTransactionIsolation(isolation);
+            } catch (SQLException e) {
+                logger.error("Error al restaurar el estado de una conexión del respaldo: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,517 @@
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Motor de restauración de los respaldos lógicos de {@link LogicalBackupEngine}.
+ * Crea las tablas sin índices secundarios ni claves foráneas, carga los fragmentos en paralelo sobre varias
+ * conexiones con INSERT de varias filas y sin comprobaciones de claves foráneas ni de unicidad, y al terminar
+ * cada tabla añade sus índices secundarios en una sola sentencia ALTER TABLE. Las claves foráneas se añaden al
+ * final, con las comprobaciones activadas, para que el servidor valide los datos cargados.
+ * <p>
+ * Cada fragmento se carga en su propia transacción y solo se confirma si sus filas y el CRC32 de sus datos
+ * coinciden con el manifiesto; al terminar cada tabla se comprueba su número de filas con {@code COUNT(*)}.
+ * Un respaldo incremental se restaura igual que uno completo: los fragmentos sin cambios se leen del respaldo
+ * anterior de la cadena que los contiene, como indica el manifiesto.
+ * <p>
+ * No se usa {@code LOAD DATA LOCAL INFILE}: exige {@code allowLoadLocalInfile} en el driver y
+ * {@code local_infile} en el servidor, que MySQL 8 desactiva por defecto.
+ */
+public class LogicalRestoreEngine {
+
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_ROWS_PER_STATEMENT = 1000;
+    private static final Logger logger = LoggerFactory.getLogger(LogicalRestoreEngine.class);
+    private static final int MAX_PLACEHOLDERS = 65535;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private int workers = DEFAULT_WORKERS;
+    private int rowsPerStatement = DEFAULT_ROWS_PER_STATEMENT;
+    private boolean replace;
+
+    /**
+     * Establece el número de conexiones que cargan fragmentos en paralelo.
+     *
+     * @param workers el número de conexiones, al menos 1
+     */
+    public void setWorkers(int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("El número de conexiones debe ser mayor que cero");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Establece el número máximo de filas de cada INSERT. Se reduce si superaría el límite de parámetros.
+     *
+     * @param rowsPerStatement las filas por sentencia, al menos 1
+     */
+    public void setRowsPerStatement(int rowsPerStatement) {
+        if (rowsPerStatement <= 0) {
+            throw new IllegalArgumentException("El número de filas por sentencia debe ser mayor que cero");
+        }
+        this.rowsPerStatement = rowsPerStatement;
+    }
+
+    /**
+     * Indica si las tablas que ya existen se eliminan antes de restaurarlas. Si no, la restauración falla.
+     *
+     * @param replace verdadero para reemplazar las tablas existentes
+     */
+    public void setReplace(boolean replace) {
+        this.replace = replace;
+    }
+
+    /**
+     * Restaura un respaldo abriendo {@code workers} conexiones del origen de datos.
+     *
+     * @param dataSource el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param directory  el directorio del respaldo
+     * @param schema     el esquema de destino, o null para usar el del respaldo
+     * @return el número de filas restauradas
+     * @throws SQLException si falla la carga o la verificación de algún fragmento o tabla
+     * @throws IOException  si no se puede leer el respaldo
+     */
+    public long restore(@NotNull DataSource dataSource, @NotNull Path directory, String schema) throws SQLException, IOException {
+        BackupManifest manifest = BackupManifest.load(directory);
+        List<Connection> sessions = new ArrayList<>();
+        try {
+            int count = Math.max(1, Math.min(workers, countChunks(manifest)));
+            for (int i = 0; i < count; i++) {
+                sessions.add(dataSource.getConnection());
+            }
+            return run(sessions, manifest, directory, schema != null ? schema : manifest.getSchema());
+        } finally {
+            for (Connection session : sessions) {
+                try {
+                    session.close();
+                } catch (SQLException e) {
+                    logger.error("Error al cerrar una conexión de la restauración: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Restaura un respaldo con una única conexión.
+     *
+     * @param conn      la conexión a la base de datos
+     * @param directory el directorio del respaldo
+     * @param schema    el esquema de destino, o null para usar el del respaldo
+     * @return el número de filas restauradas
+     * @throws SQLException si falla la carga o la verificación de algún fragmento o tabla
+     * @throws IOException  si no se puede leer el respaldo
+     */
+    public long restore(@NotNull Connection conn, @NotNull Path directory, String schema) throws SQLException, IOException {
+        BackupManifest manifest = BackupManifest.load(directory);
+        return run(Collections.singletonList(conn), manifest, directory, schema != null ? schema : manifest.getSchema());
+    }
+
+    private static int countChunks(@NotNull BackupManifest manifest) {
+        int chunks = 0;
+        for (BackupManifest.TableEntry table : manifest.getTables()) {
+            chunks += table.getChunks().size();
+        }
+        return chunks;
+    }
+
+    private long run(@NotNull List<Connection> sessions, @NotNull BackupManifest manifest, @NotNull Path directory, @NotNull String schema) throws SQLException, IOException {
+        long start = System.nanoTime();
+        Connection coordinator = sessions.get(0);
+        try (Statement stmt = coordinator.createStatement()) {
+            stmt.execute("CREATE DATABASE IF NOT EXISTS " + LogicalBackupEngine.quote(schema));
+        }
+
+        List<SessionState> states = new ArrayList<>();
+        try {
+            for (Connection session : sessions) {
+                SessionState state = new SessionState(session);
+                states.add(state);
+                state.prepareForLoad(schema);
+            }
+
+            List<TableTask> tables = createTables(coordinator, manifest, directory, schema);
+            long rows = loadChunks(sessions, tables, directory);
+
+            // Las claves foráneas se añaden con las comprobaciones activadas para validar los datos cargados
+            states.get(0).restoreChecks();
+            for (TableTask table : tables) {
+                if (table.ddl.getForeignKeyAlter() != null) {
+                    try (Statement stmt = coordinator.createStatement()) {
+                        stmt.execute(table.ddl.getForeignKeyAlter());
+                    }
+                }
+            }
+
+            logger.info("Respaldo {} restaurado en el esquema {}: {} tabla(s), {} fila(s) en {} s", directory, schema,
+                    tables.size(), rows, String.format("%.1f", (System.nanoTime() - start) / 1e9));
+            return rows;
+        } finally {
+            for (SessionState state : states) {
+                state.restore();
+            }
+        }
+    }
+
+    /**
+     * Crea todas las tablas del respaldo sin índices secundarios ni claves foráneas.
+     *
+     * @return las tablas a cargar, de la más grande a la más pequeña
+     */
+    @NotNull
+    private List<TableTask> createTables(@NotNull Connection conn, @NotNull BackupManifest manifest, @NotNull Path directory, @NotNull String schema) throws SQLException, IOException {
+        List<TableTask> tables = new ArrayList<>();
+        for (BackupManifest.TableEntry entry : manifest.getTables()) {
+            String ddl = new String(Files.readAllBytes(directory.resolve(entry.getDdlFile())), StandardCharsets.UTF_8);
+            TableTask table = new TableTask(entry, TableDdl.parse(ddl, entry.getName()), schema);
+            try (Statement stmt = conn.createStatement()) {
+                if (replace) {
+                    stmt.execute("DROP TABLE IF EXISTS " + table.qualifiedName);
+                }
+                stmt.execute(table.ddl.getCreateSql());
+            }
+            SchemaCache.invalidate(conn, schema + "." + entry.getName());
+            tables.add(table);
+        }
+        List<TableTask> ordered = new ArrayList<>(tables);
+        ordered.sort(Comparator.comparingLong((TableTask table) -> table.entry.getRows()).reversed());
+        return ordered;
+    }
+
+    /**
+     * Carga todos los fragmentos repartiéndolos entre las conexiones. La tarea que carga el último fragmento
+     * de una tabla añade sus índices secundarios y comprueba su número de filas.
+     */
+    private long loadChunks(@NotNull List<Connection> sessions, @NotNull List<TableTask> tables, @NotNull Path directory) throws SQLException, IOException {
+        BlockingQueue<Connection> idle = new ArrayBlockingQueue<>(sessions.size(), false, sessions);
+        ExecutorService executor = Executors.newFixedThreadPool(sessions.size(), runnable -> {
+            Thread thread = new Thread(runnable, "logical-restore");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        AtomicLong rows = new AtomicLong();
+        int submitted = 0;
+        try {
+            for (TableTask table : tables) {
+                for (BackupManifest.ChunkEntry chunk : table.entry.getChunks()) {
+                    completion.submit(() -> {
+                        Connection session = idle.take();
+                        try {
+                            rows.addAndGet(loadChunk(session, table, chunk, directory));
+                            if (table.remainingChunks.decrementAndGet() == 0) {
+                                finishTable(session, table);
+                            }
+                        } finally {
+                            idle.put(session);
+                        }
+                        return null;
+                    });
+                    submitted++;
+                }
+            }
+            for (int i = 0; i < submitted; i++) {
+                completion.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("La restauración fue interrumpida", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new SQLException("Error al cargar un fragmento: " + cause, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        return rows.get();
+    }
+
+    /**
+     * Carga un fragmento en una transacción y la confirma solo si sus filas y su CRC32 coinciden con el manifiesto.
+     */
+    private long loadChunk(@NotNull Connection conn, @NotNull TableTask table, @NotNull BackupManifest.ChunkEntry chunk, @NotNull Path directory) throws SQLException, IOException {
+        CRC32 crc = new CRC32();
+        long rows = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new CheckedInputStream(
+                new GZIPInputStream(Files.newInputStream(chunk.resolve(directory)), READ_BUFFER_SIZE), crc),
+                StandardCharsets.UTF_8), READ_BUFFER_SIZE)) {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new IOException("El fragmento " + chunk.getFile() + " está vacío");
+            }
+            List<String> columns = TsvRowCodec.parseLine(header);
+            if (!columns.equals(table.entry.getColumns())) {
+                throw new IOException("Las columnas del fragmento " + chunk.getFile() + " no coinciden con el manifiesto");
+            }
+            try (MultiRowInserter inserter = new MultiRowInserter(conn, table.qualifiedName, columns, table.ddl.binaryColumns(columns), rowsPerStatement)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    List<Object> values = TsvRowCodec.parseRow(line);
+                    if (values.size() != columns.size()) {
+                        throw new IOException("La fila " + (rows + 1) + " del fragmento " + chunk.getFile() + " tiene "
+                                + values.size() + " valores y se esperaban " + columns.size());
+                    }
+                    inserter.add(values);
+                    rows++;
+                }
+                inserter.flush();
+            }
+            if (rows != chunk.getRows() || crc.getValue() != chunk.getCrc32()) {
+                throw new IOException(String.format("El fragmento %s no coincide con el manifiesto: %d fila(s) y CRC32 %08x, se esperaban %d fila(s) y CRC32 %08x",
+                        chunk.getFile(), rows, crc.getValue(), chunk.getRows(), chunk.getCrc32()));
+            }
+            conn.commit();
+        } catch (SQLException | IOException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                logger.error("Error al deshacer la carga del fragmento {}: {}", chunk.getFile(), ex.getMessage());
+            }
+            throw e;
+        }
+        logger.debug("Fragmento {} cargado en la tabla {}: {} fila(s)", chunk.getFile(), table.entry.getName(), rows);
+        return rows;
+    }
+
+    /**
+     * Añade los índices secundarios de una tabla ya cargada y comprueba su número de filas.
+     */
+    private void finishTable(@NotNull Connection conn, @NotNull TableTask table) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            if (table.ddl.getIndexAlter() != null) {
+                stmt.execute(table.ddl.getIndexAlter());
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table.qualifiedName)) {
+                long count = rs.next() ? rs.getLong(1) : -1;
+                if (count != table.entry.getRows()) {
+                    throw new SQLException("La tabla " + table.entry.getName() + " tiene " + count
+                            + " fila(s) tras la restauración y el manifiesto indica " + table.entry.getRows());
+                }
+            }
+        }
+        conn.commit();
+        logger.info("Tabla {} restaurada: {} fila(s)", table.entry.getName(), table.entry.getRows());
+    }
+
+    /**
+     * Compara el número de filas de cada tabla del manifiesto con las del esquema.
+     *
+     * @param conn     la conexión a la base de datos
+     * @param manifest el manifiesto del respaldo
+     * @param schema   el esquema restaurado, o null para usar el del respaldo
+     * @return una descripción de cada tabla que no coincide; vacía si todas coinciden
+     * @throws SQLException si no se puede contar alguna tabla
+     */
+    @NotNull
+    public static List<String> verifyRowCounts(@NotNull Connection conn, @NotNull BackupManifest manifest, String schema) throws SQLException {
+        String target = schema != null ? schema : manifest.getSchema();
+        List<String> mismatches = new ArrayList<>();
+        try (Statement stmt = conn.createStatement()) {
+            for (BackupManifest.TableEntry table : manifest.getTables()) {
+                String sql = "SELECT COUNT(*) FROM " + LogicalBackupEngine.quote(target) + "." + LogicalBackupEngine.quote(table.getName());
+                try (ResultSet rs = stmt.executeQuery(sql)) {
+                    long count = rs.next() ? rs.getLong(1) : -1;
+                    if (count != table.getRows()) {
+                        mismatches.add(table.getName() + ": " + count + " fila(s), se esperaban " + table.getRows());
+                    }
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    private static final class TableTask {
+        private final BackupManifest.TableEntry entry;
+        private final TableDdl ddl;
+        private final String qualifiedName;
+        private final AtomicInteger remainingChunks;
+
+        private TableTask(BackupManifest.TableEntry entry, TableDdl ddl, String schema) {
+            this.entry = entry;
+            this.ddl = ddl;
+            this.qualifiedName = LogicalBackupEngine.quote(schema) + "." + LogicalBackupEngine.quote(entry.getName());
+            this.remainingChunks = new AtomicInteger(entry.getChunks().size());
+        }
+    }
+
+    /**
+     * Inserta filas con INSERT de varias filas: acumula hasta {@code rowsPerStatement} filas y las envía con una
+     * sentencia preparada que se reutiliza; las filas restantes se envían con una sentencia del tamaño justo.
+     * Los valores se enlazan con {@link TsvRowCodec#bindValue}, como bytes los de las columnas binarias.
+     */
+    static final class MultiRowInserter implements AutoCloseable {
+        private final Connection conn;
+        private final String prefix;
+        private final String rowPlaceholders;
+        private final int columns;
+        private final boolean[] binary;
+        private final Object[][] rows;
+        private int pending;
+        private PreparedStatement full;
+
+        MultiRowInserter(Connection conn, String qualifiedName, List<String> columns, boolean[] binary, int rowsPerStatement) {
+            List<String> quoted = new ArrayList<>();
+            for (String column : columns) {
+                quoted.add(LogicalBackupEngine.quote(column));
+            }
+            StringBuilder placeholders = new StringBuilder("(");
+            for (int i = 0; i < columns.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ",?");
+            }
+            this.conn = conn;
+            this.prefix = "INSERT INTO " + qualifiedName + " (" + String.join(", ", quoted) + ") VALUES ";
+            this.rowPlaceholders = placeholders.append(')').toString();
+            this.columns = columns.size();
+            this.binary = binary;
+            this.rows = new Object[Math.max(1, Math.min(rowsPerStatement, MAX_PLACEHOLDERS / Math.max(1, columns.size())))][];
+        }
+
+        void add(@NotNull List<?> values) throws SQLException {
+            rows[pending++] = values.toArray();
+            if (pending == rows.length) {
+                if (full == null) {
+                    full = conn.prepareStatement(buildSql(rows.length));
+                }
+                execute(full);
+            }
+        }
+
+        void flush() throws SQLException {
+            if (pending > 0) {
+                try (PreparedStatement pstmt = conn.prepareStatement(buildSql(pending))) {
+                    execute(pstmt);
+                }
+            }
+        }
+
+        private void execute(@NotNull PreparedStatement pstmt) throws SQLException {
+            int index = 1;
+            for (int r = 0; r < pending; r++) {
+                for (int c = 0; c < columns; c++) {
+                    TsvRowCodec.bindValue(pstmt, index++, rows[r][c], binary[c] ? Types.VARBINARY : Types.VARCHAR);
+                }
+                rows[r] = null;
+            }
+            pstmt.executeUpdate();
+            pending = 0;
+        }
+
+        @NotNull
+        private String buildSql(int rowCount) {
+            StringBuilder sql = new StringBuilder(prefix.length() + rowCount * (rowPlaceholders.length() + 1));
+            sql.append(prefix);
+            for (int r = 0; r < rowCount; r++) {
+                if (r > 0) {
+                    sql.append(',');
+                }
+                sql.append(rowPlaceholders);
+            }
+            return sql.toString();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (full != null) {
+                full.close();
+            }
+        }
+    }
+
+    /**
+     * Estado de una conexión antes de la restauración. Durante la carga se desactivan las comprobaciones de
+     * claves foráneas y de unicidad y se conserva el valor 0 en las columnas AUTO_INCREMENT. También la usa
+     * {@link IndexedBackupArchive} al restaurar una tabla.
+     */
+    static final class SessionState {
+        private final Connection conn;
+        private final boolean autoCommit;
+        private final String catalog;
+        private String foreignKeyChecks;
+        private String uniqueChecks;
+        private String sqlMode;
+
+        SessionState(Connection conn) throws SQLException {
+            this.conn = conn;
+            this.autoCommit = conn.getAutoCommit();
+            this.catalog = conn.getCatalog();
+        }
+
+        void prepareForLoad(@NotNull String schema) throws SQLException {
+            try (Statement stmt = conn.createStatement()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT @@SESSION.foreign_key_checks, @@SESSION.unique_checks, @@SESSION.sql_mode")) {
+                    if (rs.next()) {
+                        foreignKeyChecks = rs.getString(1);
+                        uniqueChecks = rs.getString(2);
+                        sqlMode = rs.getString(3);
+                    }
+                }
+                String loadMode = sqlMode == null || sqlMode.isEmpty() ? "NO_AUTO_VALUE_ON_ZERO" : sqlMode + ",NO_AUTO_VALUE_ON_ZERO";
+                stmt.execute("SET SESSION foreign_key_checks = 0, unique_checks = 0, sql_mode = '" + loadMode.replace("'", "") + "'");
+            }
+            conn.setCatalog(schema);
+            conn.setAutoCommit(false);
+        }
+
+        void restoreChecks() throws SQLException {
+            if (foreignKeyChecks != null) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("SET SESSION foreign_key_checks = " + Integer.parseInt(foreignKeyChecks)
+                            + ", unique_checks = " + Integer.parseInt(uniqueChecks));
+                }
+            }
+        }
+
+        void restore() {
+            try {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                }
+                restoreChecks();
+                if (sqlMode != null) {
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute("SET SESSION sql_mode = '" + sqlMode.replace("'", "") + "'");
+                    }
+                }
+                conn.setAutoCommit(autoCommit);
+                if (catalog != null) {
+                    conn.setCatalog(catalog);
+                }
+            } catch (SQLException | RuntimeException e) {
+                logger.error("Error al restaurar el estado de una conexión de la restauración: {}", e.getMessage());
+            }
+        }
+    }
+}
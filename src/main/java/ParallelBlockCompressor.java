@@ -0,0 +1,254 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresor que divide el flujo en bloques independientes y los comprime en paralelo en un {@link ForkJoinPool}.
+ * Los bloques se escriben en orden en el canal de destino, así que el resultado no depende del número de hilos.
+ * <p>
+ * Formato: un preámbulo con el tamaño de bloque, una trama por bloque ({@code rawLength}, {@code packedLength},
+ * CRC32 de los datos sin comprimir y método, seguidos de los datos), una trama vacía que marca el final y un
+ * índice con la posición sin comprimir y la posición en el flujo de cada bloque, más el total de bytes.
+ * Cada bloque se comprime con Deflate sin envoltorio; si no reduce su tamaño se guarda sin comprimir.
+ * <p>
+ * Como mucho hay {@code 2 × paralelismo} bloques en vuelo, cada uno con buffers reutilizables, de modo que
+ * la memoria está acotada sea cual sea el tamaño del flujo. Las escrituras en el destino se hacen desde el
+ * hilo que llama, nunca desde los hilos del pool.
+ */
+public class ParallelBlockCompressor implements WritableByteChannel {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    static final int MAX_BLOCK_SIZE = 64 << 20;
+    static final int FRAME_HEADER_LENGTH = 13;
+    static final byte METHOD_STORED = 0;
+    static final byte METHOD_DEFLATE = 1;
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    private final WritableByteChannel target;
+    private final ForkJoinPool pool;
+    private final int blockSize;
+    private final int window;
+    private final ArrayDeque<CompletableFuture<Block>> pending = new ArrayDeque<>();
+    private final ArrayDeque<Block> free = new ArrayDeque<>();
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+    private int allocatedBlocks;
+    private Block current;
+    private long[] rawOffsets = new long[64];
+    private long[] frameOffsets = new long[64];
+    private int blockCount;
+    private long rawOffset;
+    private long frameOffset;
+    private boolean open = true;
+
+    public ParallelBlockCompressor(@NotNull WritableByteChannel target) throws IOException {
+        this(target, DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Crea el compresor y escribe el preámbulo en el destino.
+     *
+     * @param target    el canal donde se escriben los bloques comprimidos
+     * @param blockSize el tamaño de los bloques sin comprimir
+     * @param pool      el pool donde se comprimen los bloques
+     * @throws IOException si no se puede escribir el preámbulo
+     */
+    public ParallelBlockCompressor(@NotNull WritableByteChannel target, int blockSize, @NotNull ForkJoinPool pool) throws IOException {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Tamaño de bloque no válido: " + blockSize);
+        }
+        this.target = target;
+        this.pool = pool;
+        this.blockSize = blockSize;
+        this.window = Math.max(2, pool.getParallelism() * 2);
+        this.current = takeBlock();
+        ByteBuffer preamble = ByteBuffer.allocate(Integer.BYTES).putInt(blockSize);
+        preamble.flip();
+        writeFully(preamble);
+        frameOffset = Integer.BYTES;
+    }
+
+    @Override
+    public int write(@NotNull ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            int length = Math.min(src.remaining(), blockSize - current.rawLength);
+            src.get(current.raw, current.rawLength, length);
+            current.rawLength += length;
+            if (current.rawLength == blockSize) {
+                submit(current);
+                current = takeBlock();
+            }
+        }
+        return written;
+    }
+
+    private void submit(@NotNull Block block) throws IOException {
+        pending.addLast(CompletableFuture.supplyAsync(() -> block.compress(), pool));
+        while (pending.size() >= window) {
+            writeOldest();
+        }
+    }
+
+    @NotNull
+    private Block takeBlock() throws IOException {
+        while (free.isEmpty() && allocatedBlocks > window) {
+            writeOldest();
+        }
+        if (free.isEmpty()) {
+            allocatedBlocks++;
+            return new Block(blockSize);
+        }
+        Block block = free.pop();
+        block.rawLength = 0;
+        return block;
+    }
+
+    private void writeOldest() throws IOException {
+        Block block = await(pending.removeFirst());
+        if (blockCount == rawOffsets.length) {
+            rawOffsets = Arrays.copyOf(rawOffsets, blockCount * 2);
+            frameOffsets = Arrays.copyOf(frameOffsets, blockCount * 2);
+        }
+        rawOffsets[blockCount] = rawOffset;
+        frameOffsets[blockCount] = frameOffset;
+        blockCount++;
+
+        writeFrameHeader(block.rawLength, block.packedLength, block.crc, block.method);
+        writeFully(ByteBuffer.wrap(block.packed, 0, block.packedLength));
+        rawOffset += block.rawLength;
+        frameOffset += FRAME_HEADER_LENGTH + block.packedLength;
+        free.push(block);
+    }
+
+    private void writeFrameHeader(int rawLength, int packedLength, int crc, byte method) throws IOException {
+        frameHeader.clear();
+        frameHeader.putInt(rawLength).putInt(packedLength).putInt(crc).put(method);
+        frameHeader.flip();
+        writeFully(frameHeader);
+    }
+
+    private void writeFully(@NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    @NotNull
+    static <T> T await(@NotNull CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Error al procesar un bloque: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Comprime el último bloque, escribe los pendientes, la marca de final y el índice de bloques.
+     * No cierra el canal de destino.
+     *
+     * @throws IOException si ocurre un error al comprimir o escribir
+     */
+    public void finish() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        if (current.rawLength > 0) {
+            pending.addLast(CompletableFuture.supplyAsync(current::compress, pool));
+        }
+        while (!pending.isEmpty()) {
+            writeOldest();
+        }
+        writeFrameHeader(0, 0, 0, METHOD_STORED);
+
+        ByteBuffer index = ByteBuffer.allocate(Integer.BYTES + blockCount * 2 * Long.BYTES + Long.BYTES);
+        index.putInt(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            index.putLong(rawOffsets[i]).putLong(frameOffsets[i]);
+        }
+        index.putLong(rawOffset);
+        index.flip();
+        writeFully(index);
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Descarta los bloques pendientes sin escribirlos. Para completar el flujo se debe llamar antes a {@link #finish()}.
+     */
+    @Override
+    public void close() {
+        open = false;
+        for (CompletableFuture<Block> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Un bloque con sus buffers reutilizables: datos sin comprimir y datos comprimidos.
+     */
+    private static final class Block {
+        private final byte[] raw;
+        private final byte[] packed;
+        private int rawLength;
+        private int packedLength;
+        private int crc;
+        private byte method;
+
+        private Block(int blockSize) {
+            this.raw = new byte[blockSize];
+            this.packed = new byte[blockSize];
+        }
+
+        @NotNull
+        private Block compress() {
+            CRC32 checksum = new CRC32();
+            checksum.update(raw, 0, rawLength);
+            crc = (int) checksum.getValue();
+
+            Deflater deflater = DEFLATERS.get();
+            deflater.reset();
+            deflater.setInput(raw, 0, rawLength);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished() && length < packed.length) {
+                length += deflater.deflate(packed, length, packed.length - length);
+            }
+            if (deflater.finished() && length < rawLength) {
+                method = METHOD_DEFLATE;
+                packedLength = length;
+            } else {
+                // El bloque no se puede comprimir; se guarda tal cual
+                method = METHOD_STORED;
+                System.arraycopy(raw, 0, packed, 0, rawLength);
+                packedLength = rawLength;
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Descompresor del formato de {@link ParallelBlockCompressor}.
+ * Las tramas se leen en orden desde el hilo que llama y cada bloque se descomprime y verifica con su CRC32
+ * en un {@link ForkJoinPool}, con una ventana acotada de bloques en vuelo. Al llegar a la marca de final se
+ * comprueba que el índice coincide con los bloques leídos y que no quedan datos detrás.
+ */
+public class ParallelBlockDecompressor implements ReadableByteChannel {
+
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final ReadableByteChannel source;
+    private final ForkJoinPool pool;
+    private final int blockSize;
+    private final int window;
+    private final ArrayDeque<CompletableFuture<Block>> pending = new ArrayDeque<>();
+    private final ArrayDeque<Block> free = new ArrayDeque<>();
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(ParallelBlockCompressor.FRAME_HEADER_LENGTH);
+    private Block current;
+    private long[] rawOffsets = new long[64];
+    private long[] frameOffsets = new long[64];
+    private int blockCount;
+    private long rawOffset;
+    private long frameOffset;
+    private boolean endOfFrames;
+    private boolean open = true;
+
+    public ParallelBlockDecompressor(@NotNull ReadableByteChannel source) throws IOException {
+        this(source, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Crea el descompresor y lee el preámbulo del flujo.
+     *
+     * @param source el canal con los bloques comprimidos
+     * @param pool   el pool donde se descomprimen los bloques
+     * @throws IOException si el preámbulo no es válido
+     */
+    public ParallelBlockDecompressor(@NotNull ReadableByteChannel source, @NotNull ForkJoinPool pool) throws IOException {
+        this.source = source;
+        this.pool = pool;
+        this.window = Math.max(2, pool.getParallelism() * 2);
+        ByteBuffer preamble = ByteBuffer.allocate(Integer.BYTES);
+        readFully(preamble);
+        blockSize = preamble.flip().getInt();
+        if (blockSize <= 0 || blockSize > ParallelBlockCompressor.MAX_BLOCK_SIZE) {
+            throw new IOException("Tamaño de bloque no válido en el flujo: " + blockSize);
+        }
+        frameOffset = Integer.BYTES;
+    }
+
+    @Override
+    public int read(@NotNull ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        while (current == null || current.position == current.rawLength) {
+            if (current != null) {
+                free.push(current);
+                current = null;
+            }
+            while (!endOfFrames && pending.size() < window) {
+                readFrame();
+            }
+            if (pending.isEmpty()) {
+                return -1;
+            }
+            current = ParallelBlockCompressor.await(pending.removeFirst());
+        }
+        int length = Math.min(dst.remaining(), current.rawLength - current.position);
+        dst.put(current.raw, current.position, length);
+        current.position += length;
+        return length;
+    }
+
+    private void readFrame() throws IOException {
+        frameHeader.clear();
+        readFully(frameHeader);
+        frameHeader.flip();
+        int rawLength = frameHeader.getInt();
+        int packedLength = frameHeader.getInt();
+        int crc = frameHeader.getInt();
+        byte method = frameHeader.get();
+        if (rawLength == 0 && packedLength == 0) {
+            endOfFrames = true;
+            verifyIndex();
+            return;
+        }
+        if (rawLength <= 0 || rawLength > blockSize || packedLength <= 0 || packedLength > blockSize
+                || (method != ParallelBlockCompressor.METHOD_DEFLATE && method != ParallelBlockCompressor.METHOD_STORED)) {
+            throw new IOException("Trama de bloque no válida en la posición " + frameOffset);
+        }
+        if (blockCount == rawOffsets.length) {
+            rawOffsets = Arrays.copyOf(rawOffsets, blockCount * 2);
+            frameOffsets = Arrays.copyOf(frameOffsets, blockCount * 2);
+        }
+        rawOffsets[blockCount] = rawOffset;
+        frameOffsets[blockCount] = frameOffset;
+        blockCount++;
+        rawOffset += rawLength;
+        frameOffset += ParallelBlockCompressor.FRAME_HEADER_LENGTH + packedLength;
+
+        Block block = free.isEmpty() ? new Block(blockSize) : free.pop();
+        block.rawLength = rawLength;
+        block.packedLength = packedLength;
+        block.crc = crc;
+        block.method = method;
+        block.position = 0;
+        readFully(ByteBuffer.wrap(block.packed, 0, packedLength));
+        pending.addLast(CompletableFuture.supplyAsync(block::decompress, pool));
+    }
+
+    private void verifyIndex() throws IOException {
+        ByteBuffer count = ByteBuffer.allocate(Integer.BYTES);
+        readFully(count);
+        if (count.flip().getInt() != blockCount) {
+            throw new IOException("El índice de bloques no coincide con los bloques leídos");
+        }
+        ByteBuffer entry = ByteBuffer.allocate(2 * Long.BYTES);
+        for (int i = 0; i < blockCount; i++) {
+            entry.clear();
+            readFully(entry);
+            entry.flip();
+            if (entry.getLong() != rawOffsets[i] || entry.getLong() != frameOffsets[i]) {
+                throw new IOException("El índice de bloques no coincide en el bloque " + i);
+            }
+        }
+        ByteBuffer total = ByteBuffer.allocate(Long.BYTES + 1);
+        total.limit(Long.BYTES);
+        readFully(total);
+        if (total.flip().getLong() != rawOffset) {
+            throw new IOException("El tamaño total del índice no coincide con los datos leídos");
+        }
+        total.clear();
+        if (source.read(total) > 0) {
+            throw new IOException("Datos inesperados tras el índice de bloques");
+        }
+    }
+
+    private void readFully(@NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) < 0) {
+                throw new IOException("Flujo de bloques incompleto");
+            }
+        }
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Descarta los bloques pendientes. No cierra el canal de origen.
+     */
+    @Override
+    public void close() {
+        open = false;
+        for (CompletableFuture<Block> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+    }
+
+    private static final class Block {
+        private final byte[] raw;
+        private final byte[] packed;
+        private int rawLength;
+        private int packedLength;
+        private int crc;
+        private byte method;
+        private int position;
+
+        private Block(int blockSize) {
+            this.raw = new byte[blockSize];
+            this.packed = new byte[blockSize];
+        }
+
+        @NotNull
+        private Block decompress() {
+            try {
+                if (method == ParallelBlockCompressor.METHOD_STORED) {
+                    if (packedLength != rawLength) {
+                        throw new IOException("Bloque sin comprimir con longitud incorrecta");
+                    }
+                    System.arraycopy(packed, 0, raw, 0, rawLength);
+                } else {
+                    inflate();
+                }
+                CRC32 checksum = new CRC32();
+                checksum.update(raw, 0, rawLength);
+                if ((int) checksum.getValue() != crc) {
+                    throw new IOException("El CRC32 de un bloque no coincide: el flujo está dañado");
+                }
+                return this;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void inflate() throws IOException {
+            Inflater inflater = INFLATERS.get();
+            inflater.reset();
+            inflater.setInput(packed, 0, packedLength);
+            int length = 0;
+            try {
+                while (length < rawLength) {
+                    int inflated = inflater.inflate(raw, length, rawLength - length);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Datos comprimidos no válidos en un bloque: " + e.getMessage(), e);
+            }
+            if (length != rawLength) {
+                throw new IOException("Un bloque descomprime " + length + " bytes y se esperaban " + rawLength);
+            }
+        }
+    }
+}
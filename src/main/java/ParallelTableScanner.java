@@ -0,0 +1,576 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Recorre una tabla dividiéndola en rangos de una columna numérica que se leen a la vez por varias conexiones.
+ * <p>
+ * La columna de división es la indicada con {@link #setSplitColumn} o, si no se indica, la clave primaria cuando
+ * tiene una sola columna entera. Los límites de los rangos se calculan con el mínimo y el máximo de la columna o,
+ * si se pide con {@link #setSampleSize}, con los cuantiles de una muestra aleatoria, que reparten mejor las filas
+ * cuando los valores no están distribuidos de forma uniforme. El primer y el último rango quedan abiertos, así que
+ * ninguna fila queda fuera aunque la tabla cambie entre el cálculo de los límites y la lectura.
+ * <p>
+ * Cada rango se lee con una consulta en streaming y sus filas pasan a colas acotadas, de modo que la memoria
+ * usada no depende del tamaño de la tabla. Las filas se devuelven en un único {@link Stream}: sin orden, en el
+ * orden en que llegan, o, con {@link #setOrdered}, ordenadas por la columna de división. Cada rango se lee en su
+ * propia consulta, por lo que si la tabla se modifica durante el recorrido unos rangos pueden ver los cambios y
+ * otros no.
+ */
+public class ParallelTableScanner {
+
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_PARTITIONS_PER_WORKER = 4;
+    public static final int DEFAULT_QUEUE_BATCHES = 16;
+    private static final Logger logger = LoggerFactory.getLogger(ParallelTableScanner.class);
+    private static final int BATCH_ROWS = 256;
+    private static final long POLL_MILLIS = 100;
+    private static final long SHUTDOWN_SECONDS = 30;
+    private static final Object END = new Object();
+    private int workers = DEFAULT_WORKERS;
+    private int partitions;
+    private int queueBatches = DEFAULT_QUEUE_BATCHES;
+    private int sampleSize;
+    private String splitColumn;
+    private boolean ordered;
+
+    /**
+     * Establece el número de conexiones que leen rangos en paralelo.
+     *
+     * @param workers el número de conexiones, al menos 1
+     */
+    public void setWorkers(int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("El número de conexiones debe ser mayor que cero");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Establece el número de rangos en que se divide la tabla. Más rangos que conexiones reparten mejor el
+     * trabajo cuando unos rangos tienen más filas que otros.
+     *
+     * @param partitions el número de rangos, o 0 para usar {@link #DEFAULT_PARTITIONS_PER_WORKER} por conexión
+     */
+    public void setPartitions(int partitions) {
+        if (partitions < 0) {
+            throw new IllegalArgumentException("El número de rangos no puede ser negativo");
+        }
+        this.partitions = partitions;
+    }
+
+    /**
+     * Establece cuántos lotes de filas leídas puede acumular cada cola antes de que su conexión espere al consumidor.
+     *
+     * @param queueBatches el número de lotes, al menos 1
+     */
+    public void setQueueBatches(int queueBatches) {
+        if (queueBatches <= 0) {
+            throw new IllegalArgumentException("El tamaño de la cola debe ser mayor que cero");
+        }
+        this.queueBatches = queueBatches;
+    }
+
+    /**
+     * Establece el número aproximado de valores de la muestra con la que se calculan los límites de los rangos.
+     *
+     * @param sampleSize el tamaño de la muestra, o 0 para repartir el rango entre el mínimo y el máximo en partes iguales
+     */
+    public void setSampleSize(int sampleSize) {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("El tamaño de la muestra no puede ser negativo");
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Establece la columna numérica por la que se divide la tabla.
+     *
+     * @param splitColumn el nombre de la columna, o {@code null} para usar la clave primaria entera
+     */
+    public void setSplitColumn(@Nullable String splitColumn) {
+        this.splitColumn = splitColumn;
+    }
+
+    /**
+     * Indica si las filas se devuelven ordenadas por la columna de división. Sin orden, cada fila se entrega en
+     * cuanto llega de cualquier conexión; con orden, los rangos se entregan uno tras otro y las conexiones que van
+     * por delante esperan cuando su cola se llena.
+     *
+     * @param ordered verdadero para ordenar las filas por la columna de división
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * Abre las conexiones, calcula los rangos y empieza a leerlos. El Stream devuelto debe cerrarse, por ejemplo
+     * con try-with-resources, para liberar las conexiones si no se consume entero.
+     *
+     * @param dataSource  el origen de las conexiones, por ejemplo un {@link ConnectionPool}
+     * @param table       el nombre de la tabla, opcionalmente con la forma {@code esquema.tabla}
+     * @param columns     las columnas a leer
+     * @param whereClause una condición que deben cumplir las filas, o {@code null} para leer todas
+     * @return un Stream con las filas de todos los rangos
+     * @throws SQLException si la tabla o la columna de división no son válidas o no se pueden calcular los rangos
+     */
+    @NotNull
+    public Stream<Map<String, Object>> scan(@NotNull DataSource dataSource, @NotNull String table, @NotNull List<String> columns,
+                                            @Nullable String whereClause) throws SQLException {
+        int partitionCount = partitions > 0 ? partitions : workers * DEFAULT_PARTITIONS_PER_WORKER;
+        List<Connection> connections = new ArrayList<>();
+        try {
+            connections.add(dataSource.getConnection());
+            List<Partition> plan = plan(connections.get(0), table, columns, whereClause, partitionCount);
+            for (int i = 1; i < Math.min(workers, plan.size()); i++) {
+                connections.add(dataSource.getConnection());
+            }
+            Scan scan = new Scan(table, plan, connections);
+            scan.start();
+            return scan.stream();
+        } catch (SQLException | RuntimeException e) {
+            closeAll(connections);
+            throw e;
+        }
+    }
+
+    /**
+     * Elige la columna de división, calcula los límites y construye la consulta de cada rango.
+     */
+    @NotNull
+    private List<Partition> plan(@NotNull Connection conn, @NotNull String table, @NotNull List<String> columns,
+                                 @Nullable String whereClause, int partitionCount) throws SQLException {
+        SchemaCache.TableSchema schema = SchemaCache.lookup(conn, table);
+        if (schema == null) {
+            throw new SQLException("La tabla " + table + " no existe");
+        }
+        int dot = table.indexOf('.');
+        String fromClause = (dot > 0 ? LogicalBackupEngine.quote(table.substring(0, dot)) + "." : "") + LogicalBackupEngine.quote(schema.getName());
+        List<String> quoted = new ArrayList<>();
+        for (String column : columns) {
+            if (!schema.hasColumn(column)) {
+                throw new SQLException("La columna " + column + " no existe en la tabla " + table);
+            }
+            quoted.add(LogicalBackupEngine.quote(column));
+        }
+        String select = "SELECT " + String.join(", ", quoted) + " FROM " + fromClause;
+        String filter = whereClause == null || whereClause.trim().isEmpty() ? null : "(" + whereClause + ")";
+
+        String column = splitColumn;
+        boolean nullable = true;
+        if (column == null) {
+            List<String> keys = schema.getPrimaryKeys(conn);
+            if (keys.size() == 1 && LogicalBackupEngine.isIntegral(schema.getColumnType(keys.get(0)))) {
+                column = keys.get(0);
+                nullable = false;
+            }
+        } else if (!isNumeric(schema.getColumnType(column))) {
+            throw new SQLException("La columna " + column + " de la tabla " + table + " no existe o no es numérica");
+        }
+        if (column == null) {
+            logger.warn("La tabla {} no tiene una clave primaria entera de una sola columna; se leerá en un único rango", table);
+            return Collections.singletonList(new Partition(0, where(select, filter, null), null, null));
+        }
+
+        String quotedColumn = LogicalBackupEngine.quote(column);
+        boolean integral = LogicalBackupEngine.isIntegral(schema.getColumnType(column));
+        List<BigDecimal> bounds = sampleSize > 0
+                ? sampleBounds(conn, dot > 0 ? table.substring(0, dot) : conn.getCatalog(), schema.getName(), fromClause, quotedColumn, filter, partitionCount)
+                : evenBounds(conn, fromClause, quotedColumn, filter, partitionCount, integral);
+        String orderBy = ordered ? " ORDER BY " + quotedColumn : "";
+
+        List<Partition> plan = new ArrayList<>();
+        if (nullable) {
+            plan.add(new Partition(plan.size(), where(select, filter, quotedColumn + " IS NULL"), null, null));
+        }
+        for (int i = 0; i <= bounds.size(); i++) {
+            BigDecimal lower = i == 0 ? null : bounds.get(i - 1);
+            BigDecimal upper = i == bounds.size() ? null : bounds.get(i);
+            String condition;
+            if (lower == null && upper == null) {
+                condition = quotedColumn + " IS NOT NULL";
+            } else if (lower == null) {
+                condition = quotedColumn + " < ?";
+            } else if (upper == null) {
+                condition = quotedColumn + " >= ?";
+            } else {
+                condition = quotedColumn + " >= ? AND " + quotedColumn + " < ?";
+            }
+            plan.add(new Partition(plan.size(), where(select, filter, condition) + orderBy, lower, upper));
+        }
+        logger.info("Tabla {} dividida por {} en {} rango(s)", table, column, plan.size());
+        return plan;
+    }
+
+    @NotNull
+    private static String where(@NotNull String select, @Nullable String filter, @Nullable String condition) {
+        if (filter == null && condition == null) {
+            return select;
+        }
+        if (filter == null || condition == null) {
+            return select + " WHERE " + (filter == null ? condition : filter);
+        }
+        return select + " WHERE " + filter + " AND " + condition;
+    }
+
+    /**
+     * Reparte el intervalo entre el mínimo y el máximo de la columna en partes de la misma anchura.
+     */
+    @NotNull
+    private static List<BigDecimal> evenBounds(@NotNull Connection conn, @NotNull String fromClause, @NotNull String column,
+                                               @Nullable String filter, int partitionCount, boolean integral) throws SQLException {
+        BigDecimal min;
+        BigDecimal max;
+        String sql = where("SELECT MIN(" + column + "), MAX(" + column + ") FROM " + fromClause, filter, null);
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            if (!rs.next() || rs.getBigDecimal(1) == null) {
+                return Collections.emptyList();
+            }
+            min = rs.getBigDecimal(1);
+            max = rs.getBigDecimal(2);
+        }
+        BigDecimal width = max.subtract(min);
+        List<BigDecimal> bounds = new ArrayList<>();
+        for (int i = 1; i < partitionCount; i++) {
+            BigDecimal offset = width.multiply(BigDecimal.valueOf(i));
+            offset = integral
+                    ? offset.divide(BigDecimal.valueOf(partitionCount), 0, RoundingMode.CEILING)
+                    : offset.divide(BigDecimal.valueOf(partitionCount), MathContext.DECIMAL64);
+            addBound(bounds, min.add(offset));
+        }
+        return bounds;
+    }
+
+    /**
+     * Toma una muestra aleatoria de la columna y usa sus cuantiles como límites, de modo que cada rango tenga
+     * aproximadamente las mismas filas. La proporción de filas muestreadas se calcula con las filas estimadas
+     * de la tabla.
+     */
+    @NotNull
+    private List<BigDecimal> sampleBounds(@NotNull Connection conn, String catalog, @NotNull String tableName, @NotNull String fromClause,
+                                          @NotNull String column, @Nullable String filter, int partitionCount) throws SQLException {
+        long estimatedRows = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = COALESCE(?, DATABASE()) AND TABLE_NAME = ?")) {
+            pstmt.setString(1, catalog);
+            pstmt.setString(2, tableName);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    estimatedRows = rs.getLong(1);
+                }
+            }
+        }
+        double fraction = estimatedRows > sampleSize ? (double) sampleSize / estimatedRows : 1.0;
+        String sql = where("SELECT " + column + " FROM " + fromClause, filter, column + " IS NOT NULL AND RAND() < ?") + " LIMIT ?";
+        List<BigDecimal> sample = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setDouble(1, fraction);
+            pstmt.setLong(2, 2L * sampleSize);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    sample.add(rs.getBigDecimal(1));
+                }
+            }
+        }
+        Collections.sort(sample);
+        List<BigDecimal> bounds = new ArrayList<>();
+        for (int i = 1; i < partitionCount && !sample.isEmpty(); i++) {
+            addBound(bounds, sample.get((int) ((long) i * sample.size() / partitionCount)));
+        }
+        logger.info("Límites de {} calculados con una muestra de {} valor(es)", column, sample.size());
+        return bounds;
+    }
+
+    private static void addBound(@NotNull List<BigDecimal> bounds, @NotNull BigDecimal bound) {
+        if (bounds.isEmpty() || bound.compareTo(bounds.get(bounds.size() - 1)) > 0) {
+            bounds.add(bound);
+        }
+    }
+
+    private static boolean isNumeric(Integer sqlType) {
+        return LogicalBackupEngine.isIntegral(sqlType) || (sqlType != null && (sqlType == Types.DECIMAL || sqlType == Types.NUMERIC
+                || sqlType == Types.REAL || sqlType == Types.FLOAT || sqlType == Types.DOUBLE));
+    }
+
+    private static void closeAll(@NotNull List<Connection> connections) {
+        for (Connection conn : connections) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                logger.error("Error al cerrar una conexión del recorrido paralelo: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Un rango de la tabla con su consulta y sus límites, el inferior incluido y el superior excluido.
+     */
+    private static class Partition {
+        private final int index;
+        private final String sql;
+        private final BigDecimal lower;
+        private final BigDecimal upper;
+
+        private Partition(int index, String sql, BigDecimal lower, BigDecimal upper) {
+            this.index = index;
+            this.sql = sql;
+            this.lower = lower;
+            this.upper = upper;
+        }
+    }
+
+    /**
+     * El primer error de lectura de un rango, que el consumidor comprueba mientras espera filas.
+     */
+    private static class Failure {
+        private final Partition partition;
+        private final Exception cause;
+
+        private Failure(Partition partition, Exception cause) {
+            this.partition = partition;
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * Un recorrido en curso: los hilos leen los rangos en orden y el consumidor recibe los lotes por las colas,
+     * una por rango si el recorrido es ordenado o una compartida si no lo es.
+     */
+    private class Scan implements Iterator<Map<String, Object>>, AutoCloseable {
+        private final String table;
+        private final List<Partition> plan;
+        private final List<Connection> connections;
+        private final BlockingQueue<Connection> idle;
+        private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+        private final Set<Statement> running = ConcurrentHashMap.newKeySet();
+        private final AtomicLong rows = new AtomicLong();
+        private final long start = System.nanoTime();
+        private final ExecutorService executor;
+        private volatile boolean closed;
+        private volatile Failure failure;
+        private Iterator<Map<String, Object>> batch = Collections.emptyIterator();
+        private int current;
+        private int finished;
+
+        private Scan(@NotNull String table, @NotNull List<Partition> plan, @NotNull List<Connection> connections) {
+            this.table = table;
+            this.plan = plan;
+            this.connections = connections;
+            this.idle = new ArrayBlockingQueue<>(connections.size(), false, connections);
+            if (ordered) {
+                for (int i = 0; i < plan.size(); i++) {
+                    queues.add(new ArrayBlockingQueue<>(queueBatches));
+                }
+            } else {
+                queues.add(new ArrayBlockingQueue<>(queueBatches * connections.size()));
+            }
+            this.executor = Executors.newFixedThreadPool(connections.size(), runnable -> {
+                Thread thread = new Thread(runnable, "parallel-scan");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        /**
+         * Encola la lectura de todos los rangos en orden; cada hilo toma el siguiente al terminar el suyo, así que
+         * en un recorrido ordenado el rango que espera el consumidor siempre está leyéndose o ya leído.
+         */
+        private void start() {
+            for (Partition partition : plan) {
+                executor.execute(() -> read(partition));
+            }
+        }
+
+        private void read(@NotNull Partition partition) {
+            BlockingQueue<Object> queue = queues.get(ordered ? partition.index : 0);
+            Connection conn = null;
+            try {
+                conn = idle.take();
+                if (!closed) {
+                    readPartition(conn, partition, queue);
+                }
+                put(queue, END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (SQLException | RuntimeException e) {
+                if (!closed) {
+                    logger.error("Error al leer el rango {} de la tabla {}: {}", partition.index, table, e.getMessage());
+                    if (failure == null) {
+                        failure = new Failure(partition, e);
+                    }
+                }
+            } finally {
+                if (conn != null) {
+                    idle.offer(conn);
+                }
+            }
+        }
+
+        private void readPartition(@NotNull Connection conn, @NotNull Partition partition, @NotNull BlockingQueue<Object> queue)
+                throws SQLException, InterruptedException {
+            try (PreparedStatement pstmt = DataBaseManipulation.prepareStreamingStatement(conn, partition.sql)) {
+                running.add(pstmt);
+                try {
+                    int index = 1;
+                    if (partition.lower != null) {
+                        pstmt.setBigDecimal(index++, partition.lower);
+                    }
+                    if (partition.upper != null) {
+                        pstmt.setBigDecimal(index, partition.upper);
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        ResultSetMetaData md = rs.getMetaData();
+                        String[] names = new String[md.getColumnCount()];
+                        for (int i = 0; i < names.length; i++) {
+                            names[i] = md.getColumnName(i + 1);
+                        }
+                        List<Map<String, Object>> rowsRead = new ArrayList<>(BATCH_ROWS);
+                        while (!closed && rs.next()) {
+                            Map<String, Object> row = new HashMap<>(names.length * 2);
+                            for (int i = 0; i < names.length; i++) {
+                                row.put(names[i], rs.getObject(i + 1));
+                            }
+                            rowsRead.add(row);
+                            if (rowsRead.size() == BATCH_ROWS) {
+                                put(queue, rowsRead);
+                                rowsRead = new ArrayList<>(BATCH_ROWS);
+                            }
+                        }
+                        if (!rowsRead.isEmpty()) {
+                            put(queue, rowsRead);
+                        }
+                    }
+                } finally {
+                    running.remove(pstmt);
+                }
+            }
+        }
+
+        /**
+         * Deja un elemento en la cola esperando a que haya sitio, salvo que el recorrido se cierre mientras tanto.
+         */
+        private void put(@NotNull BlockingQueue<Object> queue, @NotNull Object item) throws InterruptedException {
+            while (!closed) {
+                if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!batch.hasNext()) {
+                if (closed) {
+                    return false;
+                }
+                if (ordered ? current == plan.size() : finished == plan.size()) {
+                    logger.info("Recorrido paralelo de la tabla {} terminado: {} fila(s) en {} rango(s), {} ms", table, rows.get(),
+                            plan.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    close();
+                    return false;
+                }
+                Object item;
+                try {
+                    item = queues.get(ordered ? current : 0).poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new RuntimeException("El recorrido paralelo de la tabla " + table + " fue interrumpido", e);
+                }
+                if (item == null) {
+                    Failure error = failure;
+                    if (error != null) {
+                        close();
+                        throw new RuntimeException("Error al leer el rango " + error.partition.index + " de la tabla " + table + ": "
+                                + error.cause.getMessage(), error.cause);
+                    }
+                } else if (item == END) {
+                    current++;
+                    finished++;
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<Map<String, Object>> rowsRead = (List<Map<String, Object>>) item;
+                    rows.addAndGet(rowsRead.size());
+                    batch = rowsRead.iterator();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No quedan filas en el recorrido");
+            }
+            return batch.next();
+        }
+
+        @NotNull
+        private Stream<Map<String, Object>> stream() {
+            int characteristics = ordered ? Spliterator.ORDERED | Spliterator.NONNULL : Spliterator.NONNULL;
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, characteristics), false).onClose(this::close);
+        }
+
+        /**
+         * Cancela las consultas en curso, espera a que los hilos terminen y cierra las conexiones. Se puede llamar
+         * más de una vez.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            batch = Collections.emptyIterator();
+            for (Statement stmt : running) {
+                try {
+                    stmt.cancel();
+                } catch (SQLException e) {
+                    logger.warn("Error al cancelar una consulta del recorrido paralelo: {}", e.getMessage());
+                }
+            }
+            executor.shutdownNow();
+            try {
+                if (!executor.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+                    logger.warn("Los hilos del recorrido paralelo de la tabla {} no terminaron a tiempo", table);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            closeAll(connections);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caché LRU de sentencias preparadas por conexión.
+ * Cada conexión guarda como mucho {@code maxPerConnection} sentencias indexadas por su texto SQL; al superarse
+ * el límite se cierra la usada hace más tiempo. Las sentencias obtenidas de la caché no deben cerrarse:
+ * se cierran al ser desalojadas, al llamar a {@link #closeConnection(Connection)} o al detectarse que su
+ * conexión está cerrada. Igual que las conexiones JDBC, una misma conexión no debe usarse desde varios hilos a la vez.
+ */
+public class PreparedStatementCache {
+
+    public static final int DEFAULT_MAX_STATEMENTS_PER_CONNECTION = 64;
+    private static final Logger logger = LoggerFactory.getLogger(PreparedStatementCache.class);
+    private final int maxPerConnection;
+    private final Map<Connection, StatementLru> caches = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PreparedStatementCache() {
+        this(DEFAULT_MAX_STATEMENTS_PER_CONNECTION);
+    }
+
+    public PreparedStatementCache(int maxPerConnection) {
+        if (maxPerConnection <= 0) {
+            throw new IllegalArgumentException("El tamaño de la caché debe ser mayor que cero");
+        }
+        this.maxPerConnection = maxPerConnection;
+    }
+
+    /**
+     * Devuelve la sentencia preparada para el SQL indicado, reutilizando la de la caché si existe.
+     *
+     * @param conn la conexión a la base de datos
+     * @param sql  el texto SQL de la sentencia
+     * @return la sentencia preparada, con los parámetros sin asignar
+     * @throws SQLException si ocurre un error al preparar la sentencia
+     */
+    @NotNull
+    public PreparedStatement prepare(@NotNull Connection conn, @NotNull String sql) throws SQLException {
+        conn = physical(conn);
+        StatementLru lru = caches.get(conn);
+        if (lru != null) {
+            synchronized (lru) {
+                PreparedStatement cached = lru.get(sql);
+                if (cached != null && !cached.isClosed()) {
+                    hits.increment();
+                    cached.clearParameters();
+                    return cached;
+                }
+            }
+        }
+
+        misses.increment();
+        purgeClosedConnections();
+        PreparedStatement pstmt = conn.prepareStatement(sql);
+        lru = caches.computeIfAbsent(conn, c -> new StatementLru());
+        synchronized (lru) {
+            PreparedStatement previous = lru.put(sql, pstmt);
+            if (previous != null && previous != pstmt) {
+                closeQuietly(previous);
+            }
+        }
+        return pstmt;
+    }
+
+    /**
+     * Saca de la caché y cierra la sentencia de un SQL, por ejemplo tras un error al ejecutarla.
+     *
+     * @param conn la conexión a la base de datos
+     * @param sql  el texto SQL de la sentencia
+     */
+    public void invalidate(@NotNull Connection conn, @NotNull String sql) {
+        StatementLru lru = caches.get(physical(conn));
+        if (lru != null) {
+            PreparedStatement removed;
+            synchronized (lru) {
+                removed = lru.remove(sql);
+            }
+            if (removed != null) {
+                closeQuietly(removed);
+            }
+        }
+    }
+
+    /**
+     * Cierra todas las sentencias en caché de una conexión. Debe llamarse antes de cerrar la conexión.
+     *
+     * @param conn la conexión a la base de datos
+     */
+    public void closeConnection(@NotNull Connection conn) {
+        StatementLru lru = caches.remove(physical(conn));
+        if (lru != null) {
+            List<PreparedStatement> statements;
+            synchronized (lru) {
+                statements = new ArrayList<>(lru.values());
+                lru.clear();
+            }
+            statements.forEach(PreparedStatementCache::closeQuietly);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Devuelve el número de sentencias en caché para una conexión.
+     *
+     * @param conn la conexión a la base de datos
+     * @return el número de sentencias en caché
+     */
+    public int size(@NotNull Connection conn) {
+        StatementLru lru = caches.get(physical(conn));
+        if (lru == null) {
+            return 0;
+        }
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+
+    /**
+     * Descarta las entradas de conexiones que ya se cerraron; el driver cierra sus sentencias con ellas.
+     */
+    private void purgeClosedConnections() {
+        caches.keySet().removeIf(conn -> {
+            try {
+                return conn.isClosed();
+            } catch (SQLException e) {
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Devuelve la conexión física que hay detrás de un envoltorio, como los préstamos de {@link ConnectionPool},
+     * para que las sentencias se compartan entre préstamos sucesivos de la misma conexión.
+     */
+    @NotNull
+    private static Connection physical(@NotNull Connection conn) {
+        try {
+            return conn.isWrapperFor(Connection.class) ? conn.unwrap(Connection.class) : conn;
+        } catch (SQLException e) {
+            return conn;
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement pstmt) {
+        try {
+            pstmt.close();
+        } catch (SQLException e) {
+            logger.warn("Error al cerrar una sentencia en caché: {}", e.getMessage());
+        }
+    }
+
+    private final class StatementLru extends LinkedHashMap<String, PreparedStatement> {
+        private static final long serialVersionUID = 1L;
+
+        private StatementLru() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > maxPerConnection) {
+                evictions.increment();
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Base64;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Exporta las filas de un {@link ResultSet} a un archivo CSV o JSON Lines sin acumularlas en memoria.
+ * Cada fila se escribe como texto en un búfer reutilizable, se codifica en UTF-8 en un {@link ByteBuffer} directo
+ * y se escribe en un {@link FileChannel}; con compresión, el mismo búfer pasa por un {@link Deflater} a otro búfer
+ * directo y el archivo se escribe en formato gzip. La memoria usada es la de los búferes, sea cual sea el tamaño
+ * del informe.
+ * <p>
+ * El CSV sigue RFC 4180, con una cabecera con los nombres de las columnas y NULL como campo vacío. En JSON Lines
+ * cada fila es un objeto en una línea; los números y los valores lógicos se escriben como tales y los binarios
+ * en Base64. El archivo se escribe en uno temporal junto al destino y se mueve a su nombre final al terminar.
+ */
+public class ReportExporter {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(ReportExporter.class);
+    private static final int TEXT_FLUSH_THRESHOLD = 32 * 1024;
+    private static final byte[] NO_INPUT = new byte[0];
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private final Format format;
+    private boolean compressed;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    /**
+     * El formato del archivo exportado.
+     */
+    public enum Format {
+        CSV,
+        JSON_LINES
+    }
+
+    public ReportExporter(@NotNull Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Indica si el archivo se comprime con gzip mientras se escribe.
+     *
+     * @param compressed verdadero para comprimir
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Establece el tamaño de los búferes directos de salida.
+     *
+     * @param bufferSize el tamaño en bytes, al menos 4 KiB
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 4096) {
+            throw new IllegalArgumentException("El tamaño del búfer debe ser de al menos 4096 bytes");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Escribe todas las filas restantes del ResultSet en un archivo. El ResultSet no se cierra.
+     *
+     * @param rs     las filas del informe; conviene que sea de solo avance y reciba las filas por partes
+     * @param target el archivo a crear
+     * @return el número de filas escritas
+     * @throws SQLException si ocurre un error al leer las filas
+     * @throws IOException  si ocurre un error al escribir el archivo
+     */
+    public long export(@NotNull ResultSet rs, @NotNull Path target) throws SQLException, IOException {
+        long start = System.nanoTime();
+        ResultSetMetaData md = rs.getMetaData();
+        int columns = md.getColumnCount();
+        String[] names = new String[columns];
+        int[] types = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            names[i] = md.getColumnLabel(i + 1);
+            types[i] = md.getColumnType(i + 1);
+        }
+
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        long rows = 0;
+        long bytes;
+        try (ChannelSink sink = new ChannelSink(FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE), bufferSize, compressed)) {
+            StringBuilder text = new StringBuilder(TEXT_FLUSH_THRESHOLD * 2);
+            String[] jsonNames = new String[columns];
+            if (format == Format.CSV) {
+                for (int i = 0; i < columns; i++) {
+                    if (i > 0) {
+                        text.append(',');
+                    }
+                    appendCsv(text, names[i]);
+                }
+                text.append("\r\n");
+            } else {
+                for (int i = 0; i < columns; i++) {
+                    StringBuilder name = new StringBuilder();
+                    appendJsonString(name, names[i]);
+                    jsonNames[i] = name.append(':').toString();
+                }
+            }
+            while (rs.next()) {
+                if (format == Format.CSV) {
+                    appendCsvRow(text, rs, types);
+                } else {
+                    appendJsonRow(text, rs, types, jsonNames);
+                }
+                rows++;
+                if (text.length() >= TEXT_FLUSH_THRESHOLD) {
+                    sink.write(text);
+                }
+            }
+            sink.write(text);
+            bytes = sink.finish();
+        } catch (IOException | SQLException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("Informe {} exportado: {} fila(s), {} bytes sin comprimir, {} bytes escritos, en {} s", target, rows, bytes,
+                Files.size(target), String.format("%.2f", seconds));
+        return rows;
+    }
+
+    private static void appendCsvRow(@NotNull StringBuilder out, @NotNull ResultSet rs, @NotNull int[] types) throws SQLException {
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            if (isBinary(types[i])) {
+                byte[] value = rs.getBytes(i + 1);
+                if (value != null) {
+                    out.append(Base64.getEncoder().encodeToString(value));
+                }
+            } else {
+                String value = rs.getString(i + 1);
+                if (value != null) {
+                    appendCsv(out, value);
+                }
+            }
+        }
+        out.append("\r\n");
+    }
+
+    private static void appendCsv(@NotNull StringBuilder out, @NotNull String value) {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.append(value);
+            return;
+        }
+        // Una cadena vacía va entre comillas para distinguirla de NULL
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    private static void appendJsonRow(@NotNull StringBuilder out, @NotNull ResultSet rs, @NotNull int[] types, @NotNull String[] names) throws SQLException {
+        out.append('{');
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(names[i]);
+            int column = i + 1;
+            switch (types[i]) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    String number = rs.getString(column);
+                    out.append(number == null ? "null" : number);
+                    break;
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    double real = rs.getDouble(column);
+                    out.append(rs.wasNull() || Double.isNaN(real) || Double.isInfinite(real) ? "null" : Double.toString(real));
+                    break;
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    boolean flag = rs.getBoolean(column);
+                    out.append(rs.wasNull() ? "null" : String.valueOf(flag));
+                    break;
+                default:
+                    if (isBinary(types[i])) {
+                        byte[] value = rs.getBytes(column);
+                        out.append(value == null ? "null" : '"' + Base64.getEncoder().encodeToString(value) + '"');
+                    } else {
+                        String value = rs.getString(column);
+                        if (value == null) {
+                            out.append("null");
+                        } else {
+                            appendJsonString(out, value);
+                        }
+                    }
+            }
+        }
+        out.append("}\n");
+    }
+
+    private static void appendJsonString(@NotNull StringBuilder out, @NotNull String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private static boolean isBinary(int sqlType) {
+        return sqlType == Types.BINARY || sqlType == Types.VARBINARY || sqlType == Types.LONGVARBINARY || sqlType == Types.BLOB;
+    }
+
+    /**
+     * Codifica texto en un búfer directo y lo escribe en el canal, comprimiéndolo con Deflate en formato gzip si
+     * se pidió. Los dos búferes se reutilizan durante toda la exportación.
+     */
+    private static final class ChannelSink implements AutoCloseable {
+        private final FileChannel channel;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer encoded;
+        private final Deflater deflater;
+        private final ByteBuffer deflated;
+        private final CRC32 crc;
+        private long bytes;
+
+        private ChannelSink(FileChannel channel, int bufferSize, boolean compressed) throws IOException {
+            this.channel = channel;
+            this.encoded = ByteBuffer.allocateDirect(bufferSize);
+            this.deflater = compressed ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+            this.deflated = compressed ? ByteBuffer.allocateDirect(bufferSize) : null;
+            this.crc = compressed ? new CRC32() : null;
+            if (compressed) {
+                writeFully(ByteBuffer.wrap(GZIP_HEADER));
+            }
+        }
+
+        /**
+         * Codifica el texto acumulado y lo vacía. Si termina en medio de un par sustituto, ese carácter se conserva
+         * para la siguiente llamada.
+         */
+        private void write(@NotNull StringBuilder text) throws IOException {
+            CharBuffer in = CharBuffer.wrap(text);
+            while (true) {
+                CoderResult result = encoder.encode(in, encoded, false);
+                if (result.isOverflow()) {
+                    drain();
+                } else {
+                    break;
+                }
+            }
+            text.delete(0, in.position());
+        }
+
+        /**
+         * Escribe el contenido del búfer codificado, directamente o a través del compresor.
+         */
+        private void drain() throws IOException {
+            encoded.flip();
+            bytes += encoded.remaining();
+            if (deflater == null) {
+                writeFully(encoded);
+            } else {
+                crc.update(encoded.duplicate());
+                deflater.setInput(encoded);
+                while (!deflater.needsInput()) {
+                    deflate();
+                }
+                // El Deflater conserva la referencia al búfer; se suelta antes de volver a llenarlo
+                deflater.setInput(NO_INPUT);
+            }
+            encoded.clear();
+        }
+
+        private void deflate() throws IOException {
+            deflater.deflate(deflated);
+            if (!deflated.hasRemaining()) {
+                flushDeflated();
+            }
+        }
+
+        private void flushDeflated() throws IOException {
+            deflated.flip();
+            writeFully(deflated);
+            deflated.clear();
+        }
+
+        private void writeFully(@NotNull ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /**
+         * Vacía el codificador y, con compresión, termina el flujo Deflate y escribe el pie de gzip.
+         *
+         * @return los bytes escritos sin comprimir
+         */
+        private long finish() throws IOException {
+            encoder.encode(CharBuffer.allocate(0), encoded, true);
+            encoder.flush(encoded);
+            drain();
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate();
+                }
+                flushDeflated();
+                ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                trailer.putInt((int) crc.getValue()).putInt((int) bytes).flip();
+                writeFully(trailer);
+            }
+            channel.force(false);
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (deflater != null) {
+                deflater.end();
+            }
+            channel.close();
+        }
+    }
+}
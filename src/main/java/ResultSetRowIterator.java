@@ -0,0 +1,120 @@
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Recorre un ResultSet fila a fila sin materializarlo en memoria.
+ * Cada llamada a {@link #next()} lee una sola fila del cursor, de modo que el consumo de memoria
+ * no depende del número de filas devueltas. Al cerrarse libera el ResultSet y la sentencia que lo produjo.
+ */
+public class ResultSetRowIterator implements Iterator<Map<String, Object>>, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultSetRowIterator.class);
+    private final Statement statement;
+    private final ResultSet resultSet;
+    private final String[] columnNames;
+    private boolean hasNextRow;
+    private boolean advanced;
+    private boolean closed;
+
+    /**
+     * Crea un iterador sobre un ResultSet.
+     *
+     * @param statement la sentencia que produjo el ResultSet; se cierra junto con el iterador
+     * @param resultSet el ResultSet a recorrer
+     * @throws SQLException si no se pueden leer los metadatos del ResultSet
+     */
+    public ResultSetRowIterator(Statement statement, @NotNull ResultSet resultSet) throws SQLException {
+        this.statement = statement;
+        this.resultSet = resultSet;
+        ResultSetMetaData md = resultSet.getMetaData();
+        this.columnNames = new String[md.getColumnCount()];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = md.getColumnName(i + 1);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!advanced) {
+            try {
+                hasNextRow = resultSet.next();
+            } catch (SQLException e) {
+                close();
+                throw new RuntimeException("Error al leer la siguiente fila: " + e.getMessage(), e);
+            }
+            advanced = true;
+            if (!hasNextRow) {
+                close();
+            }
+        }
+        return hasNextRow;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No quedan filas en el ResultSet");
+        }
+        advanced = false;
+        Map<String, Object> row = new HashMap<>(columnNames.length * 2);
+        try {
+            for (int i = 0; i < columnNames.length; i++) {
+                row.put(columnNames[i], resultSet.getObject(i + 1));
+            }
+        } catch (SQLException e) {
+            close();
+            throw new RuntimeException("Error al leer la fila actual: " + e.getMessage(), e);
+        }
+        return row;
+    }
+
+    /**
+     * Devuelve un Stream secuencial respaldado por este iterador que lo cierra al cerrarse.
+     *
+     * @return un Stream de filas que debe cerrarse, por ejemplo con try-with-resources
+     */
+    public Stream<Map<String, Object>> stream() {
+        Spliterator<Map<String, Object>> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * Cierra el ResultSet y la sentencia. Se puede llamar más de una vez.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            resultSet.close();
+        } catch (SQLException e) {
+            logger.warn("Error al cerrar el ResultSet: {}", e.getMessage());
+        }
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                logger.warn("Error al cerrar la sentencia: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,472 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Resultado de una consulta almacenado por columnas.
+ * Los nombres de columna se guardan una sola vez en una cabecera compartida; los valores numéricos se guardan
+ * en arreglos primitivos con un mapa de bits para los nulos y las cadenas se codifican con un diccionario,
+ * de modo que cada valor repetido se almacena una sola vez. Las filas se exponen como vistas ligeras de solo
+ * lectura que implementan {@link Map}, compatibles con el formato que devolvía {@code resultSetToList}.
+ */
+public class ResultTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private final String[] columnNames;
+    private final Map<String, Integer> columnIndex;
+    private final Column[] columns;
+    private int rowCount;
+
+    private ResultTable(String[] columnNames, Column[] columns) {
+        this.columnNames = columnNames;
+        this.columns = columns;
+        this.columnIndex = new LinkedHashMap<>();
+        for (int i = 0; i < columnNames.length; i++) {
+            // Igual que con HashMap, si un nombre se repite prevalece la última columna
+            columnIndex.remove(columnNames[i]);
+            columnIndex.put(columnNames[i], i);
+        }
+    }
+
+    /**
+     * Lee todas las filas restantes de un ResultSet en una tabla por columnas.
+     *
+     * @param rs el ResultSet a leer
+     * @return la tabla con los resultados
+     * @throws SQLException si ocurre un error al acceder al ResultSet
+     */
+    @NotNull
+    public static ResultTable from(@NotNull ResultSet rs) throws SQLException {
+        ResultSetMetaData md = rs.getMetaData();
+        int count = md.getColumnCount();
+        String[] names = new String[count];
+        Column[] columns = new Column[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = md.getColumnName(i + 1);
+            columns[i] = createColumn(md.getColumnType(i + 1), md.isSigned(i + 1));
+        }
+
+        ResultTable table = new ResultTable(names, columns);
+        while (rs.next()) {
+            int row = table.rowCount++;
+            for (int i = 0; i < count; i++) {
+                columns[i].read(rs, i + 1, row);
+            }
+        }
+        for (Column column : columns) {
+            column.finish(table.rowCount);
+        }
+        return table;
+    }
+
+    /**
+     * Elige la representación de una columna según su tipo JDBC.
+     * Los tipos sin representación compacta, o cuyos valores no caben en el tipo primitivo
+     * (por ejemplo BIGINT UNSIGNED), se guardan como objetos.
+     *
+     * @param jdbcType el tipo JDBC de la columna
+     * @param signed   si la columna admite valores negativos
+     * @return la columna vacía
+     */
+    @NotNull
+    private static Column createColumn(int jdbcType, boolean signed) {
+        switch (jdbcType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+                return new IntColumn();
+            case Types.INTEGER:
+                return signed ? new IntColumn() : new LongColumn();
+            case Types.BIGINT:
+                return signed ? new LongColumn() : new ObjectColumn();
+            case Types.DOUBLE:
+            case Types.FLOAT:
+                return new DoubleColumn();
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return new StringColumn();
+            default:
+                return new ObjectColumn();
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    /**
+     * Devuelve la posición de una columna.
+     *
+     * @param columnName el nombre de la columna
+     * @return la posición de la columna, empezando en 0, o -1 si no existe
+     */
+    public int getColumnIndex(String columnName) {
+        Integer index = columnIndex.get(columnName);
+        return index == null ? -1 : index;
+    }
+
+    public boolean isNull(int row, int column) {
+        checkRow(row);
+        return columns[column].isNull(row);
+    }
+
+    public Object getValue(int row, int column) {
+        checkRow(row);
+        return columns[column].get(row);
+    }
+
+    /**
+     * Devuelve un valor numérico sin crear objetos intermedios cuando la columna es numérica.
+     *
+     * @param row    la fila, empezando en 0
+     * @param column la columna, empezando en 0
+     * @return el valor, o 0 si es nulo
+     */
+    public long getLong(int row, int column) {
+        checkRow(row);
+        Column col = columns[column];
+        if (col instanceof LongColumn) {
+            return ((LongColumn) col).values[row];
+        }
+        if (col instanceof IntColumn) {
+            return ((IntColumn) col).values[row];
+        }
+        Object value = col.get(row);
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+
+    public int getInt(int row, int column) {
+        checkRow(row);
+        Column col = columns[column];
+        if (col instanceof IntColumn) {
+            return ((IntColumn) col).values[row];
+        }
+        return (int) getLong(row, column);
+    }
+
+    public double getDouble(int row, int column) {
+        checkRow(row);
+        Column col = columns[column];
+        if (col instanceof DoubleColumn) {
+            return ((DoubleColumn) col).values[row];
+        }
+        Object value = col.get(row);
+        return value == null ? 0d : ((Number) value).doubleValue();
+    }
+
+    public String getString(int row, int column) {
+        Object value = getValue(row, column);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Devuelve una vista de solo lectura de una fila.
+     *
+     * @param row la fila, empezando en 0
+     * @return un mapa de nombre de columna a valor respaldado por esta tabla
+     */
+    public Map<String, Object> row(int row) {
+        checkRow(row);
+        return new RowView(row);
+    }
+
+    /**
+     * Devuelve las filas como una lista de vistas de solo lectura, sin copiar los datos.
+     *
+     * @return una lista de mapas que representan las filas
+     */
+    public List<Map<String, Object>> asList() {
+        return new AbstractList<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> get(int index) {
+                return row(index);
+            }
+
+            @Override
+            public int size() {
+                return rowCount;
+            }
+        };
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Fila " + row + " fuera de rango (" + rowCount + " filas)");
+        }
+    }
+
+    private final class RowView extends AbstractMap<String, Object> {
+        private final int row;
+
+        private RowView(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Integer index = columnIndex.get(key);
+            return index == null ? null : columns[index].get(row);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return columnIndex.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return columnIndex.size();
+        }
+
+        @NotNull
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @NotNull
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    Iterator<Map.Entry<String, Integer>> it = columnIndex.entrySet().iterator();
+                    return new Iterator<Entry<String, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!it.hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, Integer> column = it.next();
+                            return new SimpleImmutableEntry<>(column.getKey(), columns[column.getValue()].get(row));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return columnIndex.size();
+                }
+            };
+        }
+    }
+
+    private abstract static class Column {
+        abstract void read(ResultSet rs, int jdbcIndex, int row) throws SQLException;
+
+        abstract Object get(int row);
+
+        abstract boolean isNull(int row);
+
+        /**
+         * Se llama al terminar la carga, con el número de filas leídas, para liberar las estructuras de carga.
+         */
+        void finish(int rows) {
+        }
+    }
+
+    private static final class LongColumn extends Column {
+        private long[] values = new long[INITIAL_CAPACITY];
+        private final BitSet nulls = new BitSet();
+
+        @Override
+        void read(ResultSet rs, int jdbcIndex, int row) throws SQLException {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[row] = rs.getLong(jdbcIndex);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        Object get(int row) {
+            return nulls.get(row) ? null : values[row];
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return nulls.get(row);
+        }
+    }
+
+    private static final class IntColumn extends Column {
+        private int[] values = new int[INITIAL_CAPACITY];
+        private final BitSet nulls = new BitSet();
+
+        @Override
+        void read(ResultSet rs, int jdbcIndex, int row) throws SQLException {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[row] = rs.getInt(jdbcIndex);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        Object get(int row) {
+            return nulls.get(row) ? null : values[row];
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return nulls.get(row);
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+        private double[] values = new double[INITIAL_CAPACITY];
+        private final BitSet nulls = new BitSet();
+
+        @Override
+        void read(ResultSet rs, int jdbcIndex, int row) throws SQLException {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[row] = rs.getDouble(jdbcIndex);
+            if (rs.wasNull()) {
+                nulls.set(row);
+            }
+        }
+
+        @Override
+        Object get(int row) {
+            return nulls.get(row) ? null : values[row];
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return nulls.get(row);
+        }
+    }
+
+    /**
+     * Columna de cadenas codificada con un diccionario mientras los valores se repiten; el código -1 representa
+     * un valor nulo. Si los valores distintos superan {@link #MAX_DISTINCT_RATIO} de las filas, el diccionario
+     * ocuparía más que las propias cadenas y la columna pasa a guardarlas en un arreglo simple. El índice de
+     * búsqueda solo se usa durante la carga.
+     */
+    private static final class StringColumn extends Column {
+        private static final int MIN_ROWS_FOR_RATIO = 1024;
+        private static final double MAX_DISTINCT_RATIO = 0.5;
+        private int[] codes = new int[INITIAL_CAPACITY];
+        private List<String> dictionary = new ArrayList<>();
+        private Map<String, Integer> lookup = new HashMap<>();
+        private String[] plain;
+
+        @Override
+        void read(ResultSet rs, int jdbcIndex, int row) throws SQLException {
+            String value = rs.getString(jdbcIndex);
+            if (plain != null) {
+                if (row >= plain.length) {
+                    plain = Arrays.copyOf(plain, plain.length * 2);
+                }
+                plain[row] = value;
+                return;
+            }
+            if (row >= codes.length) {
+                codes = Arrays.copyOf(codes, codes.length * 2);
+            }
+            if (value == null) {
+                codes[row] = -1;
+                return;
+            }
+            Integer code = lookup.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                lookup.put(value, code);
+                if (row >= MIN_ROWS_FOR_RATIO && code > (row + 1) * MAX_DISTINCT_RATIO) {
+                    codes[row] = code;
+                    toPlain(row + 1, codes.length);
+                    return;
+                }
+            }
+            codes[row] = code;
+        }
+
+        @Override
+        void finish(int rows) {
+            if (plain == null && rows > 0 && dictionary.size() > rows * MAX_DISTINCT_RATIO) {
+                toPlain(rows, rows);
+            }
+            lookup = null;
+        }
+
+        private void toPlain(int rows, int capacity) {
+            plain = new String[capacity];
+            for (int i = 0; i < rows; i++) {
+                plain[i] = codes[i] < 0 ? null : dictionary.get(codes[i]);
+            }
+            codes = null;
+            dictionary = null;
+            lookup = null;
+        }
+
+        @Override
+        Object get(int row) {
+            if (plain != null) {
+                return plain[row];
+            }
+            int code = codes[row];
+            return code < 0 ? null : dictionary.get(code);
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return plain != null ? plain[row] == null : codes[row] < 0;
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+        private Object[] values = new Object[INITIAL_CAPACITY];
+
+        @Override
+        void read(ResultSet rs, int jdbcIndex, int row) throws SQLException {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[row] = rs.getObject(jdbcIndex);
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return values[row] == null;
+        }
+    }
+}
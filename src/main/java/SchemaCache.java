@@ -0,0 +1,299 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caché de metadatos de esquema por origen de datos.
+ * Guarda las tablas de un catálogo con sus columnas, tipos JDBC y claves primarias, de forma que comprobar
+ * si una tabla o una columna existe no requiere consultar {@link DatabaseMetaData} en cada operación.
+ * Cada catálogo se carga de una vez (con una consulta de tablas y otra de columnas) y se invalida al crear
+ * o eliminar tablas, o al vencer el tiempo de vida, de {@link #DEFAULT_TTL_MILLIS} por defecto, para recoger los
+ * cambios de esquema hechos fuera de la librería. Una tabla que no está en la caché se busca sola, sin recargar
+ * el catálogo entero.
+ */
+public class SchemaCache {
+
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+    private static final Logger logger = LoggerFactory.getLogger(SchemaCache.class);
+    private static final Map<String, SchemaCache> CACHES = new ConcurrentHashMap<>();
+    private static final long MIN_RELOAD_INTERVAL_MILLIS = 1000;
+    private static volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+    private final String catalog;
+    private final Map<String, Long> misses = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private volatile Map<String, TableSchema> tables;
+    private volatile long loadedAt;
+
+    private SchemaCache(String catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Establece el tiempo de vida de los metadatos en caché.
+     *
+     * @param ttlMillis los milisegundos tras los que se recargan los metadatos, o 0 para no caducar nunca
+     */
+    public static void setTtlMillis(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("El tiempo de vida no puede ser negativo");
+        }
+        SchemaCache.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Busca una tabla en la caché del origen de datos de la conexión.
+     * Los nombres con la forma {@code catalogo.tabla} se buscan en el catálogo indicado.
+     *
+     * @param conn      la conexión a la base de datos
+     * @param tableName el nombre de la tabla
+     * @return los metadatos de la tabla, o {@code null} si no existe
+     * @throws SQLException si ocurre un error al cargar los metadatos
+     */
+    @Nullable
+    public static TableSchema lookup(@NotNull Connection conn, @NotNull String tableName) throws SQLException {
+        String name = unquote(tableName);
+        String catalog = conn.getCatalog();
+        int dot = name.indexOf('.');
+        if (dot > 0) {
+            catalog = name.substring(0, dot);
+            name = name.substring(dot + 1);
+        }
+        return forCatalog(conn, catalog).getTable(conn, name);
+    }
+
+    /**
+     * Invalida los metadatos del catálogo al que pertenece la tabla indicada.
+     *
+     * @param conn      la conexión a la base de datos
+     * @param tableName el nombre de la tabla creada o eliminada
+     * @throws SQLException si no se puede leer la URL o el catálogo de la conexión
+     */
+    public static void invalidate(@NotNull Connection conn, @NotNull String tableName) throws SQLException {
+        String name = unquote(tableName);
+        int dot = name.indexOf('.');
+        String catalog = dot > 0 ? name.substring(0, dot) : conn.getCatalog();
+        SchemaCache cache = CACHES.get(cacheKey(conn, catalog));
+        if (cache != null) {
+            cache.tables = null;
+        }
+    }
+
+    /**
+     * Descarta todos los metadatos en caché.
+     */
+    public static void invalidateAll() {
+        CACHES.clear();
+    }
+
+    @NotNull
+    private static SchemaCache forCatalog(@NotNull Connection conn, String catalog) throws SQLException {
+        return CACHES.computeIfAbsent(cacheKey(conn, catalog), k -> new SchemaCache(catalog));
+    }
+
+    @NotNull
+    private static String cacheKey(@NotNull Connection conn, String catalog) throws SQLException {
+        return conn.getMetaData().getURL() + "|" + (catalog == null ? "" : catalog.toLowerCase(Locale.ROOT));
+    }
+
+    @NotNull
+    private static String unquote(@NotNull String identifier) {
+        return identifier.replace("`", "").replace("\"", "").replace("'", "");
+    }
+
+    @Nullable
+    private TableSchema getTable(@NotNull Connection conn, String tableName) throws SQLException {
+        Map<String, TableSchema> snapshot = tables;
+        long now = System.currentTimeMillis();
+        if (snapshot == null || (ttlMillis > 0 && now - loadedAt > ttlMillis)) {
+            snapshot = load(conn, snapshot);
+        }
+        TableSchema table = snapshot.get(tableName);
+        if (table == null) {
+            // La tabla pudo crearse fuera de esta librería; se busca sola, como mucho una vez por intervalo
+            table = loadTable(conn, tableName, now);
+        }
+        return table;
+    }
+
+    @Nullable
+    private synchronized TableSchema loadTable(@NotNull Connection conn, String tableName, long now) throws SQLException {
+        Map<String, TableSchema> current = tables;
+        TableSchema table = current == null ? null : current.get(tableName);
+        if (table != null) {
+            return table;
+        }
+        Long missed = misses.get(tableName);
+        if (missed != null && now - missed < MIN_RELOAD_INTERVAL_MILLIS) {
+            return null;
+        }
+
+        DatabaseMetaData dbm = conn.getMetaData();
+        String escape = dbm.getSearchStringEscape();
+        String pattern = escape == null ? tableName : tableName.replace(escape, escape + escape)
+                .replace("_", escape + "_").replace("%", escape + "%");
+        try (ResultSet rs = dbm.getTables(catalog, null, pattern, new String[]{"TABLE", "VIEW"})) {
+            while (rs.next()) {
+                String name = rs.getString("TABLE_NAME");
+                if (name.equalsIgnoreCase(tableName)) {
+                    table = new TableSchema(catalog, name);
+                }
+            }
+        }
+        if (table == null) {
+            misses.put(tableName, now);
+            return null;
+        }
+        try (ResultSet rs = dbm.getColumns(catalog, null, pattern, "%")) {
+            while (rs.next()) {
+                if (table.name.equalsIgnoreCase(rs.getString("TABLE_NAME"))) {
+                    table.addColumn(rs.getString("COLUMN_NAME"), rs.getInt("DATA_TYPE"), rs.getString("TYPE_NAME"));
+                }
+            }
+        }
+
+        Map<String, TableSchema> updated = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (current != null) {
+            updated.putAll(current);
+        }
+        updated.put(table.name, table);
+        tables = Collections.unmodifiableMap(updated);
+        misses.remove(tableName);
+        logger.info("Metadatos de la tabla {}.{} cargados", catalog, table.name);
+        return table;
+    }
+
+    @NotNull
+    private synchronized Map<String, TableSchema> load(@NotNull Connection conn, Map<String, TableSchema> stale) throws SQLException {
+        Map<String, TableSchema> current = tables;
+        if (current != null && current != stale) {
+            return current;
+        }
+
+        Map<String, TableSchema> loaded = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        DatabaseMetaData dbm = conn.getMetaData();
+        try (ResultSet rs = dbm.getTables(catalog, null, "%", new String[]{"TABLE", "VIEW"})) {
+            while (rs.next()) {
+                String name = rs.getString("TABLE_NAME");
+                loaded.put(name, new TableSchema(catalog, name));
+            }
+        }
+        try (ResultSet rs = dbm.getColumns(catalog, null, "%", "%")) {
+            while (rs.next()) {
+                TableSchema table = loaded.get(rs.getString("TABLE_NAME"));
+                if (table != null) {
+                    table.addColumn(rs.getString("COLUMN_NAME"), rs.getInt("DATA_TYPE"), rs.getString("TYPE_NAME"));
+                }
+            }
+        }
+
+        logger.info("Metadatos del catálogo {} cargados: {} tabla(s)", catalog, loaded.size());
+        misses.clear();
+        Map<String, TableSchema> result = Collections.unmodifiableMap(loaded);
+        tables = result;
+        loadedAt = System.currentTimeMillis();
+        return result;
+    }
+
+    /**
+     * Metadatos de una tabla: columnas en orden de definición con su tipo JDBC y su nombre de tipo, y clave primaria.
+     */
+    public static class TableSchema {
+        private final String catalog;
+        private final String name;
+        private final Map<String, Integer> columnTypes = new LinkedHashMap<>();
+        private final Map<String, String> columnTypeNames = new LinkedHashMap<>();
+        private final Map<String, String> columnNames = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private volatile List<String> primaryKeys;
+
+        private TableSchema(String catalog, String name) {
+            this.catalog = catalog;
+            this.name = name;
+        }
+
+        private void addColumn(String column, int jdbcType, String typeName) {
+            columnTypes.put(column, jdbcType);
+            columnTypeNames.put(column, typeName);
+            columnNames.put(column, column);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getColumnNames() {
+            return new ArrayList<>(columnTypes.keySet());
+        }
+
+        public boolean hasColumn(String column) {
+            return columnNames.containsKey(unqualify(column));
+        }
+
+        /**
+         * Devuelve el tipo JDBC de una columna.
+         *
+         * @param column el nombre de la columna
+         * @return una constante de {@link java.sql.Types}, o {@code null} si la columna no existe
+         */
+        @Nullable
+        public Integer getColumnType(String column) {
+            String stored = columnNames.get(unqualify(column));
+            return stored == null ? null : columnTypes.get(stored);
+        }
+
+        /**
+         * Devuelve el nombre del tipo de una columna según el servidor, por ejemplo {@code YEAR} o
+         * {@code BIGINT UNSIGNED}, que distingue tipos que el driver informa con la misma constante JDBC.
+         *
+         * @param column el nombre de la columna
+         * @return el nombre del tipo, o {@code null} si la columna no existe
+         */
+        @Nullable
+        public String getColumnTypeName(String column) {
+            String stored = columnNames.get(unqualify(column));
+            return stored == null ? null : columnTypeNames.get(stored);
+        }
+
+        /**
+         * Devuelve las columnas de la clave primaria en orden. Se consultan la primera vez que se piden.
+         *
+         * @param conn la conexión a la base de datos
+         * @return las columnas de la clave primaria, vacía si la tabla no tiene
+         * @throws SQLException si ocurre un error al leer los metadatos
+         */
+        @NotNull
+        public List<String> getPrimaryKeys(@NotNull Connection conn) throws SQLException {
+            List<String> keys = primaryKeys;
+            if (keys == null) {
+                Map<Short, String> ordered = new TreeMap<>();
+                try (ResultSet rs = conn.getMetaData().getPrimaryKeys(catalog, null, name)) {
+                    while (rs.next()) {
+                        ordered.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+                    }
+                }
+                keys = Collections.unmodifiableList(new ArrayList<>(ordered.values()));
+                primaryKeys = keys;
+            }
+            return keys;
+        }
+
+        @NotNull
+        private static String unqualify(@NotNull String column) {
+            String name = unquote(column);
+            int dot = name.lastIndexOf('.');
+            return dot >= 0 ? name.substring(dot + 1) : name;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Canal que lee y descifra los segmentos AES-GCM de un respaldo con el formato {@link BackupFormat}.
+ * Es el inverso de {@link SegmentEncryptingChannel}: usa dos buffers directos de tamaño fijo (segmento cifrado
+ * y datos en claro), de modo que la memoria no depende del tamaño del respaldo. Cada segmento se autentica
+ * antes de entregar sus datos; el último se reconoce por el final del archivo y debe llevar la marca de último,
+ * así que un respaldo truncado, reordenado o manipulado produce un error en lugar de datos incompletos.
+ */
+public class SegmentDecryptingChannel implements ReadableByteChannel {
+
+    private final FileChannel source;
+    private final BackupFormat format;
+    private final SecretKeySpec key;
+    private final byte[] aad;
+    private final Cipher cipher = BackupFormat.newCipher();
+    private final ByteBuffer encrypted;
+    private final ByteBuffer plain;
+    private long segmentIndex;
+    private boolean lastSegmentRead;
+    private boolean open = true;
+
+    /**
+     * Crea el canal. La cabecera del formato ya debe estar leída del archivo.
+     *
+     * @param source el archivo del respaldo, posicionado en el primer segmento
+     * @param format la cabecera del respaldo
+     * @param key    la clave derivada de la contraseña
+     */
+    public SegmentDecryptingChannel(@NotNull FileChannel source, @NotNull BackupFormat format, @NotNull SecretKeySpec key) {
+        this.source = source;
+        this.format = format;
+        this.key = key;
+        this.aad = format.toBytes();
+        this.encrypted = ByteBuffer.allocateDirect(format.getSegmentSize() + BackupFormat.TAG_LENGTH);
+        this.plain = ByteBuffer.allocateDirect(format.getSegmentSize());
+        this.plain.limit(0);
+    }
+
+    @Override
+    public int read(@NotNull ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        while (!plain.hasRemaining()) {
+            if (lastSegmentRead) {
+                return -1;
+            }
+            openNextSegment();
+        }
+        int length = Math.min(dst.remaining(), plain.remaining());
+        ByteBuffer part = plain.duplicate();
+        part.limit(part.position() + length);
+        dst.put(part);
+        plain.position(plain.position() + length);
+        return length;
+    }
+
+    private void openNextSegment() throws IOException {
+        long remaining = source.size() - source.position();
+        if (remaining < BackupFormat.TAG_LENGTH) {
+            throw new IOException("Respaldo truncado: falta el segmento " + segmentIndex);
+        }
+        boolean last = remaining <= encrypted.capacity();
+        encrypted.clear();
+        encrypted.limit((int) Math.min(remaining, encrypted.capacity()));
+        while (encrypted.hasRemaining()) {
+            if (source.read(encrypted) < 0) {
+                throw new IOException("Respaldo truncado en el segmento " + segmentIndex);
+            }
+        }
+        encrypted.flip();
+        plain.clear();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, format.segmentParameters(segmentIndex, last));
+            cipher.updateAAD(aad);
+            cipher.doFinal(encrypted, plain);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("El segmento " + segmentIndex + " no supera la autenticación: la contraseña es incorrecta o el respaldo está dañado", e);
+        }
+        plain.flip();
+        segmentIndex++;
+        lastSegmentRead = last;
+    }
+
+    public long getSegmentCount() {
+        return segmentIndex;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import org.jetbrains.annotations.NotNull;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Canal que cifra lo que recibe en segmentos AES-GCM del formato {@link BackupFormat} y los escribe en un archivo.
+ * Usa dos buffers directos de tamaño fijo (datos en claro y segmento cifrado), así que la memoria no depende
+ * del tamaño del respaldo. Un segmento lleno solo se sella como intermedio cuando llegan más datos; al cerrar
+ * se sella el último, que puede estar vacío.
+ */
+public class SegmentEncryptingChannel implements WritableByteChannel {
+
+    private final FileChannel target;
+    private final BackupFormat format;
+    private final SecretKeySpec key;
+    private final byte[] aad;
+    private final Cipher cipher = BackupFormat.newCipher();
+    private final ByteBuffer plain;
+    private final ByteBuffer encrypted;
+    private long segmentIndex;
+    private long bytesWritten;
+    private boolean open = true;
+
+    /**
+     * Crea el canal. La cabecera del formato ya debe estar escrita en el archivo.
+     *
+     * @param target el archivo de destino, posicionado tras la cabecera
+     * @param format la cabecera del respaldo
+     * @param key    la clave derivada de la contraseña
+     */
+    public SegmentEncryptingChannel(@NotNull FileChannel target, @NotNull BackupFormat format, @NotNull SecretKeySpec key) {
+        this.target = target;
+        this.format = format;
+        this.key = key;
+        this.aad = format.toBytes();
+        this.plain = ByteBuffer.allocateDirect(format.getSegmentSize());
+        this.encrypted = ByteBuffer.allocateDirect(format.getSegmentSize() + BackupFormat.TAG_LENGTH);
+    }
+
+    @Override
+    public int write(@NotNull ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            if (!plain.hasRemaining()) {
+                seal(false);
+            }
+            int length = Math.min(src.remaining(), plain.remaining());
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + length);
+            plain.put(part);
+            src.position(src.position() + length);
+        }
+        return written;
+    }
+
+    private void seal(boolean last) throws IOException {
+        plain.flip();
+        encrypted.clear();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, format.segmentParameters(segmentIndex++, last));
+            cipher.updateAAD(aad);
+            cipher.doFinal(plain, encrypted);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Error al cifrar el segmento " + (segmentIndex - 1) + ": " + e.getMessage(), e);
+        }
+        encrypted.flip();
+        while (encrypted.hasRemaining()) {
+            bytesWritten += target.write(encrypted);
+        }
+        plain.clear();
+    }
+
+    /**
+     * Devuelve los bytes cifrados escritos hasta ahora, sin contar la cabecera.
+     *
+     * @return los bytes escritos
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getSegmentCount() {
+        return segmentIndex;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Sella el último segmento, fuerza los datos a disco y cierra el archivo.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            seal(true);
+            target.force(false);
+        } finally {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Separa la salida de {@code SHOW CREATE TABLE} de MySQL en la sentencia CREATE TABLE con solo las columnas,
+ * la clave primaria y las restricciones CHECK, y las sentencias ALTER TABLE que añaden después los índices
+ * secundarios y las claves foráneas. Cargar una tabla sin sus índices secundarios y crearlos al final es mucho
+ * más rápido que mantenerlos fila a fila.
+ * Los índices que contienen la columna AUTO_INCREMENT se mantienen en el CREATE TABLE porque MySQL exige
+ * que esa columna forme parte de un índice.
+ * También recuerda qué columnas son binarias, para enlazar sus valores como bytes al cargar la tabla.
+ */
+public final class TableDdl {
+
+    private static final String[] INDEX_PREFIXES = {"KEY ", "INDEX ", "UNIQUE KEY ", "UNIQUE INDEX ", "FULLTEXT KEY ",
+            "FULLTEXT INDEX ", "SPATIAL KEY ", "SPATIAL INDEX "};
+    private static final String[] BINARY_TYPES = {"binary", "varbinary", "tinyblob", "blob", "mediumblob", "longblob"};
+    private final String createSql;
+    private final String indexAlter;
+    private final String foreignKeyAlter;
+    private final Set<String> binaryColumns;
+
+    private TableDdl(String createSql, String indexAlter, String foreignKeyAlter, Set<String> binaryColumns) {
+        this.createSql = createSql;
+        this.indexAlter = indexAlter;
+        this.foreignKeyAlter = foreignKeyAlter;
+        this.binaryColumns = binaryColumns;
+    }
+
+    /**
+     * Separa la definición de una tabla.
+     *
+     * @param ddl       la salida de {@code SHOW CREATE TABLE}, con o sin punto y coma final
+     * @param tableName el nombre de la tabla, usado en las sentencias ALTER TABLE
+     * @return la definición separada
+     * @throws IllegalArgumentException si la definición no tiene el formato de {@code SHOW CREATE TABLE}
+     */
+    @NotNull
+    public static TableDdl parse(@NotNull String ddl, @NotNull String tableName) {
+        String text = ddl.trim();
+        if (text.endsWith(";")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        int open = text.indexOf("(\n");
+        int close = text.lastIndexOf("\n)");
+        if (!text.regionMatches(true, 0, "CREATE TABLE", 0, 12) || open < 0 || close < open) {
+            throw new IllegalArgumentException("La definición de la tabla " + tableName + " no tiene el formato de SHOW CREATE TABLE");
+        }
+
+        List<String> kept = new ArrayList<>();
+        List<String> indexes = new ArrayList<>();
+        List<String> foreignKeys = new ArrayList<>();
+        String autoIncrementColumn = null;
+        Set<String> binaryColumns = new HashSet<>();
+        for (String line : text.substring(open + 2, close).split("\n")) {
+            String definition = line.trim();
+            if (definition.endsWith(",")) {
+                definition = definition.substring(0, definition.length() - 1);
+            }
+            if (definition.isEmpty()) {
+                continue;
+            }
+            if (definition.startsWith("CONSTRAINT ") && definition.contains(" FOREIGN KEY ")) {
+                foreignKeys.add(definition);
+            } else if (isSecondaryIndex(definition)) {
+                indexes.add(definition);
+            } else {
+                kept.add(definition);
+                if (definition.startsWith("`") && isBinaryColumn(definition)) {
+                    binaryColumns.add(definition.substring(1, definition.indexOf('`', 1)));
+                }
+                if (autoIncrementColumn == null && definition.startsWith("`")
+                        && definition.toUpperCase(Locale.ROOT).contains(" AUTO_INCREMENT")) {
+                    autoIncrementColumn = definition.substring(0, definition.indexOf('`', 1) + 1);
+                }
+            }
+        }
+        if (autoIncrementColumn != null && !containsColumn(kept, autoIncrementColumn)) {
+            for (int i = 0; i < indexes.size(); i++) {
+                if (indexColumns(indexes.get(i)).contains(autoIncrementColumn)) {
+                    kept.add(indexes.remove(i));
+                    break;
+                }
+            }
+        }
+
+        String create = text.substring(0, open + 2) + "  " + String.join(",\n  ", kept) + text.substring(close);
+        String quoted = LogicalBackupEngine.quote(tableName);
+        return new TableDdl(create, alter(quoted, indexes), alter(quoted, foreignKeys), binaryColumns);
+    }
+
+    /**
+     * Comprueba si el tipo de una definición de columna, el primer término tras el nombre, es binario.
+     */
+    private static boolean isBinaryColumn(@NotNull String definition) {
+        String type = definition.substring(definition.indexOf('`', 1) + 1).trim().toLowerCase(Locale.ROOT);
+        for (String binary : BINARY_TYPES) {
+            if (type.startsWith(binary) && (type.length() == binary.length() || type.charAt(binary.length()) == '('
+                    || type.charAt(binary.length()) == ' ')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSecondaryIndex(@NotNull String definition) {
+        for (String prefix : INDEX_PREFIXES) {
+            if (definition.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Comprueba si la clave primaria u otro índice que se mantiene ya incluye la columna.
+     */
+    private static boolean containsColumn(@NotNull List<String> definitions, @NotNull String column) {
+        for (String definition : definitions) {
+            if ((definition.startsWith("PRIMARY KEY ") || isSecondaryIndex(definition)) && indexColumns(definition).contains(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private static String indexColumns(@NotNull String definition) {
+        int start = definition.indexOf('(');
+        int end = definition.lastIndexOf(')');
+        return start >= 0 && end > start ? definition.substring(start, end + 1) : "";
+    }
+
+    @Nullable
+    private static String alter(@NotNull String quotedTable, @NotNull List<String> definitions) {
+        if (definitions.isEmpty()) {
+            return null;
+        }
+        return "ALTER TABLE " + quotedTable + " ADD " + String.join(", ADD ", definitions);
+    }
+
+    /**
+     * Devuelve la sentencia CREATE TABLE sin índices secundarios ni claves foráneas.
+     *
+     * @return la sentencia CREATE TABLE
+     */
+    @NotNull
+    public String getCreateSql() {
+        return createSql;
+    }
+
+    /**
+     * Devuelve la sentencia que añade los índices secundarios.
+     *
+     * @return la sentencia ALTER TABLE, o null si la tabla no tiene índices secundarios
+     */
+    @Nullable
+    public String getIndexAlter() {
+        return indexAlter;
+    }
+
+    /**
+     * Devuelve la sentencia que añade las claves foráneas.
+     *
+     * @return la sentencia ALTER TABLE, o null si la tabla no tiene claves foráneas
+     */
+    @Nullable
+    public String getForeignKeyAlter() {
+        return foreignKeyAlter;
+    }
+
+    /**
+     * Indica qué columnas de un volcado son binarias según la definición de la tabla.
+     *
+     * @param columns las columnas del volcado
+     * @return un indicador por columna, en el mismo orden
+     */
+    @NotNull
+    public boolean[] binaryColumns(@NotNull List<String> columns) {
+        boolean[] binary = new boolean[columns.size()];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = binaryColumns.contains(columns.get(i));
+        }
+        return binary;
+    }
+}
@@ -0,0 +1,856 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Compara una tabla de MySQL entre dos bases de datos y calcula el conjunto mínimo de cambios que deja el destino
+ * igual que el origen.
+ * <p>
+ * La comparación empieza por una suma de comprobación de toda la tabla calculada en cada servidor, la misma que
+ * usa {@link LogicalBackupEngine} para los fragmentos. Si no coincide, el rango de claves se divide en partes que
+ * se comparan en paralelo, y solo se vuelven a dividir las partes que no coinciden. Con una clave primaria entera
+ * las partes se calculan dividiendo el intervalo de valores; con otra clave primaria son páginas de la clave en
+ * orden, cuyos límites se buscan con {@code (pk) >= (?) ORDER BY pk LIMIT 1 OFFSET n}. Cuando una parte tiene
+ * pocas filas se leen de cada lado las claves con el MD5 de su fila, y del origen solo las filas que faltan o
+ * cambiaron. Así el volumen transferido depende de las diferencias y no del tamaño de la tabla.
+ * <p>
+ * Los cambios se entregan como sentencias {@code INSERT}, {@code UPDATE} y {@code DELETE} con parámetros y,
+ * si se pide con {@link #setApply}, se aplican en el destino en una sola transacción. Las tablas no deben
+ * modificarse durante la comparación; si cambian, los cambios calculados pueden quedar incompletos.
+ */
+public class TableSync {
+
+    public static final int DEFAULT_WORKERS = 4;
+    public static final long DEFAULT_CHUNK_ROWS = 100_000;
+    public static final long DEFAULT_LEAF_ROWS = 1_000;
+    private static final Logger logger = LoggerFactory.getLogger(TableSync.class);
+    private static final int SPLIT_FACTOR = 8;
+    private static final int KEYS_PER_FETCH = 500;
+    private int workers = DEFAULT_WORKERS;
+    private long chunkRows = DEFAULT_CHUNK_ROWS;
+    private long leafRows = DEFAULT_LEAF_ROWS;
+    private boolean apply;
+
+    /**
+     * Establece el número de pares de conexiones, una del origen y otra del destino, que comparan en paralelo.
+     *
+     * @param workers el número de pares de conexiones, al menos 1
+     */
+    public void setWorkers(int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("El número de conexiones debe ser mayor que cero");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Establece el número aproximado de filas de cada parte en que se divide la tabla completa.
+     *
+     * @param chunkRows las filas por parte, al menos 1
+     */
+    public void setChunkRows(long chunkRows) {
+        if (chunkRows <= 0) {
+            throw new IllegalArgumentException("El número de filas por fragmento debe ser mayor que cero");
+        }
+        this.chunkRows = chunkRows;
+    }
+
+    /**
+     * Establece el número de filas por debajo del cual una parte que no coincide ya no se divide, sino que se
+     * compara fila a fila.
+     *
+     * @param leafRows las filas, al menos 1
+     */
+    public void setLeafRows(long leafRows) {
+        if (leafRows <= 0) {
+            throw new IllegalArgumentException("El número de filas debe ser mayor que cero");
+        }
+        this.leafRows = leafRows;
+    }
+
+    /**
+     * Indica si los cambios calculados se aplican en el destino al terminar la comparación.
+     *
+     * @param apply verdadero para aplicar los cambios; falso para solo calcularlos
+     */
+    public void setApply(boolean apply) {
+        this.apply = apply;
+    }
+
+    /**
+     * Compara una tabla abriendo {@code workers} conexiones de cada origen de datos.
+     *
+     * @param source       el origen de las conexiones a la base de datos de referencia
+     * @param target       el origen de las conexiones a la base de datos que se sincroniza
+     * @param sourceSchema el esquema de la tabla en el origen
+     * @param targetSchema el esquema de la tabla en el destino
+     * @param table        el nombre de la tabla
+     * @param listener     recibe cada cambio en cuanto se calcula, en el hilo del llamador; puede ser null. Si se
+     *                     indica y no se aplican los cambios, el resultado no los guarda y solo los cuenta
+     * @return el resultado de la comparación
+     * @throws SQLException si ocurre un error al leer las tablas o al aplicar los cambios
+     */
+    @NotNull
+    public Result compare(@NotNull DataSource source, @NotNull DataSource target, @NotNull String sourceSchema, @NotNull String targetSchema,
+                          @NotNull String table, @Nullable Consumer<Change> listener) throws SQLException {
+        List<Connection> connections = new ArrayList<>();
+        try {
+            List<Connection> sources = new ArrayList<>();
+            List<Connection> targets = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                Connection conn = source.getConnection();
+                connections.add(conn);
+                sources.add(conn);
+                conn = target.getConnection();
+                connections.add(conn);
+                targets.add(conn);
+            }
+            return run(sources, targets, sourceSchema, targetSchema, table, listener);
+        } finally {
+            for (Connection conn : connections) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.error("Error al cerrar una conexión de la comparación: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Compara una tabla con una conexión a cada base de datos.
+     *
+     * @param source       la conexión a la base de datos de referencia
+     * @param target       la conexión a la base de datos que se sincroniza
+     * @param sourceSchema el esquema de la tabla en el origen
+     * @param targetSchema el esquema de la tabla en el destino
+     * @param table        el nombre de la tabla
+     * @param listener     recibe cada cambio en cuanto se calcula; puede ser null. Si se indica y no se aplican
+     *                     los cambios, el resultado no los guarda y solo los cuenta
+     * @return el resultado de la comparación
+     * @throws SQLException si ocurre un error al leer las tablas o al aplicar los cambios
+     */
+    @NotNull
+    public Result compare(@NotNull Connection source, @NotNull Connection target, @NotNull String sourceSchema, @NotNull String targetSchema,
+                          @NotNull String table, @Nullable Consumer<Change> listener) throws SQLException {
+        return run(Collections.singletonList(source), Collections.singletonList(target), sourceSchema, targetSchema, table, listener);
+    }
+
+    @NotNull
+    private Result run(@NotNull List<Connection> sources, @NotNull List<Connection> targets, @NotNull String sourceSchema,
+                       @NotNull String targetSchema, @NotNull String table, @Nullable Consumer<Change> listener) throws SQLException {
+        long start = System.nanoTime();
+        Plan plan = plan(sources.get(0), targets.get(0), sourceSchema, targetSchema, table);
+        BlockingQueue<Integer> idle = new ArrayBlockingQueue<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            idle.add(i);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(sources.size(), runnable -> {
+            Thread thread = new Thread(runnable, "table-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Outcome> completion = new ExecutorCompletionService<>(executor);
+        Result result = new Result(table, listener == null || apply);
+        try {
+            int pending = 0;
+            List<Range> next = Collections.singletonList(new Range(null, null));
+            while (!next.isEmpty() || pending > 0) {
+                for (Range range : next) {
+                    completion.submit(() -> {
+                        Integer session = idle.take();
+                        try {
+                            return compareRange(sources.get(session), targets.get(session), plan, range);
+                        } finally {
+                            idle.put(session);
+                        }
+                    });
+                    pending++;
+                }
+                Outcome outcome = completion.take().get();
+                pending--;
+                result.rangesCompared++;
+                next = outcome.children;
+                if (outcome.changes != null) {
+                    result.rangesDiffed++;
+                    for (Change change : outcome.changes) {
+                        result.add(change);
+                        if (listener != null) {
+                            listener.accept(change);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("La comparación de la tabla " + table + " fue interrumpida", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("Error al comparar la tabla " + table + ": " + cause, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (apply && !result.changes.isEmpty()) {
+            applyChanges(targets.get(0), result.changes);
+            result.applied = true;
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        logger.info("{}", result);
+        return result;
+    }
+
+    /**
+     * Lee las columnas y la clave primaria de la tabla en los dos lados y prepara las consultas.
+     */
+    @NotNull
+    private static Plan plan(@NotNull Connection source, @NotNull Connection target, @NotNull String sourceSchema,
+                             @NotNull String targetSchema, @NotNull String table) throws SQLException {
+        SchemaCache.TableSchema sourceTable = SchemaCache.lookup(source, sourceSchema + "." + table);
+        if (sourceTable == null) {
+            throw new SQLException("La tabla " + sourceSchema + "." + table + " no existe en el origen");
+        }
+        SchemaCache.TableSchema targetTable = SchemaCache.lookup(target, targetSchema + "." + table);
+        if (targetTable == null) {
+            throw new SQLException("La tabla " + targetSchema + "." + table + " no existe en el destino");
+        }
+        List<String> columns = sourceTable.getColumnNames();
+        if (!columns.equals(targetTable.getColumnNames())) {
+            throw new SQLException("La tabla " + table + " no tiene las mismas columnas en el origen " + columns
+                    + " y en el destino " + targetTable.getColumnNames());
+        }
+        List<String> keys = sourceTable.getPrimaryKeys(source);
+        if (keys.isEmpty()) {
+            throw new SQLException("La tabla " + sourceSchema + "." + table + " no tiene clave primaria y no se puede comparar fila a fila");
+        }
+
+        Plan plan = new Plan(columns, keys);
+        List<String> quoted = new ArrayList<>();
+        for (String column : columns) {
+            quoted.add(LogicalBackupEngine.quote(column));
+        }
+        List<String> quotedKeys = new ArrayList<>();
+        for (String key : keys) {
+            quotedKeys.add(LogicalBackupEngine.quote(key));
+        }
+        String keyList = String.join(", ", quotedKeys);
+        if (keys.size() == 1 && LogicalBackupEngine.isIntegral(sourceTable.getColumnType(keys.get(0)))) {
+            plan.rangeColumn = quotedKeys.get(0);
+        }
+        plan.keyTuple = keys.size() == 1 ? keyList : "(" + keyList + ")";
+        plan.keyPlaceholder = keys.size() == 1 ? "?" : "(" + String.join(", ", Collections.nCopies(keys.size(), "?")) + ")";
+        plan.sourceFrom = LogicalBackupEngine.quote(sourceSchema) + "." + LogicalBackupEngine.quote(table);
+        plan.targetFrom = LogicalBackupEngine.quote(targetSchema) + "." + LogicalBackupEngine.quote(table);
+        plan.sourceKeySql = "SELECT " + keyList + " FROM " + plan.sourceFrom;
+        plan.targetKeySql = "SELECT " + keyList + " FROM " + plan.targetFrom;
+        String digest = "SELECT " + keyList + ", " + LogicalBackupEngine.rowDigestExpression(quoted) + " FROM ";
+        plan.sourceChecksumSql = LogicalBackupEngine.checksumSql(quoted, plan.sourceFrom);
+        plan.targetChecksumSql = LogicalBackupEngine.checksumSql(quoted, plan.targetFrom);
+        plan.sourceDigestSql = digest + plan.sourceFrom;
+        plan.targetDigestSql = digest + plan.targetFrom;
+        plan.orderBy = " ORDER BY " + keyList;
+        plan.selectSql = "SELECT " + String.join(", ", quoted) + " FROM " + plan.sourceFrom + " WHERE " + plan.keyTuple + " IN (";
+
+        List<String> keyConditions = new ArrayList<>();
+        for (String key : quotedKeys) {
+            keyConditions.add(key + " = ?");
+        }
+        List<String> assignments = new ArrayList<>();
+        for (int i = 0; i < columns.size(); i++) {
+            if (!keys.contains(columns.get(i))) {
+                assignments.add(quoted.get(i) + " = ?");
+                plan.updateColumns.add(i);
+            }
+        }
+        plan.insertSql = "INSERT INTO " + plan.targetFrom + " (" + String.join(", ", quoted) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        plan.updateSql = assignments.isEmpty() ? null
+                : "UPDATE " + plan.targetFrom + " SET " + String.join(", ", assignments) + " WHERE " + String.join(" AND ", keyConditions);
+        plan.deleteSql = "DELETE FROM " + plan.targetFrom + " WHERE " + String.join(" AND ", keyConditions);
+        for (String key : keys) {
+            plan.keyIndexes.add(columns.indexOf(key));
+        }
+        return plan;
+    }
+
+    /**
+     * Compara un rango de claves: si las sumas coinciden no hay cambios; si no, el rango se divide o, si ya es
+     * pequeño o no se puede dividir, se compara fila a fila. Si uno de los lados está vacío los límites se toman
+     * del otro, así que una tabla vacía en el destino también se divide hasta rangos de {@code leafRows} filas.
+     * Sin una clave primaria entera el rango se divide en páginas de la clave del lado con más filas.
+     */
+    @NotNull
+    private Outcome compareRange(@NotNull Connection source, @NotNull Connection target, @NotNull Plan plan, @NotNull Range range) throws SQLException {
+        BigDecimal[] sourceSum = checksum(source, plan, plan.sourceChecksumSql, range);
+        BigDecimal[] targetSum = checksum(target, plan, plan.targetChecksumSql, range);
+        if (sourceSum[0].equals(targetSum[0]) && sourceSum[1].equals(targetSum[1])) {
+            return new Outcome(Collections.emptyList(), null);
+        }
+
+        long rows = Math.max(sourceSum[0].longValueExact(), targetSum[0].longValueExact());
+        if (plan.rangeColumn != null && rows > leafRows) {
+            BigInteger lower = range.lower;
+            BigInteger upper = range.upper;
+            if (lower == null || upper == null) {
+                BigInteger[] sourceBounds = sourceSum[0].signum() > 0 ? bounds(source, plan, plan.sourceFrom, range) : null;
+                BigInteger[] targetBounds = targetSum[0].signum() > 0 ? bounds(target, plan, plan.targetFrom, range) : null;
+                if (sourceBounds == null) {
+                    sourceBounds = targetBounds;
+                } else if (targetBounds == null) {
+                    targetBounds = sourceBounds;
+                }
+                lower = sourceBounds[0].min(targetBounds[0]);
+                upper = sourceBounds[1].max(targetBounds[1]).add(BigInteger.ONE);
+            }
+            BigInteger width = upper.subtract(lower);
+            if (width.compareTo(BigInteger.ONE) > 0) {
+                long parts = Math.max(SPLIT_FACTOR, (rows + chunkRows - 1) / chunkRows);
+                parts = width.min(BigInteger.valueOf(parts)).longValueExact();
+                List<Range> children = new ArrayList<>();
+                BigInteger previous = lower;
+                for (long i = 1; i <= parts; i++) {
+                    BigInteger bound = i == parts ? upper : lower.add(width.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(parts)));
+                    if (bound.compareTo(previous) > 0) {
+                        children.add(new Range(previous, bound));
+                        previous = bound;
+                    }
+                }
+                return new Outcome(children, null);
+            }
+        } else if (rows > leafRows) {
+            long parts = Math.max(SPLIT_FACTOR, (rows + chunkRows - 1) / chunkRows);
+            boolean fromSource = sourceSum[0].compareTo(targetSum[0]) >= 0;
+            List<Range> children = keysetPages(fromSource ? source : target, plan, fromSource ? plan.sourceKeySql : plan.targetKeySql,
+                    range, (rows + parts - 1) / parts);
+            if (children.size() > 1) {
+                return new Outcome(children, null);
+            }
+        }
+        return new Outcome(Collections.emptyList(), diffRows(source, target, plan, range));
+    }
+
+    /**
+     * Divide un rango en páginas de {@code pageRows} claves de un lado. El límite de cada página es la primera
+     * clave de la siguiente, que se busca desde el límite anterior con {@code ORDER BY pk LIMIT 1 OFFSET n}, así
+     * que solo se transfiere una clave por página. Las páginas cubren todo el rango, también las claves que solo
+     * estén en el otro lado.
+     */
+    @NotNull
+    private static List<Range> keysetPages(@NotNull Connection conn, @NotNull Plan plan, @NotNull String keySql, @NotNull Range range,
+                                           long pageRows) throws SQLException {
+        List<Range> pages = new ArrayList<>();
+        Object[] previous = range.lowerKey;
+        while (true) {
+            Range rest = Range.keyset(previous, range.upperKey);
+            Object[] boundary = null;
+            try (PreparedStatement pstmt = conn.prepareStatement(keySql + plan.rangeCondition(rest) + plan.orderBy + " LIMIT 1 OFFSET " + pageRows)) {
+                plan.bindRange(pstmt, rest);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        boundary = new Object[plan.keys.size()];
+                        for (int i = 0; i < boundary.length; i++) {
+                            boundary[i] = rs.getObject(i + 1);
+                        }
+                    }
+                }
+            }
+            if (boundary == null) {
+                break;
+            }
+            pages.add(Range.keyset(previous, boundary));
+            previous = boundary;
+        }
+        pages.add(Range.keyset(previous, range.upperKey));
+        return pages;
+    }
+
+    /**
+     * Compara un rango fila a fila por su clave y el MD5 de cada fila, y lee del origen solo las filas que faltan
+     * en el destino o que son distintas.
+     */
+    @NotNull
+    private static List<Change> diffRows(@NotNull Connection source, @NotNull Connection target, @NotNull Plan plan, @NotNull Range range) throws SQLException {
+        Map<List<String>, RowDigest> sourceRows = digests(source, plan, plan.sourceDigestSql, range);
+        Map<List<String>, RowDigest> targetRows = digests(target, plan, plan.targetDigestSql, range);
+        List<RowDigest> missing = new ArrayList<>();
+        List<RowDigest> changed = new ArrayList<>();
+        for (Map.Entry<List<String>, RowDigest> entry : sourceRows.entrySet()) {
+            RowDigest other = targetRows.remove(entry.getKey());
+            if (other == null) {
+                missing.add(entry.getValue());
+            } else if (!other.digest.equals(entry.getValue().digest)) {
+                changed.add(entry.getValue());
+            }
+        }
+
+        List<RowDigest> wanted = new ArrayList<>(missing);
+        wanted.addAll(changed);
+        Map<List<String>, Object[]> rows = fetchRows(source, plan, wanted);
+        List<Change> changes = new ArrayList<>();
+        for (RowDigest row : targetRows.values()) {
+            changes.add(plan.delete(row.key));
+        }
+        for (RowDigest row : changed) {
+            Object[] values = rows.get(row.id);
+            if (values != null && plan.updateSql != null) {
+                changes.add(plan.update(values));
+            }
+        }
+        for (RowDigest row : missing) {
+            Object[] values = rows.get(row.id);
+            if (values != null) {
+                changes.add(plan.insert(values));
+            }
+        }
+        return changes;
+    }
+
+    @NotNull
+    private static BigDecimal[] checksum(@NotNull Connection conn, @NotNull Plan plan, @NotNull String sql, @NotNull Range range) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql + plan.rangeCondition(range))) {
+            plan.bindRange(pstmt, range);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("No se pudo calcular la suma de comprobación de la tabla");
+                }
+                return new BigDecimal[]{BigDecimal.valueOf(rs.getLong(1)), rs.getBigDecimal(2)};
+            }
+        }
+    }
+
+    @NotNull
+    private static BigInteger[] bounds(@NotNull Connection conn, @NotNull Plan plan, @NotNull String from, @NotNull Range range) throws SQLException {
+        String sql = "SELECT MIN(" + plan.rangeColumn + "), MAX(" + plan.rangeColumn + ") FROM " + from + plan.rangeCondition(range);
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            plan.bindRange(pstmt, range);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next() || rs.getBigDecimal(1) == null) {
+                    throw new SQLException("No se pudo leer el rango de claves de " + from);
+                }
+                return new BigInteger[]{rs.getBigDecimal(1).toBigIntegerExact(), rs.getBigDecimal(2).toBigIntegerExact()};
+            }
+        }
+    }
+
+    @NotNull
+    private static Map<List<String>, RowDigest> digests(@NotNull Connection conn, @NotNull Plan plan, @NotNull String sql, @NotNull Range range) throws SQLException {
+        Map<List<String>, RowDigest> rows = new LinkedHashMap<>();
+        int keys = plan.keys.size();
+        try (PreparedStatement pstmt = DataBaseManipulation.prepareStreamingStatement(conn, sql + plan.rangeCondition(range) + plan.orderBy)) {
+            plan.bindRange(pstmt, range);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Object[] key = new Object[keys];
+                    List<String> id = new ArrayList<>(keys);
+                    for (int i = 0; i < keys; i++) {
+                        key[i] = rs.getObject(i + 1);
+                        id.add(rs.getString(i + 1));
+                    }
+                    rows.put(id, new RowDigest(id, key, rs.getString(keys + 1)));
+                }
+            }
+        }
+        return rows;
+    }
+
+    @NotNull
+    private static Map<List<String>, Object[]> fetchRows(@NotNull Connection conn, @NotNull Plan plan, @NotNull List<RowDigest> wanted) throws SQLException {
+        Map<List<String>, Object[]> rows = new HashMap<>();
+        int keys = plan.keys.size();
+        String placeholder = plan.keyPlaceholder;
+        for (int from = 0; from < wanted.size(); from += KEYS_PER_FETCH) {
+            List<RowDigest> batch = wanted.subList(from, Math.min(wanted.size(), from + KEYS_PER_FETCH));
+            String sql = plan.selectSql + String.join(", ", Collections.nCopies(batch.size(), placeholder)) + ")";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                int index = 1;
+                for (RowDigest row : batch) {
+                    for (Object value : row.key) {
+                        pstmt.setObject(index++, value);
+                    }
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    int columns = plan.columns.size();
+                    while (rs.next()) {
+                        Object[] values = new Object[columns];
+                        List<String> id = new ArrayList<>(keys);
+                        for (int i = 0; i < columns; i++) {
+                            values[i] = rs.getObject(i + 1);
+                        }
+                        for (int keyIndex : plan.keyIndexes) {
+                            id.add(rs.getString(keyIndex + 1));
+                        }
+                        rows.put(id, values);
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Aplica los cambios en el destino en una sola transacción: primero los borrados, después las actualizaciones
+     * y por último las inserciones, agrupando en lotes las sentencias iguales.
+     */
+    private static void applyChanges(@NotNull Connection conn, @NotNull List<Change> changes) throws SQLException {
+        List<Change> ordered = new ArrayList<>(changes);
+        ordered.sort((a, b) -> Integer.compare(a.type.ordinal(), b.type.ordinal()));
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            int i = 0;
+            while (i < ordered.size()) {
+                String sql = ordered.get(i).sql;
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    int batched = 0;
+                    for (; i < ordered.size() && ordered.get(i).sql.equals(sql); i++) {
+                        List<Object> parameters = ordered.get(i).parameters;
+                        for (int p = 0; p < parameters.size(); p++) {
+                            pstmt.setObject(p + 1, parameters.get(p));
+                        }
+                        pstmt.addBatch();
+                        if (++batched % DataBaseManipulation.DEFAULT_BATCH_SIZE == 0) {
+                            pstmt.executeBatch();
+                        }
+                    }
+                    pstmt.executeBatch();
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * El tipo de un cambio, en el orden en que se aplican.
+     */
+    public enum ChangeType {
+        DELETE,
+        UPDATE,
+        INSERT
+    }
+
+    /**
+     * Un cambio que acerca el destino al origen: una sentencia con parámetros sobre la tabla del destino.
+     */
+    public static final class Change {
+        private final ChangeType type;
+        private final Map<String, Object> key;
+        private final String sql;
+        private final List<Object> parameters;
+
+        private Change(ChangeType type, Map<String, Object> key, String sql, List<Object> parameters) {
+            this.type = type;
+            this.key = Collections.unmodifiableMap(key);
+            this.sql = sql;
+            this.parameters = Collections.unmodifiableList(parameters);
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        /**
+         * Devuelve los valores de la clave primaria de la fila afectada.
+         *
+         * @return los valores por nombre de columna
+         */
+        public Map<String, Object> getKey() {
+            return key;
+        }
+
+        /**
+         * Devuelve la sentencia con marcadores {@code ?} que aplica el cambio en el destino.
+         *
+         * @return la sentencia SQL
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        public List<Object> getParameters() {
+            return parameters;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + key;
+        }
+    }
+
+    /**
+     * El resultado de la comparación de una tabla.
+     */
+    public static final class Result {
+        private final String table;
+        private final List<Change> changes = new ArrayList<>();
+        private final boolean keepChanges;
+        private final int[] counts = new int[ChangeType.values().length];
+        private int rangesCompared;
+        private int rangesDiffed;
+        private boolean applied;
+        private long elapsedNanos;
+
+        private Result(String table, boolean keepChanges) {
+            this.table = table;
+            this.keepChanges = keepChanges;
+        }
+
+        private void add(Change change) {
+            if (keepChanges) {
+                changes.add(change);
+            }
+            counts[change.type.ordinal()]++;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * Devuelve los cambios calculados, en el orden en que se encontraron. Si se entregaron a un listener sin
+         * aplicarlos no se guardan, para no acumular en memoria todas las diferencias de la tabla.
+         *
+         * @return los cambios; vacía si las tablas son iguales o los cambios solo se entregaron al listener
+         */
+        public List<Change> getChanges() {
+            return Collections.unmodifiableList(changes);
+        }
+
+        public int count(@NotNull ChangeType type) {
+            return counts[type.ordinal()];
+        }
+
+        /**
+         * Devuelve el número de rangos cuya suma de comprobación se comparó en los dos servidores.
+         *
+         * @return los rangos comparados
+         */
+        public int getRangesCompared() {
+            return rangesCompared;
+        }
+
+        /**
+         * Devuelve el número de rangos que se compararon fila a fila.
+         *
+         * @return los rangos comparados fila a fila
+         */
+        public int getRangesDiffed() {
+            return rangesDiffed;
+        }
+
+        public boolean isInSync() {
+            for (int count : counts) {
+                if (count > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean isApplied() {
+            return applied;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Comparación de la tabla %s: %d inserción(es), %d actualización(es), %d borrado(s)%s; %d rango(s) comparado(s), %d fila a fila, en %.1f s",
+                    table, count(ChangeType.INSERT), count(ChangeType.UPDATE), count(ChangeType.DELETE), applied ? " aplicados" : "",
+                    rangesCompared, rangesDiffed, elapsedNanos / 1e9);
+        }
+    }
+
+    /**
+     * Las columnas de la tabla y las sentencias que se usan para compararla y sincronizarla.
+     */
+    private static final class Plan {
+        private final List<String> columns;
+        private final List<String> keys;
+        private final List<Integer> keyIndexes = new ArrayList<>();
+        private final List<Integer> updateColumns = new ArrayList<>();
+        private String rangeColumn;
+        private String keyTuple;
+        private String keyPlaceholder;
+        private String sourceFrom;
+        private String targetFrom;
+        private String sourceKeySql;
+        private String targetKeySql;
+        private String sourceChecksumSql;
+        private String targetChecksumSql;
+        private String sourceDigestSql;
+        private String targetDigestSql;
+        private String orderBy;
+        private String selectSql;
+        private String insertSql;
+        private String updateSql;
+        private String deleteSql;
+
+        private Plan(List<String> columns, List<String> keys) {
+            this.columns = columns;
+            this.keys = keys;
+        }
+
+        @NotNull
+        private String rangeCondition(@NotNull Range range) {
+            StringBuilder sql = new StringBuilder();
+            if (rangeColumn == null) {
+                if (range.lowerKey != null) {
+                    sql.append(" WHERE ").append(keyTuple).append(" >= ").append(keyPlaceholder);
+                }
+                if (range.upperKey != null) {
+                    sql.append(range.lowerKey != null ? " AND " : " WHERE ").append(keyTuple).append(" < ").append(keyPlaceholder);
+                }
+                return sql.toString();
+            }
+            if (range.lower != null) {
+                sql.append(" WHERE ").append(rangeColumn).append(" >= ?");
+            }
+            if (range.upper != null) {
+                sql.append(range.lower != null ? " AND " : " WHERE ").append(rangeColumn).append(" < ?");
+            }
+            return sql.toString();
+        }
+
+        private void bindRange(@NotNull PreparedStatement pstmt, @NotNull Range range) throws SQLException {
+            int index = 1;
+            if (rangeColumn == null) {
+                for (Object[] key : new Object[][]{range.lowerKey, range.upperKey}) {
+                    if (key != null) {
+                        for (Object value : key) {
+                            pstmt.setObject(index++, value);
+                        }
+                    }
+                }
+                return;
+            }
+            if (range.lower != null) {
+                pstmt.setBigDecimal(index++, new BigDecimal(range.lower));
+            }
+            if (range.upper != null) {
+                pstmt.setBigDecimal(index, new BigDecimal(range.upper));
+            }
+        }
+
+        @NotNull
+        private Map<String, Object> key(@NotNull Object[] values, boolean fullRow) {
+            Map<String, Object> key = new LinkedHashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                key.put(keys.get(i), fullRow ? values[keyIndexes.get(i)] : values[i]);
+            }
+            return key;
+        }
+
+        @NotNull
+        private Change insert(@NotNull Object[] row) {
+            List<Object> parameters = new ArrayList<>(columns.size());
+            Collections.addAll(parameters, row);
+            return new Change(ChangeType.INSERT, key(row, true), insertSql, parameters);
+        }
+
+        @NotNull
+        private Change update(@NotNull Object[] row) {
+            List<Object> parameters = new ArrayList<>(columns.size());
+            for (int column : updateColumns) {
+                parameters.add(row[column]);
+            }
+            Map<String, Object> key = key(row, true);
+            parameters.addAll(key.values());
+            return new Change(ChangeType.UPDATE, key, updateSql, parameters);
+        }
+
+        @NotNull
+        private Change delete(@NotNull Object[] keyValues) {
+            Map<String, Object> key = key(keyValues, false);
+            return new Change(ChangeType.DELETE, key, deleteSql, new ArrayList<>(key.values()));
+        }
+    }
+
+    /**
+     * Un rango de claves {@code [lower, upper)}; un extremo null queda abierto. Con una clave primaria entera los
+     * extremos son valores de la clave; con otra, son los valores de todas las columnas de la clave.
+     */
+    private static final class Range {
+        private final BigInteger lower;
+        private final BigInteger upper;
+        private final Object[] lowerKey;
+        private final Object[] upperKey;
+
+        private Range(BigInteger lower, BigInteger upper) {
+            this(lower, upper, null, null);
+        }
+
+        private Range(BigInteger lower, BigInteger upper, Object[] lowerKey, Object[] upperKey) {
+            this.lower = lower;
+            this.upper = upper;
+            this.lowerKey = lowerKey;
+            this.upperKey = upperKey;
+        }
+
+        @NotNull
+        private static Range keyset(@Nullable Object[] lowerKey, @Nullable Object[] upperKey) {
+            return new Range(null, null, lowerKey, upperKey);
+        }
+    }
+
+    /**
+     * Lo que resulta de comparar un rango: los rangos en que se divide o, si se comparó fila a fila, sus cambios.
+     */
+    private static final class Outcome {
+        private final List<Range> children;
+        private final List<Change> changes;
+
+        private Outcome(List<Range> children, List<Change> changes) {
+            this.children = children;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * La clave de una fila, como texto para compararla entre los dos servidores y como valores para consultarla,
+     * y el MD5 de la fila.
+     */
+    private static final class RowDigest {
+        private final List<String> id;
+        private final Object[] key;
+        private final String digest;
+
+        private RowDigest(List<String> id, Object[] key, String digest) {
+            this.id = id;
+            this.key = key;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codificación de filas en texto con el formato por defecto de {@code SELECT ... INTO OUTFILE} y
+ * {@code LOAD DATA} de MySQL: campos separados por tabulador, filas terminadas en salto de línea,
+ * caracteres especiales escapados con barra invertida y NULL escrito como {@code \N}.
+ * Los volcados de tablas empiezan con una línea con los nombres de las columnas en el mismo formato.
+ * <p>
+ * Los valores de columnas binarias ({@code BINARY}, {@code VARBINARY} y {@code BLOB}) no son texto y se escriben
+ * en hexadecimal precedidos de {@link #BINARY_MARKER}, una secuencia de escape que ningún valor de texto produce;
+ * {@link #parseRow} los devuelve como {@code byte[]}.
+ */
+public final class TsvRowCodec {
+
+    public static final String NULL_MARKER = "\\N";
+    public static final String BINARY_MARKER = "\\x";
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private TsvRowCodec() {
+    }
+
+    /**
+     * Añade una línea con los nombres de las columnas del ResultSet.
+     *
+     * @param out el destino
+     * @param md  los metadatos del ResultSet
+     * @throws SQLException si no se pueden leer los metadatos
+     */
+    public static void appendHeader(@NotNull StringBuilder out, @NotNull ResultSetMetaData md) throws SQLException {
+        int columns = md.getColumnCount();
+        for (int i = 1; i <= columns; i++) {
+            if (i > 1) {
+                out.append('\t');
+            }
+            appendValue(out, md.getColumnName(i));
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Indica qué columnas del ResultSet son binarias y deben leerse con {@link ResultSet#getBytes}.
+     *
+     * @param md los metadatos del ResultSet
+     * @return un indicador por columna, empezando por la primera en la posición 0
+     * @throws SQLException si no se pueden leer los metadatos
+     */
+    @NotNull
+    public static boolean[] binaryColumns(@NotNull ResultSetMetaData md) throws SQLException {
+        boolean[] binary = new boolean[md.getColumnCount()];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = isBinary(md.getColumnType(i + 1));
+        }
+        return binary;
+    }
+
+    /**
+     * Indica si un tipo JDBC guarda bytes en lugar de texto.
+     *
+     * @param sqlType una constante de {@link Types}
+     * @return verdadero para los tipos binarios
+     */
+    public static boolean isBinary(int sqlType) {
+        return sqlType == Types.BINARY || sqlType == Types.VARBINARY || sqlType == Types.LONGVARBINARY || sqlType == Types.BLOB;
+    }
+
+    /**
+     * Añade la fila actual del ResultSet como una línea.
+     *
+     * @param out    el destino
+     * @param rs     el ResultSet posicionado en la fila
+     * @param binary las columnas binarias, según {@link #binaryColumns}
+     * @throws SQLException si no se pueden leer los valores
+     */
+    public static void appendRow(@NotNull StringBuilder out, @NotNull ResultSet rs, @NotNull boolean[] binary) throws SQLException {
+        for (int i = 1; i <= binary.length; i++) {
+            if (i > 1) {
+                out.append('\t');
+            }
+            if (binary[i - 1]) {
+                appendBytes(out, rs.getBytes(i));
+            } else {
+                appendValue(out, rs.getString(i));
+            }
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Enlaza un valor leído con {@link #parseRow}: los {@code byte[]} con {@link PreparedStatement#setBytes} y el
+     * texto con {@link PreparedStatement#setString}, para que el servidor lo convierta al tipo de la columna.
+     *
+     * @param pstmt   la sentencia
+     * @param index   la posición del parámetro
+     * @param value   el valor, que puede ser null
+     * @param sqlType el tipo JDBC de la columna, usado para los nulos
+     * @throws SQLException si no se puede enlazar el valor
+     */
+    public static void bindValue(@NotNull PreparedStatement pstmt, int index, Object value, int sqlType) throws SQLException {
+        if (value == null) {
+            pstmt.setNull(index, sqlType);
+        } else if (value instanceof byte[]) {
+            pstmt.setBytes(index, (byte[]) value);
+        } else {
+            pstmt.setString(index, value.toString());
+        }
+    }
+
+    /**
+     * Añade un valor binario en hexadecimal precedido de {@link #BINARY_MARKER}, o {@code \N} si es nulo.
+     *
+     * @param out   el destino
+     * @param value el valor
+     */
+    public static void appendBytes(@NotNull StringBuilder out, byte[] value) {
+        if (value == null) {
+            out.append(NULL_MARKER);
+            return;
+        }
+        out.ensureCapacity(out.length() + BINARY_MARKER.length() + value.length * 2);
+        out.append(BINARY_MARKER);
+        for (byte b : value) {
+            out.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+    }
+
+    /**
+     * Añade un valor escapado, o {@code \N} si es nulo.
+     *
+     * @param out   el destino
+     * @param value el valor
+     */
+    public static void appendValue(@NotNull StringBuilder out, String value) {
+        if (value == null) {
+            out.append(NULL_MARKER);
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\0':
+                    out.append("\\0");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Separa una línea de un volcado en sus valores, deshaciendo los escapes y decodificando los valores binarios.
+     *
+     * @param line la línea sin el salto de línea final
+     * @return los valores de la línea: {@code String}, {@code byte[]} para los binarios y {@code null} para {@code \N}
+     * @throws IllegalArgumentException si un valor binario no es hexadecimal válido
+     */
+    @NotNull
+    public static List<Object> parseRow(@NotNull CharSequence line) {
+        List<Object> values = new ArrayList<>();
+        int fieldStart = 0;
+        for (int i = 0; i <= line.length(); i++) {
+            if (i == line.length() || line.charAt(i) == '\t') {
+                if (i - fieldStart >= 2 && line.charAt(fieldStart) == '\\' && line.charAt(fieldStart + 1) == 'x') {
+                    values.add(decodeHex(line, fieldStart + 2, i));
+                } else {
+                    values.add(parseLine(line.subSequence(fieldStart, i)).get(0));
+                }
+                fieldStart = i + 1;
+            } else if (line.charAt(i) == '\\') {
+                i++;
+            }
+        }
+        return values;
+    }
+
+    @NotNull
+    private static byte[] decodeHex(@NotNull CharSequence line, int start, int end) {
+        if ((end - start) % 2 != 0) {
+            throw new IllegalArgumentException("Valor binario con un número impar de dígitos hexadecimales");
+        }
+        byte[] bytes = new byte[(end - start) / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(line.charAt(start + 2 * i), 16);
+            int low = Character.digit(line.charAt(start + 2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Valor binario con dígitos no hexadecimales");
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Separa una línea en sus valores de texto, deshaciendo los escapes. Los valores binarios de un volcado no
+     * se decodifican; para leer filas de un volcado se usa {@link #parseRow}.
+     *
+     * @param line la línea sin el salto de línea final
+     * @return los valores de la línea; los {@code \N} se devuelven como {@code null}
+     */
+    @NotNull
+    public static List<String> parseLine(@NotNull CharSequence line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int fieldStart = 0;
+        boolean escaped = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (escaped) {
+                escaped = false;
+                switch (c) {
+                    case 't':
+                        current.append('\t');
+                        break;
+                    case 'n':
+                        current.append('\n');
+                        break;
+                    case 'r':
+                        current.append('\r');
+                        break;
+                    case '0':
+                        current.append('\0');
+                        break;
+                    default:
+                        current.append(c);
+                }
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '\t') {
+                values.add(toValue(line, fieldStart, i, current));
+                current.setLength(0);
+                fieldStart = i + 1;
+            } else {
+                current.append(c);
+            }
+        }
+        values.add(toValue(line, fieldStart, line.length(), current));
+        return values;
+    }
+
+    private static String toValue(@NotNull CharSequence line, int start, int end, @NotNull StringBuilder current) {
+        if (end - start == 2 && line.charAt(start) == '\\' && line.charAt(start + 1) == 'N') {
+            return null;
+        }
+        return current.toString();
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Resultado de {@link DataBaseManipulation#upsertRows}: las filas enviadas y cuántas se insertaron o actualizaron.
+ * <p>
+ * Los recuentos se obtienen de las filas afectadas que devuelve MySQL para {@code INSERT ... ON DUPLICATE KEY UPDATE},
+ * que cuenta 1 por fila insertada y 2 por fila existente que cambió. Una fila existente que ya tenía los mismos valores
+ * cuenta 1 con la configuración por defecto de Connector/J, que informa de las filas encontradas, así que esas filas se
+ * incluyen en {@link #getInserted()}; con {@code useAffectedRows=true} cuentan 0 y los recuentos no son exactos.
+ * Lo mismo ocurre con todas las filas existentes de un grupo que solo tiene columnas clave: no hay nada que
+ * actualizar, así que cuentan como insertadas aunque ya estuvieran en la tabla.
+ */
+public class UpsertResult {
+
+    private final long rows;
+    private final long updated;
+    private final int statements;
+
+    UpsertResult(long rows, long affected, int statements) {
+        this.rows = rows;
+        this.updated = Math.max(0, Math.min(rows, affected - rows));
+        this.statements = statements;
+    }
+
+    /**
+     * Devuelve el número de filas enviadas.
+     *
+     * @return las filas enviadas
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Devuelve el número de filas nuevas, incluidas las existentes que no cambiaron o que solo tienen columnas clave.
+     *
+     * @return las filas insertadas
+     */
+    public long getInserted() {
+        return rows - updated;
+    }
+
+    /**
+     * Devuelve el número de filas existentes cuyos valores cambiaron.
+     *
+     * @return las filas actualizadas
+     */
+    public long getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Devuelve el número de sentencias de varias filas enviadas al servidor.
+     *
+     * @return las sentencias ejecutadas
+     */
+    public int getStatements() {
+        return statements;
+    }
+
+    @Override
+    public String toString() {
+        return rows + " fila(s): " + getInserted() + " insertada(s), " + updated + " actualizada(s) en " + statements + " sentencia(s)";
+    }
+}
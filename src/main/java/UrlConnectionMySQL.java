@@ -1,5 +1,4 @@
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Objects;
 import java.util.logging.Level;
@@ -13,6 +12,10 @@ public class UrlConnectionMySQL {
     private final PasswordConnect password;
     private final DataBaseNameConnect databaseName;
     private static final String BASE_URL = "jdbc:mysql://";
+    /**
+     * Connection property that lets the MySQL driver rewrite JDBC batches as multi-row statements.
+     */
+    public static final String BATCH_REWRITE_PROPERTY = "rewriteBatchedStatements=true";
     private static final Logger LOGGER = Logger.getLogger(UrlConnectionMySQL.class.getName());
     private Connection connection;
 
@@ -161,16 +164,31 @@ public class UrlConnectionMySQL {
         LOGGER.log(Level.INFO, "URL: " + getFullUrl());
     }
 
+    /**
+     * Appends {@link #BATCH_REWRITE_PROPERTY} to a JDBC URL, separating it with {@code &} when the URL
+     * already has parameters. URLs that already contain the property are returned unchanged.
+     *
+     * @param url the JDBC URL
+     * @return the URL with batch rewriting enabled
+     */
+    public static String withBatchRewrite(String url) {
+        if (url.contains(BATCH_REWRITE_PROPERTY)) {
+            return url;
+        }
+        return url + (url.indexOf('?') >= 0 ? "&" : "?") + BATCH_REWRITE_PROPERTY;
+    }
+
     /**
      * Connects to the MySQL database using the provided configuration.
+     * The connection is borrowed from the shared {@link ConnectionPool} for this URL and user.
      */
     public void urlConnectionMySQL() {
-        String url = getFullUrl();
+        String url = withBatchRewrite(getFullUrl());
         String user = this.user.getUserConnect();
         String password = this.password.getPasswordConnect();
 
         try {
-            connection = DriverManager.getConnection(url, user, password);
+            connection = ConnectionPool.shared(url, user, password).getConnection();
             System.out.println("Conexión a la base de datos exitosa");
         } catch (SQLException e) {
             handleSQLException(e);
@@ -178,7 +196,7 @@ public class UrlConnectionMySQL {
     }
 
     /**
-     * Disconnects from the MySQL database.
+     * Disconnects from the MySQL database, returning the connection to its pool.
      */
     public void disconnect() {
         if (connection != null) {